@@ -34,6 +34,17 @@ public final class ApiConstants {
     public static final int API_VERSION_MAX_LENGTH = 25;
     public static final int API_VERSION_MIN_LENGTH = 0;
 
+    /**
+     * Maximum number of items in a single batch request.
+     */
+    public static final int API_BATCH_MAX_SIZE = 100000;
+
+    /**
+     * Maximum time a device poll may wait for a notification, in seconds. This must stay well below
+     * the HTTP timeout of the container (and of proxies in front of it).
+     */
+    public static final int API_WAIT_MAX_SECS = 25;
+
     // Prevent instantiation.
     private ApiConstants() {
         super();
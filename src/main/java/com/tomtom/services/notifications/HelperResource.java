@@ -56,7 +56,8 @@ public interface HelperResource {
     void getVersion(@Suspended @Nonnull AsyncResponse response);
 
     /**
-     * This method returns whether the service is operational or not (status code 204 is OK).
+     * This method returns whether the service is operational or not (status code 204 is OK, status code 503
+     * means the database has failed, for example because the journal of the in-memory database cannot be written).
      *
      * @param response Returns a version number as JSON.
      */
@@ -64,4 +65,43 @@ public interface HelperResource {
     @Path("status")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
     void getStatus(@Suspended @Nonnull AsyncResponse response);
+
+    /**
+     * This method returns the status of the snapshots of the in-memory database: the size and duration
+     * of the last snapshot, and the duration of the restore at start-up.
+     *
+     * Return HTTP status 200, or 404 if the database does not write snapshots.
+     *
+     * @param response Snapshot status, {@link com.tomtom.services.notifications.dto.SnapshotStatusDTO}.
+     */
+    @GET
+    @Path("status/snapshot")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    void getSnapshotStatus(@Suspended @Nonnull AsyncResponse response);
+
+    /**
+     * This method returns the status of the write-behind buffer in front of the database: the number of
+     * buffered device IDs, the number of buffered and coalesced changes, and the duration of the flushes.
+     *
+     * Return HTTP status 200, or 404 if the database does not buffer changes.
+     *
+     * @param response Write-behind status, {@link com.tomtom.services.notifications.dto.WriteBehindStatusDTO}.
+     */
+    @GET
+    @Path("status/writebehind")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    void getWriteBehindStatus(@Suspended @Nonnull AsyncResponse response);
+
+    /**
+     * This method returns the metrics of the service in the Prometheus text format: the number of requests,
+     * the number of errors and the latency percentiles per method, and the state of the internal buffers.
+     *
+     * Return HTTP status 200.
+     *
+     * @param response Metrics, as plain text.
+     */
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    void getMetrics(@Suspended @Nonnull AsyncResponse response);
 }
@@ -18,10 +18,15 @@
 package com.tomtom.services.notifications;
 
 import com.tomtom.services.notifications.dto.AllPendingNotificationsDTO;
+import com.tomtom.services.notifications.dto.CountDTO;
+import com.tomtom.services.notifications.dto.DeviceIdsDTO;
+import com.tomtom.services.notifications.dto.LookupResultDTO;
+import com.tomtom.services.notifications.dto.NotificationsDTO;
 import com.tomtom.services.notifications.dto.ValuesDTO;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
@@ -32,7 +37,10 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
 /**
  * This class defines the main REST API methods for the service.
@@ -44,9 +52,19 @@ public interface PendingNotificationsResource {
     String PARAM_SERVICE_ID = "serviceId";
     String PARAM_COUNT = "count";
     String PARAM_OFFSET = "offset";
+    String PARAM_AFTER = "after";
+    String PARAM_WAIT = "wait";
+    String PARAM_PREFIX = "prefix";
+    String PARAM_OVERFLOW = "overflow";
+
+    String PATH_DELETE = "_delete";
+    String PATH_LOOKUP = "_lookup";
+    String PATH_EVENTS = "_events";
 
     String DEFAULT_OFFSET = "0";
     String DEFAULT_COUNT = "1000";
+    String DEFAULT_WAIT = "0";
+    String DEFAULT_OVERFLOW = "disconnect";
 
     /**
      * Get all pending notifications, for all IDs. The returned body contains a list of all IDs with pending notifications
@@ -55,8 +73,14 @@ public interface PendingNotificationsResource {
      * This would normally be an authorized call; not available externally. Perhaps it would not even be needed.
      * It was added here for REST consistency of the '/notifications' collection handling.
      *
+     * Large collections should be walked with a cursor, rather than with an offset: specify 'after' (empty for the
+     * first page) and pass the 'next' value of the response as 'after' for the next page. A cursor is not affected
+     * by IDs being added or removed between requests. The 'next' value is omitted when the last page was returned.
+     *
      * @param offset   Return values from 'offset'. Range: &gt;= 0 counts from start, &lt; 0 counts from end.
+     *                 Ignored if 'after' is specified.
      * @param count    Return 'count' values at most. Range: &gt;= 0.
+     * @param after    Optional cursor: return values that sort after this ID. If empty, start with the first ID.
      * @param response List of IDs that have pending notifications, with a total count of devices,
      *                 see {@link AllPendingNotificationsDTO}.
      */
@@ -66,8 +90,44 @@ public interface PendingNotificationsResource {
     void getAllPendingNotifications(
             @QueryParam(PARAM_OFFSET) @DefaultValue(DEFAULT_OFFSET) final int offset,
             @QueryParam(PARAM_COUNT) @DefaultValue(DEFAULT_COUNT) final int count,
+            @QueryParam(PARAM_AFTER) @Nullable final String after,
             @Suspended @Nonnull AsyncResponse response);
 
+    /**
+     * Subscribe to a stream of Server-Sent Events for the creation and deletion of pending notifications, for
+     * systems which mirror which devices have pending notifications. Events are named "created" or "deleted" and
+     * have the device ID and service ID (if any) as JSON data, like a single item of a batch call. An event is
+     * sent for every create or delete call, also if it did not change anything. A "deleted" event without a
+     * service ID means all notifications of the device were deleted.
+     *
+     * Only the calls to this instance of the service are streamed. Every subscriber has a bounded buffer of
+     * events. If it is full, new events are either dropped (the subscriber then gets a "dropped" event with the
+     * number of dropped events, and should resynchronize) or the subscriber is disconnected.
+     *
+     * Note that this makes the device ID "_events" unavailable for the GET call below.
+     *
+     * Return codes:
+     * 200 - Event stream.
+     * 400 - The overflow policy is invalid.
+     * 503 - Too many subscribers.
+     *
+     * @param prefix    Only stream events for device IDs which start with this prefix. Optional.
+     * @param serviceId Only stream events for this service ID (and the deletion of all notifications of a
+     *                  device). Optional.
+     * @param overflow  What to do when the buffer is full: "drop" or "disconnect".
+     * @param sink      Event sink.
+     * @param sse       Event factory.
+     */
+    @GET
+    @Path(PATH_EVENTS)
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    void getNotificationEvents(
+            @QueryParam(PARAM_PREFIX) @Nullable String prefix,
+            @QueryParam(PARAM_SERVICE_ID) @Nullable String serviceId,
+            @QueryParam(PARAM_OVERFLOW) @DefaultValue(DEFAULT_OVERFLOW) @Nonnull String overflow,
+            @Context @Nonnull SseEventSink sink,
+            @Context @Nonnull Sse sse);
+
     /**
      * Get the pending notifications for a specific device. The result of this service call is just an HTTP result code.
      * possibly with a body which contains a list of service IDs.
@@ -98,11 +158,30 @@ public interface PendingNotificationsResource {
             @Nonnull @PathParam(PARAM_SERVICE_ID) String serviceId,
             @Suspended @Nonnull AsyncResponse response);
 
+    /**
+     * Get the pending notifications for a specific device, as above, but for all services.
+     *
+     * A device may ask to wait for a notification (long poll), rather than polling often. If 'wait' is specified
+     * and no notifications are pending, the response is held until a notification is created for the device, or
+     * until the wait expires. A waiting request does not hold a thread. If too many requests are waiting already,
+     * the request is answered immediately.
+     *
+     * Return codes:
+     * 200 - Notifications are pending.
+     * 400 - The wait is out of range.
+     * 404 - No pending notifications (also after waiting).
+     *
+     * @param deviceId Device ID.
+     * @param wait     Maximum time to wait for a notification in seconds, or 0 to answer immediately.
+     *                 Range: [0, {@link ApiConstants#API_WAIT_MAX_SECS}].
+     * @param response Response format {@link ValuesDTO}.
+     */
     @GET
     @Path('{' + PARAM_DEVICE_ID + '}')
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
     void getPendingNotificationsForDevice(
             @Nonnull @PathParam(PARAM_DEVICE_ID) String deviceId,
+            @QueryParam(PARAM_WAIT) @DefaultValue(DEFAULT_WAIT) final int wait,
             @Suspended @Nonnull AsyncResponse response);
 
     /**
@@ -133,6 +212,56 @@ public interface PendingNotificationsResource {
             @Nonnull @PathParam(PARAM_DEVICE_ID) String deviceId,
             @Suspended @Nonnull AsyncResponse response);
 
+    /**
+     * Get the pending notifications for many devices at once, for example for a gateway which polls on behalf
+     * of many devices. This has the same effect as calling {@link #getPendingNotificationsForDevice(String, int, AsyncResponse)}
+     * for every device, but the devices are looked up in bulk.
+     *
+     * This is a POST, rather than a GET, because the list of device IDs may be too long for a URL. Note that
+     * this makes the device ID "_lookup" unavailable for the POST calls below.
+     *
+     * Return codes:
+     * 200 - The body contains the devices which have pending notifications. Devices without pending notifications
+     * are omitted, so the list may be empty.
+     * 400 - The body is invalid, or contains more than {@link ApiConstants#API_BATCH_MAX_SIZE} device IDs.
+     *
+     * @param deviceIds Device IDs, see {@link DeviceIdsDTO}.
+     * @param response  Devices with pending notifications, with their service IDs, in the order of the request,
+     *                  see {@link LookupResultDTO}.
+     */
+    @POST
+    @Path(PATH_LOOKUP)
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    void lookupPendingNotifications(
+            @Nonnull DeviceIdsDTO deviceIds,
+            @Suspended @Nonnull AsyncResponse response);
+
+    /**
+     * Create pending notifications for many devices at once. Every item in the body is a device ID with an
+     * optional service ID; it has the same effect as the corresponding call to create a single pending
+     * notification. The items are applied in chunks, using bulk operations of the data store.
+     *
+     * The items are not applied atomically as a whole: if the call fails, some of the items may have been
+     * applied. It is safe to repeat the call.
+     *
+     * This method would normally be an authorized, internal call only.
+     *
+     * Return codes:
+     * 200 - Created pending notifications (also if they already existed).
+     * 400 - The body is invalid, or contains more than {@link ApiConstants#API_BATCH_MAX_SIZE} items.
+     *
+     * @param notifications Device IDs with optional service IDs, see {@link NotificationsDTO}.
+     * @param response      Number of items processed, see {@link CountDTO}.
+     */
+    @POST
+    @Path("")
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    void createPendingNotifications(
+            @Nonnull NotificationsDTO notifications,
+            @Suspended @Nonnull AsyncResponse response);
+
     /**
      * Delete pending notifications for an ID.
      *
@@ -161,4 +290,33 @@ public interface PendingNotificationsResource {
     void deletePendingNotificationsForDevice(
             @Nonnull @PathParam(PARAM_DEVICE_ID) String deviceId,
             @Suspended @Nonnull AsyncResponse response);
+
+    /**
+     * Delete pending notifications for many devices at once. Every item in the body is a device ID with an
+     * optional service ID; it has the same effect as the corresponding call to delete the pending notifications
+     * for a device, or for a device and service. The items are applied in chunks, using bulk operations of the
+     * data store.
+     *
+     * This is a POST, rather than a DELETE, because a body for DELETE is not supported by all clients. Note that
+     * this makes the device ID "_delete" unavailable for the POST calls above.
+     *
+     * The items are not applied atomically as a whole: if the call fails, some of the items may have been
+     * applied. It is safe to repeat the call.
+     *
+     * This method would normally be an authorized, internal call only.
+     *
+     * Return codes:
+     * 200 - Deleted pending notifications (also if they didn't exist).
+     * 400 - The body is invalid, or contains more than {@link ApiConstants#API_BATCH_MAX_SIZE} items.
+     *
+     * @param notifications Device IDs with optional service IDs, see {@link NotificationsDTO}.
+     * @param response      Number of devices for which pending notifications were deleted, see {@link CountDTO}.
+     */
+    @POST
+    @Path(PATH_DELETE)
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    void deletePendingNotifications(
+            @Nonnull NotificationsDTO notifications,
+            @Suspended @Nonnull AsyncResponse response);
 }
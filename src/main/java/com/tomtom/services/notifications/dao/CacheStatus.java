@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao;
+
+/**
+ * Status of the cache of service IDs per device ID in front of a data store: the number of hits, misses
+ * and evictions since start-up, and the current number of entries.
+ * This is an immutable value.
+ */
+public final class CacheStatus {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long size;
+
+    /**
+     * Create a cache status.
+     *
+     * @param hitCount      Number of lookups answered by the cache.
+     * @param missCount     Number of lookups passed on to the data store.
+     * @param evictionCount Number of entries evicted because the cache was full, or because they expired.
+     * @param size          Number of entries in the cache (approximately).
+     */
+    public CacheStatus(
+            final long hitCount,
+            final long missCount,
+            final long evictionCount,
+            final long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
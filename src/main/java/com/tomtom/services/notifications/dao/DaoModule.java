@@ -22,7 +22,15 @@ import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.mongodb.Mongo;
 import com.mongodb.ServerAddress;
+import com.tomtom.services.notifications.dao.cache.CacheProperties;
+import com.tomtom.services.notifications.dao.filter.FilterProperties;
+import com.tomtom.services.notifications.dao.invalidation.InvalidationProperties;
 import com.tomtom.services.notifications.dao.mappers.NotificationsMapperRegistry;
+import com.tomtom.services.notifications.dao.memory.InMemoryProperties;
+import com.tomtom.services.notifications.dao.mongodb.MongoDBProperties;
+import com.tomtom.services.notifications.dao.timing.DaoMetrics;
+import com.tomtom.services.notifications.dao.timing.NotificationDaoTimingImpl;
+import com.tomtom.services.notifications.dao.writebehind.WriteBehindProperties;
 import com.tomtom.speedtools.mongodb.MongoConnectionCache;
 import com.tomtom.speedtools.mongodb.MongoDB;
 import com.tomtom.speedtools.mongodb.MongoDBConnectionException;
@@ -47,8 +55,34 @@ public class DaoModule implements Module {
 
         // Bind singletons.
         binder.bind(DatabaseProperties.class).in(Singleton.class);
+        binder.bind(InMemoryProperties.class).in(Singleton.class);
+        binder.bind(MongoDBProperties.class).in(Singleton.class);
+        binder.bind(InvalidationProperties.class).in(Singleton.class);
+        binder.bind(WriteBehindProperties.class).in(Singleton.class);
+        binder.bind(FilterProperties.class).in(Singleton.class);
+        binder.bind(CacheProperties.class).in(Singleton.class);
         binder.bind(MapperRegistry.class).to(NotificationsMapperRegistry.class).in(Singleton.class);
-        binder.bind(NotificationDao.class).to(NotificationDaoImpl.class).in(Singleton.class);
+        binder.bind(NotificationDaoImpl.class).in(Singleton.class);
+        binder.bind(DaoMetrics.class).in(Singleton.class);
+    }
+
+    /**
+     * Provide the DAO: the implementation selected by {@link NotificationDaoImpl}, wrapped in a DAO which records
+     * the metrics of every operation.
+     *
+     * @param notificationDao DAO implementation.
+     * @param metrics         Metrics of the DAO operations.
+     * @return DAO.
+     */
+    @Nonnull
+    @Provides
+    @Singleton
+    public static NotificationDao provideNotificationDao(
+            @Nonnull final NotificationDaoImpl notificationDao,
+            @Nonnull final DaoMetrics metrics) {
+        assert notificationDao != null;
+        assert metrics != null;
+        return new NotificationDaoTimingImpl(notificationDao, metrics);
     }
 
     @Nonnull
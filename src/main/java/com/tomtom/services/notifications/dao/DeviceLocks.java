@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao;
+
+import com.google.common.util.concurrent.Striped;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * This class serializes compound operations on the same device ID, such as a read-modify-write of its
+ * service IDs, without serializing operations on different device IDs. Device IDs are mapped on a fixed
+ * number of locks (stripes) by their hash code, so device IDs which share a stripe also share a lock.
+ * More stripes means less contention, at the cost of a little memory per stripe.
+ *
+ * The locks are reentrant. The class keeps track of the number of locks taken, the number of locks which
+ * were contended (held by another thread) and the time spent waiting for them.
+ */
+public final class DeviceLocks {
+
+    private final int nrOfStripes;
+
+    @Nonnull
+    private final Striped<Lock> locks;
+
+    @Nonnull
+    private final LongAdder nrOfLocks = new LongAdder();
+    @Nonnull
+    private final LongAdder nrOfContendedLocks = new LongAdder();
+    @Nonnull
+    private final LongAdder waitTimeNanos = new LongAdder();
+    @Nonnull
+    private final AtomicLong maxWaitTimeNanos = new AtomicLong();
+
+    /**
+     * Create the locks.
+     *
+     * @param nrOfStripes Number of locks. This is rounded up to a power of 2. Range: &gt; 0.
+     * @throws InvalidPropertyValueException Thrown if the number of locks is out of range.
+     */
+    @Inject
+    public DeviceLocks(@Named("Notifications.nrOfLockStripes") final int nrOfStripes) {
+        if (nrOfStripes <= 0) {
+            throw new InvalidPropertyValueException("Notifications.nrOfLockStripes must be > 0.");
+        }
+        this.locks = Striped.lock(nrOfStripes);
+        this.nrOfStripes = locks.size();
+    }
+
+    /**
+     * Lock a device ID. The caller must unlock the returned lock, in a finally clause.
+     *
+     * @param deviceId Device ID to lock.
+     * @return Lock which was taken.
+     */
+    @Nonnull
+    public Lock lock(@Nonnull final String deviceId) {
+        assert deviceId != null;
+        final Lock lock = locks.get(deviceId);
+        acquire(lock);
+        return lock;
+    }
+
+    /**
+     * Lock many device IDs at once. The locks are taken in a fixed order, so concurrent calls cannot deadlock.
+     * The caller must unlock the returned locks with {@link #unlockAll(List)}, in a finally clause.
+     *
+     * @param deviceIds Device IDs to lock. A device ID may occur more than once.
+     * @return Locks which were taken. A lock may occur more than once.
+     */
+    @Nonnull
+    public List<Lock> lockAll(@Nonnull final Iterable<String> deviceIds) {
+        assert deviceIds != null;
+        final List<Lock> locked = new ArrayList<>();
+        try {
+            for (final Lock lock : locks.bulkGet(deviceIds)) {
+                acquire(lock);
+                locked.add(lock);
+            }
+        } catch (final RuntimeException e) {
+            unlockAll(locked);
+            throw e;
+        }
+        return locked;
+    }
+
+    /**
+     * Unlock the locks returned by {@link #lockAll(Iterable)}.
+     *
+     * @param locked Locks to unlock.
+     */
+    public static void unlockAll(@Nonnull final List<Lock> locked) {
+        assert locked != null;
+        for (final Lock lock : locked) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of locks (stripes).
+     *
+     * @return Number of locks, a power of 2.
+     */
+    public int getNrOfStripes() {
+        return nrOfStripes;
+    }
+
+    /**
+     * Return the number of times a lock was taken.
+     *
+     * @return Number of locks taken since creation.
+     */
+    public long getNrOfLocks() {
+        return nrOfLocks.sum();
+    }
+
+    /**
+     * Return the number of times a lock was held by another thread, so the caller had to wait.
+     *
+     * @return Number of contended locks since creation.
+     */
+    public long getNrOfContendedLocks() {
+        return nrOfContendedLocks.sum();
+    }
+
+    /**
+     * Return the total time spent waiting for contended locks.
+     *
+     * @return Total wait time in nanoseconds since creation.
+     */
+    public long getWaitTimeNanos() {
+        return waitTimeNanos.sum();
+    }
+
+    /**
+     * Return the longest time spent waiting for a single contended lock.
+     *
+     * @return Maximum wait time in nanoseconds since creation.
+     */
+    public long getMaxWaitTimeNanos() {
+        return maxWaitTimeNanos.get();
+    }
+
+    private void acquire(@Nonnull final Lock lock) {
+        nrOfLocks.increment();
+
+        // Only measure the time if the lock is contended, so the uncontended case stays cheap.
+        if (lock.tryLock()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        lock.lock();
+        final long waited = System.nanoTime() - start;
+        nrOfContendedLocks.increment();
+        waitTimeNanos.add(waited);
+        maxWaitTimeNanos.accumulateAndGet(waited, Math::max);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao;
+
+/**
+ * Status of the filter of device IDs in front of a data store: the number of lookups it answered, and
+ * how many lookups it passed on to the data store for device IDs which did not exist.
+ * This is an immutable value.
+ */
+public final class FilterStatus {
+    private final long nrOfNegatives;
+    private final long nrOfFalsePositives;
+    private final long nrOfPositives;
+    private final double expectedFalsePositiveRate;
+    private final long lastRebuildTimeMillis;
+
+    /**
+     * Create a filter status.
+     *
+     * @param nrOfNegatives             Number of lookups answered by the filter, without accessing the data store.
+     * @param nrOfFalsePositives        Number of lookups passed on to the data store for device IDs which did not exist.
+     * @param nrOfPositives             Number of lookups passed on to the data store for device IDs which existed.
+     * @param expectedFalsePositiveRate Expected false-positive rate of the current filter, based on its occupancy.
+     * @param lastRebuildTimeMillis     Time the filter was last rebuilt, in milliseconds since the epoch.
+     */
+    public FilterStatus(
+            final long nrOfNegatives,
+            final long nrOfFalsePositives,
+            final long nrOfPositives,
+            final double expectedFalsePositiveRate,
+            final long lastRebuildTimeMillis) {
+        this.nrOfNegatives = nrOfNegatives;
+        this.nrOfFalsePositives = nrOfFalsePositives;
+        this.nrOfPositives = nrOfPositives;
+        this.expectedFalsePositiveRate = expectedFalsePositiveRate;
+        this.lastRebuildTimeMillis = lastRebuildTimeMillis;
+    }
+
+    public long getNrOfNegatives() {
+        return nrOfNegatives;
+    }
+
+    public long getNrOfFalsePositives() {
+        return nrOfFalsePositives;
+    }
+
+    public long getNrOfPositives() {
+        return nrOfPositives;
+    }
+
+    public double getExpectedFalsePositiveRate() {
+        return expectedFalsePositiveRate;
+    }
+
+    public long getLastRebuildTimeMillis() {
+        return lastRebuildTimeMillis;
+    }
+}
@@ -16,13 +16,17 @@
 
 package com.tomtom.services.notifications.dao;
 
+import com.tomtom.services.notifications.Notification;
 import com.tomtom.speedtools.mongodb.EntityNotFoundException;
 import com.tomtom.speedtools.mongodb.EntityRemoveException;
 import com.tomtom.speedtools.mongodb.EntityStoreException;
 import com.tomtom.speedtools.mongodb.InternalDaoException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -48,6 +52,31 @@ public interface NotificationDao {
     @Nonnull
     public List<String> getAllDeviceIds() throws InternalDaoException;
 
+    /**
+     * Return a page of device IDs. Implementations should produce the page without fetching all device IDs.
+     *
+     * @param offset Return device IDs from 'offset'. Range: &gt;= 0 counts from start, &lt; 0 counts from end.
+     * @param count  Return 'count' device IDs at most. Range: &gt;= 0.
+     * @return Device IDs on the page. Empty if the offset is beyond the last device ID.
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    @Nonnull
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException;
+
+    /**
+     * Return a page of device IDs, sorted ascending, that follow a specific device ID. This allows
+     * clients to walk all device IDs with a cursor, which is not affected by device IDs being added or
+     * removed between calls (as opposed to using offsets).
+     *
+     * @param after Return device IDs that sort after this device ID. The device ID itself does not need to
+     *              exist. If null, the page starts at the first device ID.
+     * @param count Return 'count' device IDs at most. Range: &gt;= 0.
+     * @return Device IDs on the page, sorted ascending. Empty if there are no device IDs after 'after'.
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    @Nonnull
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException;
+
     /**
      * Get all service IDs for which there is a notification pending for a specific device ID.
      *
@@ -59,6 +88,33 @@ public interface NotificationDao {
     @Nonnull
     public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException;
 
+    /**
+     * Find all service IDs for which there is a notification pending for a specific device ID. This is the same
+     * as {@link #getServiceIds(String)}, except that it signals a missing device ID by returning null, rather than
+     * by throwing an exception. Most lookups are for device IDs without pending notifications, so use this method
+     * on hot paths.
+     *
+     * @param deviceId Device ID to get service IDs for.
+     * @return Set of service IDs, or null if the device ID was not found. The set may be empty, which denotes
+     * a pending notification for an ID-less service. The set must not be modified.
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    @Nullable
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException;
+
+    /**
+     * Find all service IDs for which there are notifications pending for many device IDs at once. This is the
+     * bulk equivalent of {@link #findServiceIds(String)}, which implementations should answer with a single
+     * round trip to the data store.
+     *
+     * @param deviceIds Device IDs to get service IDs for. A device ID may occur more than once.
+     * @return Map of device IDs to their service IDs, only for the device IDs that were found. The sets may be
+     * empty and must not be modified. The order of the map is undefined.
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    @Nonnull
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException;
+
     /**
      * Remove all service IDs of pending notifications for a specific device ID.
      *
@@ -75,4 +131,121 @@ public interface NotificationDao {
      * @throws EntityStoreException Thrown if the record could not be stored.
      */
     public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException;
+
+    /**
+     * Replace the service IDs of the pending notifications of many device IDs, creating the entries for device IDs
+     * which don't exist yet. This is the bulk equivalent of {@link #putServiceIds(String, Set)}: the changes for a
+     * single device ID are atomic, but the call as a whole is not. If an exception is thrown, some of the
+     * notifications may have been stored. If a device ID occurs more than once, the last one wins.
+     *
+     * @param notifications Device IDs with their new service IDs. An empty set of service IDs represents a pending
+     *                      notification for an ID-less service.
+     * @throws EntityStoreException Thrown if (some of) the records could not be stored.
+     */
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException;
+
+    /**
+     * Add a service ID to the pending notifications of a specific device ID, creating the entry for the device ID
+     * if it doesn't exist yet. This is a single, atomic operation, so concurrent calls for the same device ID never
+     * lose each other's service IDs.
+     *
+     * @param deviceId  Device ID to create a pending notification for.
+     * @param serviceId Service ID to add. If null, only the entry for the device ID is created, which represents
+     *                  a pending notification for an ID-less service.
+     * @throws EntityStoreException Thrown if the record could not be stored.
+     */
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException;
+
+    /**
+     * Add service IDs to the pending notifications of many device IDs, creating the entries for device IDs
+     * which don't exist yet. This is the bulk equivalent of {@link #addServiceId(String, String)}: the changes
+     * for a single device ID are atomic, but the call as a whole is not. If an exception is thrown, some of
+     * the notifications may have been added. A device ID may occur more than once.
+     *
+     * @param notifications Device IDs with the service IDs to add. An empty set of service IDs only creates
+     *                      the entry for the device ID.
+     * @throws EntityStoreException Thrown if (some of) the records could not be stored.
+     */
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException;
+
+    /**
+     * Remove a service ID from the pending notifications of a specific device ID. If no service IDs remain
+     * afterwards, the entry for the device ID is removed as well. This is an atomic operation, so concurrent
+     * calls for the same device ID never lose each other's changes. It is not an error if the device ID or the
+     * service ID doesn't exist.
+     *
+     * @param deviceId  Device ID to remove a pending notification for.
+     * @param serviceId Service ID to remove.
+     * @throws EntityRemoveException Thrown if the record could not be updated or removed.
+     */
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException;
+
+    /**
+     * Remove pending notifications for many device IDs. This is the bulk equivalent of {@link #removeServiceIds(String)}
+     * (for notifications without service IDs) and {@link #removeServiceId(String, String)} (for notifications with
+     * service IDs): the changes for a single device ID are atomic, but the call as a whole is not. If an exception
+     * is thrown, some of the notifications may have been removed. A device ID may occur more than once. It is not
+     * an error if a device ID or service ID doesn't exist.
+     *
+     * @param notifications Device IDs with the service IDs to remove. An empty set of service IDs removes the
+     *                      entry for the device ID, with all of its service IDs.
+     * @return Number of device IDs which were changed or removed. Implementations may return an approximation
+     * if device IDs are changed concurrently.
+     * @throws EntityRemoveException Thrown if (some of) the records could not be updated or removed.
+     */
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException;
+
+    /**
+     * Return whether the data store works. Data stores which cannot recover from a failure by themselves
+     * report it here, so it shows up in the status of the service.
+     *
+     * @return False if the data store has failed.
+     */
+    public default boolean isHealthy() {
+        return true;
+    }
+
+    /**
+     * Return the status of the snapshots of the data store, for data stores which keep their contents in
+     * memory and write snapshots to disk.
+     *
+     * @return Snapshot status, or null if the data store does not write snapshots.
+     */
+    @Nullable
+    public default SnapshotStatus getSnapshotStatus() {
+        return null;
+    }
+
+    /**
+     * Return the status of the write-behind buffer of the data store, for data stores which buffer changes
+     * before writing them.
+     *
+     * @return Write-behind status, or null if the data store does not buffer changes.
+     */
+    @Nullable
+    public default WriteBehindStatus getWriteBehindStatus() {
+        return null;
+    }
+
+    /**
+     * Return the status of the filter of device IDs in front of the data store, for data stores which
+     * use a filter to answer lookups for absent device IDs.
+     *
+     * @return Filter status, or null if the data store does not use a filter.
+     */
+    @Nullable
+    public default FilterStatus getFilterStatus() {
+        return null;
+    }
+
+    /**
+     * Return the status of the cache of service IDs in front of the data store, for data stores which
+     * use a cache.
+     *
+     * @return Cache status, or null if the data store does not use a cache.
+     */
+    @Nullable
+    public default CacheStatus getCacheStatus() {
+        return null;
+    }
 }
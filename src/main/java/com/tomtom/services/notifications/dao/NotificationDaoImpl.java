@@ -16,8 +16,23 @@
 
 package com.tomtom.services.notifications.dao;
 
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.cache.CacheProperties;
+import com.tomtom.services.notifications.dao.cache.NotificationDaoCacheImpl;
+import com.tomtom.services.notifications.dao.filter.FilterProperties;
+import com.tomtom.services.notifications.dao.filter.NotificationDaoFilterImpl;
+import com.tomtom.services.notifications.dao.invalidation.InvalidationBus;
+import com.tomtom.services.notifications.dao.invalidation.InvalidationProperties;
+import com.tomtom.services.notifications.dao.invalidation.NotificationDaoInvalidationImpl;
+import com.tomtom.services.notifications.dao.invalidation.UdpInvalidationTransport;
+import com.tomtom.services.notifications.dao.memory.InMemoryProperties;
 import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoOffHeapImpl;
+import com.tomtom.services.notifications.dao.memory.NotificationJournal;
+import com.tomtom.services.notifications.dao.mongodb.MongoDBProperties;
 import com.tomtom.services.notifications.dao.mongodb.NotificationDaoMongoDBImpl;
+import com.tomtom.services.notifications.dao.writebehind.NotificationDaoWriteBehindImpl;
+import com.tomtom.services.notifications.dao.writebehind.WriteBehindProperties;
 import com.tomtom.speedtools.mongodb.EntityNotFoundException;
 import com.tomtom.speedtools.mongodb.EntityRemoveException;
 import com.tomtom.speedtools.mongodb.EntityStoreException;
@@ -25,8 +40,14 @@ import com.tomtom.speedtools.mongodb.InternalDaoException;
 import com.tomtom.speedtools.mongodb.mappers.MapperRegistry;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class NotificationDaoImpl implements NotificationDao {
@@ -34,18 +55,120 @@ public class NotificationDaoImpl implements NotificationDao {
     @Nonnull
     private final NotificationDao currentNotificationDao;
 
+    @Nullable
+    private final NotificationDao writeBehindNotificationDao;
+
+    @Nullable
+    private final NotificationDao filterNotificationDao;
+
+    @Nullable
+    private final NotificationDao cacheNotificationDao;
+
     @Inject
     public NotificationDaoImpl(
             @Nonnull final DatabaseProperties databaseProperties,
-            @Nonnull final MapperRegistry mapperRegistry) {
+            @Nonnull final InMemoryProperties inMemoryProperties,
+            @Nonnull final MongoDBProperties mongoDBProperties,
+            @Nonnull final InvalidationProperties invalidationProperties,
+            @Nonnull final WriteBehindProperties writeBehindProperties,
+            @Nonnull final FilterProperties filterProperties,
+            @Nonnull final CacheProperties cacheProperties,
+            @Nonnull final MapperRegistry mapperRegistry) throws InternalDaoException {
         super();
+        assert inMemoryProperties != null;
+        assert mongoDBProperties != null;
+        assert invalidationProperties != null;
+        assert writeBehindProperties != null;
+        assert filterProperties != null;
+        assert cacheProperties != null;
         assert mapperRegistry != null;
 
         if (databaseProperties.getUseInMemory()) {
-            this.currentNotificationDao = new NotificationDaoMemoryImpl();
+            this.writeBehindNotificationDao = null;
+            this.filterNotificationDao = null;
+            this.cacheNotificationDao = null;
+            if (inMemoryProperties.getUseOffHeap()) {
+
+                // Keep the in-memory database outside of the Java heap, for very large numbers of device IDs.
+                this.currentNotificationDao = new NotificationDaoOffHeapImpl();
+            } else if (inMemoryProperties.getJournalDirectory().isEmpty()) {
+                this.currentNotificationDao = new NotificationDaoMemoryImpl(inMemoryProperties.getCompactServiceIds());
+            } else {
+
+                // Restore the in-memory database from its snapshot and journal, and keep the journal up-to-date.
+                try {
+                    this.currentNotificationDao = new NotificationDaoMemoryImpl(new NotificationJournal(
+                            new File(inMemoryProperties.getJournalDirectory()),
+                            inMemoryProperties.getJournalSegmentSizeMB() * 1024 * 1024,
+                            inMemoryProperties.getJournalFlushIntervalMillis()),
+                            inMemoryProperties.getSnapshotIntervalSecs(),
+                            inMemoryProperties.getCompactServiceIds());
+                } catch (final IOException e) {
+                    throw new InternalDaoException("Cannot open journal: " + inMemoryProperties.getJournalDirectory(), e);
+                }
+            }
         } else {
-            this.currentNotificationDao = new NotificationDaoMongoDBImpl(
-                    DaoModule.provideMongoDB(databaseProperties), mapperRegistry);
+            final NotificationDao mongoDBNotificationDao = new NotificationDaoMongoDBImpl(
+                    DaoModule.provideMongoDB(databaseProperties), mapperRegistry, mongoDBProperties.getBulkWriteBatchSize());
+
+            // Optionally, tell the other instances which device IDs this instance writes to the database, and
+            // listen to theirs, so the filter and cache below see the writes of all instances.
+            final InvalidationBus invalidationBus;
+            final NotificationDao sharedNotificationDao;
+            if (invalidationProperties.getPort() > 0) {
+                try {
+                    invalidationBus = new InvalidationBus(new UdpInvalidationTransport(
+                            invalidationProperties.getPort(),
+                            UdpInvalidationTransport.parsePeers(invalidationProperties.getPeers())),
+                            invalidationProperties.getIntervalMillis());
+                } catch (final SocketException e) {
+                    throw new InternalDaoException("Cannot open invalidation port: " + invalidationProperties.getPort(), e);
+                }
+                sharedNotificationDao = new NotificationDaoInvalidationImpl(mongoDBNotificationDao, invalidationBus);
+            } else {
+                invalidationBus = null;
+                sharedNotificationDao = mongoDBNotificationDao;
+            }
+
+            // Optionally, buffer changes in front of the database to coalesce them into bulk writes.
+            final NotificationDao bufferedNotificationDao;
+            if (writeBehindProperties.getIntervalMillis() > 0) {
+                this.writeBehindNotificationDao = new NotificationDaoWriteBehindImpl(sharedNotificationDao,
+                        writeBehindProperties.getIntervalMillis(), writeBehindProperties.getMaxPending());
+                bufferedNotificationDao = writeBehindNotificationDao;
+            } else {
+                this.writeBehindNotificationDao = null;
+                bufferedNotificationDao = sharedNotificationDao;
+            }
+
+            // Optionally, put a filter in front of the database to answer most lookups from memory.
+            final NotificationDao filteredNotificationDao;
+            if (filterProperties.getSize() > 0) {
+                final NotificationDaoFilterImpl filterNotificationDao = new NotificationDaoFilterImpl(bufferedNotificationDao,
+                        filterProperties.getSize(), filterProperties.getRebuildIntervalSecs());
+                if (invalidationBus != null) {
+                    invalidationBus.addListener(filterNotificationDao);
+                }
+                this.filterNotificationDao = filterNotificationDao;
+                filteredNotificationDao = filterNotificationDao;
+            } else {
+                this.filterNotificationDao = null;
+                filteredNotificationDao = bufferedNotificationDao;
+            }
+
+            // Optionally, put a cache in front of that to answer repeated lookups from memory.
+            if (cacheProperties.getSize() > 0) {
+                final NotificationDaoCacheImpl cacheNotificationDao = new NotificationDaoCacheImpl(filteredNotificationDao,
+                        cacheProperties.getSize(), cacheProperties.getExpireAfterWriteSecs());
+                if (invalidationBus != null) {
+                    invalidationBus.addListener(cacheNotificationDao);
+                }
+                this.cacheNotificationDao = cacheNotificationDao;
+                this.currentNotificationDao = cacheNotificationDao;
+            } else {
+                this.cacheNotificationDao = null;
+                this.currentNotificationDao = filteredNotificationDao;
+            }
         }
     }
 
@@ -60,12 +183,36 @@ public class NotificationDaoImpl implements NotificationDao {
         return currentNotificationDao.getAllDeviceIds();
     }
 
+    @Nonnull
+    @Override
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException {
+        return currentNotificationDao.getDeviceIds(offset, count);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException {
+        return currentNotificationDao.getDeviceIdsAfter(after, count);
+    }
+
     @Nonnull
     @Override
     public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException {
         return currentNotificationDao.getServiceIds(deviceId);
     }
 
+    @Nullable
+    @Override
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        return currentNotificationDao.findServiceIds(deviceId);
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException {
+        return currentNotificationDao.findServiceIds(deviceIds);
+    }
+
     @Override
     public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
         currentNotificationDao.removeServiceIds(deviceId);
@@ -75,4 +222,58 @@ public class NotificationDaoImpl implements NotificationDao {
     public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
         currentNotificationDao.putServiceIds(deviceId, serviceIds);
     }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        currentNotificationDao.putServiceIds(notifications);
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        currentNotificationDao.addServiceId(deviceId, serviceId);
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        currentNotificationDao.addServiceIds(notifications);
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        return currentNotificationDao.removeServiceIds(notifications);
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        currentNotificationDao.removeServiceId(deviceId, serviceId);
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return currentNotificationDao.isHealthy();
+    }
+
+    @Nullable
+    @Override
+    public SnapshotStatus getSnapshotStatus() {
+        return currentNotificationDao.getSnapshotStatus();
+    }
+
+    @Nullable
+    @Override
+    public WriteBehindStatus getWriteBehindStatus() {
+        return (writeBehindNotificationDao == null) ? null : writeBehindNotificationDao.getWriteBehindStatus();
+    }
+
+    @Nullable
+    @Override
+    public FilterStatus getFilterStatus() {
+        return (filterNotificationDao == null) ? null : filterNotificationDao.getFilterStatus();
+    }
+
+    @Nullable
+    @Override
+    public CacheStatus getCacheStatus() {
+        return (cacheNotificationDao == null) ? null : cacheNotificationDao.getCacheStatus();
+    }
 }
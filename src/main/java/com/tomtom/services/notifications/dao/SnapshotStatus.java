@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao;
+
+/**
+ * Status of the snapshots of a data store which keeps its contents in memory: the last snapshot written,
+ * and the restore at start-up.
+ * This is an immutable value.
+ */
+public final class SnapshotStatus {
+    private final long lastSnapshotTimeMillis;
+    private final long lastSnapshotSizeBytes;
+    private final long lastSnapshotDurationMillis;
+    private final int lastSnapshotNrOfDeviceIds;
+    private final long restoreDurationMillis;
+    private final int restoreNrOfDeviceIds;
+
+    /**
+     * Create a snapshot status.
+     *
+     * @param lastSnapshotTimeMillis     Time the last snapshot was written (epoch millis), or 0 if none was written yet.
+     * @param lastSnapshotSizeBytes      Size of the last snapshot in bytes.
+     * @param lastSnapshotDurationMillis Time it took to write the last snapshot in milliseconds.
+     * @param lastSnapshotNrOfDeviceIds  Number of device IDs in the last snapshot.
+     * @param restoreDurationMillis      Time it took to restore the store at start-up (snapshot and journal) in
+     *                                   milliseconds.
+     * @param restoreNrOfDeviceIds       Number of device IDs restored at start-up.
+     */
+    public SnapshotStatus(
+            final long lastSnapshotTimeMillis,
+            final long lastSnapshotSizeBytes,
+            final long lastSnapshotDurationMillis,
+            final int lastSnapshotNrOfDeviceIds,
+            final long restoreDurationMillis,
+            final int restoreNrOfDeviceIds) {
+        this.lastSnapshotTimeMillis = lastSnapshotTimeMillis;
+        this.lastSnapshotSizeBytes = lastSnapshotSizeBytes;
+        this.lastSnapshotDurationMillis = lastSnapshotDurationMillis;
+        this.lastSnapshotNrOfDeviceIds = lastSnapshotNrOfDeviceIds;
+        this.restoreDurationMillis = restoreDurationMillis;
+        this.restoreNrOfDeviceIds = restoreNrOfDeviceIds;
+    }
+
+    public long getLastSnapshotTimeMillis() {
+        return lastSnapshotTimeMillis;
+    }
+
+    public long getLastSnapshotSizeBytes() {
+        return lastSnapshotSizeBytes;
+    }
+
+    public long getLastSnapshotDurationMillis() {
+        return lastSnapshotDurationMillis;
+    }
+
+    public int getLastSnapshotNrOfDeviceIds() {
+        return lastSnapshotNrOfDeviceIds;
+    }
+
+    public long getRestoreDurationMillis() {
+        return restoreDurationMillis;
+    }
+
+    public int getRestoreNrOfDeviceIds() {
+        return restoreNrOfDeviceIds;
+    }
+}
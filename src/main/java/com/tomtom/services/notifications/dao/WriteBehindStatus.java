@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao;
+
+/**
+ * Status of the write-behind buffer in front of a data store: the number of buffered device IDs, and
+ * the number and duration of the flushes to the data store.
+ * This is an immutable value.
+ */
+public final class WriteBehindStatus {
+    private final int queueDepth;
+    private final long nrOfWrites;
+    private final long nrOfCoalescedWrites;
+    private final long nrOfFlushes;
+    private final long nrOfFlushedDeviceIds;
+    private final long nrOfFlushErrors;
+    private final long lastFlushDurationMillis;
+    private final long maxFlushDurationMillis;
+
+    /**
+     * Create a write-behind status.
+     *
+     * @param queueDepth              Number of device IDs with changes which have not been written yet.
+     * @param nrOfWrites              Number of changes buffered since start-up.
+     * @param nrOfCoalescedWrites     Number of changes merged with an earlier change of the same device ID.
+     * @param nrOfFlushes             Number of successful flushes to the data store.
+     * @param nrOfFlushedDeviceIds    Number of device IDs written by the flushes.
+     * @param nrOfFlushErrors         Number of flushes which failed (and were retried).
+     * @param lastFlushDurationMillis Time it took to write the last flush in milliseconds.
+     * @param maxFlushDurationMillis  Maximum time it took to write a flush in milliseconds.
+     */
+    public WriteBehindStatus(
+            final int queueDepth,
+            final long nrOfWrites,
+            final long nrOfCoalescedWrites,
+            final long nrOfFlushes,
+            final long nrOfFlushedDeviceIds,
+            final long nrOfFlushErrors,
+            final long lastFlushDurationMillis,
+            final long maxFlushDurationMillis) {
+        this.queueDepth = queueDepth;
+        this.nrOfWrites = nrOfWrites;
+        this.nrOfCoalescedWrites = nrOfCoalescedWrites;
+        this.nrOfFlushes = nrOfFlushes;
+        this.nrOfFlushedDeviceIds = nrOfFlushedDeviceIds;
+        this.nrOfFlushErrors = nrOfFlushErrors;
+        this.lastFlushDurationMillis = lastFlushDurationMillis;
+        this.maxFlushDurationMillis = maxFlushDurationMillis;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getNrOfWrites() {
+        return nrOfWrites;
+    }
+
+    public long getNrOfCoalescedWrites() {
+        return nrOfCoalescedWrites;
+    }
+
+    public long getNrOfFlushes() {
+        return nrOfFlushes;
+    }
+
+    public long getNrOfFlushedDeviceIds() {
+        return nrOfFlushedDeviceIds;
+    }
+
+    public long getNrOfFlushErrors() {
+        return nrOfFlushErrors;
+    }
+
+    public long getLastFlushDurationMillis() {
+        return lastFlushDurationMillis;
+    }
+
+    public long getMaxFlushDurationMillis() {
+        return maxFlushDurationMillis;
+    }
+}
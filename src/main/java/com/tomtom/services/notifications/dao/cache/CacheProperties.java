@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.cache;
+
+import com.tomtom.speedtools.guice.HasProperties;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Properties of the cache of service IDs in front of the external database (see {@link NotificationDaoCacheImpl}).
+ */
+public final class CacheProperties implements HasProperties {
+
+    private final int size;
+    private final int expireAfterWriteSecs;
+
+    /**
+     * Cache properties.
+     *
+     * @param size                 Maximum number of device IDs in the cache, or 0 to disable the cache. Range: &gt;= 0.
+     * @param expireAfterWriteSecs Time after which a cached device ID expires in seconds. Range: &gt; 0.
+     */
+    @Inject
+    public CacheProperties(
+            @Named("Database.cacheSize") final int size,
+            @Named("Database.cacheExpireAfterWriteSecs") final int expireAfterWriteSecs)
+            throws InvalidPropertyValueException {
+        if (size < 0) {
+            throw new InvalidPropertyValueException("Database.cacheSize cannot be negative.");
+        }
+
+        if (expireAfterWriteSecs <= 0) {
+            throw new InvalidPropertyValueException("Database.cacheExpireAfterWriteSecs must be positive.");
+        }
+
+        this.size = size;
+        this.expireAfterWriteSecs = expireAfterWriteSecs;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getExpireAfterWriteSecs() {
+        return expireAfterWriteSecs;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.CacheStatus;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.invalidation.InvalidationListener;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+import com.tomtom.speedtools.mongodb.InternalDaoException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class wraps another DAO with a bounded, in-memory cache of the service IDs per device ID.
+ * Absent device IDs are cached as well, because most lookups are for devices without pending
+ * notifications. Entries are evicted when the cache is full, or when they expire.
+ *
+ * Every write through this DAO invalidates the entry for its device ID. Writes to the data store which
+ * do not go through this DAO (for example, from other instances of the service) are only picked up when
+ * entries expire, so the expiry time limits how long stale results may be returned, unless the cache
+ * listens to the invalidation messages of the other instances (see {@link InvalidationListener}).
+ */
+public class NotificationDaoCacheImpl implements NotificationDao, InvalidationListener {
+
+    /**
+     * Number of write sequence numbers to detect writes during a cache load.
+     */
+    private static final int NR_OF_SEQUENCE_STRIPES = 1024;
+
+    @Nonnull
+    private final NotificationDao notificationDao;
+
+    /**
+     * The cache holds an empty optional for absent device IDs.
+     */
+    @Nonnull
+    private final Cache<String, Optional<Set<String>>> cache;
+
+    /**
+     * Every write increments the sequence number of the stripe of its device ID. A load which sees the
+     * sequence number change may have cached a stale value, so it invalidates the value again.
+     */
+    @Nonnull
+    private final AtomicLongArray writeSequences = new AtomicLongArray(NR_OF_SEQUENCE_STRIPES);
+
+    /**
+     * Create the cache, wrapped around another DAO.
+     *
+     * @param notificationDao      DAO to wrap.
+     * @param maximumSize          Maximum number of device IDs in the cache. Range: &gt; 0.
+     * @param expireAfterWriteSecs Time after which a cached entry expires in seconds. Range: &gt; 0.
+     */
+    public NotificationDaoCacheImpl(
+            @Nonnull final NotificationDao notificationDao,
+            final int maximumSize,
+            final int expireAfterWriteSecs) {
+        assert notificationDao != null;
+        assert maximumSize > 0;
+        assert expireAfterWriteSecs > 0;
+        this.notificationDao = notificationDao;
+        this.cache = CacheBuilder.newBuilder().
+                maximumSize(maximumSize).
+                expireAfterWrite(expireAfterWriteSecs, TimeUnit.SECONDS).
+                recordStats().
+                build();
+    }
+
+    /**
+     * Return the cache statistics, such as the number of hits, misses and evictions.
+     *
+     * @return Cache statistics since the cache was created.
+     */
+    @Nonnull
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Return the number of entries in the cache (approximately).
+     *
+     * @return Number of entries.
+     */
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Nonnull
+    @Override
+    public CacheStatus getCacheStatus() {
+        final CacheStats stats = cache.stats();
+        return new CacheStatus(stats.hitCount(), stats.missCount(), stats.evictionCount(), cache.size());
+    }
+
+    @Override
+    public int getNrOfDeviceIds() throws InternalDaoException {
+        return notificationDao.getNrOfDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getAllDeviceIds() throws InternalDaoException {
+        return notificationDao.getAllDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException {
+        return notificationDao.getDeviceIds(offset, count);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException {
+        return notificationDao.getDeviceIdsAfter(after, count);
+    }
+
+    @Nonnull
+    @Override
+    public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException {
+        final Set<String> serviceIds = findServiceIds(deviceId);
+        if (serviceIds == null) {
+            throw new EntityNotFoundException("No entry found for: " + deviceId);
+        }
+        return serviceIds;
+    }
+
+    @Nullable
+    @Override
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        assert deviceId != null;
+        final Optional<Set<String>> cached = cache.getIfPresent(deviceId);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+
+        // Load the value, but don't keep it if a write for the device ID happened in the meantime.
+        final int stripe = stripe(deviceId);
+        final long sequence = writeSequences.get(stripe);
+        final Set<String> serviceIds = notificationDao.findServiceIds(deviceId);
+        cache.put(deviceId, Optional.ofNullable(serviceIds));
+        if (writeSequences.get(stripe) != sequence) {
+            cache.invalidate(deviceId);
+        }
+        return serviceIds;
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException {
+        assert deviceIds != null;
+        final Map<String, Set<String>> result = new HashMap<>();
+        final Map<String, Long> missing = new HashMap<>();
+        for (final String deviceId : deviceIds) {
+            final Optional<Set<String>> cached = cache.getIfPresent(deviceId);
+            if (cached == null) {
+                missing.put(deviceId, writeSequences.get(stripe(deviceId)));
+            } else {
+                cached.ifPresent(serviceIds -> result.put(deviceId, serviceIds));
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        // Load the missing values at once, but don't keep those for which a write happened in the meantime.
+        final Map<String, Set<String>> loaded = notificationDao.findServiceIds(missing.keySet());
+        for (final Map.Entry<String, Long> entry : missing.entrySet()) {
+            final String deviceId = entry.getKey();
+            final Set<String> serviceIds = loaded.get(deviceId);
+            cache.put(deviceId, Optional.ofNullable(serviceIds));
+            if (writeSequences.get(stripe(deviceId)) != entry.getValue()) {
+                cache.invalidate(deviceId);
+            }
+            if (serviceIds != null) {
+                result.put(deviceId, serviceIds);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
+        try {
+            notificationDao.removeServiceIds(deviceId);
+        } finally {
+            invalidate(deviceId);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
+        try {
+            notificationDao.putServiceIds(deviceId, serviceIds);
+        } finally {
+            invalidate(deviceId);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        try {
+            notificationDao.putServiceIds(notifications);
+        } finally {
+            for (final Notification notification : notifications) {
+                invalidate(notification.getDeviceId());
+            }
+        }
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        try {
+            notificationDao.addServiceId(deviceId, serviceId);
+        } finally {
+            invalidate(deviceId);
+        }
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        try {
+            notificationDao.addServiceIds(notifications);
+        } finally {
+            for (final Notification notification : notifications) {
+                invalidate(notification.getDeviceId());
+            }
+        }
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        try {
+            return notificationDao.removeServiceIds(notifications);
+        } finally {
+            for (final Notification notification : notifications) {
+                invalidate(notification.getDeviceId());
+            }
+        }
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        try {
+            notificationDao.removeServiceId(deviceId, serviceId);
+        } finally {
+            invalidate(deviceId);
+        }
+    }
+
+    @Override
+    public void invalidated(@Nonnull final Collection<String> deviceIds) {
+        assert deviceIds != null;
+        for (final String deviceId : deviceIds) {
+            invalidate(deviceId);
+        }
+    }
+
+    private void invalidate(@Nonnull final String deviceId) {
+        writeSequences.incrementAndGet(stripe(deviceId));
+        cache.invalidate(deviceId);
+    }
+
+    private static int stripe(@Nonnull final String deviceId) {
+        return (deviceId.hashCode() & Integer.MAX_VALUE) % NR_OF_SEQUENCE_STRIPES;
+    }
+}
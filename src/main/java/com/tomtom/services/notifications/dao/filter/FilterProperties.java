@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.filter;
+
+import com.tomtom.speedtools.guice.HasProperties;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Properties of the filter of device IDs in front of the external database (see {@link NotificationDaoFilterImpl}).
+ */
+public final class FilterProperties implements HasProperties {
+
+    private final int size;
+    private final int rebuildIntervalSecs;
+
+    /**
+     * Filter properties.
+     *
+     * @param size                Number of bits of the filter, or 0 to disable the filter. Range: &gt;= 0.
+     * @param rebuildIntervalSecs Interval to rebuild the filter in seconds, or 0 to never rebuild it.
+     *                            Range: &gt;= 0.
+     */
+    @Inject
+    public FilterProperties(
+            @Named("Database.filterSize") final int size,
+            @Named("Database.filterRebuildIntervalSecs") final int rebuildIntervalSecs)
+            throws InvalidPropertyValueException {
+        if (size < 0) {
+            throw new InvalidPropertyValueException("Database.filterSize cannot be negative.");
+        }
+
+        if (rebuildIntervalSecs < 0) {
+            throw new InvalidPropertyValueException("Database.filterRebuildIntervalSecs cannot be negative.");
+        }
+
+        this.size = size;
+        this.rebuildIntervalSecs = rebuildIntervalSecs;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getRebuildIntervalSecs() {
+        return rebuildIntervalSecs;
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.filter;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.FilterStatus;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.invalidation.InvalidationListener;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+import com.tomtom.speedtools.mongodb.InternalDaoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class wraps another DAO with a Bloom filter of all device IDs, so lookups for device IDs without
+ * pending notifications (which are the vast majority of lookups) are answered from memory, without accessing
+ * the underlying data store.
+ *
+ * The filter is built from a scan of all device IDs at start-up. Every write through this DAO which may
+ * create a device ID adds it to the filter, so writes never need to access the data store to find out
+ * whether a device ID existed. Writes to the data store which do not go through this DAO (for example, from
+ * other instances of the service) are only picked up when the filter is rebuilt, so the rebuild interval
+ * limits how long such device IDs may be reported as having no pending notifications.
+ *
+ * A Bloom filter cannot remove elements, so removed device IDs stay in the filter until it is rebuilt. They
+ * only cause false positives: lookups which are passed on to the data store. So, the filter is rebuilt
+ * periodically to get rid of the false positives that accumulate over time.
+ *
+ * The filter can also listen to the invalidation messages of the other instances of the service (see
+ * {@link InvalidationListener}), so device IDs they create are added to the filter right away.
+ */
+public class NotificationDaoFilterImpl implements NotificationDao, InvalidationListener {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoFilterImpl.class);
+
+    /**
+     * Number of device IDs fetched per page while (re)building the filter.
+     */
+    private static final int REBUILD_PAGE_SIZE = 10000;
+
+    /**
+     * Maximum number of bits per expected device ID. This limits the number of hash functions (to 16) if
+     * there are few device IDs.
+     */
+    private static final int MAX_BITS_PER_DEVICE_ID = 23;
+
+    @Nonnull
+    private final NotificationDao notificationDao;
+    private final int nrOfBits;
+
+    /**
+     * Updates of the filter take the read lock (they may run concurrently, as the filter is thread-safe);
+     * swapping in a rebuilt filter takes the write lock.
+     */
+    @Nonnull
+    private final ReadWriteLock filterLock = new ReentrantReadWriteLock();
+
+    @Nonnull
+    private volatile BloomFilter<CharSequence> filter;
+
+    /**
+     * Device IDs that were written while the filter is being rebuilt, or null if no rebuild is in progress.
+     * Guarded by filterLock.
+     */
+    @Nullable
+    private Set<String> createdDuringRebuild = null;
+
+    @Nonnull
+    private final AtomicLong nrOfNegatives = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfFalsePositives = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfPositives = new AtomicLong();
+
+    private volatile long lastRebuildTimeMillis = 0;
+
+    /**
+     * Create the filter, wrapped around another DAO. This scans all device IDs of the other DAO.
+     *
+     * @param notificationDao     DAO to wrap.
+     * @param nrOfBits            Number of bits in the filter. Range: &gt; 0.
+     * @param rebuildIntervalSecs Interval to rebuild the filter in seconds, or 0 to never rebuild it. Range: &gt;= 0.
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    public NotificationDaoFilterImpl(
+            @Nonnull final NotificationDao notificationDao,
+            final int nrOfBits,
+            final int rebuildIntervalSecs) throws InternalDaoException {
+        assert notificationDao != null;
+        assert nrOfBits > 0;
+        assert rebuildIntervalSecs >= 0;
+        this.notificationDao = notificationDao;
+        this.nrOfBits = nrOfBits;
+        this.filter = createFilter(nrOfBits, 0);
+        rebuild();
+
+        if (rebuildIntervalSecs > 0) {
+            final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "NotificationDaoFilterRebuild");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    rebuild();
+                } catch (final InternalDaoException | RuntimeException e) {
+                    LOG.error("NotificationDaoFilterImpl: cannot rebuild filter, keeping the old one", e);
+                }
+            }, rebuildIntervalSecs, rebuildIntervalSecs, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Rebuild the filter from a scan of all device IDs. Device IDs written during the scan are added
+     * to the new filter as well. Device IDs removed during the scan may remain in the new filter, which
+     * only causes false positives until the next rebuild.
+     *
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    public synchronized void rebuild() throws InternalDaoException {
+        LOG.debug("rebuild: start");
+        filterLock.writeLock().lock();
+        try {
+            createdDuringRebuild = ConcurrentHashMap.newKeySet();
+        } finally {
+            filterLock.writeLock().unlock();
+        }
+        try {
+            final BloomFilter<CharSequence> newFilter = createFilter(nrOfBits, notificationDao.getNrOfDeviceIds());
+            int nrOfDeviceIds = 0;
+            List<String> deviceIds = notificationDao.getDeviceIdsAfter(null, REBUILD_PAGE_SIZE);
+            while (!deviceIds.isEmpty()) {
+                for (final String deviceId : deviceIds) {
+                    newFilter.put(deviceId);
+                }
+                nrOfDeviceIds = nrOfDeviceIds + deviceIds.size();
+                deviceIds = (deviceIds.size() < REBUILD_PAGE_SIZE) ? deviceIds.subList(0, 0) :
+                        notificationDao.getDeviceIdsAfter(deviceIds.get(deviceIds.size() - 1), REBUILD_PAGE_SIZE);
+            }
+
+            filterLock.writeLock().lock();
+            try {
+                assert createdDuringRebuild != null;
+                for (final String deviceId : createdDuringRebuild) {
+                    newFilter.put(deviceId);
+                }
+                filter = newFilter;
+                lastRebuildTimeMillis = System.currentTimeMillis();
+            } finally {
+                filterLock.writeLock().unlock();
+            }
+            LOG.info("rebuild: nrOfDeviceIds={}, nrOfBits={}, expectedFalsePositiveRate={}, observedFalsePositiveRate={}",
+                    nrOfDeviceIds, nrOfBits, newFilter.expectedFpp(), getFalsePositiveRate());
+        } finally {
+            filterLock.writeLock().lock();
+            try {
+                createdDuringRebuild = null;
+            } finally {
+                filterLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Return the number of lookups answered by the filter, without accessing the data store.
+     *
+     * @return Number of lookups for device IDs which were definitely not present.
+     */
+    public long getNrOfNegatives() {
+        return nrOfNegatives.get();
+    }
+
+    /**
+     * Return the number of lookups for which the filter reported a device ID might be present, while it was not.
+     *
+     * @return Number of false positives.
+     */
+    public long getNrOfFalsePositives() {
+        return nrOfFalsePositives.get();
+    }
+
+    /**
+     * Return the number of lookups for device IDs which were present.
+     *
+     * @return Number of positives.
+     */
+    public long getNrOfPositives() {
+        return nrOfPositives.get();
+    }
+
+    /**
+     * Return the observed false-positive rate: the fraction of lookups for absent device IDs which
+     * still had to access the data store.
+     *
+     * @return False-positive rate. Range: [0, 1].
+     */
+    public double getFalsePositiveRate() {
+        final long falsePositives = nrOfFalsePositives.get();
+        final long negatives = nrOfNegatives.get() + falsePositives;
+        return (negatives == 0) ? 0.0 : ((double) falsePositives / negatives);
+    }
+
+    /**
+     * Return the expected false-positive rate of the current filter, based on its occupancy. The filter keeps
+     * count of the bits which are set, so this is cheap.
+     *
+     * @return False-positive rate. Range: [0, 1].
+     */
+    public double getExpectedFalsePositiveRate() {
+        return filter.expectedFpp();
+    }
+
+    @Nonnull
+    @Override
+    public FilterStatus getFilterStatus() {
+        return new FilterStatus(nrOfNegatives.get(), nrOfFalsePositives.get(), nrOfPositives.get(),
+                getExpectedFalsePositiveRate(), lastRebuildTimeMillis);
+    }
+
+    @Override
+    public int getNrOfDeviceIds() throws InternalDaoException {
+        return notificationDao.getNrOfDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getAllDeviceIds() throws InternalDaoException {
+        return notificationDao.getAllDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException {
+        return notificationDao.getDeviceIds(offset, count);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException {
+        return notificationDao.getDeviceIdsAfter(after, count);
+    }
+
+    @Nonnull
+    @Override
+    public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException {
+        final Set<String> serviceIds = findServiceIds(deviceId);
+        if (serviceIds == null) {
+            throw new EntityNotFoundException("No entry found for: " + deviceId);
+        }
+        return serviceIds;
+    }
+
+    @Nullable
+    @Override
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        assert deviceId != null;
+        if (!filter.mightContain(deviceId)) {
+            nrOfNegatives.incrementAndGet();
+            return null;
+        }
+        final Set<String> serviceIds = notificationDao.findServiceIds(deviceId);
+        if (serviceIds == null) {
+            nrOfFalsePositives.incrementAndGet();
+        } else {
+            nrOfPositives.incrementAndGet();
+        }
+        return serviceIds;
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException {
+        assert deviceIds != null;
+        final Set<String> candidates = new HashSet<>();
+        for (final String deviceId : deviceIds) {
+            if (filter.mightContain(deviceId)) {
+                candidates.add(deviceId);
+            } else {
+                nrOfNegatives.incrementAndGet();
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Set<String>> found = notificationDao.findServiceIds(candidates);
+        nrOfPositives.addAndGet(found.size());
+        nrOfFalsePositives.addAndGet(candidates.size() - found.size());
+        return found;
+    }
+
+    @Override
+    public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
+        notificationDao.removeServiceIds(deviceId);
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
+        assert deviceId != null;
+        try {
+            notificationDao.putServiceIds(deviceId, serviceIds);
+        } finally {
+
+            // If the call failed, the device ID may have been created nevertheless.
+            addToFilter(deviceId);
+        }
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        assert deviceId != null;
+        try {
+            notificationDao.addServiceId(deviceId, serviceId);
+        } finally {
+            addToFilter(deviceId);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        storeAll(notifications, notificationDao::putServiceIds);
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        storeAll(notifications, notificationDao::addServiceIds);
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        return notificationDao.removeServiceIds(notifications);
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        notificationDao.removeServiceId(deviceId, serviceId);
+    }
+
+    /**
+     * Add the device IDs which were changed by other instances, and which exist, to the filter. Only the
+     * device IDs which the filter does not contain yet are looked up in the data store, so changes to device
+     * IDs which are already in the filter cost no lookup at all.
+     *
+     * This is not exact: the messages do not tell whether a device ID was created or removed. Device IDs
+     * removed by other instances remain in the filter until the next rebuild, like the ones removed through
+     * this instance, which only causes false positives.
+     *
+     * @param deviceIds Changed device IDs.
+     */
+    @Override
+    public void invalidated(@Nonnull final Collection<String> deviceIds) {
+        assert deviceIds != null;
+
+        // During a rebuild, all device IDs are looked up, because the scan may have passed them before they
+        // were created.
+        final boolean rebuilding;
+        filterLock.readLock().lock();
+        try {
+            rebuilding = (createdDuringRebuild != null);
+        } finally {
+            filterLock.readLock().unlock();
+        }
+        final Set<String> candidates = new HashSet<>();
+        for (final String deviceId : deviceIds) {
+            if (rebuilding || !filter.mightContain(deviceId)) {
+                candidates.add(deviceId);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        try {
+            for (final String deviceId : notificationDao.findServiceIds(candidates).keySet()) {
+                addToFilter(deviceId);
+            }
+        } catch (final InternalDaoException e) {
+            LOG.error("invalidated: cannot look up changed device IDs, nrOfDeviceIds={}", candidates.size(), e);
+        }
+    }
+
+    /**
+     * Store notifications for many device IDs, adding the device IDs which may be created to the filter.
+     *
+     * @param notifications Notifications.
+     * @param store         Bulk operation of the underlying DAO which stores the notifications.
+     * @throws EntityStoreException Thrown if (some of) the records could not be stored.
+     */
+    private void storeAll(
+            @Nonnull final Collection<Notification> notifications,
+            @Nonnull final BulkStore store) throws EntityStoreException {
+        assert notifications != null;
+        try {
+            store.apply(notifications);
+        } finally {
+
+            // If the call failed, some of the device IDs may have been created nevertheless.
+            for (final String deviceId : getDeviceIds(notifications)) {
+                addToFilter(deviceId);
+            }
+        }
+    }
+
+    @Nonnull
+    private static Set<String> getDeviceIds(@Nonnull final Collection<Notification> notifications) {
+        final Set<String> deviceIds = new HashSet<>();
+        for (final Notification notification : notifications) {
+            deviceIds.add(notification.getDeviceId());
+        }
+        return deviceIds;
+    }
+
+    /**
+     * Add a device ID which may have been created to the filter. During a rebuild, the device ID is also
+     * remembered for the new filter, because the scan may have passed it before it was created.
+     */
+    private void addToFilter(@Nonnull final String deviceId) {
+        filterLock.readLock().lock();
+        try {
+            filter.put(deviceId);
+            if (createdDuringRebuild != null) {
+                createdDuringRebuild.add(deviceId);
+            }
+        } finally {
+            filterLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Create an empty filter. Guava sizes a filter from the expected number of elements and false-positive
+     * rate, so the rate is derived from the number of bits, which makes the filter about that size.
+     *
+     * @param nrOfBits              Number of bits in the filter. Range: &gt; 0.
+     * @param nrOfExpectedDeviceIds Expected number of device IDs. Range: &gt;= 0.
+     * @return Empty filter.
+     */
+    @Nonnull
+    private static BloomFilter<CharSequence> createFilter(final int nrOfBits, final int nrOfExpectedDeviceIds) {
+        final long nrOfExpected = Math.max(Math.max(1, nrOfExpectedDeviceIds),
+                (nrOfBits + MAX_BITS_PER_DEVICE_ID - 1) / MAX_BITS_PER_DEVICE_ID);
+        final double falsePositiveRate = Math.exp(-((double) nrOfBits / nrOfExpected) * Math.log(2) * Math.log(2));
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), nrOfExpected, falsePositiveRate);
+    }
+
+    @FunctionalInterface
+    private interface BulkStore {
+        void apply(@Nonnull Collection<Notification> notifications) throws EntityStoreException;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.invalidation;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class delivers invalidation messages between instances in the same JVM, mainly for tests. Messages are
+ * delivered synchronously, on the thread of the sender.
+ */
+public class InProcessInvalidationTransport implements InvalidationTransport {
+
+    /**
+     * The transports which exchange messages.
+     */
+    public static final class Network {
+        @Nonnull
+        private final List<InProcessInvalidationTransport> members = new CopyOnWriteArrayList<>();
+    }
+
+    @Nonnull
+    private final Network network;
+    @Nullable
+    private volatile InvalidationListener receiver = null;
+
+    /**
+     * Create a transport.
+     *
+     * @param network Network to join when the transport is started.
+     */
+    public InProcessInvalidationTransport(@Nonnull final Network network) {
+        assert network != null;
+        this.network = network;
+    }
+
+    @Override
+    public void start(@Nonnull final InvalidationListener receiver) {
+        assert receiver != null;
+        this.receiver = receiver;
+        network.members.add(this);
+    }
+
+    @Override
+    public void send(@Nonnull final Collection<String> deviceIds) {
+        assert deviceIds != null;
+        for (final InProcessInvalidationTransport member : network.members) {
+            final InvalidationListener memberReceiver = member.receiver;
+            if ((member != this) && (memberReceiver != null)) {
+                memberReceiver.invalidated(new ArrayList<>(deviceIds));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        network.members.remove(this);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.invalidation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class exchanges invalidation messages with the other instances of the service, which share the same
+ * data store. Device IDs changed by this instance are collected for a short interval, so a device ID which
+ * is changed many times is sent only once, and sent in batches. Device IDs changed by other instances are
+ * passed to the local listeners, such as caches and filters.
+ */
+public class InvalidationBus {
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationBus.class);
+
+    @Nonnull
+    private final InvalidationTransport transport;
+    @Nonnull
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+    @Nonnull
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    @Nonnull
+    private final ScheduledExecutorService executor;
+
+    @Nonnull
+    private final AtomicLong nrOfPublishedDeviceIds = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfSentDeviceIds = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfReceivedDeviceIds = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfSendErrors = new AtomicLong();
+
+    /**
+     * Create the bus and start receiving messages.
+     *
+     * @param transport      Transport to the other instances.
+     * @param intervalMillis Interval to collect changed device IDs before sending them in milliseconds.
+     *                       Range: &gt; 0.
+     */
+    public InvalidationBus(@Nonnull final InvalidationTransport transport, final int intervalMillis) {
+        assert transport != null;
+        assert intervalMillis > 0;
+        this.transport = transport;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "InvalidationBus");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        transport.start(this::received);
+    }
+
+    /**
+     * Add a listener for device IDs changed by other instances.
+     *
+     * @param listener Listener.
+     */
+    public void addListener(@Nonnull final InvalidationListener listener) {
+        assert listener != null;
+        listeners.add(listener);
+    }
+
+    /**
+     * Publish device IDs which were changed by this instance. They are sent with the next flush.
+     *
+     * @param deviceIds Changed device IDs.
+     */
+    public void publish(@Nonnull final Collection<String> deviceIds) {
+        assert deviceIds != null;
+        nrOfPublishedDeviceIds.addAndGet(deviceIds.size());
+        pending.addAll(deviceIds);
+    }
+
+    /**
+     * Send the published device IDs to the other instances now. This is called periodically.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Device IDs published again after they were taken from the set are sent with the next flush.
+        final List<String> batch = new ArrayList<>(pending.size());
+        final Iterator<String> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+        try {
+            transport.send(batch);
+            nrOfSentDeviceIds.addAndGet(batch.size());
+        } catch (final IOException | RuntimeException e) {
+            nrOfSendErrors.incrementAndGet();
+            LOG.warn("flush: cannot send invalidation message, nrOfDeviceIds={}", batch.size(), e);
+        }
+    }
+
+    /**
+     * Stop sending and receiving messages. Published device IDs are sent first.
+     */
+    public void close() {
+        executor.shutdown();
+        flush();
+        transport.close();
+    }
+
+    public long getNrOfPublishedDeviceIds() {
+        return nrOfPublishedDeviceIds.get();
+    }
+
+    public long getNrOfSentDeviceIds() {
+        return nrOfSentDeviceIds.get();
+    }
+
+    public long getNrOfReceivedDeviceIds() {
+        return nrOfReceivedDeviceIds.get();
+    }
+
+    public long getNrOfSendErrors() {
+        return nrOfSendErrors.get();
+    }
+
+    private void received(@Nonnull final Collection<String> deviceIds) {
+        nrOfReceivedDeviceIds.addAndGet(deviceIds.size());
+        for (final InvalidationListener listener : listeners) {
+            try {
+                listener.invalidated(deviceIds);
+            } catch (final RuntimeException e) {
+                LOG.warn("received: listener failed, nrOfDeviceIds={}", deviceIds.size(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.invalidation;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+
+/**
+ * Receiver of invalidation messages: device IDs which were changed by another instance of the service.
+ */
+@FunctionalInterface
+public interface InvalidationListener {
+
+    /**
+     * Called when device IDs were changed in the data store by another instance of the service. Local copies
+     * of these device IDs (in caches or filters) should be dropped or refreshed.
+     *
+     * @param deviceIds Changed device IDs.
+     */
+    void invalidated(@Nonnull Collection<String> deviceIds);
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.invalidation;
+
+import com.tomtom.speedtools.guice.HasProperties;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Properties of the invalidation messages between instances of the service (see {@link InvalidationBus}).
+ */
+public final class InvalidationProperties implements HasProperties {
+
+    private final int port;
+    @Nonnull
+    private final String peers;
+    private final int intervalMillis;
+
+    /**
+     * Invalidation properties.
+     *
+     * @param port           UDP port to exchange invalidation messages with other instances of the
+     *                       service, or 0 to disable invalidation messages. Range: [0, 65535].
+     * @param peers          Host names and port numbers of the instances to send invalidation messages
+     *                       to, formatted as "hostname:port[,hostname:port]*". Cannot be empty if the port is set.
+     * @param intervalMillis Time to collect changed device IDs before sending them to the other
+     *                       instances in milliseconds. Range: &gt; 0.
+     */
+    @Inject
+    public InvalidationProperties(
+            @Named("Database.invalidationPort") final int port,
+            @Named("Database.invalidationPeers") @Nonnull final String peers,
+            @Named("Database.invalidationIntervalMillis") final int intervalMillis)
+            throws InvalidPropertyValueException {
+        assert peers != null;
+
+        if ((port < 0) || (port > 65535)) {
+            throw new InvalidPropertyValueException("Database.invalidationPort must be in range [0, 65535].");
+        }
+
+        if (port > 0) {
+            if (peers.isEmpty()) {
+                throw new InvalidPropertyValueException("Database.invalidationPeers cannot be empty if Database.invalidationPort is set.");
+            }
+            try {
+                UdpInvalidationTransport.parsePeers(peers);
+            } catch (final IllegalArgumentException e) {
+                throw new InvalidPropertyValueException("Database.invalidationPeers has an invalid value: " + e.getMessage());
+            }
+        }
+
+        if (intervalMillis <= 0) {
+            throw new InvalidPropertyValueException("Database.invalidationIntervalMillis must be positive.");
+        }
+
+        this.port = port;
+        this.peers = peers;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Nonnull
+    public String getPeers() {
+        return peers;
+    }
+
+    public int getIntervalMillis() {
+        return intervalMillis;
+    }
+}
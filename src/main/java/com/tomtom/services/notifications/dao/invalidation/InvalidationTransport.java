@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.invalidation;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Transport of invalidation messages between the instances of the service. Delivery is best effort: messages
+ * may be lost, so caches must still expire their entries.
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Start receiving messages from the other instances. Messages sent by this instance are not received.
+     *
+     * @param receiver Receiver of the messages. It may be called from any thread.
+     */
+    void start(@Nonnull InvalidationListener receiver);
+
+    /**
+     * Send changed device IDs to the other instances.
+     *
+     * @param deviceIds Changed device IDs.
+     * @throws IOException Thrown if the message cannot be sent.
+     */
+    void send(@Nonnull Collection<String> deviceIds) throws IOException;
+
+    /**
+     * Stop receiving messages and release the resources of the transport.
+     */
+    void close();
+}
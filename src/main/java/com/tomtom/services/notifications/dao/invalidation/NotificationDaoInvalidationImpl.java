@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.invalidation;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+import com.tomtom.speedtools.mongodb.InternalDaoException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class wraps the DAO of the shared data store and publishes every device ID which is changed through it
+ * on an {@link InvalidationBus}, so the other instances of the service can drop their local copies.
+ *
+ * It should wrap the shared data store directly (below any write buffer), so device IDs are only published
+ * after the data store was changed; otherwise another instance could reload and cache the old value again.
+ * Device IDs are published also if the write fails, because it may have been applied partially.
+ */
+public class NotificationDaoInvalidationImpl implements NotificationDao {
+
+    @Nonnull
+    private final NotificationDao notificationDao;
+    @Nonnull
+    private final InvalidationBus bus;
+
+    /**
+     * Create the publisher, wrapped around another DAO.
+     *
+     * @param notificationDao DAO to wrap.
+     * @param bus             Bus to publish the changed device IDs on.
+     */
+    public NotificationDaoInvalidationImpl(
+            @Nonnull final NotificationDao notificationDao,
+            @Nonnull final InvalidationBus bus) {
+        assert notificationDao != null;
+        assert bus != null;
+        this.notificationDao = notificationDao;
+        this.bus = bus;
+    }
+
+    @Override
+    public int getNrOfDeviceIds() throws InternalDaoException {
+        return notificationDao.getNrOfDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getAllDeviceIds() throws InternalDaoException {
+        return notificationDao.getAllDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException {
+        return notificationDao.getDeviceIds(offset, count);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException {
+        return notificationDao.getDeviceIdsAfter(after, count);
+    }
+
+    @Nonnull
+    @Override
+    public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException {
+        return notificationDao.getServiceIds(deviceId);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        return notificationDao.findServiceIds(deviceId);
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException {
+        return notificationDao.findServiceIds(deviceIds);
+    }
+
+    @Override
+    public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
+        try {
+            notificationDao.removeServiceIds(deviceId);
+        } finally {
+            bus.publish(Collections.singletonList(deviceId));
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
+        try {
+            notificationDao.putServiceIds(deviceId, serviceIds);
+        } finally {
+            bus.publish(Collections.singletonList(deviceId));
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        try {
+            notificationDao.putServiceIds(notifications);
+        } finally {
+            bus.publish(getDeviceIds(notifications));
+        }
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        try {
+            notificationDao.addServiceId(deviceId, serviceId);
+        } finally {
+            bus.publish(Collections.singletonList(deviceId));
+        }
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        try {
+            notificationDao.addServiceIds(notifications);
+        } finally {
+            bus.publish(getDeviceIds(notifications));
+        }
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        try {
+            return notificationDao.removeServiceIds(notifications);
+        } finally {
+            bus.publish(getDeviceIds(notifications));
+        }
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        try {
+            notificationDao.removeServiceId(deviceId, serviceId);
+        } finally {
+            bus.publish(Collections.singletonList(deviceId));
+        }
+    }
+
+    @Nonnull
+    private static List<String> getDeviceIds(@Nonnull final Collection<Notification> notifications) {
+        final List<String> deviceIds = new ArrayList<>(notifications.size());
+        for (final Notification notification : notifications) {
+            deviceIds.add(notification.getDeviceId());
+        }
+        return deviceIds;
+    }
+}
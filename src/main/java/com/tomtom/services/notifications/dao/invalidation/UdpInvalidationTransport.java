@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.invalidation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends invalidation messages as UDP datagrams to a configured list of peers, and receives them
+ * on a local port. All instances can be configured with the same list of peers: messages from the instance
+ * itself are recognized and ignored.
+ *
+ * A message holds as many device IDs as fit in a datagram of {@link #MAX_PACKET_SIZE} bytes (so it is not
+ * fragmented on most networks):
+ * <pre>
+ *     byte  magic ('N')
+ *     byte  version (1)
+ *     long  sender ID (random per instance)
+ *     { short length, UTF-8 bytes }* device IDs
+ * </pre>
+ * UDP does not guarantee delivery, so lost messages are only corrected when cache entries expire. A peer
+ * which cannot be sent to (for example, because its host name cannot be resolved) is logged and counted, and
+ * does not stop the message from being sent to the other peers.
+ */
+public class UdpInvalidationTransport implements InvalidationTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpInvalidationTransport.class);
+
+    public static final int MAX_PACKET_SIZE = 1400;
+
+    private static final byte MAGIC = 'N';
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 2 + 8;
+    private static final int MAX_DEVICE_ID_SIZE = MAX_PACKET_SIZE - HEADER_SIZE - 2;
+
+    @Nonnull
+    private final DatagramSocket socket;
+    @Nonnull
+    private final List<InetSocketAddress> peers;
+    private final long senderId = new SecureRandom().nextLong();
+    @Nonnull
+    private final AtomicLong nrOfSendErrors = new AtomicLong();
+    @Nullable
+    private Thread receiverThread = null;
+
+    /**
+     * Create the transport and bind it to a local port.
+     *
+     * @param port  Local UDP port to receive messages on. Range: [1, 65535].
+     * @param peers Addresses of the other instances (which may include this instance).
+     * @throws SocketException Thrown if the port cannot be bound.
+     */
+    public UdpInvalidationTransport(final int port, @Nonnull final List<InetSocketAddress> peers) throws SocketException {
+        assert (port >= 1) && (port <= 65535);
+        assert peers != null;
+        this.socket = new DatagramSocket(port);
+        this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+    }
+
+    /**
+     * Parse a list of peers.
+     *
+     * @param peers Peers, formatted as "hostname:port[,hostname:port]*".
+     * @return Addresses of the peers.
+     * @throws IllegalArgumentException Thrown if the list has an invalid format.
+     */
+    @Nonnull
+    public static List<InetSocketAddress> parsePeers(@Nonnull final String peers) {
+        assert peers != null;
+        final List<InetSocketAddress> addresses = new ArrayList<>();
+        for (final String peer : peers.split(",")) {
+            final String trimmed = peer.trim();
+            final int colon = trimmed.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Peer must be formatted as hostname:port, not: " + trimmed);
+            }
+            final int port;
+            try {
+                port = Integer.parseInt(trimmed.substring(colon + 1));
+            } catch (final NumberFormatException ignored) {
+                throw new IllegalArgumentException("Peer has an invalid port number: " + trimmed);
+            }
+            if ((port < 1) || (port > 65535)) {
+                throw new IllegalArgumentException("Peer port number must be in range [1, 65535]: " + trimmed);
+            }
+            addresses.add(new InetSocketAddress(trimmed.substring(0, colon), port));
+        }
+        return addresses;
+    }
+
+    @Override
+    public synchronized void start(@Nonnull final InvalidationListener receiver) {
+        assert receiver != null;
+        assert receiverThread == null;
+        receiverThread = new Thread(() -> receive(receiver), "UdpInvalidationTransport");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+    }
+
+    @Override
+    public void send(@Nonnull final Collection<String> deviceIds) {
+        assert deviceIds != null;
+        final ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        for (final String deviceId : deviceIds) {
+            final byte[] bytes = deviceId.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_DEVICE_ID_SIZE) {
+                LOG.warn("send: device ID too long to send, length={}", bytes.length);
+                continue;
+            }
+            if (buffer.remaining() < (2 + bytes.length)) {
+                sendPacket(buffer);
+            }
+            if (buffer.position() == 0) {
+                buffer.put(MAGIC).put(VERSION).putLong(senderId);
+            }
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+        if (buffer.position() > HEADER_SIZE) {
+            sendPacket(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    /**
+     * Return the number of datagrams which could not be sent to a peer.
+     *
+     * @return Number of failed sends, counted per peer.
+     */
+    public long getNrOfSendErrors() {
+        return nrOfSendErrors.get();
+    }
+
+    private void sendPacket(@Nonnull final ByteBuffer buffer) {
+        for (final InetSocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(buffer.array(), buffer.position(), peer));
+            } catch (final IOException | RuntimeException e) {
+                nrOfSendErrors.incrementAndGet();
+                LOG.warn("sendPacket: cannot send invalidation message to peer={}: {}", peer, e.getMessage());
+            }
+        }
+        buffer.clear();
+    }
+
+    private void receive(@Nonnull final InvalidationListener receiver) {
+        final byte[] bytes = new byte[65536];
+        while (!socket.isClosed()) {
+            final DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+            try {
+                socket.receive(packet);
+            } catch (final IOException e) {
+                if (!socket.isClosed()) {
+                    LOG.warn("receive: cannot receive message", e);
+                }
+                continue;
+            }
+            try {
+                final List<String> deviceIds = decode(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                if ((deviceIds != null) && !deviceIds.isEmpty()) {
+                    receiver.invalidated(deviceIds);
+                }
+            } catch (final RuntimeException e) {
+                LOG.warn("receive: cannot process message from {}", packet.getSocketAddress(), e);
+            }
+        }
+    }
+
+    /**
+     * Decode a message.
+     *
+     * @return Device IDs, or null if the message was sent by this instance or is not an invalidation message.
+     */
+    @Nullable
+    private List<String> decode(@Nonnull final ByteBuffer buffer) {
+        if ((buffer.remaining() < HEADER_SIZE) || (buffer.get() != MAGIC) || (buffer.get() != VERSION)) {
+            LOG.debug("decode: ignoring unknown message");
+            return null;
+        }
+        if (buffer.getLong() == senderId) {
+            return null;
+        }
+        final List<String> deviceIds = new ArrayList<>();
+        while (buffer.remaining() >= 2) {
+            final int length = buffer.getShort() & 0xFFFF;
+            if (buffer.remaining() < length) {
+                LOG.debug("decode: ignoring truncated message");
+                return null;
+            }
+            deviceIds.add(new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8));
+            buffer.position(buffer.position() + length);
+        }
+        return deviceIds;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import com.tomtom.speedtools.guice.HasProperties;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Properties of the in-memory database: its journal, its snapshots and how it stores device IDs.
+ */
+public final class InMemoryProperties implements HasProperties {
+
+    @Nonnull
+    private final String journalDirectory;
+    private final int journalSegmentSizeMB;
+    private final int journalFlushIntervalMillis;
+    private final int snapshotIntervalSecs;
+    private final boolean compactServiceIds;
+    private final boolean useOffHeap;
+
+    /**
+     * In-memory database properties.
+     *
+     * @param journalDirectory           Directory of the journal, or empty to disable the journal.
+     * @param journalSegmentSizeMB       Size of a journal segment in MB. Range: [1, 1024].
+     * @param journalFlushIntervalMillis Time to collect changes before writing them to the journal in
+     *                                   milliseconds. Range: &gt;= 0.
+     * @param snapshotIntervalSecs       Interval to write a snapshot in seconds, or 0 to only write a snapshot
+     *                                   when the journal grows too large. Range: &gt;= 0.
+     * @param compactServiceIds          True if the service IDs of a device should be stored as a compact bitset,
+     *                                   rather than as a set of strings.
+     * @param useOffHeap                 True if the database should be kept outside of the Java heap. Cannot be
+     *                                   combined with a journal.
+     */
+    @Inject
+    public InMemoryProperties(
+            @Named("Database.journalDirectory") @Nonnull final String journalDirectory,
+            @Named("Database.journalSegmentSizeMB") final int journalSegmentSizeMB,
+            @Named("Database.journalFlushIntervalMillis") final int journalFlushIntervalMillis,
+            @Named("Database.snapshotIntervalSecs") final int snapshotIntervalSecs,
+            @Named("Database.compactServiceIds") final boolean compactServiceIds,
+            @Named("Database.useOffHeap") final boolean useOffHeap)
+            throws InvalidPropertyValueException {
+        assert journalDirectory != null;
+
+        if ((journalSegmentSizeMB < 1) || (journalSegmentSizeMB > 1024)) {
+            throw new InvalidPropertyValueException("Database.journalSegmentSizeMB must be in range [1, 1024].");
+        }
+
+        if (journalFlushIntervalMillis < 0) {
+            throw new InvalidPropertyValueException("Database.journalFlushIntervalMillis cannot be negative.");
+        }
+
+        if (snapshotIntervalSecs < 0) {
+            throw new InvalidPropertyValueException("Database.snapshotIntervalSecs cannot be negative.");
+        }
+
+        if (useOffHeap && !journalDirectory.isEmpty()) {
+            throw new InvalidPropertyValueException("Database.useOffHeap cannot be combined with Database.journalDirectory.");
+        }
+
+        this.journalDirectory = journalDirectory;
+        this.journalSegmentSizeMB = journalSegmentSizeMB;
+        this.journalFlushIntervalMillis = journalFlushIntervalMillis;
+        this.snapshotIntervalSecs = snapshotIntervalSecs;
+        this.compactServiceIds = compactServiceIds;
+        this.useOffHeap = useOffHeap;
+    }
+
+    @Nonnull
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public int getJournalSegmentSizeMB() {
+        return journalSegmentSizeMB;
+    }
+
+    public int getJournalFlushIntervalMillis() {
+        return journalFlushIntervalMillis;
+    }
+
+    public int getSnapshotIntervalSecs() {
+        return snapshotIntervalSecs;
+    }
+
+    public boolean getCompactServiceIds() {
+        return compactServiceIds;
+    }
+
+    public boolean getUseOffHeap() {
+        return useOffHeap;
+    }
+}
@@ -16,32 +16,288 @@
 
 package com.tomtom.services.notifications.dao.memory;
 
+import com.google.common.collect.AbstractIterator;
+import com.tomtom.services.notifications.Notification;
 import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.SnapshotStatus;
 import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 public class NotificationDaoMemoryImpl implements NotificationDao {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoMemoryImpl.class);
+
+    /**
+     * Number of device IDs fetched from the index at once while writing a snapshot.
+     */
+    private static final int SNAPSHOT_PAGE_SIZE = 10000;
+
+    /**
+     * Minimum number of device IDs to look up in parallel. Smaller lookups are faster on the calling thread.
+     */
+    private static final int PARALLEL_LOOKUP_THRESHOLD = 1000;
 
     /**
      * This simple implementation uses a local (thread-safe) set to store the pending notifications.
      * The list contains the device IDs for which a notification is pending only, together with a
      * set of service IDs, for which the notification is valid.
      *
-     * To allow fail-over, you would back this set up by persisting to a data store, or replicating
-     * it to a slave node. We are leaving that as a pretty trivial exercise to the reader.
-     *
-     * Persisting to a data store can probably be done asynchronously. Also, the store would ONLY ever
-     * be read at start-up; never affecting performance.
+     * To survive a restart, the map can be backed by a journal on disk (see {@link NotificationJournal}).
+     * The journal is ONLY ever read at start-up; writes to it are batched, never affecting reads.
+     * The journal is compacted by writing a binary snapshot of the map (see {@link NotificationSnapshot}),
+     * which is memory-mapped and loaded in parallel at start-up.
      */
     @Nonnull
     private final Map<String, Set<String>> notifications = new ConcurrentHashMap<>();
 
+    /**
+     * The device IDs of the map above, kept sorted so pages of device IDs can be produced quickly.
+     * The index is only updated from within the (atomic) compute operations on the map, so the map
+     * and the index always contain the same device IDs. The index does not lock, so it does not
+     * serialize the compute operations for different device IDs.
+     */
+    @Nonnull
+    private final SortedDeviceIndex deviceIndex = new SortedDeviceIndex();
+
+    /**
+     * Optional journal. Every change is appended to the journal from within the (atomic) compute operations
+     * on the map, so the records for a device ID are in the same order as the changes. If the journal fails,
+     * the changes which are not on disk are rolled back and no more changes are made.
+     */
+    @Nullable
+    private final NotificationJournal journal;
+
+    /**
+     * Changes hold the read lock while they update the map and append to the journal. Compaction of the
+     * journal takes the write lock to start a new journal segment, so every change before that segment
+     * is visible in the map once the lock is released.
+     */
+    @Nonnull
+    private final ReadWriteLock compactionLock = new ReentrantReadWriteLock();
+    @Nullable
+    private final ScheduledExecutorService compactionExecutor;
+    @Nonnull
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    @Nullable
+    private final Thread shutdownHook;
+    private volatile boolean closed = false;
+
+    /**
+     * Status of the last snapshot and of the restore at start-up. Null if there is no journal.
+     */
+    @Nullable
+    private volatile SnapshotStatus snapshotStatus = null;
+
+    /**
+     * Optional dictionary of service IDs. If present, the service IDs of a device are stored as a compact
+     * bitset of dictionary codes (see {@link ServiceIdSet}), rather than as a hash set of strings.
+     */
+    @Nullable
+    private final ServiceIdDictionary dictionary;
+
+    /**
+     * Create an in-memory DAO without a journal. Its contents are lost when the service stops.
+     */
+    public NotificationDaoMemoryImpl() {
+        this(false);
+    }
+
+    /**
+     * Create an in-memory DAO without a journal. Its contents are lost when the service stops.
+     *
+     * @param compactServiceIds True if service IDs should be stored as compact bitsets.
+     */
+    public NotificationDaoMemoryImpl(final boolean compactServiceIds) {
+        this.journal = null;
+        this.compactionExecutor = null;
+        this.shutdownHook = null;
+        this.dictionary = compactServiceIds ? new ServiceIdDictionary() : null;
+    }
+
+    /**
+     * Create an in-memory DAO backed by a journal. The contents are restored from the journal first.
+     * Snapshots are only written when the journal grows too large.
+     *
+     * @param journal Journal, which has not been started yet.
+     * @throws IOException If the journal cannot be read or started.
+     */
+    public NotificationDaoMemoryImpl(@Nonnull final NotificationJournal journal) throws IOException {
+        this(journal, 0, false);
+    }
+
+    /**
+     * Create an in-memory DAO backed by a journal. The contents are restored from the latest snapshot and
+     * the journal first. The journal is closed when the service stops.
+     *
+     * @param journal              Journal, which has not been started yet.
+     * @param snapshotIntervalSecs Interval between snapshots in seconds, or 0 to only write a snapshot when
+     *                             the journal grows too large. Range: &gt;= 0.
+     * @param compactServiceIds    True if service IDs should be stored as compact bitsets.
+     * @throws IOException If the journal cannot be read or started.
+     */
+    public NotificationDaoMemoryImpl(
+            @Nonnull final NotificationJournal journal,
+            final int snapshotIntervalSecs,
+            final boolean compactServiceIds) throws IOException {
+        assert journal != null;
+        assert snapshotIntervalSecs >= 0;
+        this.journal = journal;
+        this.dictionary = compactServiceIds ? new ServiceIdDictionary() : null;
+        this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "NotificationJournalCompaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long startMillis = System.currentTimeMillis();
+        journal.replay(new NotificationJournal.Listener() {
+            @Override
+            public void onSnapshot(@Nonnull final Path file) throws IOException {
+                restoreSnapshot(file);
+            }
+
+            @Override
+            public void onPut(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) {
+                if (notifications.put(deviceId, encode(serviceIds)) == null) {
+                    deviceIndex.add(deviceId);
+                }
+            }
+
+            @Override
+            public void onRemove(@Nonnull final String deviceId) {
+                if (notifications.remove(deviceId) != null) {
+                    deviceIndex.remove(deviceId);
+                }
+            }
+        });
+        final long restoreDurationMillis = System.currentTimeMillis() - startMillis;
+        snapshotStatus = new SnapshotStatus(0, 0, 0, 0, restoreDurationMillis, notifications.size());
+        LOG.info("NotificationDaoMemoryImpl: restored from journal, nrOfDeviceIds={}, restoreDurationMillis={}",
+                notifications.size(), restoreDurationMillis);
+        journal.start(this::compactInBackground, this::rollBackJournal);
+        if (snapshotIntervalSecs > 0) {
+            compactionExecutor.scheduleWithFixedDelay(this::compactInBackground,
+                    snapshotIntervalSecs, snapshotIntervalSecs, TimeUnit.SECONDS);
+        }
+        shutdownHook = new Thread(this::close, "NotificationJournalShutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Stop compacting, write the remaining journal records to disk and close the journal. Changes made after
+     * this call fail. Does nothing if there is no journal. This is called automatically when the JVM shuts down.
+     */
+    public void close() {
+        if (journal == null) {
+            return;
+        }
+
+        // Let the changes in progress append their records first, so they are written to disk below.
+        compactionLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+        assert compactionExecutor != null;
+        compactionExecutor.shutdown();
+        try {
+            compactionExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (final IllegalStateException ignored) {
+                // The JVM is shutting down already.
+            }
+        }
+    }
+
+    /**
+     * Compact the journal: write a snapshot of the current contents and delete older journal segments.
+     * Changes are only held off while a new journal segment is started, not while the snapshot is written.
+     * Does nothing if there is no journal.
+     *
+     * @throws IOException If the journal could not be compacted.
+     */
+    public void compact() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        final int segmentNumber;
+        compactionLock.writeLock().lock();
+        try {
+            segmentNumber = journal.rotate();
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+
+        // Changes made during the compaction may or may not end up in the snapshot. That's fine,
+        // because they are in the new segments as well, which are replayed after the snapshot.
+        final long startMillis = System.currentTimeMillis();
+        final SortedEntryIterator entries = new SortedEntryIterator();
+        final Path file = journal.writeSnapshot(segmentNumber, entries);
+        final long endMillis = System.currentTimeMillis();
+        final SnapshotStatus status = snapshotStatus;
+        assert status != null;
+        snapshotStatus = new SnapshotStatus(endMillis, Files.size(file), endMillis - startMillis, entries.count,
+                status.getRestoreDurationMillis(), status.getRestoreNrOfDeviceIds());
+    }
+
+    /**
+     * Return the status of the snapshots.
+     *
+     * @return Snapshot status, or null if there is no journal.
+     */
+    @Override
+    @Nullable
+    public SnapshotStatus getSnapshotStatus() {
+        return snapshotStatus;
+    }
+
+    /**
+     * Return whether the journal works. Once the journal has failed, all changes fail.
+     *
+     * @return False if the journal has failed.
+     */
+    @Override
+    public boolean isHealthy() {
+        return (journal == null) || !journal.isFailed();
+    }
+
     @Override
     public final int getNrOfDeviceIds() {
         return notifications.size();
@@ -49,11 +305,20 @@ public class NotificationDaoMemoryImpl implements NotificationDao {
 
     @Override
     @Nonnull
-    @SuppressWarnings("ToArrayCallWithZeroLengthArrayArgument")
     public List<String> getAllDeviceIds() {
-        final String[] deviceIds = notifications.keySet().toArray(new String[0]);
-        Arrays.sort(deviceIds);
-        return Arrays.asList(deviceIds);
+        return deviceIndex.getAll();
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getDeviceIds(final int offset, final int count) {
+        return deviceIndex.getPage(offset, count);
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) {
+        return deviceIndex.getPageAfter(after, count);
     }
 
     @Override
@@ -67,12 +332,407 @@ public class NotificationDaoMemoryImpl implements NotificationDao {
     }
 
     @Override
-    public void removeServiceIds(@Nonnull final String deviceId) {
-        notifications.remove(deviceId);
+    @Nullable
+    public Set<String> findServiceIds(@Nonnull final String deviceId) {
+        return notifications.get(deviceId);
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) {
+        assert deviceIds != null;
+        return lookup(deviceIds, notifications::get);
+    }
+
+    /**
+     * Look up the service IDs of many device IDs, in parallel for large numbers of device IDs.
+     *
+     * @param deviceIds Device IDs.
+     * @param lookup    Function to find the service IDs of a device ID, or null if it doesn't exist. Must be
+     *                  thread-safe.
+     * @return Map of the device IDs that were found to their service IDs.
+     */
+    @Nonnull
+    static Map<String, Set<String>> lookup(
+            @Nonnull final Collection<String> deviceIds,
+            @Nonnull final Function<String, Set<String>> lookup) {
+        if (deviceIds.size() < PARALLEL_LOOKUP_THRESHOLD) {
+            final Map<String, Set<String>> found = new HashMap<>();
+            for (final String deviceId : deviceIds) {
+                final Set<String> serviceIds = lookup.apply(deviceId);
+                if (serviceIds != null) {
+                    found.put(deviceId, serviceIds);
+                }
+            }
+            return found;
+        }
+        final Map<String, Set<String>> found = new ConcurrentHashMap<>();
+        deviceIds.parallelStream().forEach(deviceId -> {
+            final Set<String> serviceIds = lookup.apply(deviceId);
+            if (serviceIds != null) {
+                found.put(deviceId, serviceIds);
+            }
+        });
+        return found;
+    }
+
+    @Override
+    public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
+        final long sequence = remove(deviceId, Collections.emptySet(), null);
+        try {
+            awaitJournal(sequence);
+        } catch (final IOException e) {
+            throw new EntityRemoveException("Cannot write journal, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
+        final long sequence = put(deviceId, serviceIds);
+        try {
+            awaitJournal(sequence);
+        } catch (final IOException e) {
+            throw new EntityStoreException("Cannot write journal, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+
+        // Apply all changes first and wait for the journal once, so the changes are written together.
+        long sequence = 0;
+        for (final Notification notification : notifications) {
+            sequence = put(notification.getDeviceId(), notification.getServiceIds());
+        }
+        try {
+            awaitJournal(sequence);
+        } catch (final IOException e) {
+            throw new EntityStoreException("Cannot write journal, nrOfNotifications=" + notifications.size(), e);
+        }
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        final long sequence = add(deviceId, (serviceId == null) ? Collections.emptySet() : Collections.singleton(serviceId));
+        try {
+            awaitJournal(sequence);
+        } catch (final IOException e) {
+            throw new EntityStoreException("Cannot write journal, deviceId=" + deviceId, e);
+        }
     }
 
     @Override
-    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) {
-        notifications.put(deviceId, serviceIds);
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+
+        // Apply all changes first and wait for the journal once, so the changes are written together.
+        long sequence = 0;
+        for (final Notification notification : notifications) {
+            sequence = add(notification.getDeviceId(), notification.getServiceIds());
+        }
+        try {
+            awaitJournal(sequence);
+        } catch (final IOException e) {
+            throw new EntityStoreException("Cannot write journal, nrOfNotifications=" + notifications.size(), e);
+        }
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        final long sequence = remove(deviceId, Collections.singleton(serviceId), null);
+        try {
+            awaitJournal(sequence);
+        } catch (final IOException e) {
+            throw new EntityRemoveException("Cannot write journal, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        assert notifications != null;
+
+        // The changes for different device IDs are independent, so sweep over them in parallel. Wait for
+        // the journal once, for the last record written by any of the changes.
+        final AtomicInteger nrOfChanges = new AtomicInteger();
+        final long sequence = notifications.parallelStream().
+                mapToLong(notification -> remove(notification.getDeviceId(), notification.getServiceIds(), nrOfChanges)).
+                max().orElse(0);
+        try {
+            awaitJournal(sequence);
+        } catch (final IOException e) {
+            throw new EntityRemoveException("Cannot write journal, nrOfNotifications=" + notifications.size(), e);
+        }
+        return nrOfChanges.get();
+    }
+
+    /**
+     * Return the representation of a set of service IDs which is stored in the map.
+     *
+     * @param serviceIds Service IDs.
+     * @return The set itself, or a compact set if a dictionary is used.
+     */
+    @Nonnull
+    private Set<String> encode(@Nonnull final Set<String> serviceIds) {
+        return (dictionary == null) ? serviceIds : dictionary.toSet(serviceIds);
+    }
+
+    /**
+     * Replace the service IDs of a device ID, creating the device ID if needed.
+     *
+     * @param deviceId   Device ID.
+     * @param serviceIds New service IDs, may be empty.
+     * @return Sequence number of the journal, see {@link #update(Runnable)}.
+     */
+    private long put(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) {
+        final Set<String> newServiceIds = encode(serviceIds);
+        return update(() -> notifications.compute(deviceId, (key, oldServiceIds) -> {
+            if (oldServiceIds == null) {
+                deviceIndex.add(key);
+            }
+            appendToJournal(key, newServiceIds, oldServiceIds);
+            return newServiceIds;
+        }));
+    }
+
+    /**
+     * Add service IDs to a device ID, creating the device ID if needed.
+     *
+     * @param deviceId   Device ID.
+     * @param serviceIds Service IDs to add, may be empty.
+     * @return Sequence number of the journal, see {@link #update(Runnable)}.
+     */
+    private long add(@Nonnull final String deviceId, @Nonnull final Collection<String> serviceIds) {
+        return update(() -> notifications.compute(deviceId, (key, oldServiceIds) -> {
+            if (oldServiceIds == null) {
+                deviceIndex.add(key);
+            } else if (oldServiceIds.containsAll(serviceIds)) {
+                return oldServiceIds;
+            }
+
+            final Set<String> newServiceIds = copyWith(oldServiceIds, serviceIds);
+            appendToJournal(key, newServiceIds, oldServiceIds);
+            return newServiceIds;
+        }));
+    }
+
+    /**
+     * Remove service IDs from a device ID. The device ID is removed if no service IDs remain. A device ID
+     * without service IDs (an ID-less service) is removed by any removal.
+     *
+     * @param deviceId    Device ID.
+     * @param serviceIds  Service IDs to remove, or empty to remove the device ID altogether.
+     * @param nrOfChanges Incremented if the device ID was changed or removed, may be null.
+     * @return Sequence number of the journal, see {@link #update(Runnable)}.
+     */
+    private long remove(
+            @Nonnull final String deviceId,
+            @Nonnull final Collection<String> serviceIds,
+            @Nullable final AtomicInteger nrOfChanges) {
+        return update(() -> notifications.computeIfPresent(deviceId, (key, oldServiceIds) -> {
+            Set<String> newServiceIds = oldServiceIds;
+            if (!serviceIds.isEmpty() && !oldServiceIds.isEmpty()) {
+                for (final String serviceId : serviceIds) {
+                    if (newServiceIds.contains(serviceId)) {
+                        newServiceIds = copyWithout(newServiceIds, serviceId);
+                    }
+                }
+                if (newServiceIds == oldServiceIds) {
+                    return oldServiceIds;
+                }
+            }
+            if (nrOfChanges != null) {
+                nrOfChanges.incrementAndGet();
+            }
+            if (serviceIds.isEmpty() || newServiceIds.isEmpty()) {
+                deviceIndex.remove(key);
+                appendToJournal(key, null, oldServiceIds);
+                return null;
+            }
+            appendToJournal(key, newServiceIds, oldServiceIds);
+            return newServiceIds;
+        }));
+    }
+
+    /**
+     * Return a copy of a set of service IDs with service IDs added. Never modify a set in place, as it
+     * may have been handed out to a reader.
+     *
+     * @param serviceIds      Service IDs, or null for none.
+     * @param addedServiceIds Service IDs to add.
+     * @return New set.
+     */
+    @Nonnull
+    private Set<String> copyWith(@Nullable final Set<String> serviceIds, @Nonnull final Collection<String> addedServiceIds) {
+        if (dictionary != null) {
+            ServiceIdSet set = (serviceIds == null) ? dictionary.empty() : (ServiceIdSet) serviceIds;
+            for (final String serviceId : addedServiceIds) {
+                set = set.with(serviceId);
+            }
+            return set;
+        }
+        final Set<String> copy = (serviceIds == null) ? new HashSet<>() : new HashSet<>(serviceIds);
+        copy.addAll(addedServiceIds);
+        return copy;
+    }
+
+    /**
+     * Return a copy of a set of service IDs with a service ID removed.
+     *
+     * @param serviceIds Service IDs.
+     * @param serviceId  Service ID to remove.
+     * @return New set.
+     */
+    @Nonnull
+    private Set<String> copyWithout(@Nonnull final Set<String> serviceIds, @Nonnull final String serviceId) {
+        if (dictionary != null) {
+            return ((ServiceIdSet) serviceIds).without(serviceId);
+        }
+        final Set<String> copy = new HashSet<>(serviceIds);
+        copy.remove(serviceId);
+        return copy;
+    }
+
+    /**
+     * Apply a change to the map, while holding off compaction of the journal.
+     *
+     * @param change Change to apply.
+     * @return Sequence number of the last record in the journal after the change, or 0 if there's no journal.
+     */
+    private long update(@Nonnull final Runnable change) {
+        if (journal == null) {
+            change.run();
+            return 0;
+        }
+        compactionLock.readLock().lock();
+        try {
+            if (closed || journal.isFailed()) {
+
+                // Don't apply the change. The returned sequence number is never written, so waiting for it fails.
+                return journal.getLastSequence() + 1;
+            }
+            change.run();
+            return journal.getLastSequence();
+        } finally {
+            compactionLock.readLock().unlock();
+        }
+    }
+
+    private void appendToJournal(
+            @Nonnull final String deviceId,
+            @Nullable final Set<String> serviceIds,
+            @Nullable final Set<String> oldServiceIds) {
+        if (journal != null) {
+            journal.append(deviceId, serviceIds, () -> restore(deviceId, oldServiceIds));
+        }
+    }
+
+    /**
+     * Restore the service IDs of a device ID, without writing them to the journal.
+     *
+     * @param deviceId   Device ID.
+     * @param serviceIds Service IDs, or null to remove the device ID.
+     */
+    private void restore(@Nonnull final String deviceId, @Nullable final Set<String> serviceIds) {
+        notifications.compute(deviceId, (key, currentServiceIds) -> {
+            if ((currentServiceIds == null) && (serviceIds != null)) {
+                deviceIndex.add(key);
+            } else if ((currentServiceIds != null) && (serviceIds == null)) {
+                deviceIndex.remove(key);
+            }
+            return serviceIds;
+        });
+    }
+
+    /**
+     * Roll back the changes which are not in the journal, after the journal failed. Changes are held off
+     * while rolling back, so the map matches the journal on disk afterwards.
+     */
+    private void rollBackJournal() {
+        assert journal != null;
+        compactionLock.writeLock().lock();
+        try {
+            journal.rollBack();
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    private void awaitJournal(final long sequence) throws IOException {
+        if (journal != null) {
+            journal.awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Load a snapshot into the (empty) map and index. The chunks of the snapshot are decoded and added to
+     * the map and the index in parallel.
+     *
+     * @param file Snapshot file.
+     * @throws IOException If the snapshot cannot be read.
+     */
+    private void restoreSnapshot(@Nonnull final Path file) throws IOException {
+        assert notifications.isEmpty();
+        final NotificationSnapshot.Chunk[] chunks = NotificationSnapshot.read(file);
+        Arrays.stream(chunks).parallel().forEach(chunk -> {
+            for (int i = 0; i < chunk.deviceIds.length; ++i) {
+                notifications.put(chunk.deviceIds[i], encode(chunk.serviceIds.get(i)));
+            }
+        });
+        final List<String> deviceIds = new ArrayList<>(notifications.size());
+        for (final NotificationSnapshot.Chunk chunk : chunks) {
+            Collections.addAll(deviceIds, chunk.deviceIds);
+        }
+        deviceIndex.addAllSorted(deviceIds);
+    }
+
+    /**
+     * Iterates over the map in device ID order, a page of the index at a time, so it doesn't need a copy
+     * of the map. Device IDs which are removed while iterating are skipped.
+     */
+    private final class SortedEntryIterator extends AbstractIterator<Map.Entry<String, Set<String>>> {
+        @Nonnull
+        private Iterator<String> page = Collections.emptyIterator();
+        @Nullable
+        private String last = null;
+        private boolean lastPage = false;
+        private int count = 0;
+
+        @Override
+        @Nullable
+        protected Map.Entry<String, Set<String>> computeNext() {
+            while (true) {
+                while (page.hasNext()) {
+                    final String deviceId = page.next();
+                    last = deviceId;
+                    final Set<String> serviceIds = notifications.get(deviceId);
+                    if (serviceIds != null) {
+                        ++count;
+                        return new AbstractMap.SimpleImmutableEntry<>(deviceId, serviceIds);
+                    }
+                }
+                if (lastPage) {
+                    return endOfData();
+                }
+                final List<String> deviceIds = deviceIndex.getPageAfter(last, SNAPSHOT_PAGE_SIZE);
+                lastPage = deviceIds.size() < SNAPSHOT_PAGE_SIZE;
+                page = deviceIds.iterator();
+            }
+        }
+    }
+
+    private void compactInBackground() {
+        assert compactionExecutor != null;
+        if (!closed && compacting.compareAndSet(false, true)) {
+            compactionExecutor.execute(() -> {
+                try {
+                    compact();
+                } catch (final IOException e) {
+                    LOG.error("compactInBackground: cannot compact journal", e);
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
     }
 }
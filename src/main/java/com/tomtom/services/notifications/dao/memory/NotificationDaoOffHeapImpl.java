@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This implementation keeps the pending notifications in memory, like {@link NotificationDaoMemoryImpl},
+ * but outside of the Java heap (see {@link OffHeapDeviceTable}). It is meant for very large numbers of device
+ * IDs, where a heap-based map would make garbage collection pauses grow with the number of device IDs.
+ *
+ * The device IDs are not kept sorted, so producing a page of device IDs requires a scan of all device
+ * IDs. That's fine for the monitoring calls which use it, but they should not be called often.
+ * The contents are lost when the service stops.
+ */
+public class NotificationDaoOffHeapImpl implements NotificationDao {
+
+    /**
+     * Number of segments of the table, each with its own lock.
+     */
+    private static final int NR_OF_SEGMENTS = 256;
+
+    @Nonnull
+    private final ServiceIdDictionary dictionary = new ServiceIdDictionary();
+    @Nonnull
+    private final OffHeapDeviceTable table = new OffHeapDeviceTable(NR_OF_SEGMENTS, dictionary);
+
+    @Override
+    public int getNrOfDeviceIds() {
+        return table.size();
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getAllDeviceIds() {
+        final List<String> deviceIds = new ArrayList<>(table.size());
+        table.forEachDeviceId(deviceIds::add);
+        Collections.sort(deviceIds);
+        return deviceIds;
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getDeviceIds(final int offset, final int count) {
+        assert count >= 0;
+        final int nrOfDeviceIds = table.size();
+        final int from = (offset < 0) ? Math.max(0, nrOfDeviceIds + offset) : offset;
+        if ((count == 0) || (from >= nrOfDeviceIds)) {
+            return Collections.emptyList();
+        }
+
+        // Keep the smallest 'from + count' device IDs only.
+        final List<String> deviceIds = smallest(null, (int) Math.min((long) from + count, nrOfDeviceIds));
+        return (from >= deviceIds.size()) ? Collections.emptyList() :
+                new ArrayList<>(deviceIds.subList(from, Math.min(deviceIds.size(), from + count)));
+    }
+
+    @Override
+    @Nonnull
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) {
+        assert count >= 0;
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        return smallest(after, count);
+    }
+
+    @Override
+    @Nonnull
+    public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException {
+        final Set<String> serviceIds = table.get(deviceId);
+        if (serviceIds == null) {
+            throw new EntityNotFoundException("No entry found for: " + deviceId);
+        }
+        return serviceIds;
+    }
+
+    @Override
+    @Nullable
+    public Set<String> findServiceIds(@Nonnull final String deviceId) {
+        assert deviceId != null;
+        return table.get(deviceId);
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) {
+        assert deviceIds != null;
+        return NotificationDaoMemoryImpl.lookup(deviceIds, table::get);
+    }
+
+    @Override
+    public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
+        assert deviceId != null;
+        try {
+            table.compute(deviceId, oldServiceIds -> null);
+        } catch (final IllegalStateException e) {
+            throw new EntityRemoveException("Cannot remove from off-heap table, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
+        assert deviceId != null;
+        assert serviceIds != null;
+        final ServiceIdSet newServiceIds = dictionary.toSet(serviceIds);
+        try {
+            table.compute(deviceId, oldServiceIds -> newServiceIds);
+        } catch (final IllegalStateException e) {
+            throw new EntityStoreException("Cannot store in off-heap table, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+        for (final Notification notification : notifications) {
+            putServiceIds(notification.getDeviceId(), notification.getServiceIds());
+        }
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        assert deviceId != null;
+        try {
+            table.compute(deviceId, oldServiceIds -> {
+                final ServiceIdSet serviceIds = (oldServiceIds == null) ? dictionary.empty() : oldServiceIds;
+                return (serviceId == null) ? serviceIds : serviceIds.with(serviceId);
+            });
+        } catch (final IllegalStateException e) {
+            throw new EntityStoreException("Cannot store in off-heap table, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+        for (final Notification notification : notifications) {
+            try {
+                table.compute(notification.getDeviceId(), oldServiceIds -> {
+                    ServiceIdSet serviceIds = (oldServiceIds == null) ? dictionary.empty() : oldServiceIds;
+                    for (final String serviceId : notification.getServiceIds()) {
+                        serviceIds = serviceIds.with(serviceId);
+                    }
+                    return serviceIds;
+                });
+            } catch (final IllegalStateException e) {
+                throw new EntityStoreException("Cannot store in off-heap table, deviceId=" + notification.getDeviceId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        assert deviceId != null;
+        assert serviceId != null;
+        try {
+            table.compute(deviceId, oldServiceIds -> {
+                if ((oldServiceIds == null) || oldServiceIds.isEmpty()) {
+                    return null;
+                }
+                final ServiceIdSet serviceIds = oldServiceIds.without(serviceId);
+                return serviceIds.isEmpty() ? null : serviceIds;
+            });
+        } catch (final IllegalStateException e) {
+            throw new EntityRemoveException("Cannot remove from off-heap table, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        assert notifications != null;
+        final AtomicInteger nrOfChanges = new AtomicInteger();
+        for (final Notification notification : notifications) {
+            try {
+                table.compute(notification.getDeviceId(), oldServiceIds -> {
+                    if (oldServiceIds == null) {
+                        return null;
+                    }
+                    ServiceIdSet serviceIds = oldServiceIds;
+                    if (!notification.getServiceIds().isEmpty() && !oldServiceIds.isEmpty()) {
+                        for (final String serviceId : notification.getServiceIds()) {
+                            serviceIds = serviceIds.without(serviceId);
+                        }
+                        if (serviceIds.equals(oldServiceIds)) {
+                            return oldServiceIds;
+                        }
+                    }
+                    nrOfChanges.incrementAndGet();
+                    return (notification.getServiceIds().isEmpty() || serviceIds.isEmpty()) ? null : serviceIds;
+                });
+            } catch (final IllegalStateException e) {
+                throw new EntityRemoveException("Cannot remove from off-heap table, deviceId=" + notification.getDeviceId(), e);
+            }
+        }
+        return nrOfChanges.get();
+    }
+
+    /**
+     * Return the smallest device IDs after a device ID, sorted, with a single scan of the table.
+     *
+     * @param after Return device IDs after this one, or null to start at the first device ID.
+     * @param count Maximum number of device IDs. Range: &gt; 0.
+     * @return Device IDs.
+     */
+    @Nonnull
+    private List<String> smallest(@Nullable final String after, final int count) {
+        assert count > 0;
+        final PriorityQueue<String> largestFirst = new PriorityQueue<>(Math.min(count, 1024), Collections.reverseOrder());
+        table.forEachDeviceId(deviceId -> {
+            if ((after == null) || (deviceId.compareTo(after) > 0)) {
+                if (largestFirst.size() < count) {
+                    largestFirst.add(deviceId);
+                } else if (deviceId.compareTo(largestFirst.peek()) < 0) {
+                    largestFirst.poll();
+                    largestFirst.add(deviceId);
+                }
+            }
+        });
+        final List<String> deviceIds = new ArrayList<>(largestFirst);
+        Collections.sort(deviceIds);
+        return deviceIds;
+    }
+}
@@ -0,0 +1,791 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the state of device IDs, which allows the in-memory DAO to survive a restart.
+ *
+ * Every record contains the full set of service IDs of a device ID after a change (or the removal of the
+ * device ID), so replaying a record more than once is harmless. Records are appended to a buffer in memory
+ * first; a single flusher thread writes the buffer to the current journal segment and forces it to disk
+ * (group commit), so many concurrent writers share a single disk sync. Writers call
+ * {@link #awaitDurable(long)} to wait until their record is on disk.
+ *
+ * Segments are preallocated (filled with zeros) in the background, so appending never has to grow a file.
+ * When the next batch of records doesn't fit in the current segment, the journal continues with the next
+ * segment first. Only a single batch which is larger than a segment grows its segment. When there are too
+ * many segments, the journal asks its owner to compact it: the owner writes the full state to a binary
+ * snapshot with {@link #writeSnapshot(int, Iterator)}, after which all older segments are deleted.
+ *
+ * If a batch cannot be written, the flusher abandons the segment and writes the batch to the next segment
+ * (records may be replayed more than once, so a partially written copy in the abandoned segment is harmless).
+ * If that fails as well, the journal fails: it asks its owner to roll back the changes of all records which
+ * are not on disk (see {@link #rollBack()}), after which waiting for those records fails.
+ *
+ * Files in the journal directory:
+ * <pre>
+ *     journal-NNNNNNNN.log   Journal segment NNNNNNNN.
+ *     snapshot-NNNNNNNN.bin  Full state before journal segment NNNNNNNN (see {@link NotificationSnapshot}).
+ * </pre>
+ * Each segment starts with a header (magic number and version) followed by records. A record consists of its
+ * length, a CRC-32 checksum and the record itself. A length of 0 marks the end of the records in a segment.
+ */
+public final class NotificationJournal implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationJournal.class);
+
+    /**
+     * Called for every record while replaying the journal.
+     */
+    public interface Listener {
+
+        /**
+         * A device ID was stored or changed.
+         *
+         * @param deviceId   Device ID.
+         * @param serviceIds Service IDs of the device ID (may be empty).
+         */
+        void onPut(@Nonnull String deviceId, @Nonnull Set<String> serviceIds);
+
+        /**
+         * A device ID was removed.
+         *
+         * @param deviceId Device ID.
+         */
+        void onRemove(@Nonnull String deviceId);
+
+        /**
+         * A snapshot must be restored. This is called before any other method.
+         *
+         * @param file Snapshot file.
+         * @throws IOException If the snapshot cannot be read.
+         */
+        void onSnapshot(@Nonnull Path file) throws IOException;
+    }
+
+    private static final int MAGIC = 0x504E534A;        // "PNSJ".
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final int PREALLOCATE_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The journal asks for compaction if it has more than this number of segments since the last snapshot.
+     */
+    private static final int MAX_NR_OF_SEGMENTS = 4;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern FILE_NAME_PATTERN = Pattern.compile("(journal-(\\d{8})\\.log)|(snapshot-(\\d{8})\\.bin)");
+
+    @Nonnull
+    private final Path directory;
+    private final int segmentSize;
+    private final int flushIntervalMillis;
+
+    /**
+     * Records not written to disk yet, and the sequence number of the last record. Guarded by appendLock.
+     */
+    @Nonnull
+    private final Object appendLock = new Object();
+    @Nonnull
+    private Buffer pending = new Buffer();
+    @Nonnull
+    private Buffer spare = new Buffer();
+    private long lastSequence = 0;
+
+    /**
+     * The sequence number of the last record on disk, or the failure of the journal. Guarded by durableLock.
+     * The failure is only set after the changes of the records which are not on disk have been rolled back.
+     */
+    @Nonnull
+    private final Object durableLock = new Object();
+    private long durableSequence = 0;
+    @Nullable
+    private IOException failure = null;
+    private volatile boolean failed = false;
+
+    /**
+     * The current segment. Guarded by fileLock.
+     */
+    @Nonnull
+    private final Lock fileLock = new ReentrantLock();
+    @Nullable
+    private FileChannel segment = null;
+    private int segmentNumber = 0;
+    private int snapshotNumber = 0;
+    @Nullable
+    private Future<FileChannel> nextSegment = null;
+
+    @Nonnull
+    private final ExecutorService preallocator = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "NotificationJournalPreallocator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    @Nullable
+    private Thread flusher = null;
+    @Nullable
+    private Runnable compactionListener = null;
+    @Nullable
+    private Runnable failureListener = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a journal. Call {@link #replay(Listener)} and {@link #start(Runnable)} before appending records.
+     *
+     * @param directory           Directory for the journal files. Created if it doesn't exist.
+     * @param segmentSize         Size of a journal segment in bytes. Range: &gt; 0.
+     * @param flushIntervalMillis Time to collect records before writing them to disk in milliseconds. A longer
+     *                            interval means larger batches, but longer waits for writers. Range: &gt;= 0.
+     * @throws IOException If the directory cannot be created.
+     */
+    public NotificationJournal(
+            @Nonnull final File directory,
+            final int segmentSize,
+            final int flushIntervalMillis) throws IOException {
+        assert directory != null;
+        assert segmentSize > 0;
+        assert flushIntervalMillis >= 0;
+        this.directory = directory.toPath();
+        this.segmentSize = segmentSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Replay the journal: the latest snapshot first, followed by all later segments. Records after a
+     * damaged record in a segment (for example, a record which was only partially written during a crash)
+     * are skipped.
+     *
+     * @param listener Listener to call for every record.
+     * @throws IOException If the journal cannot be read.
+     */
+    public void replay(@Nonnull final Listener listener) throws IOException {
+        assert listener != null;
+        assert flusher == null;
+
+        // Find the files, ordered by number.
+        final TreeMap<Integer, Path> segments = new TreeMap<>();
+        final TreeMap<Integer, Path> snapshots = new TreeMap<>();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                final Matcher matcher = FILE_NAME_PATTERN.matcher(name);
+                if (matcher.matches()) {
+                    if (matcher.group(1) != null) {
+                        segments.put(Integer.parseInt(matcher.group(2)), file);
+                    } else {
+                        snapshots.put(Integer.parseInt(matcher.group(4)), file);
+                    }
+                } else if (name.endsWith(TMP_SUFFIX)) {
+
+                    // Left over from an interrupted compaction.
+                    Files.delete(file);
+                }
+            }
+        }
+
+        // Restore the latest snapshot and replay the segments after it.
+        if (!snapshots.isEmpty()) {
+            snapshotNumber = snapshots.lastKey();
+            listener.onSnapshot(snapshots.lastEntry().getValue());
+        }
+        long nrOfRecords = 0;
+        for (final Map.Entry<Integer, Path> entry : segments.tailMap(snapshotNumber).entrySet()) {
+            nrOfRecords = nrOfRecords + replayFile(entry.getValue(), listener);
+        }
+        deleteFilesBefore(snapshotNumber);
+
+        // Never append to existing segments, but continue with a new one.
+        segmentNumber = Math.max(snapshotNumber, segments.isEmpty() ? 0 : segments.lastKey()) + 1;
+        LOG.info("replay: directory={}, snapshotNumber={}, nrOfRecords={}, nextSegmentNumber={}",
+                directory, snapshotNumber, nrOfRecords, segmentNumber);
+    }
+
+    /**
+     * Start the journal: open a new segment and start the flusher thread.
+     *
+     * @param compactionListener Called (on the flusher thread) when the journal should be compacted.
+     * @param failureListener    Called once when the journal fails. It must hold off changes and call
+     *                           {@link #rollBack()}.
+     * @throws IOException If the segment cannot be created.
+     */
+    public void start(@Nonnull final Runnable compactionListener, @Nonnull final Runnable failureListener) throws IOException {
+        assert compactionListener != null;
+        assert failureListener != null;
+        assert flusher == null;
+        this.compactionListener = compactionListener;
+        this.failureListener = failureListener;
+        segment = createSegment(segmentNumber);
+        nextSegment = preallocator.submit(() -> createSegment(segmentNumber + 1));
+        flusher = new Thread(this::flushLoop, "NotificationJournalFlusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Append a record for a device ID to the journal. The record is not on disk yet when this method returns.
+     *
+     * @param deviceId   Device ID.
+     * @param serviceIds New service IDs of the device ID, or null if the device ID was removed.
+     * @param undo       Undoes the change of the record, if the journal fails before the record is on disk.
+     * @return Sequence number of the record, to pass to {@link #awaitDurable(long)}.
+     */
+    public long append(@Nonnull final String deviceId, @Nullable final Set<String> serviceIds, @Nonnull final Runnable undo) {
+        assert deviceId != null;
+        assert undo != null;
+        final byte[] record = encode(deviceId, serviceIds);
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        synchronized (appendLock) {
+            final boolean wasEmpty = (pending.size() == 0);
+            pending.writeInt(record.length);
+            pending.writeInt((int) crc.getValue());
+            pending.write(record, 0, record.length);
+            pending.undos.add(undo);
+            ++lastSequence;
+            if (wasEmpty) {
+                appendLock.notifyAll();
+            }
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Return the sequence number of the last record appended to the journal.
+     *
+     * @return Sequence number.
+     */
+    public long getLastSequence() {
+        synchronized (appendLock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Wait until a record is on disk.
+     *
+     * @param sequence Sequence number of the record.
+     * @throws IOException If the record could not be written to disk.
+     */
+    public void awaitDurable(final long sequence) throws IOException {
+        synchronized (durableLock) {
+            while ((durableSequence < sequence) && (failure == null)) {
+                try {
+                    durableLock.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for journal", e);
+                }
+            }
+            if (durableSequence < sequence) {
+                throw new IOException("Journal failed", failure);
+            }
+        }
+    }
+
+    /**
+     * Return whether the journal has failed. Changes should no longer be made once it has.
+     *
+     * @return True if the journal has failed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Undo the changes of all records which are not on disk, newest first, and drop the records. This must
+     * only be called by the failure listener, while it holds off changes.
+     */
+    public void rollBack() {
+        assert failed;
+        final List<Runnable> undos = new ArrayList<>();
+        fileLock.lock();
+        try {
+            synchronized (appendLock) {
+
+                // The spare buffer holds the batch which could not be written, the pending buffer the later records.
+                undos.addAll(spare.undos);
+                undos.addAll(pending.undos);
+                spare.reset();
+                pending.reset();
+            }
+        } finally {
+            fileLock.unlock();
+        }
+        Collections.reverse(undos);
+        undos.forEach(Runnable::run);
+        LOG.warn("rollBack: changes rolled back, nrOfRecords={}", undos.size());
+    }
+
+    /**
+     * Write all records to disk and continue with a new segment. All records appended before this call
+     * are in segments before the returned segment number.
+     *
+     * @return Number of the new segment.
+     * @throws IOException If the records could not be written or the segment could not be created.
+     */
+    public int rotate() throws IOException {
+        IOException error;
+        fileLock.lock();
+        try {
+            if (failed) {
+                throw new IOException("Journal failed");
+            }
+            flushPending();
+            rotateSegment();
+            return segmentNumber;
+        } catch (final IOException e) {
+            error = e;
+        } finally {
+            fileLock.unlock();
+        }
+        fail(error);
+        throw error;
+    }
+
+    /**
+     * Write a snapshot with the full state before a segment, and delete all older files. Writers are
+     * not blocked while the snapshot is written.
+     *
+     * @param number  Segment number, as returned by {@link #rotate()}.
+     * @param entries State of all device IDs, preferably sorted. The state may include changes that were
+     *                appended to the journal after the segment was started.
+     * @return Snapshot file.
+     * @throws IOException If the snapshot could not be written.
+     */
+    @Nonnull
+    public Path writeSnapshot(final int number, @Nonnull final Iterator<Map.Entry<String, Set<String>>> entries) throws IOException {
+        assert entries != null;
+        final Path file = directory.resolve(fileName(SNAPSHOT_PREFIX, number, SNAPSHOT_SUFFIX));
+        final Path tmpFile = directory.resolve(fileName(SNAPSHOT_PREFIX, number, SNAPSHOT_SUFFIX) + TMP_SUFFIX);
+        final int nrOfDeviceIds = NotificationSnapshot.write(tmpFile, entries);
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+        fileLock.lock();
+        try {
+            snapshotNumber = number;
+        } finally {
+            fileLock.unlock();
+        }
+        deleteFilesBefore(number);
+        LOG.info("writeSnapshot: snapshotNumber={}, nrOfDeviceIds={}", number, nrOfDeviceIds);
+        return file;
+    }
+
+    /**
+     * Write all records to disk and stop the journal. Waiting for records appended after this call fails.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (appendLock) {
+            appendLock.notifyAll();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (durableLock) {
+            if (failure == null) {
+                failure = new IOException("Journal closed");
+            }
+            durableLock.notifyAll();
+        }
+        preallocator.shutdownNow();
+        fileLock.lock();
+        try {
+            closeQuietly(segment);
+            segment = null;
+            if (nextSegment != null) {
+                try {
+                    closeQuietly(nextSegment.get());
+                } catch (final InterruptedException | ExecutionException ignored) {
+                    // Ignore.
+                }
+            }
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (appendLock) {
+                while ((pending.size() == 0) && !closed && !failed) {
+                    try {
+                        appendLock.wait();
+                    } catch (final InterruptedException ignored) {
+                        return;
+                    }
+                }
+            }
+
+            // Collect more records, so they are written together.
+            if ((flushIntervalMillis > 0) && !closed) {
+                try {
+                    Thread.sleep(flushIntervalMillis);
+                } catch (final InterruptedException ignored) {
+                    return;
+                }
+            }
+            boolean compact = false;
+            IOException error = null;
+            fileLock.lock();
+            try {
+                if (failed) {
+                    return;
+                }
+                final int oldSegmentNumber = segmentNumber;
+                flushPending();
+                compact = (segmentNumber != oldSegmentNumber) && ((segmentNumber - snapshotNumber) > MAX_NR_OF_SEGMENTS);
+            } catch (final IOException e) {
+                error = e;
+            } finally {
+                fileLock.unlock();
+            }
+            if (error != null) {
+                fail(error);
+                return;
+            }
+            if (compact && (compactionListener != null)) {
+                compactionListener.run();
+            }
+            if (closed) {
+                synchronized (appendLock) {
+                    if (pending.size() == 0) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the pending records to the current segment and force them to disk. If the records don't fit in
+     * the rest of the current segment (including the end marker), continue with the next segment first.
+     * If the records cannot be written, abandon the segment and write them to the next segment. If that
+     * fails too, the records are left in the spare buffer, so they can be rolled back.
+     * Must be called with fileLock held.
+     */
+    private void flushPending() throws IOException {
+        final Buffer buffer;
+        final long sequence;
+        synchronized (appendLock) {
+            if (pending.size() == 0) {
+                return;
+            }
+            buffer = pending;
+            pending = spare;
+            spare = buffer;
+            sequence = lastSequence;
+        }
+        assert segment != null;
+        if ((segment.position() > HEADER_SIZE) &&
+                ((segment.position() + buffer.size() + Integer.BYTES) > segmentSize)) {
+            rotateSegment();
+        }
+        try {
+            buffer.writeTo(segment);
+            segment.force(false);
+        } catch (final IOException e) {
+            LOG.error("flushPending: cannot write journal segment, continuing with next segment, segmentNumber={}",
+                    segmentNumber, e);
+            closeQuietly(segment);
+            openNextSegment();
+            buffer.writeTo(segment);
+            segment.force(false);
+        }
+        synchronized (durableLock) {
+            durableSequence = sequence;
+            durableLock.notifyAll();
+        }
+    }
+
+    /**
+     * Continue with the next (preallocated) segment. Must be called with fileLock held.
+     */
+    private void rotateSegment() throws IOException {
+        assert segment != null;
+        segment.force(true);
+        segment.close();
+        openNextSegment();
+    }
+
+    /**
+     * Replace the (closed) current segment by the next (preallocated) segment. Must be called with fileLock held.
+     */
+    private void openNextSegment() throws IOException {
+        assert nextSegment != null;
+        try {
+            segment = nextSegment.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating journal segment", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("Cannot create journal segment", e.getCause());
+        }
+        ++segmentNumber;
+        final int number = segmentNumber + 1;
+        nextSegment = preallocator.submit(() -> createSegment(number));
+    }
+
+    /**
+     * Fail the journal: have the owner roll back the changes which are not on disk, and fail the writers
+     * waiting for them. Must be called without holding fileLock.
+     */
+    private void fail(@Nonnull final IOException e) {
+        synchronized (durableLock) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+        }
+        LOG.error("fail: journal failed, rolling back changes which are not on disk, directory={}", directory, e);
+        synchronized (appendLock) {
+            appendLock.notifyAll();
+        }
+        assert failureListener != null;
+        failureListener.run();
+        synchronized (durableLock) {
+            failure = e;
+            durableLock.notifyAll();
+        }
+    }
+
+    /**
+     * Create a segment filled with zeros, positioned after the header.
+     */
+    @Nonnull
+    private FileChannel createSegment(final int number) throws IOException {
+        final FileChannel channel = FileChannel.open(directory.resolve(fileName(SEGMENT_PREFIX, number, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final ByteBuffer zeros = ByteBuffer.allocate(PREALLOCATE_CHUNK_SIZE);
+            long position = channel.size();
+            while (position < segmentSize) {
+                zeros.clear();
+                zeros.limit((int) Math.min(PREALLOCATE_CHUNK_SIZE, segmentSize - position));
+                position = position + channel.write(zeros, position);
+            }
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+            channel.force(true);
+            channel.position(HEADER_SIZE);
+            return channel;
+        } catch (final IOException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Replay a single file and return the number of records.
+     */
+    private static long replayFile(@Nonnull final Path file, @Nonnull final Listener listener) throws IOException {
+        long nrOfRecords = 0;
+        try (final InputStream inputStream = Files.newInputStream(file);
+             final DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream))) {
+            if ((input.readInt() != MAGIC) || (input.readInt() != VERSION)) {
+                throw new IOException("Not a journal file: " + file);
+            }
+            final CRC32 crc = new CRC32();
+            while (true) {
+                final int length = input.readInt();
+                if (length == 0) {
+                    break;
+                }
+                final int checksum = input.readInt();
+                if (length < 0) {
+                    LOG.warn("replayFile: damaged record, skipping rest of file, file={}, nrOfRecords={}", file, nrOfRecords);
+                    break;
+                }
+                final byte[] record = new byte[length];
+                input.readFully(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("replayFile: damaged record, skipping rest of file, file={}, nrOfRecords={}", file, nrOfRecords);
+                    break;
+                }
+                decode(record, listener);
+                ++nrOfRecords;
+            }
+        } catch (final EOFException ignored) {
+            LOG.warn("replayFile: unexpected end of file, file={}, nrOfRecords={}", file, nrOfRecords);
+        }
+        return nrOfRecords;
+    }
+
+    @Nonnull
+    private static byte[] encode(@Nonnull final String deviceId, @Nullable final Set<String> serviceIds) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte((serviceIds == null) ? RECORD_REMOVE : RECORD_PUT);
+            writeString(output, deviceId);
+            if (serviceIds != null) {
+                output.writeInt(serviceIds.size());
+                for (final String serviceId : serviceIds) {
+                    writeString(output, serviceId);
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Cannot write to memory", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void decode(@Nonnull final byte[] record, @Nonnull final Listener listener) throws IOException {
+        final ByteBuffer input = ByteBuffer.wrap(record);
+        final byte type = input.get();
+        final String deviceId = readString(input);
+        if (type == RECORD_REMOVE) {
+            listener.onRemove(deviceId);
+        } else if (type == RECORD_PUT) {
+            final int nrOfServiceIds = input.getInt();
+            final Set<String> serviceIds = (nrOfServiceIds == 0) ? new HashSet<>() : new HashSet<>(nrOfServiceIds * 2);
+            for (int i = 0; i < nrOfServiceIds; ++i) {
+                serviceIds.add(readString(input));
+            }
+            listener.onPut(deviceId, serviceIds);
+        } else {
+            throw new IOException("Unknown journal record type: " + type);
+        }
+    }
+
+    private static void writeString(@Nonnull final DataOutputStream output, @Nonnull final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    @Nonnull
+    private static String readString(@Nonnull final ByteBuffer input) {
+        final int length = input.getInt();
+        final String value = new String(input.array(), input.position(), length, StandardCharsets.UTF_8);
+        input.position(input.position() + length);
+        return value;
+    }
+
+    private void deleteFilesBefore(final int number) throws IOException {
+        final List<Path> obsolete = new ArrayList<>();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                final Matcher matcher = FILE_NAME_PATTERN.matcher(file.getFileName().toString());
+                if (matcher.matches() &&
+                        (Integer.parseInt((matcher.group(1) != null) ? matcher.group(2) : matcher.group(4)) < number)) {
+                    obsolete.add(file);
+                }
+            }
+        }
+        Collections.sort(obsolete);
+        for (final Path file : obsolete) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Nonnull
+    private static String fileName(@Nonnull final String prefix, final int number, @Nonnull final String suffix) {
+        return String.format("%s%08d%s", prefix, number, suffix);
+    }
+
+    private static void closeQuietly(@Nullable final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException ignored) {
+                // Ignore.
+            }
+        }
+    }
+
+    /**
+     * Byte buffer which can be written to a channel without copying, with the undo actions of its records.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        @Nonnull
+        final List<Runnable> undos = new ArrayList<>();
+
+        @Override
+        public void reset() {
+            super.reset();
+            undos.clear();
+        }
+
+        void writeInt(final int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeTo(@Nonnull final FileChannel channel) throws IOException {
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(buf, 0, count);
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+            reset();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of the in-memory store, which can be read back in parallel.
+ *
+ * Device IDs are written in chunks of (at most) {@link #CHUNK_SIZE} device IDs. Service IDs are stored only
+ * once, in a dictionary; devices refer to them by their index in the dictionary. Strings are length-prefixed
+ * UTF-8. All lengths, counts and indexes are variable-length integers (7 bits per byte).
+ *
+ * The dictionary and the chunk table are written after the chunks, so a snapshot can be written in a single
+ * pass over the store, without blocking writers. The file is laid out as follows:
+ * <pre>
+ *     header:      int magic, int version
+ *     chunks:      per device: deviceId, nrOfServiceIds, serviceId index*
+ *     dictionary:  nrOfServiceIds, serviceId*
+ *     chunk table: per chunk: long offset, int length, int nrOfDeviceIds, int crc32
+ *     trailer:     long dictionaryOffset, int dictionaryLength, int dictionaryCrc32,
+ *                  long chunkTableOffset, int nrOfChunks, int nrOfDeviceIds, int magic
+ * </pre>
+ * A snapshot is read by memory-mapping the file and decoding the chunks concurrently.
+ */
+final class NotificationSnapshot {
+
+    /**
+     * A decoded chunk of device IDs, in the same order as they were written.
+     */
+    static final class Chunk {
+        @Nonnull
+        final String[] deviceIds;
+        @Nonnull
+        final List<Set<String>> serviceIds;
+
+        Chunk(@Nonnull final String[] deviceIds, @Nonnull final List<Set<String>> serviceIds) {
+            this.deviceIds = deviceIds;
+            this.serviceIds = serviceIds;
+        }
+    }
+
+    private static final int MAGIC = 0x504E5353;        // "PNSS".
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int CHUNK_TABLE_ENTRY_SIZE = 20;
+    private static final int TRAILER_SIZE = 36;
+
+    /**
+     * Maximum number of device IDs per chunk.
+     */
+    static final int CHUNK_SIZE = 65536;
+
+    private NotificationSnapshot() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Write a snapshot.
+     *
+     * @param file    File to write. Overwritten if it exists.
+     * @param entries Device IDs and their service IDs. If the device IDs are sorted, the snapshot is sorted too.
+     * @return Number of device IDs written.
+     * @throws IOException If the file could not be written.
+     */
+    static int write(@Nonnull final Path file, @Nonnull final Iterator<Map.Entry<String, Set<String>>> entries) throws IOException {
+        assert file != null;
+        assert entries != null;
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final List<String> serviceIds = new ArrayList<>();
+        final Output chunkTable = new Output();
+        int nrOfChunks = 0;
+        int nrOfDeviceIds = 0;
+        try (final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(channel, header);
+
+            // Write the chunks, collecting the service IDs on the fly.
+            final Output chunk = new Output();
+            int nrOfDeviceIdsInChunk = 0;
+            while (entries.hasNext()) {
+                final Map.Entry<String, Set<String>> entry = entries.next();
+                chunk.writeString(entry.getKey());
+                chunk.writeVarInt(entry.getValue().size());
+                for (final String serviceId : entry.getValue()) {
+                    Integer index = dictionary.get(serviceId);
+                    if (index == null) {
+                        index = serviceIds.size();
+                        dictionary.put(serviceId, index);
+                        serviceIds.add(serviceId);
+                    }
+                    chunk.writeVarInt(index);
+                }
+                ++nrOfDeviceIdsInChunk;
+                ++nrOfDeviceIds;
+                if (nrOfDeviceIdsInChunk == CHUNK_SIZE) {
+                    writeChunk(channel, chunk, nrOfDeviceIdsInChunk, chunkTable);
+                    ++nrOfChunks;
+                    nrOfDeviceIdsInChunk = 0;
+                }
+            }
+            if (nrOfDeviceIdsInChunk > 0) {
+                writeChunk(channel, chunk, nrOfDeviceIdsInChunk, chunkTable);
+                ++nrOfChunks;
+            }
+
+            // Write the dictionary.
+            final Output dictionaryOutput = new Output();
+            dictionaryOutput.writeVarInt(serviceIds.size());
+            for (final String serviceId : serviceIds) {
+                dictionaryOutput.writeString(serviceId);
+            }
+            final long dictionaryOffset = channel.position();
+            writeFully(channel, dictionaryOutput.toByteBuffer());
+
+            // Write the chunk table and the trailer.
+            final long chunkTableOffset = channel.position();
+            writeFully(channel, chunkTable.toByteBuffer());
+            final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            trailer.putLong(dictionaryOffset).putInt(dictionaryOutput.size()).putInt(dictionaryOutput.crc()).
+                    putLong(chunkTableOffset).putInt(nrOfChunks).putInt(nrOfDeviceIds).putInt(MAGIC).flip();
+            writeFully(channel, trailer);
+            channel.force(true);
+        }
+        return nrOfDeviceIds;
+    }
+
+    /**
+     * Read a snapshot. The file is memory-mapped and its chunks are decoded in parallel.
+     *
+     * @param file File to read.
+     * @return Decoded chunks, in the order they were written.
+     * @throws IOException If the file could not be read, or is damaged.
+     */
+    @Nonnull
+    static Chunk[] read(@Nonnull final Path file) throws IOException {
+        assert file != null;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < (HEADER_SIZE + TRAILER_SIZE)) {
+                throw new IOException("Snapshot too small: " + file);
+            }
+            final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+            final ByteBuffer trailer = channel.map(MapMode.READ_ONLY, size - TRAILER_SIZE, TRAILER_SIZE);
+            if ((header.getInt() != MAGIC) || (header.getInt() != VERSION) || (trailer.getInt(TRAILER_SIZE - 4) != MAGIC)) {
+                throw new IOException("Not a snapshot file, or incomplete: " + file);
+            }
+            final long dictionaryOffset = trailer.getLong();
+            final int dictionaryLength = trailer.getInt();
+            final int dictionaryCrc = trailer.getInt();
+            final long chunkTableOffset = trailer.getLong();
+            final int nrOfChunks = trailer.getInt();
+
+            // Read the dictionary. The service IDs are shared by all devices.
+            final MappedByteBuffer dictionaryBuffer = channel.map(MapMode.READ_ONLY, dictionaryOffset, dictionaryLength);
+            checkCrc(file, dictionaryBuffer, dictionaryCrc);
+            final String[] dictionary = new String[readVarInt(dictionaryBuffer)];
+            for (int i = 0; i < dictionary.length; ++i) {
+                dictionary[i] = readString(dictionaryBuffer);
+            }
+
+            // Map all chunks first, then decode them in parallel.
+            final ByteBuffer chunkTable = channel.map(MapMode.READ_ONLY, chunkTableOffset, (long) nrOfChunks * CHUNK_TABLE_ENTRY_SIZE);
+            final MappedByteBuffer[] chunkBuffers = new MappedByteBuffer[nrOfChunks];
+            final int[] chunkSizes = new int[nrOfChunks];
+            final int[] chunkCrcs = new int[nrOfChunks];
+            for (int i = 0; i < nrOfChunks; ++i) {
+                final long offset = chunkTable.getLong();
+                final int length = chunkTable.getInt();
+                chunkSizes[i] = chunkTable.getInt();
+                chunkCrcs[i] = chunkTable.getInt();
+                chunkBuffers[i] = channel.map(MapMode.READ_ONLY, offset, length);
+            }
+            final Chunk[] chunks = new Chunk[nrOfChunks];
+            try {
+                IntStream.range(0, nrOfChunks).parallel().forEach(i -> {
+                    try {
+                        checkCrc(file, chunkBuffers[i], chunkCrcs[i]);
+                        chunks[i] = readChunk(chunkBuffers[i], chunkSizes[i], dictionary);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return chunks;
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Damaged snapshot: " + file, e);
+        }
+    }
+
+    @Nonnull
+    private static Chunk readChunk(@Nonnull final ByteBuffer buffer, final int nrOfDeviceIds, @Nonnull final String[] dictionary) {
+        final String[] deviceIds = new String[nrOfDeviceIds];
+        final List<Set<String>> serviceIds = new ArrayList<>(nrOfDeviceIds);
+        for (int i = 0; i < nrOfDeviceIds; ++i) {
+            deviceIds[i] = readString(buffer);
+            final int nrOfServiceIds = readVarInt(buffer);
+            final Set<String> set = (nrOfServiceIds == 0) ? new HashSet<>() : new HashSet<>(nrOfServiceIds * 2);
+            for (int j = 0; j < nrOfServiceIds; ++j) {
+                set.add(dictionary[readVarInt(buffer)]);
+            }
+            serviceIds.add(set);
+        }
+        return new Chunk(deviceIds, serviceIds);
+    }
+
+    private static void checkCrc(@Nonnull final Path file, @Nonnull final ByteBuffer buffer, final int crc) throws IOException {
+        final CRC32 checksum = new CRC32();
+        checksum.update(buffer.duplicate());
+        if ((int) checksum.getValue() != crc) {
+            throw new IOException("Damaged snapshot (checksum error): " + file);
+        }
+    }
+
+    private static int readVarInt(@Nonnull final ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            final byte b = buffer.get();
+            value = value | ((b & 0x7f) << shift);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift = shift + 7;
+        }
+    }
+
+    @Nonnull
+    private static String readString(@Nonnull final ByteBuffer buffer) {
+        final int length = readVarInt(buffer);
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeChunk(
+            @Nonnull final FileChannel channel,
+            @Nonnull final Output chunk,
+            final int nrOfDeviceIds,
+            @Nonnull final Output chunkTable) throws IOException {
+        final long offset = channel.position();
+        final int crc = chunk.crc();
+        final int length = chunk.size();
+        writeFully(channel, chunk.toByteBuffer());
+        chunkTable.writeLong(offset);
+        chunkTable.writeInt(length);
+        chunkTable.writeInt(nrOfDeviceIds);
+        chunkTable.writeInt(crc);
+        chunk.reset();
+    }
+
+    private static void writeFully(@Nonnull final FileChannel channel, @Nonnull final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Byte buffer with variable-length integers and strings, which can be written without copying.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        void writeVarInt(final int value) {
+            assert value >= 0;
+            int v = value;
+            while ((v & ~0x7f) != 0) {
+                write((v & 0x7f) | 0x80);
+                v = v >>> 7;
+            }
+            write(v);
+        }
+
+        void writeString(@Nonnull final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeInt(final int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(final long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        int crc() {
+            final CRC32 checksum = new CRC32();
+            checksum.update(buf, 0, count);
+            return (int) checksum.getValue();
+        }
+
+        @Nonnull
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
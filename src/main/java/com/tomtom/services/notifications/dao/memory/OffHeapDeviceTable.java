@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class maps device IDs to sets of service IDs, outside of the Java heap. The garbage collector only
+ * sees a few objects per segment, regardless of the number of device IDs.
+ *
+ * The table is split into segments, each with its own lock, so changes for different device IDs rarely
+ * contend. A segment is an open-addressing hash table with linear probing (in a direct byte buffer), pointing
+ * at records in a second direct byte buffer. A record contains the device ID as UTF-8 bytes, followed by
+ * the bitset of service ID codes (see {@link ServiceIdDictionary}):
+ *
+ * <pre>
+ *     slot:   [int hash][int record offset + 1, or 0 if the slot is empty]
+ *     record: [int key length][key bytes][int nr of words][long words...]
+ * </pre>
+ *
+ * Looking up a device ID does not allocate: the key is compared with the UTF-8 bytes without encoding
+ * it, and sets without or with a single service ID are shared (see {@link ServiceIdDictionary#toSet(long, long[])}).
+ *
+ * A record which no longer fits is rewritten at the end of the record buffer. The space of old records
+ * is reclaimed when the buffer is full: the live records are copied into a new buffer, which is twice
+ * as large if more than half of the buffer is in use. Note that the direct buffers count towards
+ * -XX:MaxDirectMemorySize.
+ */
+final class OffHeapDeviceTable {
+
+    private static final int SLOT_SIZE = 8;
+    private static final int INITIAL_NR_OF_SLOTS = 16;
+    private static final int INITIAL_DATA_SIZE = 1024;
+    private static final int MAX_DATA_SIZE = 1 << 30;
+
+    @Nonnull
+    private final ServiceIdDictionary dictionary;
+    @Nonnull
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * Create an empty table.
+     *
+     * @param nrOfSegments Number of segments. Range: power of 2, [1, 65536].
+     * @param dictionary   Dictionary of service IDs.
+     */
+    OffHeapDeviceTable(final int nrOfSegments, @Nonnull final ServiceIdDictionary dictionary) {
+        assert (nrOfSegments >= 1) && (nrOfSegments <= 65536) && (Integer.bitCount(nrOfSegments) == 1);
+        assert dictionary != null;
+        this.dictionary = dictionary;
+        this.segments = new Segment[nrOfSegments];
+        for (int i = 0; i < nrOfSegments; ++i) {
+            segments[i] = new Segment();
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(nrOfSegments);
+    }
+
+    /**
+     * Return the number of device IDs.
+     *
+     * @return Number of device IDs.
+     */
+    int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Return the service IDs of a device ID.
+     *
+     * @param deviceId Device ID.
+     * @return Service IDs, or null if the device ID is not present.
+     */
+    @Nullable
+    ServiceIdSet get(@Nonnull final String deviceId) {
+        final int hash = hash(deviceId);
+        final Segment segment = segment(hash);
+        final long stamp = segment.lock.readLock();
+        try {
+            final int slot = segment.find(deviceId, hash);
+            return (slot < 0) ? null : segment.readServiceIds(segment.recordOffset(slot));
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Atomically change the service IDs of a device ID.
+     *
+     * @param deviceId Device ID.
+     * @param update   Function which is given the current service IDs (null if the device ID is not present)
+     *                 and returns the new service IDs (null to remove the device ID). It is called while the
+     *                 segment is locked, so it should be quick.
+     * @return New service IDs, or null if the device ID is not present afterwards.
+     * @throws IllegalStateException If the segment is full.
+     */
+    @Nullable
+    ServiceIdSet compute(@Nonnull final String deviceId, @Nonnull final UnaryOperator<ServiceIdSet> update) {
+        final int hash = hash(deviceId);
+        final Segment segment = segment(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            int slot = segment.find(deviceId, hash);
+            final ServiceIdSet oldServiceIds = (slot < 0) ? null : segment.readServiceIds(segment.recordOffset(slot));
+            final ServiceIdSet newServiceIds = update.apply(oldServiceIds);
+            if (newServiceIds == null) {
+                if (slot >= 0) {
+                    segment.remove(slot);
+                }
+            } else if (slot >= 0) {
+                segment.update(slot, newServiceIds);
+            } else {
+                if (segment.growSlotsIfNeeded()) {
+                    slot = segment.find(deviceId, hash);
+                }
+                segment.insert(-slot - 1, hash, deviceId, newServiceIds);
+            }
+            return newServiceIds;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Call a consumer for every device ID. Device IDs which are added or removed concurrently may or may not
+     * be seen.
+     *
+     * @param consumer Consumer.
+     */
+    void forEachDeviceId(@Nonnull final Consumer<String> consumer) {
+        for (final Segment segment : segments) {
+            final long stamp = segment.lock.readLock();
+            try {
+                segment.forEachDeviceId(consumer);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    @Nonnull
+    private Segment segment(final int hash) {
+        return segments[(segmentShift == 32) ? 0 : (hash >>> segmentShift)];
+    }
+
+    /**
+     * Mix the bits of the (cached) hash code of a string; segments use the high bits, slots the low bits.
+     */
+    private static int hash(@Nonnull final String deviceId) {
+        int h = deviceId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Nonnull
+    private static ByteBuffer allocate(final int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    private final class Segment {
+        @Nonnull
+        final StampedLock lock = new StampedLock();
+
+        // All fields are guarded by the lock.
+        @Nonnull
+        ByteBuffer slots = allocate(INITIAL_NR_OF_SLOTS * SLOT_SIZE);
+        int mask = INITIAL_NR_OF_SLOTS - 1;
+        @Nonnull
+        ByteBuffer data = allocate(INITIAL_DATA_SIZE);
+        int dataEnd = 0;
+        int garbage = 0;
+        volatile int size = 0;
+
+        /**
+         * Find the slot of a device ID.
+         *
+         * @return Slot, or (-slot - 1) of the empty slot where the device ID would be inserted.
+         */
+        int find(@Nonnull final String deviceId, final int hash) {
+            int slot = hash & mask;
+            while (true) {
+                final int offset = slots.getInt((slot * SLOT_SIZE) + 4);
+                if (offset == 0) {
+                    return -slot - 1;
+                }
+                if ((slots.getInt(slot * SLOT_SIZE) == hash) && keyEquals(offset - 1, deviceId)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        int recordOffset(final int slot) {
+            return slots.getInt((slot * SLOT_SIZE) + 4) - 1;
+        }
+
+        @Nonnull
+        ServiceIdSet readServiceIds(final int record) {
+            final int wordsOffset = record + 4 + data.getInt(record) + 4;
+            final int nrOfWords = data.getInt(wordsOffset - 4);
+            final long bits = data.getLong(wordsOffset);
+            long[] moreBits = null;
+            for (int i = 1; i < nrOfWords; ++i) {
+                final long word = data.getLong(wordsOffset + (i * 8));
+                if (word != 0) {
+                    if (moreBits == null) {
+                        moreBits = new long[nrOfWords - 1];
+                    }
+                    moreBits[i - 1] = word;
+                }
+            }
+            return dictionary.toSet(bits, moreBits);
+        }
+
+        void insert(final int slot, final int hash, @Nonnull final String deviceId, @Nonnull final ServiceIdSet serviceIds) {
+            assert slots.getInt((slot * SLOT_SIZE) + 4) == 0;
+            final int keyLength = Utf8.encodedLength(deviceId);
+            final int record = allocateRecord(recordSize(keyLength, serviceIds.getNrOfWords()));
+            data.putInt(record, keyLength);
+            Utf8.encode(deviceId, data, record + 4);
+            writeServiceIds(record + 4 + keyLength, serviceIds.getNrOfWords(), serviceIds);
+            slots.putInt(slot * SLOT_SIZE, hash);
+            slots.putInt((slot * SLOT_SIZE) + 4, record + 1);
+            ++size;
+        }
+
+        void update(final int slot, @Nonnull final ServiceIdSet serviceIds) {
+            final int record = recordOffset(slot);
+            final int keyLength = data.getInt(record);
+            final int nrOfWords = data.getInt(record + 4 + keyLength);
+            if (serviceIds.getNrOfWords() <= nrOfWords) {
+                writeServiceIds(record + 4 + keyLength, nrOfWords, serviceIds);
+                return;
+            }
+
+            // Rewrite the record at the end of the buffer. Note that this may move all records.
+            final int newRecordSize = recordSize(keyLength, serviceIds.getNrOfWords());
+            final int newRecord = allocateRecord(newRecordSize);
+            final int oldRecord = recordOffset(slot);
+            for (int i = 0; i < 4 + keyLength; ++i) {
+                data.put(newRecord + i, data.get(oldRecord + i));
+            }
+            writeServiceIds(newRecord + 4 + keyLength, serviceIds.getNrOfWords(), serviceIds);
+            garbage += recordSize(keyLength, nrOfWords);
+            slots.putInt((slot * SLOT_SIZE) + 4, newRecord + 1);
+        }
+
+        /**
+         * Remove the device ID in a slot, shifting back the entries after it to keep probe sequences intact.
+         */
+        void remove(final int slot) {
+            final int record = recordOffset(slot);
+            final int keyLength = data.getInt(record);
+            garbage += recordSize(keyLength, data.getInt(record + 4 + keyLength));
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                final int offset = slots.getInt((next * SLOT_SIZE) + 4);
+                if (offset == 0) {
+                    break;
+                }
+                final int home = slots.getInt(next * SLOT_SIZE) & mask;
+
+                // The entry may move to the hole if its home slot is not cyclically in (hole, next].
+                final boolean stays = (hole <= next) ? ((hole < home) && (home <= next)) : ((hole < home) || (home <= next));
+                if (!stays) {
+                    slots.putInt(hole * SLOT_SIZE, slots.getInt(next * SLOT_SIZE));
+                    slots.putInt((hole * SLOT_SIZE) + 4, offset);
+                    hole = next;
+                }
+            }
+            slots.putInt(hole * SLOT_SIZE, 0);
+            slots.putInt((hole * SLOT_SIZE) + 4, 0);
+            --size;
+        }
+
+        /**
+         * Double the number of slots if another device ID would exceed a load factor of 3/4.
+         *
+         * @return True if the slots were rehashed.
+         */
+        boolean growSlotsIfNeeded() {
+            final int nrOfSlots = mask + 1;
+            if (((size + 1) * 4L) <= (nrOfSlots * 3L)) {
+                return false;
+            }
+            final ByteBuffer oldSlots = slots;
+            final int oldNrOfSlots = nrOfSlots;
+            slots = allocate(nrOfSlots * 2 * SLOT_SIZE);
+            mask = (nrOfSlots * 2) - 1;
+            for (int i = 0; i < oldNrOfSlots; ++i) {
+                final int offset = oldSlots.getInt((i * SLOT_SIZE) + 4);
+                if (offset != 0) {
+                    final int hash = oldSlots.getInt(i * SLOT_SIZE);
+                    int slot = hash & mask;
+                    while (slots.getInt((slot * SLOT_SIZE) + 4) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots.putInt(slot * SLOT_SIZE, hash);
+                    slots.putInt((slot * SLOT_SIZE) + 4, offset);
+                }
+            }
+            return true;
+        }
+
+        void forEachDeviceId(@Nonnull final Consumer<String> consumer) {
+            for (int i = 0; i <= mask; ++i) {
+                final int offset = slots.getInt((i * SLOT_SIZE) + 4);
+                if (offset != 0) {
+                    final int record = offset - 1;
+                    consumer.accept(Utf8.decode(data, record + 4, data.getInt(record)));
+                }
+            }
+        }
+
+        private boolean keyEquals(final int record, @Nonnull final String deviceId) {
+            return Utf8.equals(data, record + 4, data.getInt(record), deviceId);
+        }
+
+        private void writeServiceIds(final int offset, final int nrOfWords, @Nonnull final ServiceIdSet serviceIds) {
+            data.putInt(offset, nrOfWords);
+            for (int i = 0; i < nrOfWords; ++i) {
+                data.putLong(offset + 4 + (i * 8), (i < serviceIds.getNrOfWords()) ? serviceIds.getWord(i) : 0);
+            }
+        }
+
+        /**
+         * Allocate space for a record at the end of the buffer, reclaiming the space of old records if the
+         * buffer is full.
+         *
+         * @return Offset of the record.
+         */
+        private int allocateRecord(final int recordSize) {
+            if ((dataEnd + (long) recordSize) > data.capacity()) {
+                final long needed = (dataEnd - garbage) + (long) recordSize;
+                long capacity = data.capacity();
+                while ((needed * 2) > capacity) {
+                    capacity *= 2;
+                }
+                if (capacity > MAX_DATA_SIZE) {
+                    throw new IllegalStateException("Segment of off-heap table is full, size=" + needed);
+                }
+                final ByteBuffer newData = allocate((int) capacity);
+                int newDataEnd = 0;
+                for (int i = 0; i <= mask; ++i) {
+                    final int offset = slots.getInt((i * SLOT_SIZE) + 4);
+                    if (offset != 0) {
+                        final int record = offset - 1;
+                        final int keyLength = data.getInt(record);
+                        final int size = recordSize(keyLength, data.getInt(record + 4 + keyLength));
+                        final ByteBuffer source = data.duplicate();
+                        source.limit(record + size).position(record);
+                        final ByteBuffer target = newData.duplicate();
+                        target.position(newDataEnd);
+                        target.put(source);
+                        slots.putInt((i * SLOT_SIZE) + 4, newDataEnd + 1);
+                        newDataEnd += size;
+                    }
+                }
+                data = newData;
+                dataEnd = newDataEnd;
+                garbage = 0;
+            }
+            final int record = dataEnd;
+            dataEnd += recordSize;
+            return record;
+        }
+    }
+
+    private static int recordSize(final int keyLength, final int nrOfWords) {
+        return 4 + keyLength + 4 + (nrOfWords * 8);
+    }
+
+    /**
+     * UTF-8 encoding which works on strings and byte buffers directly, without allocating. Unpaired
+     * surrogates are encoded as 3 bytes, so every string survives a round trip.
+     */
+    static final class Utf8 {
+
+        static int encodedLength(@Nonnull final String s) {
+            int length = 0;
+            for (int i = 0; i < s.length(); ++i) {
+                final char c = s.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (isSurrogatePair(s, i)) {
+                    length += 4;
+                    ++i;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        static void encode(@Nonnull final String s, @Nonnull final ByteBuffer buffer, final int offset) {
+            int pos = offset;
+            for (int i = 0; i < s.length(); ++i) {
+                final char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer.put(pos++, (byte) c);
+                } else if (c < 0x800) {
+                    buffer.put(pos++, (byte) (0xc0 | (c >> 6)));
+                    buffer.put(pos++, (byte) (0x80 | (c & 0x3f)));
+                } else if (isSurrogatePair(s, i)) {
+                    final int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                    buffer.put(pos++, (byte) (0xf0 | (cp >> 18)));
+                    buffer.put(pos++, (byte) (0x80 | ((cp >> 12) & 0x3f)));
+                    buffer.put(pos++, (byte) (0x80 | ((cp >> 6) & 0x3f)));
+                    buffer.put(pos++, (byte) (0x80 | (cp & 0x3f)));
+                    ++i;
+                } else {
+                    buffer.put(pos++, (byte) (0xe0 | (c >> 12)));
+                    buffer.put(pos++, (byte) (0x80 | ((c >> 6) & 0x3f)));
+                    buffer.put(pos++, (byte) (0x80 | (c & 0x3f)));
+                }
+            }
+        }
+
+        static boolean equals(@Nonnull final ByteBuffer buffer, final int offset, final int length, @Nonnull final String s) {
+            if ((length < s.length()) || (length > (s.length() * 3))) {
+                return false;
+            }
+            int pos = offset;
+            final int end = offset + length;
+            for (int i = 0; i < s.length(); ++i) {
+                final char c = s.charAt(i);
+                if (c < 0x80) {
+                    if ((pos >= end) || (buffer.get(pos++) != (byte) c)) {
+                        return false;
+                    }
+                } else if (c < 0x800) {
+                    if (((pos + 2) > end) ||
+                            (buffer.get(pos++) != (byte) (0xc0 | (c >> 6))) ||
+                            (buffer.get(pos++) != (byte) (0x80 | (c & 0x3f)))) {
+                        return false;
+                    }
+                } else if (isSurrogatePair(s, i)) {
+                    final int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                    if (((pos + 4) > end) ||
+                            (buffer.get(pos++) != (byte) (0xf0 | (cp >> 18))) ||
+                            (buffer.get(pos++) != (byte) (0x80 | ((cp >> 12) & 0x3f))) ||
+                            (buffer.get(pos++) != (byte) (0x80 | ((cp >> 6) & 0x3f))) ||
+                            (buffer.get(pos++) != (byte) (0x80 | (cp & 0x3f)))) {
+                        return false;
+                    }
+                    ++i;
+                } else {
+                    if (((pos + 3) > end) ||
+                            (buffer.get(pos++) != (byte) (0xe0 | (c >> 12))) ||
+                            (buffer.get(pos++) != (byte) (0x80 | ((c >> 6) & 0x3f))) ||
+                            (buffer.get(pos++) != (byte) (0x80 | (c & 0x3f)))) {
+                        return false;
+                    }
+                }
+            }
+            return pos == end;
+        }
+
+        @Nonnull
+        static String decode(@Nonnull final ByteBuffer buffer, final int offset, final int length) {
+            final char[] chars = new char[length];
+            int nrOfChars = 0;
+            int pos = offset;
+            final int end = offset + length;
+            while (pos < end) {
+                final int b = buffer.get(pos++) & 0xff;
+                if (b < 0x80) {
+                    chars[nrOfChars++] = (char) b;
+                } else if (b < 0xe0) {
+                    chars[nrOfChars++] = (char) (((b & 0x1f) << 6) | (buffer.get(pos++) & 0x3f));
+                } else if (b < 0xf0) {
+                    chars[nrOfChars++] = (char) (((b & 0x0f) << 12) | ((buffer.get(pos++) & 0x3f) << 6) |
+                            (buffer.get(pos++) & 0x3f));
+                } else {
+                    final int cp = ((b & 0x07) << 18) | ((buffer.get(pos++) & 0x3f) << 12) |
+                            ((buffer.get(pos++) & 0x3f) << 6) | (buffer.get(pos++) & 0x3f);
+                    chars[nrOfChars++] = Character.highSurrogate(cp);
+                    chars[nrOfChars++] = Character.lowSurrogate(cp);
+                }
+            }
+            return new String(chars, 0, nrOfChars);
+        }
+
+        private static boolean isSurrogatePair(@Nonnull final String s, final int i) {
+            return Character.isHighSurrogate(s.charAt(i)) && ((i + 1) < s.length()) &&
+                    Character.isLowSurrogate(s.charAt(i + 1));
+        }
+
+        // Prevent instantiation.
+        private Utf8() {
+            super();
+            assert false;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class interns service IDs into small integer codes, so the service IDs of a device can be stored
+ * as a bitset (see {@link ServiceIdSet}), rather than as a set of strings.
+ *
+ * Codes are handed out in order of first use and are never reused, so the dictionary only grows. That's
+ * fine for the intended use: a few dozen distinct service IDs shared by millions of devices.
+ *
+ * Looking up a code or a service ID is lock-free; only adding a new service ID takes a lock.
+ */
+final class ServiceIdDictionary {
+
+    @Nonnull
+    private final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<>();
+
+    /**
+     * Service IDs and sets with a single service ID, indexed by code. The arrays are replaced (never
+     * modified) when they grow, and elements are written before their code is published in the map.
+     */
+    @Nonnull
+    private volatile String[] serviceIds = new String[64];
+    @Nonnull
+    private volatile ServiceIdSet[] singletons = new ServiceIdSet[64];
+    private int size = 0;   // Guarded by 'this'.
+
+    @Nonnull
+    private final ServiceIdSet empty = new ServiceIdSet(this, 0, null);
+
+    /**
+     * Return the empty set.
+     *
+     * @return Empty set.
+     */
+    @Nonnull
+    ServiceIdSet empty() {
+        return empty;
+    }
+
+    /**
+     * Return a set with a single service ID. These sets are shared.
+     *
+     * @param serviceId Service ID.
+     * @return Set containing the service ID only.
+     */
+    @Nonnull
+    ServiceIdSet singleton(@Nonnull final String serviceId) {
+        return singletons[encode(serviceId)];
+    }
+
+    /**
+     * Return a set with the same service IDs as the given collection.
+     *
+     * @param serviceIds Service IDs.
+     * @return Set of service IDs, which may be the given collection itself if it is a set of this dictionary.
+     */
+    @Nonnull
+    ServiceIdSet toSet(@Nonnull final Collection<String> serviceIds) {
+        assert serviceIds != null;
+        if ((serviceIds instanceof ServiceIdSet) && (((ServiceIdSet) serviceIds).getDictionary() == this)) {
+            return (ServiceIdSet) serviceIds;
+        }
+        ServiceIdSet set = empty;
+        for (final String serviceId : serviceIds) {
+            set = set.with(serviceId);
+        }
+        return set;
+    }
+
+    /**
+     * Return a set from its bitset, sharing the empty set and sets with a single service ID.
+     *
+     * @param bits     Codes [0, 63].
+     * @param moreBits Codes from 64 onwards, or null if there are none. Must not be all zeroes.
+     * @return Set of service IDs.
+     */
+    @Nonnull
+    ServiceIdSet toSet(final long bits, @Nullable final long[] moreBits) {
+        if (moreBits == null) {
+            if (bits == 0) {
+                return empty;
+            }
+            if (Long.bitCount(bits) == 1) {
+                return singletons[Long.numberOfTrailingZeros(bits)];
+            }
+        }
+        return new ServiceIdSet(this, bits, moreBits);
+    }
+
+    /**
+     * Return the number of distinct service IDs in the dictionary.
+     *
+     * @return Number of service IDs.
+     */
+    int size() {
+        return codes.size();
+    }
+
+    /**
+     * Return the code of a service ID, adding the service ID to the dictionary if needed.
+     *
+     * @param serviceId Service ID.
+     * @return Code, &gt;= 0.
+     */
+    int encode(@Nonnull final String serviceId) {
+        assert serviceId != null;
+        final Integer code = codes.get(serviceId);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            final Integer existingCode = codes.get(serviceId);
+            if (existingCode != null) {
+                return existingCode;
+            }
+            final int newCode = size;
+            if (newCode == serviceIds.length) {
+                serviceIds = Arrays.copyOf(serviceIds, newCode * 2);
+                singletons = Arrays.copyOf(singletons, newCode * 2);
+            }
+            serviceIds[newCode] = serviceId;
+            singletons[newCode] = empty.with(newCode);
+            codes.put(serviceId, newCode);
+            ++size;
+            return newCode;
+        }
+    }
+
+    /**
+     * Return the code of a service ID, without adding it to the dictionary.
+     *
+     * @param serviceId Service ID.
+     * @return Code, or -1 if the service ID is not in the dictionary.
+     */
+    int lookup(@Nullable final Object serviceId) {
+        if (serviceId == null) {
+            return -1;
+        }
+        final Integer code = codes.get(serviceId);
+        return (code == null) ? -1 : code;
+    }
+
+    /**
+     * Return the service ID of a code.
+     *
+     * @param code Code, as returned by {@link #encode(String)}.
+     * @return Service ID.
+     */
+    @Nonnull
+    String decode(final int code) {
+        final String serviceId = serviceIds[code];
+        assert serviceId != null;
+        return serviceId;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is an immutable set of service IDs, stored as a bitset of the codes of a
+ * {@link ServiceIdDictionary}. The first 64 codes are stored in a single long, so a set costs a few dozen
+ * bytes, rather than the hundreds of bytes of a {@link java.util.HashSet}.
+ *
+ * Sets are never modified: {@link #with(String)} and {@link #without(String)} return a new set.
+ */
+final class ServiceIdSet extends AbstractSet<String> {
+
+    @Nonnull
+    private final ServiceIdDictionary dictionary;
+
+    /**
+     * Codes [0, 63], and codes from 64 onwards (null if there are none).
+     */
+    private final long bits;
+    @Nullable
+    private final long[] moreBits;
+
+    ServiceIdSet(@Nonnull final ServiceIdDictionary dictionary, final long bits, @Nullable final long[] moreBits) {
+        assert dictionary != null;
+        this.dictionary = dictionary;
+        this.bits = bits;
+        this.moreBits = moreBits;
+    }
+
+    @Nonnull
+    ServiceIdDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Return the number of words of the bitset (at least 1).
+     *
+     * @return Number of words.
+     */
+    int getNrOfWords() {
+        return (moreBits == null) ? 1 : (moreBits.length + 1);
+    }
+
+    /**
+     * Return a word of the bitset.
+     *
+     * @param index Index of the word. Range: [0, getNrOfWords() - 1].
+     * @return Codes [index * 64, index * 64 + 63].
+     */
+    long getWord(final int index) {
+        assert (0 <= index) && (index < getNrOfWords());
+        //noinspection ConstantConditions
+        return (index == 0) ? bits : moreBits[index - 1];
+    }
+
+    /**
+     * Return a set with a service ID added.
+     *
+     * @param serviceId Service ID to add.
+     * @return This set if it already contains the service ID, or a new set.
+     */
+    @Nonnull
+    ServiceIdSet with(@Nonnull final String serviceId) {
+        final int code = dictionary.encode(serviceId);
+        if (contains(code)) {
+            return this;
+        }
+        if ((bits == 0) && (moreBits == null)) {
+            return dictionary.singleton(serviceId);
+        }
+        return with(code);
+    }
+
+    /**
+     * Return a set with a code added; used by the dictionary to create its shared sets.
+     *
+     * @param code Code to add.
+     * @return New set.
+     */
+    @Nonnull
+    ServiceIdSet with(final int code) {
+        if (code < 64) {
+            return new ServiceIdSet(dictionary, bits | (1L << code), moreBits);
+        }
+        final int index = (code - 64) >>> 6;
+        final long[] newMoreBits = (moreBits == null) ? new long[index + 1] :
+                Arrays.copyOf(moreBits, Math.max(moreBits.length, index + 1));
+        newMoreBits[index] |= 1L << code;
+        return new ServiceIdSet(dictionary, bits, newMoreBits);
+    }
+
+    /**
+     * Return a set with a service ID removed.
+     *
+     * @param serviceId Service ID to remove.
+     * @return This set if it doesn't contain the service ID, or a new set.
+     */
+    @Nonnull
+    ServiceIdSet without(@Nonnull final String serviceId) {
+        final int code = dictionary.lookup(serviceId);
+        if (!contains(code)) {
+            return this;
+        }
+        if (code < 64) {
+            final long newBits = bits & ~(1L << code);
+            return ((newBits == 0) && (moreBits == null)) ? dictionary.empty() :
+                    new ServiceIdSet(dictionary, newBits, moreBits);
+        }
+        assert moreBits != null;
+        final long[] newMoreBits = moreBits.clone();
+        newMoreBits[(code - 64) >>> 6] &= ~(1L << code);
+        return new ServiceIdSet(dictionary, bits, isEmpty(newMoreBits) ? null : newMoreBits);
+    }
+
+    @Override
+    public boolean contains(@Nullable final Object o) {
+        return contains(dictionary.lookup(o));
+    }
+
+    @Override
+    public int size() {
+        int size = Long.bitCount(bits);
+        if (moreBits != null) {
+            for (final long word : moreBits) {
+                size += Long.bitCount(word);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (bits == 0) && (moreBits == null);
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int index = -1;     // -1 for 'bits', else index in 'moreBits'.
+            private long word = bits;
+
+            @Override
+            public boolean hasNext() {
+                while (word == 0) {
+                    if ((moreBits == null) || (index + 1 >= moreBits.length)) {
+                        return false;
+                    }
+                    ++index;
+                    word = moreBits[index];
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int code = ((index + 1) << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                return dictionary.decode(code);
+            }
+        };
+    }
+
+    private boolean contains(final int code) {
+        if (code < 0) {
+            return false;
+        }
+        if (code < 64) {
+            return (bits & (1L << code)) != 0;
+        }
+        final int index = (code - 64) >>> 6;
+        return (moreBits != null) && (index < moreBits.length) && ((moreBits[index] & (1L << code)) != 0);
+    }
+
+    private static boolean isEmpty(@Nonnull final long[] words) {
+        for (final long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
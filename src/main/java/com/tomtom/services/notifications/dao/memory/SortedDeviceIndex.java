@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.memory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps the device IDs of the in-memory store sorted, so pages of device IDs can be
+ * produced without sorting the entire key set on every call.
+ *
+ * The index is a concurrent skip list, so adding or removing a device ID does not lock out other
+ * writers or readers, and it can be updated from within the compute operations of a concurrent map.
+ * Producing a page of 'count' device IDs that start after a specific device ID (a range scan) costs
+ * O(log n + count).
+ *
+ * The skip list does not know the position of a device ID, so producing a page at an offset walks to
+ * the offset from the nearest end of the index, which costs O(min(offset, n - offset) + count). The number
+ * of device IDs is counted separately, as the size of a skip list costs O(n) to compute.
+ *
+ * Pages are weakly consistent: device IDs which are added or removed while a page is produced may or may
+ * not be included.
+ */
+final class SortedDeviceIndex {
+
+    @Nonnull
+    private final ConcurrentSkipListSet<String> deviceIds = new ConcurrentSkipListSet<>();
+    @Nonnull
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Add a device ID to the index.
+     *
+     * @param deviceId Device ID.
+     * @return True if the device ID was added, false if it was already present.
+     */
+    boolean add(@Nonnull final String deviceId) {
+        assert deviceId != null;
+        if (!deviceIds.add(deviceId)) {
+            return false;
+        }
+        size.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remove a device ID from the index.
+     *
+     * @param deviceId Device ID.
+     * @return True if the device ID was removed, false if it was not present.
+     */
+    boolean remove(@Nonnull final String deviceId) {
+        assert deviceId != null;
+        if (!deviceIds.remove(deviceId)) {
+            return false;
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Fill an empty index with sorted device IDs. The device IDs are added in parallel.
+     *
+     * @param sortedDeviceIds Device IDs, sorted ascending, without duplicates.
+     */
+    void addAllSorted(@Nonnull final List<String> sortedDeviceIds) {
+        assert sortedDeviceIds != null;
+        assert deviceIds.isEmpty();
+        sortedDeviceIds.parallelStream().forEach(deviceIds::add);
+        size.addAndGet(sortedDeviceIds.size());
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Return all device IDs, sorted. This does not hold off writers.
+     *
+     * @return Sorted device IDs.
+     */
+    @Nonnull
+    List<String> getAll() {
+        return new ArrayList<>(deviceIds);
+    }
+
+    /**
+     * Return a page of sorted device IDs.
+     *
+     * @param offset Return device IDs from 'offset'. Range: &gt;= 0 counts from start, &lt; 0 counts from end.
+     * @param count  Return 'count' device IDs at most. Range: &gt;= 0.
+     * @return Sorted device IDs.
+     */
+    @Nonnull
+    List<String> getPage(final int offset, final int count) {
+        assert count >= 0;
+        final int total = size.get();
+        final int fromIndex = (offset < 0) ? Math.max(0, total + offset) : Math.min(total, offset);
+        final int n = Math.min(total - fromIndex, count);
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        final int nrAfter = total - fromIndex - n;
+        if (fromIndex <= nrAfter) {
+            return collect(deviceIds.iterator(), fromIndex, n);
+        }
+
+        // The page is closer to the end: walk backwards and reverse the result.
+        final List<String> page = collect(deviceIds.descendingIterator(), nrAfter, n);
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * Return a page of sorted device IDs which follow a specific device ID.
+     *
+     * @param after Return device IDs that sort after this device ID. The device ID itself does not need to exist.
+     *              If null, start from the first device ID.
+     * @param count Return 'count' device IDs at most. Range: &gt;= 0.
+     * @return Sorted device IDs.
+     */
+    @Nonnull
+    List<String> getPageAfter(@Nullable final String after, final int count) {
+        assert count >= 0;
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        final NavigableSet<String> tail = (after == null) ? deviceIds : deviceIds.tailSet(after, false);
+        return collect(tail.iterator(), 0, count);
+    }
+
+    @Nonnull
+    private static List<String> collect(@Nonnull final Iterator<String> iterator, final int skip, final int count) {
+        for (int i = 0; (i < skip) && iterator.hasNext(); ++i) {
+            iterator.next();
+        }
+        final List<String> page = new ArrayList<>(Math.min(count, 1024));
+        while (iterator.hasNext() && (page.size() < count)) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.mongodb;
+
+import com.tomtom.services.notifications.dao.DatabaseProperties;
+import com.tomtom.speedtools.guice.HasProperties;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Properties of the MongoDB DAO, other than the connection properties in {@link DatabaseProperties}.
+ */
+public final class MongoDBProperties implements HasProperties {
+
+    private final int bulkWriteBatchSize;
+
+    /**
+     * MongoDB DAO properties.
+     *
+     * @param bulkWriteBatchSize Maximum number of documents written in a single bulk write.
+     *                           Range: [1, 100000].
+     */
+    @Inject
+    public MongoDBProperties(
+            @Named("Database.bulkWriteBatchSize") final int bulkWriteBatchSize)
+            throws InvalidPropertyValueException {
+        if ((bulkWriteBatchSize < 1) || (bulkWriteBatchSize > 100000)) {
+            throw new InvalidPropertyValueException("Database.bulkWriteBatchSize must be in range [1, 100000].");
+        }
+
+        this.bulkWriteBatchSize = bulkWriteBatchSize;
+    }
+
+    public int getBulkWriteBatchSize() {
+        return bulkWriteBatchSize;
+    }
+}
@@ -16,13 +16,18 @@
 
 package com.tomtom.services.notifications.dao.mongodb;
 
+import com.google.common.collect.Iterables;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
 import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.tomtom.services.notifications.Notification;
 import com.tomtom.services.notifications.dao.NotificationDao;
 import com.tomtom.services.notifications.dao.mappers.NotificationMapper;
-import com.tomtom.speedtools.json.Json;
+import com.tomtom.services.notifications.dao.timing.RoundTrips;
 import com.tomtom.speedtools.mongodb.DaoUtils;
 import com.tomtom.speedtools.mongodb.EntityNotFoundException;
 import com.tomtom.speedtools.mongodb.EntityRemoveException;
@@ -30,6 +35,7 @@ import com.tomtom.speedtools.mongodb.EntityStoreException;
 import com.tomtom.speedtools.mongodb.InternalDaoException;
 import com.tomtom.speedtools.mongodb.MongoDB;
 import com.tomtom.speedtools.mongodb.MongoDBQuery;
+import com.tomtom.speedtools.mongodb.MongoDBUpdate;
 import com.tomtom.speedtools.mongodb.mappers.MapperException;
 import com.tomtom.speedtools.mongodb.mappers.MapperRegistry;
 import com.tomtom.speedtools.mongodb.mappers.SchemaException;
@@ -37,9 +43,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static com.tomtom.speedtools.mongodb.MongoDBUtils.mongoPath;
@@ -47,21 +60,52 @@ import static com.tomtom.speedtools.mongodb.MongoDBUtils.mongoPath;
 public class NotificationDaoMongoDBImpl implements NotificationDao {
     private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoMongoDBImpl.class);
 
+    private static final String MONGO_ID = "_id";
+    private static final String OPERATOR_SET_ON_INSERT = "$setOnInsert";
+    private static final String OPERATOR_ADD_TO_SET = "$addToSet";
+    private static final String OPERATOR_EACH = "$each";
+    private static final String OPERATOR_SIZE = "$size";
+    private static final String OPERATOR_PULL = "$pull";
+    private static final String OPERATOR_IN = "$in";
+
+    /**
+     * Default maximum number of documents in a single bulk write.
+     */
+    public static final int DEFAULT_BULK_WRITE_BATCH_SIZE = 1000;
+
     @Nonnull
     private final DBCollection collection;
     @Nonnull
     private final NotificationMapper notificationMapper;
     @Nonnull
     private final MapperRegistry mapperRegistry;
+    private final int bulkWriteBatchSize;
 
     @Inject
     public NotificationDaoMongoDBImpl(
             @Nonnull final MongoDB db,
             @Nonnull final MapperRegistry mapperRegistry) {
+        this(db, mapperRegistry, DEFAULT_BULK_WRITE_BATCH_SIZE);
+    }
+
+    /**
+     * Create the DAO.
+     *
+     * @param db                 Database.
+     * @param mapperRegistry     Mapper registry.
+     * @param bulkWriteBatchSize Maximum number of documents in a single bulk write. Larger bulk operations are
+     *                           split into multiple bulk writes. Range: &gt; 0.
+     */
+    public NotificationDaoMongoDBImpl(
+            @Nonnull final MongoDB db,
+            @Nonnull final MapperRegistry mapperRegistry,
+            final int bulkWriteBatchSize) {
         super();
         assert mapperRegistry != null;
+        assert bulkWriteBatchSize > 0;
 
         this.mapperRegistry = mapperRegistry;
+        this.bulkWriteBatchSize = bulkWriteBatchSize;
         collection = db.getCollection("notifications");
         notificationMapper = mapperRegistry.findMapper(NotificationMapper.class);
         collection.createIndex(new BasicDBObject(mongoPath(notificationMapper.deviceId), 1));
@@ -71,6 +115,7 @@ public class NotificationDaoMongoDBImpl implements NotificationDao {
     @Override
     public int getNrOfDeviceIds() throws InternalDaoException {
         final MongoDBQuery query = new MongoDBQuery().exists(notificationMapper.deviceId);
+        RoundTrips.increment();
         final long count = DaoUtils.count(collection, query);
         LOG.debug("getNrOfDeviceIds: count={}", count);
         //noinspection NumericCastThatLosesPrecision
@@ -81,33 +126,128 @@ public class NotificationDaoMongoDBImpl implements NotificationDao {
     @Override
     public List<String> getAllDeviceIds() throws InternalDaoException {
         final MongoDBQuery query = new MongoDBQuery().exists(notificationMapper.deviceId);
-        final List<Notification> notifications = DaoUtils.find(collection, notificationMapper, query);
-        final List<String> deviceIds = new ArrayList<>(notifications.size());
-        for (final Notification notification : notifications) {
-            deviceIds.add(notification.getDeviceId());
-        }
+        final List<String> deviceIds = findDeviceIds(query, 0, Integer.MAX_VALUE);
         LOG.debug("getAllDeviceIds: size={}", deviceIds.size());
         return deviceIds;
     }
 
+    @Nonnull
+    @Override
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException {
+        assert count >= 0;
+
+        // Don't bother the database for an empty page.
+        if (count == 0) {
+            LOG.debug("getDeviceIds: offset={}, count=0", offset);
+            return Collections.emptyList();
+        }
+
+        // Offsets from the end need the total number of device IDs first (an index-only count).
+        final int skip;
+        if (offset < 0) {
+            skip = Math.max(0, getNrOfDeviceIds() + offset);
+        } else {
+            skip = offset;
+        }
+
+        // Sorting, skipping and limiting is done by the database, using the device ID index.
+        final MongoDBQuery query = new MongoDBQuery().exists(notificationMapper.deviceId);
+        final List<String> deviceIds = findDeviceIds(query, skip, count);
+        LOG.debug("getDeviceIds: offset={}, count={}, size={}", offset, count, deviceIds.size());
+        return deviceIds;
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException {
+        assert count >= 0;
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        // This is a range scan on the device ID index: deviceId > after, sorted by device ID.
+        final MongoDBQuery query = (after == null) ?
+                new MongoDBQuery().exists(notificationMapper.deviceId) :
+                new MongoDBQuery().gt(notificationMapper.deviceId, after);
+        final List<String> deviceIds = findDeviceIds(query, 0, count);
+        LOG.debug("getDeviceIdsAfter: after={}, count={}, size={}", after, count, deviceIds.size());
+        return deviceIds;
+    }
+
     @Nonnull
     @Override
     public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException {
         LOG.debug("getServiceIds: deviceId={}", deviceId);
         final MongoDBQuery query = new MongoDBQuery().eq(notificationMapper.deviceId, deviceId);
+        RoundTrips.increment();
         final Notification notification = DaoUtils.findOne(collection, notificationMapper, query);
         return notification.getServiceIds();
     }
 
+    @Nullable
+    @Override
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        LOG.debug("findServiceIds: deviceId={}", deviceId);
+        final String serviceIdsPath = mongoPath(notificationMapper.serviceIds);
+        final MongoDBQuery query = new MongoDBQuery().eq(notificationMapper.deviceId, deviceId);
+        try {
+
+            // Fetch the service IDs only; a missing document is simply null, not an exception.
+            RoundTrips.increment();
+            final DBObject dbObject = collection.findOne(query.toDBObject(), new BasicDBObject(serviceIdsPath, 1).append(MONGO_ID, 0));
+            if (dbObject == null) {
+                return null;
+            }
+            return toServiceIds(dbObject.get(serviceIdsPath));
+        } catch (final MapperException e) {
+            throw new InternalDaoException("Cannot map query: " + query, e);
+        } catch (final MongoException e) {
+            throw new InternalDaoException("Cannot find service IDs, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException {
+        assert deviceIds != null;
+        LOG.debug("findServiceIds: nrOfDeviceIds={}", deviceIds.size());
+        if (deviceIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final String deviceIdPath = mongoPath(notificationMapper.deviceId);
+        final String serviceIdsPath = mongoPath(notificationMapper.serviceIds);
+
+        // A single query for all device IDs, fetching only the device IDs and service IDs.
+        final DBObject query = new BasicDBObject(deviceIdPath, new BasicDBObject(OPERATOR_IN, new ArrayList<>(new HashSet<>(deviceIds))));
+        final DBObject projection = new BasicDBObject(deviceIdPath, 1).append(serviceIdsPath, 1).append(MONGO_ID, 0);
+        try {
+            final Map<String, Set<String>> found = new HashMap<>();
+            RoundTrips.increment();
+            try (DBCursor cursor = collection.find(query, projection)) {
+                while (cursor.hasNext()) {
+                    final DBObject dbObject = cursor.next();
+                    final Object deviceId = dbObject.get(deviceIdPath);
+                    if (deviceId instanceof String) {
+                        found.put((String) deviceId, toServiceIds(dbObject.get(serviceIdsPath)));
+                    }
+                }
+            }
+            return found;
+        } catch (final MongoException e) {
+            throw new InternalDaoException("Cannot find service IDs, nrOfDeviceIds=" + deviceIds.size(), e);
+        }
+    }
+
     @Override
     public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
         LOG.debug("removeServiceIds: deviceId={}", deviceId);
+        RoundTrips.increment();
         DaoUtils.removeEntityByField(collection, notificationMapper.deviceId, deviceId);
     }
 
     @Override
     public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
-        LOG.debug("putServiceIds: deviceId={}, serviceIds={}", deviceId, Json.toStringJson(serviceIds));
+        LOG.debug("putServiceIds: deviceId={}, serviceIds={}", deviceId, serviceIds);
         final MongoDBQuery query = new MongoDBQuery().eq(notificationMapper.deviceId, deviceId);
         final Notification notification = new Notification(deviceId, serviceIds);
         final DBObject dbObject;
@@ -118,6 +258,277 @@ public class NotificationDaoMongoDBImpl implements NotificationDao {
             throw new EntityStoreException("Mapper exception found", e);
         }
         assert dbObject != null;
+        RoundTrips.increment();
         DaoUtils.upsert(collection, query, dbObject);
     }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+
+        // The last notification for a device ID wins, like it would with individual calls.
+        final Map<String, Set<String>> merged = new LinkedHashMap<>();
+        for (final Notification notification : notifications) {
+            merged.put(notification.getDeviceId(), notification.getServiceIds());
+        }
+        LOG.debug("putServiceIds: nrOfNotifications={}, nrOfDeviceIds={}", notifications.size(), merged.size());
+        try {
+            final NotificationMapper mapper = mapperRegistry.getMapper(NotificationMapper.class);
+            bulkWrite(merged.entrySet(), (bulk, entry) -> {
+                final MongoDBQuery query = new MongoDBQuery().eq(notificationMapper.deviceId, entry.getKey());
+                final DBObject dbObject = mapper.toDb(new Notification(entry.getKey(), entry.getValue()));
+                assert dbObject != null;
+                bulk.find(query.toDBObject()).upsert().replaceOne(dbObject);
+            });
+        } catch (final SchemaException | MapperException e) {
+            throw new EntityStoreException("Mapper exception found", e);
+        } catch (final MongoException e) {
+            throw new EntityStoreException("Cannot put service IDs, nrOfDeviceIds=" + merged.size(), e);
+        }
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        LOG.debug("addServiceId: deviceId={}, serviceId={}", deviceId, serviceId);
+        final MongoDBQuery query = new MongoDBQuery().eq(notificationMapper.deviceId, deviceId);
+        try {
+
+            // A single upsert: either add the service ID to the set, or create the device with an empty set.
+            final DBObject update;
+            if (serviceId == null) {
+                update = new BasicDBObject(OPERATOR_SET_ON_INSERT,
+                        new BasicDBObject(mongoPath(notificationMapper.serviceIds), Collections.emptyList()));
+            } else {
+                update = new MongoDBUpdate().addToSet(notificationMapper.serviceIds, serviceId).toDBObject();
+            }
+            RoundTrips.increment();
+            collection.update(query.toDBObject(), update, true, false, DaoUtils.getWriteConcern());
+        } catch (final MapperException e) {
+            throw new EntityStoreException("Mapper exception found", e);
+        } catch (final MongoException e) {
+            throw new EntityStoreException("Cannot add service ID, deviceId=" + deviceId + ", serviceId=" + serviceId, e);
+        }
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+
+        // Merge the service IDs per device ID, so every device ID gets a single upsert.
+        final Map<String, Set<String>> merged = new LinkedHashMap<>();
+        for (final Notification notification : notifications) {
+            merged.computeIfAbsent(notification.getDeviceId(), key -> new HashSet<>()).addAll(notification.getServiceIds());
+        }
+        LOG.debug("addServiceIds: nrOfNotifications={}, nrOfDeviceIds={}", notifications.size(), merged.size());
+        final String serviceIdsPath = mongoPath(notificationMapper.serviceIds);
+        try {
+            bulkWrite(merged.entrySet(), (bulk, entry) -> {
+                final MongoDBQuery query = new MongoDBQuery().eq(notificationMapper.deviceId, entry.getKey());
+                final DBObject update;
+                if (entry.getValue().isEmpty()) {
+                    update = new BasicDBObject(OPERATOR_SET_ON_INSERT,
+                            new BasicDBObject(serviceIdsPath, Collections.emptyList()));
+                } else {
+                    update = new BasicDBObject(OPERATOR_ADD_TO_SET,
+                            new BasicDBObject(serviceIdsPath, new BasicDBObject(OPERATOR_EACH, new ArrayList<>(entry.getValue()))));
+                }
+                bulk.find(query.toDBObject()).upsert().updateOne(update);
+            });
+        } catch (final SchemaException | MapperException e) {
+            throw new EntityStoreException("Mapper exception found", e);
+        } catch (final MongoException e) {
+            throw new EntityStoreException("Cannot add service IDs, nrOfDeviceIds=" + merged.size(), e);
+        }
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        LOG.debug("removeServiceId: deviceId={}, serviceId={}", deviceId, serviceId);
+        final String serviceIdsPath = mongoPath(notificationMapper.serviceIds);
+        final MongoDBQuery query = new MongoDBQuery().eq(notificationMapper.deviceId, deviceId);
+        try {
+
+            // Pull the service ID and get the remaining service IDs back, in a single round trip.
+            final DBObject update = new MongoDBUpdate().pull(notificationMapper.serviceIds, serviceId).toDBObject();
+            RoundTrips.increment();
+            final DBObject remaining = collection.findAndModify(query.toDBObject(),
+                    new BasicDBObject(serviceIdsPath, 1).append(MONGO_ID, 0), null, false, update, true, false);
+
+            // Only if the set became empty, remove the device. The condition on the size makes sure a service ID
+            // which was added concurrently, in between these calls, is not lost.
+            if (remaining != null) {
+                final Object serviceIds = remaining.get(serviceIdsPath);
+                if (!(serviceIds instanceof Collection) || ((Collection<?>) serviceIds).isEmpty()) {
+                    final DBObject emptyQuery = query.toDBObject();
+                    emptyQuery.put(serviceIdsPath, new BasicDBObject(OPERATOR_SIZE, 0));
+                    RoundTrips.increment();
+                    collection.remove(emptyQuery, DaoUtils.getWriteConcern());
+                }
+            }
+        } catch (final MapperException e) {
+            throw new EntityRemoveException("Mapper exception found", e);
+        } catch (final MongoException e) {
+            throw new EntityRemoveException("Cannot remove service ID, deviceId=" + deviceId + ", serviceId=" + serviceId, e);
+        }
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        assert notifications != null;
+
+        // Split the notifications into device IDs to remove altogether, and service IDs to remove per device ID.
+        final Set<String> removedDeviceIds = new HashSet<>();
+        final Map<String, Set<String>> removedServiceIds = new LinkedHashMap<>();
+        for (final Notification notification : notifications) {
+            if (notification.getServiceIds().isEmpty()) {
+                removedDeviceIds.add(notification.getDeviceId());
+            } else {
+                removedServiceIds.computeIfAbsent(notification.getDeviceId(), key -> new HashSet<>()).addAll(notification.getServiceIds());
+            }
+        }
+        removedServiceIds.keySet().removeAll(removedDeviceIds);
+        LOG.debug("removeServiceIds: nrOfNotifications={}, nrOfRemovedDeviceIds={}, nrOfUpdatedDeviceIds={}",
+                notifications.size(), removedDeviceIds.size(), removedServiceIds.size());
+        final String deviceIdPath = mongoPath(notificationMapper.deviceId);
+        final String serviceIdsPath = mongoPath(notificationMapper.serviceIds);
+        try {
+            int nrOfChanges = 0;
+
+            // Remove whole device IDs with a single delete of many documents per batch.
+            for (final List<String> batch : Iterables.partition(removedDeviceIds, bulkWriteBatchSize)) {
+                RoundTrips.increment();
+                nrOfChanges += collection.remove(
+                        new BasicDBObject(deviceIdPath, new BasicDBObject(OPERATOR_IN, batch)),
+                        DaoUtils.getWriteConcern()).getN();
+            }
+            for (final List<Map.Entry<String, Set<String>>> batch : Iterables.partition(removedServiceIds.entrySet(), bulkWriteBatchSize)) {
+                final List<String> deviceIds = new ArrayList<>(batch.size());
+                for (final Map.Entry<String, Set<String>> entry : batch) {
+                    deviceIds.add(entry.getKey());
+                }
+                final DBObject emptyQuery = new BasicDBObject(deviceIdPath, new BasicDBObject(OPERATOR_IN, deviceIds)).
+                        append(serviceIdsPath, new BasicDBObject(OPERATOR_SIZE, 0));
+
+                // Any removal removes a device ID without service IDs, like removeServiceId does.
+                RoundTrips.increment();
+                nrOfChanges += collection.remove(emptyQuery, DaoUtils.getWriteConcern()).getN();
+
+                // Pull the service IDs with an unordered bulk write, only touching device IDs which have them.
+                nrOfChanges += bulkWrite(batch, (bulk, entry) -> {
+                    final List<String> serviceIds = new ArrayList<>(entry.getValue());
+                    bulk.find(new BasicDBObject(deviceIdPath, entry.getKey()).
+                            append(serviceIdsPath, new BasicDBObject(OPERATOR_IN, serviceIds))).
+                            updateOne(new BasicDBObject(OPERATOR_PULL,
+                                    new BasicDBObject(serviceIdsPath, new BasicDBObject(OPERATOR_IN, serviceIds))));
+                });
+
+                // Finally remove the device IDs which have no service IDs left. These have been counted already.
+                // The condition on the size makes sure a service ID which was added concurrently is not lost.
+                RoundTrips.increment();
+                collection.remove(emptyQuery, DaoUtils.getWriteConcern());
+            }
+            return nrOfChanges;
+        } catch (final SchemaException | MapperException e) {
+            throw new EntityRemoveException("Mapper exception found", e);
+        } catch (final MongoException e) {
+            throw new EntityRemoveException("Cannot remove service IDs, nrOfNotifications=" + notifications.size(), e);
+        }
+    }
+
+    /**
+     * Execute unordered bulk writes, so the database may apply them in parallel, in batches of at most
+     * {@link #bulkWriteBatchSize} operations.
+     *
+     * @param items Items to write.
+     * @param adder Adds the write operation for a single item to a bulk write.
+     * @param <T>   Type of items.
+     * @return Number of documents modified (excluding upserted documents).
+     * @throws MapperException Thrown if a write operation cannot be mapped.
+     * @throws SchemaException Thrown if a document cannot be mapped.
+     * @throws MongoException  Thrown if the database throws an error.
+     */
+    private <T> int bulkWrite(
+            @Nonnull final Iterable<T> items,
+            @Nonnull final BulkWriteAdder<T> adder) throws MapperException, SchemaException {
+        int nrOfModified = 0;
+        for (final List<T> batch : Iterables.partition(items, bulkWriteBatchSize)) {
+            final BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+            for (final T item : batch) {
+                adder.add(bulk, item);
+            }
+            RoundTrips.increment();
+            final BulkWriteResult result = bulk.execute(DaoUtils.getWriteConcern());
+            if (result.isAcknowledged()) {
+                nrOfModified += result.getModifiedCount();
+                LOG.debug("bulkWrite: nrOfOperations={}, modified={}, upserted={}",
+                        batch.size(), result.getModifiedCount(), result.getUpserts().size());
+            }
+        }
+        return nrOfModified;
+    }
+
+    @FunctionalInterface
+    private interface BulkWriteAdder<T> {
+        void add(@Nonnull BulkWriteOperation bulk, @Nonnull T item) throws MapperException, SchemaException;
+    }
+
+    /**
+     * Convert the service IDs of a document to a set. Values which are not strings are skipped.
+     *
+     * @param values Value of the service IDs field, may be null.
+     * @return Service IDs.
+     */
+    @Nonnull
+    private static Set<String> toServiceIds(@Nullable final Object values) {
+        final Set<String> serviceIds = new HashSet<>();
+        if (values instanceof Collection) {
+            for (final Object value : (Collection<?>) values) {
+                if (value instanceof String) {
+                    serviceIds.add((String) value);
+                }
+            }
+        }
+        return serviceIds;
+    }
+
+    /**
+     * Find device IDs, sorted by device ID. Only the device ID is fetched from the database; the service IDs
+     * are not transferred and no domain objects are created.
+     *
+     * @param query Query.
+     * @param skip  Number of device IDs to skip, &gt;= 0.
+     * @param limit Maximum number of device IDs to return, &gt; 0.
+     * @return Device IDs, sorted ascending.
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    @Nonnull
+    private List<String> findDeviceIds(
+            @Nonnull final MongoDBQuery query,
+            final int skip,
+            final int limit) throws InternalDaoException {
+        assert query != null;
+        assert skip >= 0;
+        assert limit > 0;   // A limit of 0 means "no limit" for MongoDB.
+
+        final String deviceIdPath = mongoPath(notificationMapper.deviceId);
+        final DBObject projection = new BasicDBObject(deviceIdPath, 1).append(MONGO_ID, 0);
+        final DBObject sorting = new BasicDBObject(deviceIdPath, 1);
+        try {
+            final List<String> deviceIds = new ArrayList<>();
+            RoundTrips.increment();
+            try (DBCursor cursor = collection.find(query.toDBObject(), projection).sort(sorting).skip(skip).limit(limit)) {
+                while (cursor.hasNext()) {
+                    final Object deviceId = cursor.next().get(deviceIdPath);
+                    if (deviceId instanceof String) {
+                        deviceIds.add((String) deviceId);
+                    }
+                }
+            }
+            return deviceIds;
+        } catch (final MapperException e) {
+            throw new InternalDaoException("Cannot map query: " + query, e);
+        } catch (final MongoException e) {
+            throw new InternalDaoException("Cannot find device IDs, query: " + query, e);
+        }
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.timing;
+
+import com.tomtom.services.notifications.metrics.LatencyHistogram;
+import com.tomtom.services.notifications.metrics.PrometheusText;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the metrics of the operations of a data store, recorded by {@link NotificationDaoTimingImpl}:
+ * the number of calls, the latency percentiles, the number of errors per exception type, the number of items
+ * returned or written, and the number of round trips to the data store.
+ */
+public class DaoMetrics {
+
+    /**
+     * Quantiles reported per operation.
+     */
+    @Nonnull
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Window of the latency percentiles, and the number of slots it is divided in.
+     */
+    private static final int WINDOW_SECS = 60;
+    private static final int NR_OF_SLOTS = 6;
+
+    /**
+     * The metrics of an operation.
+     */
+    public static final class Operation {
+        @Nonnull
+        private final LongAdder nrOfCalls = new LongAdder();
+        @Nonnull
+        private final LongAdder nrOfItems = new LongAdder();
+        @Nonnull
+        private final LongAdder nrOfRoundTrips = new LongAdder();
+        @Nonnull
+        private final ConcurrentHashMap<String, LongAdder> nrOfErrors = new ConcurrentHashMap<>();
+        @Nonnull
+        private final LatencyHistogram latency = new LatencyHistogram(WINDOW_SECS, NR_OF_SLOTS);
+
+        private Operation() {
+            // Created by DaoMetrics only.
+        }
+
+        /**
+         * Record a call.
+         *
+         * @param nanos          Latency in nanoseconds.
+         * @param nrOfItems      Number of items returned or written.
+         * @param nrOfRoundTrips Number of round trips to the data store.
+         * @param error          Exception thrown by the call, or null if it succeeded.
+         */
+        public void record(final long nanos, final int nrOfItems, final long nrOfRoundTrips, @Nullable final Throwable error) {
+            nrOfCalls.increment();
+            this.nrOfItems.add(nrOfItems);
+            this.nrOfRoundTrips.add(nrOfRoundTrips);
+            if (error != null) {
+                nrOfErrors.computeIfAbsent(error.getClass().getSimpleName(), key -> new LongAdder()).increment();
+            }
+            latency.record(nanos);
+        }
+
+        public long getNrOfCalls() {
+            return nrOfCalls.sum();
+        }
+
+        public long getNrOfItems() {
+            return nrOfItems.sum();
+        }
+
+        public long getNrOfRoundTrips() {
+            return nrOfRoundTrips.sum();
+        }
+
+        /**
+         * Return the number of errors per exception type.
+         *
+         * @return Number of errors per simple class name of the exception, sorted by name.
+         */
+        @Nonnull
+        public Map<String, Long> getNrOfErrors() {
+            final Map<String, Long> result = new TreeMap<>();
+            for (final Map.Entry<String, LongAdder> entry : nrOfErrors.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().sum());
+            }
+            return result;
+        }
+
+        @Nonnull
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    @Nonnull
+    private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * Return the metrics of an operation, creating them if needed.
+     *
+     * @param name Operation name.
+     * @return Metrics of the operation.
+     */
+    @Nonnull
+    public Operation getOperation(@Nonnull final String name) {
+        assert name != null;
+        return operations.computeIfAbsent(name, key -> new Operation());
+    }
+
+    /**
+     * Return the metrics of all operations.
+     *
+     * @return Metrics per operation name, sorted by name.
+     */
+    @Nonnull
+    public Map<String, Operation> getOperations() {
+        return Collections.unmodifiableMap(new TreeMap<>(operations));
+    }
+
+    /**
+     * Write the metrics of all operations.
+     *
+     * @param text Metrics text to append to.
+     */
+    public void writeTo(@Nonnull final PrometheusText text) {
+        assert text != null;
+        final Map<String, Operation> sorted = getOperations();
+
+        text.metric("notifications_dao_calls_total", "counter", "Number of calls to the data store.");
+        for (final Map.Entry<String, Operation> entry : sorted.entrySet()) {
+            text.sample("notifications_dao_calls_total", entry.getValue().getNrOfCalls(), "operation", entry.getKey());
+        }
+        text.metric("notifications_dao_errors_total", "counter", "Number of calls to the data store which failed, per exception.");
+        for (final Map.Entry<String, Operation> entry : sorted.entrySet()) {
+            for (final Map.Entry<String, Long> error : entry.getValue().getNrOfErrors().entrySet()) {
+                text.sample("notifications_dao_errors_total", error.getValue(), "operation", entry.getKey(), "exception", error.getKey());
+            }
+        }
+        text.metric("notifications_dao_items_total", "counter", "Number of device IDs or service IDs returned, or notifications written.");
+        for (final Map.Entry<String, Operation> entry : sorted.entrySet()) {
+            text.sample("notifications_dao_items_total", entry.getValue().getNrOfItems(), "operation", entry.getKey());
+        }
+        text.metric("notifications_dao_round_trips_total", "counter", "Number of round trips to the database.");
+        for (final Map.Entry<String, Operation> entry : sorted.entrySet()) {
+            text.sample("notifications_dao_round_trips_total", entry.getValue().getNrOfRoundTrips(), "operation", entry.getKey());
+        }
+        text.metric("notifications_dao_duration_seconds", "summary",
+                "Latency of the calls to the data store; the quantiles cover the last " + WINDOW_SECS + " seconds.");
+        for (final Map.Entry<String, Operation> entry : sorted.entrySet()) {
+            final LatencyHistogram latency = entry.getValue().getLatency();
+            final double[] values = latency.getQuantilesSecs(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; ++i) {
+                text.sample("notifications_dao_duration_seconds", values[i],
+                        "operation", entry.getKey(), "quantile", Double.toString(QUANTILES[i]));
+            }
+            text.sample("notifications_dao_duration_seconds_sum", latency.getSumSecs(), "operation", entry.getKey());
+            text.sample("notifications_dao_duration_seconds_count", latency.getCount(), "operation", entry.getKey());
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.timing;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.CacheStatus;
+import com.tomtom.services.notifications.dao.FilterStatus;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.SnapshotStatus;
+import com.tomtom.services.notifications.dao.WriteBehindStatus;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+import com.tomtom.speedtools.mongodb.InternalDaoException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * This class wraps another DAO and records the metrics of every operation in {@link DaoMetrics}: the number of
+ * calls, the latency, the errors per exception type, the number of items returned or written, and the number of
+ * round trips to the database (see {@link RoundTrips}). This allows slow requests to be attributed to the data
+ * store, or not. Recording a call costs two clock readings and a few counter updates.
+ *
+ * The latency includes the layers below this DAO, such as the cache and the filter, so calls which are answered
+ * from memory show up as calls without round trips.
+ */
+public class NotificationDaoTimingImpl implements NotificationDao {
+
+    @Nonnull
+    private final NotificationDao notificationDao;
+
+    @Nonnull
+    private final DaoMetrics.Operation getNrOfDeviceIds;
+    @Nonnull
+    private final DaoMetrics.Operation getAllDeviceIds;
+    @Nonnull
+    private final DaoMetrics.Operation getDeviceIds;
+    @Nonnull
+    private final DaoMetrics.Operation getDeviceIdsAfter;
+    @Nonnull
+    private final DaoMetrics.Operation getServiceIds;
+    @Nonnull
+    private final DaoMetrics.Operation findServiceIds;
+    @Nonnull
+    private final DaoMetrics.Operation findServiceIdsBulk;
+    @Nonnull
+    private final DaoMetrics.Operation removeServiceIds;
+    @Nonnull
+    private final DaoMetrics.Operation removeServiceIdsBulk;
+    @Nonnull
+    private final DaoMetrics.Operation putServiceIds;
+    @Nonnull
+    private final DaoMetrics.Operation putServiceIdsBulk;
+    @Nonnull
+    private final DaoMetrics.Operation addServiceId;
+    @Nonnull
+    private final DaoMetrics.Operation addServiceIds;
+    @Nonnull
+    private final DaoMetrics.Operation removeServiceId;
+
+    /**
+     * Create the timing DAO, wrapped around another DAO.
+     *
+     * @param notificationDao DAO to wrap.
+     * @param metrics         Metrics to record the operations in.
+     */
+    public NotificationDaoTimingImpl(@Nonnull final NotificationDao notificationDao, @Nonnull final DaoMetrics metrics) {
+        assert notificationDao != null;
+        assert metrics != null;
+        this.notificationDao = notificationDao;
+        this.getNrOfDeviceIds = metrics.getOperation("getNrOfDeviceIds");
+        this.getAllDeviceIds = metrics.getOperation("getAllDeviceIds");
+        this.getDeviceIds = metrics.getOperation("getDeviceIds");
+        this.getDeviceIdsAfter = metrics.getOperation("getDeviceIdsAfter");
+        this.getServiceIds = metrics.getOperation("getServiceIds");
+        this.findServiceIds = metrics.getOperation("findServiceIds");
+        this.findServiceIdsBulk = metrics.getOperation("findServiceIdsBulk");
+        this.removeServiceIds = metrics.getOperation("removeServiceIds");
+        this.removeServiceIdsBulk = metrics.getOperation("removeServiceIdsBulk");
+        this.putServiceIds = metrics.getOperation("putServiceIds");
+        this.putServiceIdsBulk = metrics.getOperation("putServiceIdsBulk");
+        this.addServiceId = metrics.getOperation("addServiceId");
+        this.addServiceIds = metrics.getOperation("addServiceIds");
+        this.removeServiceId = metrics.getOperation("removeServiceId");
+    }
+
+    @Override
+    public int getNrOfDeviceIds() throws InternalDaoException {
+        return time(getNrOfDeviceIds, notificationDao::getNrOfDeviceIds, result -> 0);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getAllDeviceIds() throws InternalDaoException {
+        return time(getAllDeviceIds, notificationDao::getAllDeviceIds, List::size);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException {
+        return time(getDeviceIds, () -> notificationDao.getDeviceIds(offset, count), List::size);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException {
+        return time(getDeviceIdsAfter, () -> notificationDao.getDeviceIdsAfter(after, count), List::size);
+    }
+
+    @Nonnull
+    @Override
+    public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException {
+        return NotificationDaoTimingImpl.<Set<String>, EntityNotFoundException, InternalDaoException>time(
+                getServiceIds, () -> notificationDao.getServiceIds(deviceId), Set::size);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        return time(findServiceIds, () -> notificationDao.findServiceIds(deviceId),
+                result -> (result == null) ? 0 : result.size());
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException {
+        return time(findServiceIdsBulk, () -> notificationDao.findServiceIds(deviceIds), Map::size);
+    }
+
+    @Override
+    public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
+        time(removeServiceIds, () -> {
+            notificationDao.removeServiceIds(deviceId);
+            return null;
+        }, result -> 1);
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
+        time(putServiceIds, () -> {
+            notificationDao.putServiceIds(deviceId, serviceIds);
+            return null;
+        }, result -> 1);
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        time(putServiceIdsBulk, () -> {
+            notificationDao.putServiceIds(notifications);
+            return null;
+        }, result -> notifications.size());
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        time(addServiceId, () -> {
+            notificationDao.addServiceId(deviceId, serviceId);
+            return null;
+        }, result -> 1);
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        time(addServiceIds, () -> {
+            notificationDao.addServiceIds(notifications);
+            return null;
+        }, result -> notifications.size());
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        return time(removeServiceIdsBulk, () -> notificationDao.removeServiceIds(notifications),
+                result -> notifications.size());
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        time(removeServiceId, () -> {
+            notificationDao.removeServiceId(deviceId, serviceId);
+            return null;
+        }, result -> 1);
+    }
+
+    @Nullable
+    @Override
+    public SnapshotStatus getSnapshotStatus() {
+        return notificationDao.getSnapshotStatus();
+    }
+
+    @Nullable
+    @Override
+    public WriteBehindStatus getWriteBehindStatus() {
+        return notificationDao.getWriteBehindStatus();
+    }
+
+    @Nullable
+    @Override
+    public FilterStatus getFilterStatus() {
+        return notificationDao.getFilterStatus();
+    }
+
+    @Nullable
+    @Override
+    public CacheStatus getCacheStatus() {
+        return notificationDao.getCacheStatus();
+    }
+
+    /**
+     * Call the wrapped DAO and record the metrics of the call.
+     *
+     * @param operation Metrics of the operation.
+     * @param call      Call to the wrapped DAO.
+     * @param items     Returns the number of items returned or written by a successful call.
+     * @param <T>       Result type.
+     * @param <E1>      Exception type.
+     * @param <E2>      Another exception type, RuntimeException if the call throws one type only. Calls which
+     *                  throw two types must pass the type arguments explicitly.
+     * @return Result of the call.
+     * @throws E1 Thrown if the call throws it.
+     * @throws E2 Thrown if the call throws it.
+     */
+    private static <T, E1 extends Exception, E2 extends Exception> T time(
+            @Nonnull final DaoMetrics.Operation operation,
+            @Nonnull final Call<T, E1, E2> call,
+            @Nonnull final ToIntFunction<T> items) throws E1, E2 {
+        final long roundTrips = RoundTrips.get();
+        final long start = System.nanoTime();
+        final T result;
+        try {
+            result = call.call();
+        } catch (final Exception | Error e) {
+            operation.record(System.nanoTime() - start, 0, RoundTrips.get() - roundTrips, e);
+            throw e;
+        }
+        operation.record(System.nanoTime() - start, items.applyAsInt(result), RoundTrips.get() - roundTrips, null);
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface Call<T, E1 extends Exception, E2 extends Exception> {
+        T call() throws E1, E2;
+    }
+}
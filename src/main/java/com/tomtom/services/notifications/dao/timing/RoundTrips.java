@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.timing;
+
+/**
+ * This class counts the round trips to the data store per thread. Data stores call {@link #increment()} for
+ * every request they send; callers compare {@link #get()} before and after a call to find the number of round
+ * trips it took. The count is approximate: for example, fetching the next batch of a large result is not counted.
+ */
+public final class RoundTrips {
+
+    private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * Count a round trip of the current thread.
+     */
+    public static void increment() {
+        ++COUNT.get()[0];
+    }
+
+    /**
+     * Return the number of round trips of the current thread.
+     *
+     * @return Number of round trips since the thread started.
+     */
+    public static long get() {
+        return COUNT.get()[0];
+    }
+
+    // Prevent instantiation.
+    private RoundTrips() {
+        super();
+        assert false;
+    }
+}
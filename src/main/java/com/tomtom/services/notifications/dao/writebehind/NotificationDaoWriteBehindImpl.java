@@ -0,0 +1,597 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.writebehind;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.WriteBehindStatus;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+import com.tomtom.speedtools.mongodb.InternalDaoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class wraps another DAO (normally the MongoDB DAO) with a write-behind buffer. Changes are not written
+ * to the data store immediately, but buffered per device ID for a short interval, merged with later changes of
+ * the same device ID, and then written with the bulk operations of the data store. During peaks, when the same
+ * device IDs are changed many times per second, this saves most of the writes.
+ *
+ * Reads see the buffered changes. Calls which list device IDs flush the buffer first.
+ *
+ * Changes are confirmed to the caller before they are written, so buffered changes are lost if the service is
+ * killed. On a normal shutdown the buffer is flushed (see {@link #close()}). A flush which fails is retried
+ * with the next flush.
+ */
+public class NotificationDaoWriteBehindImpl implements NotificationDao {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoWriteBehindImpl.class);
+
+    @Nonnull
+    private final NotificationDao notificationDao;
+    private final int maxPending;
+
+    /**
+     * Buffered changes per device ID. Changes take the read lock of swapLock while they update the map; a flush
+     * takes the write lock to swap in an empty map, so no change can get lost in the map being flushed.
+     */
+    @Nonnull
+    private volatile Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Changes which are being written to the data store, or null if no flush is in progress. These are kept
+     * until the flush succeeds, so reads see them in the meantime. Only changed by the flushing thread, which
+     * holds flushLock.
+     */
+    @Nullable
+    private volatile Map<String, PendingWrite> flushing = null;
+
+    @Nonnull
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    @Nonnull
+    private final Lock flushLock = new ReentrantLock();
+    @Nonnull
+    private final ScheduledExecutorService flushExecutor;
+    @Nonnull
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    @Nonnull
+    private final Thread shutdownHook;
+    private volatile boolean closed = false;
+
+    @Nonnull
+    private final AtomicLong nrOfWrites = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfCoalescedWrites = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfFlushes = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfFlushedDeviceIds = new AtomicLong();
+    @Nonnull
+    private final AtomicLong nrOfFlushErrors = new AtomicLong();
+    private volatile long lastFlushDurationMillis = 0;
+    private volatile long maxFlushDurationMillis = 0;
+
+    /**
+     * Create the write-behind buffer, wrapped around another DAO. The buffer is flushed when the service stops.
+     *
+     * @param notificationDao     DAO to wrap.
+     * @param flushIntervalMillis Interval between flushes in milliseconds. Range: &gt; 0.
+     * @param maxPending          Number of buffered device IDs at which a flush is started before the interval
+     *                            has passed. Range: &gt; 0.
+     */
+    public NotificationDaoWriteBehindImpl(
+            @Nonnull final NotificationDao notificationDao,
+            final int flushIntervalMillis,
+            final int maxPending) {
+        assert notificationDao != null;
+        assert flushIntervalMillis > 0;
+        assert maxPending > 0;
+        this.notificationDao = notificationDao;
+        this.maxPending = maxPending;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "NotificationWriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        shutdownHook = new Thread(this::close, "NotificationWriteBehindShutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Write all buffered changes to the data store. This is called periodically, but may be called at any
+     * time. If an earlier flush failed, its changes are written first.
+     *
+     * @return True if all changes buffered before the call were written, false if the data store failed.
+     */
+    public boolean flush() {
+        flushLock.lock();
+        try {
+            while (true) {
+                final boolean retry = (flushing != null);
+                if (!retry) {
+                    swapLock.writeLock().lock();
+                    try {
+                        if (pending.isEmpty()) {
+                            return true;
+                        }
+                        flushing = pending;
+                        pending = new ConcurrentHashMap<>();
+                    } finally {
+                        swapLock.writeLock().unlock();
+                    }
+                }
+                final Map<String, PendingWrite> writes = flushing;
+                assert writes != null;
+                final long startNanos = System.nanoTime();
+                try {
+                    writeAll(writes);
+                } catch (final EntityStoreException | EntityRemoveException e) {
+                    nrOfFlushErrors.incrementAndGet();
+                    LOG.error("flush: cannot write buffered changes, will retry, nrOfDeviceIds={}", writes.size(), e);
+                    return false;
+                }
+                flushing = null;
+                final long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                lastFlushDurationMillis = durationMillis;
+                maxFlushDurationMillis = Math.max(maxFlushDurationMillis, durationMillis);
+                nrOfFlushes.incrementAndGet();
+                nrOfFlushedDeviceIds.addAndGet(writes.size());
+                if (!retry) {
+                    return true;
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stop flushing periodically and flush the remaining changes. Changes made after this call are written
+     * immediately. This is called automatically when the JVM shuts down.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        if (!flush()) {
+            LOG.error("close: buffered changes are lost, nrOfDeviceIds={}", getQueueDepth());
+        }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (final IllegalStateException ignored) {
+                // The JVM is shutting down already.
+            }
+        }
+    }
+
+    @Override
+    @Nonnull
+    public WriteBehindStatus getWriteBehindStatus() {
+        return new WriteBehindStatus(getQueueDepth(), nrOfWrites.get(), nrOfCoalescedWrites.get(),
+                nrOfFlushes.get(), nrOfFlushedDeviceIds.get(), nrOfFlushErrors.get(),
+                lastFlushDurationMillis, maxFlushDurationMillis);
+    }
+
+    @Override
+    public int getNrOfDeviceIds() throws InternalDaoException {
+        flush();
+        return notificationDao.getNrOfDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getAllDeviceIds() throws InternalDaoException {
+        flush();
+        return notificationDao.getAllDeviceIds();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIds(final int offset, final int count) throws InternalDaoException {
+        flush();
+        return notificationDao.getDeviceIds(offset, count);
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getDeviceIdsAfter(@Nullable final String after, final int count) throws InternalDaoException {
+        flush();
+        return notificationDao.getDeviceIdsAfter(after, count);
+    }
+
+    @Nonnull
+    @Override
+    public Set<String> getServiceIds(@Nonnull final String deviceId) throws EntityNotFoundException, InternalDaoException {
+        final Set<String> serviceIds = findServiceIds(deviceId);
+        if (serviceIds == null) {
+            throw new EntityNotFoundException("No entry found for: " + deviceId);
+        }
+        return serviceIds;
+    }
+
+    @Nullable
+    @Override
+    public Set<String> findServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        assert deviceId != null;
+
+        // Read the buffered changes before the changes being flushed; a swap in between is harmless,
+        // because applying a change twice has the same result as applying it once.
+        final PendingWrite write = pending.get(deviceId);
+        if ((write != null) && (write.kind == Kind.PUT)) {
+            return write.serviceIds;
+        }
+        final Set<String> serviceIds = findFlushedServiceIds(deviceId);
+        return (write == null) ? serviceIds : write.applyTo(serviceIds);
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) throws InternalDaoException {
+        assert deviceIds != null;
+        final Map<String, PendingWrite> pendingWrites = pending;
+        final Map<String, PendingWrite> flushingWrites = flushing;
+
+        // Only read the device IDs from the data store for which the buffer doesn't know the service IDs.
+        final Set<String> unknownDeviceIds = new HashSet<>();
+        for (final String deviceId : deviceIds) {
+            final PendingWrite write = pendingWrites.get(deviceId);
+            final PendingWrite flushingWrite = (flushingWrites == null) ? null : flushingWrites.get(deviceId);
+            if (((write == null) || (write.kind != Kind.PUT)) && ((flushingWrite == null) || (flushingWrite.kind != Kind.PUT))) {
+                unknownDeviceIds.add(deviceId);
+            }
+        }
+        final Map<String, Set<String>> stored = unknownDeviceIds.isEmpty() ?
+                Collections.emptyMap() : notificationDao.findServiceIds(unknownDeviceIds);
+        final Map<String, Set<String>> found = new HashMap<>();
+        for (final String deviceId : deviceIds) {
+            final PendingWrite flushingWrite = (flushingWrites == null) ? null : flushingWrites.get(deviceId);
+            final Set<String> serviceIds = PendingWrite.apply(pendingWrites.get(deviceId),
+                    PendingWrite.apply(flushingWrite, stored.get(deviceId)));
+            if (serviceIds != null) {
+                found.put(deviceId, serviceIds);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void removeServiceIds(@Nonnull final String deviceId) throws EntityRemoveException {
+        assert deviceId != null;
+        try {
+            write(deviceId, PendingWrite.put(null));
+        } catch (final InternalDaoException e) {
+            throw new EntityRemoveException("Cannot remove device, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final String deviceId, @Nonnull final Set<String> serviceIds) throws EntityStoreException {
+        assert deviceId != null;
+        assert serviceIds != null;
+        try {
+            write(deviceId, PendingWrite.put(serviceIds));
+        } catch (final InternalDaoException e) {
+            throw new EntityStoreException("Cannot store device, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void putServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+        for (final Notification notification : notifications) {
+            putServiceIds(notification.getDeviceId(), notification.getServiceIds());
+        }
+    }
+
+    @Override
+    public void addServiceId(@Nonnull final String deviceId, @Nullable final String serviceId) throws EntityStoreException {
+        assert deviceId != null;
+        try {
+            write(deviceId, PendingWrite.add((serviceId == null) ? Collections.emptySet() : Collections.singleton(serviceId)));
+        } catch (final InternalDaoException e) {
+            throw new EntityStoreException("Cannot store device, deviceId=" + deviceId, e);
+        }
+    }
+
+    @Override
+    public void addServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityStoreException {
+        assert notifications != null;
+        for (final Notification notification : notifications) {
+            try {
+                write(notification.getDeviceId(), PendingWrite.add(notification.getServiceIds()));
+            } catch (final InternalDaoException e) {
+                throw new EntityStoreException("Cannot store device, deviceId=" + notification.getDeviceId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void removeServiceId(@Nonnull final String deviceId, @Nonnull final String serviceId) throws EntityRemoveException {
+        assert deviceId != null;
+        assert serviceId != null;
+        try {
+            write(deviceId, PendingWrite.remove(Collections.singleton(serviceId)));
+        } catch (final InternalDaoException e) {
+            throw new EntityRemoveException("Cannot remove service, deviceId=" + deviceId + ", serviceId=" + serviceId, e);
+        }
+    }
+
+    @Override
+    public int removeServiceIds(@Nonnull final Collection<Notification> notifications) throws EntityRemoveException {
+        assert notifications != null;
+        final List<String> deviceIds = new ArrayList<>(notifications.size());
+        for (final Notification notification : notifications) {
+            deviceIds.add(notification.getDeviceId());
+        }
+        try {
+
+            // The number of changed device IDs is derived from their service IDs before the changes.
+            final Map<String, Set<String>> before = findServiceIds(deviceIds);
+            final Map<String, Set<String>> after = new HashMap<>(before);
+            for (final Notification notification : notifications) {
+                final PendingWrite write = notification.getServiceIds().isEmpty() ?
+                        PendingWrite.put(null) : PendingWrite.remove(notification.getServiceIds());
+                write(notification.getDeviceId(), write);
+                after.put(notification.getDeviceId(), write.applyTo(after.get(notification.getDeviceId())));
+            }
+            int nrOfChanges = 0;
+            for (final Map.Entry<String, Set<String>> entry : after.entrySet()) {
+                if (!Objects.equals(entry.getValue(), before.get(entry.getKey()))) {
+                    ++nrOfChanges;
+                }
+            }
+            return nrOfChanges;
+        } catch (final InternalDaoException e) {
+            throw new EntityRemoveException("Cannot remove devices, nrOfNotifications=" + notifications.size(), e);
+        }
+    }
+
+    private int getQueueDepth() {
+        final Map<String, PendingWrite> flushingWrites = flushing;
+        return pending.size() + ((flushingWrites == null) ? 0 : flushingWrites.size());
+    }
+
+    /**
+     * Buffer a change for a device ID, merging it with an earlier buffered change for the same device ID.
+     *
+     * @param deviceId Device ID.
+     * @param write    Change.
+     * @throws InternalDaoException Thrown if the change cannot be merged without reading the device ID, and the
+     *                              data store throws an error.
+     */
+    private void write(@Nonnull final String deviceId, @Nonnull final PendingWrite write) throws InternalDaoException {
+        nrOfWrites.incrementAndGet();
+        swapLock.readLock().lock();
+        try {
+            final Map<String, PendingWrite> pendingWrites = pending;
+            while (true) {
+                final PendingWrite oldWrite = pendingWrites.get(deviceId);
+                if (oldWrite == null) {
+                    if (pendingWrites.putIfAbsent(deviceId, write) == null) {
+                        break;
+                    }
+                } else {
+                    PendingWrite merged = oldWrite.mergeWith(write);
+                    if (merged == null) {
+
+                        // An addition and a removal cannot be merged without knowing the stored service IDs.
+                        merged = PendingWrite.put(write.applyTo(oldWrite.applyTo(findFlushedServiceIds(deviceId))));
+                    }
+                    if (pendingWrites.replace(deviceId, oldWrite, merged)) {
+                        nrOfCoalescedWrites.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        if (closed) {
+            flush();
+        } else if ((pending.size() >= maxPending) && flushRequested.compareAndSet(false, true)) {
+            flushExecutor.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Find the service IDs of a device ID, as in the data store after the current flush.
+     */
+    @Nullable
+    private Set<String> findFlushedServiceIds(@Nonnull final String deviceId) throws InternalDaoException {
+        final Map<String, PendingWrite> flushingWrites = flushing;
+        final PendingWrite write = (flushingWrites == null) ? null : flushingWrites.get(deviceId);
+        if ((write != null) && (write.kind == Kind.PUT)) {
+            return write.serviceIds;
+        }
+        return PendingWrite.apply(write, notificationDao.findServiceIds(deviceId));
+    }
+
+    /**
+     * Write changes to the data store, with a bulk operation per kind of change.
+     */
+    private void writeAll(@Nonnull final Map<String, PendingWrite> writes) throws EntityStoreException, EntityRemoveException {
+        final List<Notification> puts = new ArrayList<>();
+        final List<Notification> adds = new ArrayList<>();
+        final List<Notification> removes = new ArrayList<>();
+        for (final Map.Entry<String, PendingWrite> entry : writes.entrySet()) {
+            final PendingWrite write = entry.getValue();
+            switch (write.kind) {
+                case PUT:
+                    if (write.serviceIds == null) {
+                        removes.add(new Notification(entry.getKey(), Collections.emptySet()));
+                    } else {
+                        puts.add(new Notification(entry.getKey(), write.serviceIds));
+                    }
+                    break;
+                case ADD:
+                    assert write.serviceIds != null;
+                    adds.add(new Notification(entry.getKey(), write.serviceIds));
+                    break;
+                default:
+                    assert write.serviceIds != null;
+                    removes.add(new Notification(entry.getKey(), write.serviceIds));
+                    break;
+            }
+        }
+        if (!puts.isEmpty()) {
+            notificationDao.putServiceIds(puts);
+        }
+        if (!adds.isEmpty()) {
+            notificationDao.addServiceIds(adds);
+        }
+        if (!removes.isEmpty()) {
+            notificationDao.removeServiceIds(removes);
+        }
+    }
+
+    private enum Kind {
+        PUT,        // Replace the service IDs, or remove the device ID if null.
+        ADD,        // Add service IDs, creating the device ID if needed.
+        REMOVE      // Remove service IDs, removing the device ID if none remain (see removeServiceId).
+    }
+
+    /**
+     * A buffered change of a device ID. Applying a change twice has the same result as applying it once.
+     * This is an immutable value.
+     */
+    private static final class PendingWrite {
+        @Nonnull
+        private final Kind kind;
+        @Nullable
+        private final Set<String> serviceIds;
+
+        private PendingWrite(@Nonnull final Kind kind, @Nullable final Set<String> serviceIds) {
+            this.kind = kind;
+            this.serviceIds = serviceIds;
+        }
+
+        @Nonnull
+        static PendingWrite put(@Nullable final Set<String> serviceIds) {
+            return new PendingWrite(Kind.PUT, (serviceIds == null) ? null : Collections.unmodifiableSet(new HashSet<>(serviceIds)));
+        }
+
+        @Nonnull
+        static PendingWrite add(@Nonnull final Collection<String> serviceIds) {
+            return new PendingWrite(Kind.ADD, Collections.unmodifiableSet(new HashSet<>(serviceIds)));
+        }
+
+        @Nonnull
+        static PendingWrite remove(@Nonnull final Collection<String> serviceIds) {
+            assert !serviceIds.isEmpty();
+            return new PendingWrite(Kind.REMOVE, Collections.unmodifiableSet(new HashSet<>(serviceIds)));
+        }
+
+        @Nullable
+        static Set<String> apply(@Nullable final PendingWrite write, @Nullable final Set<String> serviceIds) {
+            return (write == null) ? serviceIds : write.applyTo(serviceIds);
+        }
+
+        /**
+         * Return the service IDs after this change.
+         *
+         * @param stored Service IDs before this change, or null if the device ID doesn't exist.
+         * @return Service IDs after this change, or null if the device ID doesn't exist.
+         */
+        @Nullable
+        Set<String> applyTo(@Nullable final Set<String> stored) {
+            switch (kind) {
+                case PUT:
+                    return serviceIds;
+                case ADD:
+                    assert serviceIds != null;
+                    if (stored == null) {
+                        return serviceIds;
+                    }
+                    if (stored.containsAll(serviceIds)) {
+                        return stored;
+                    }
+                    final Set<String> added = new HashSet<>(stored);
+                    added.addAll(serviceIds);
+                    return Collections.unmodifiableSet(added);
+                default:
+                    assert serviceIds != null;
+                    if ((stored == null) || stored.isEmpty()) {
+                        return null;
+                    }
+                    final Set<String> remaining = new HashSet<>(stored);
+                    remaining.removeAll(serviceIds);
+                    if (remaining.isEmpty()) {
+                        return null;
+                    }
+                    return (remaining.size() == stored.size()) ? stored : Collections.unmodifiableSet(remaining);
+            }
+        }
+
+        /**
+         * Return a single change with the same effect as this change followed by another one.
+         *
+         * @param next Next change.
+         * @return Merged change, or null if the changes can only be merged knowing the stored service IDs.
+         */
+        @Nullable
+        PendingWrite mergeWith(@Nonnull final PendingWrite next) {
+            if (next.kind == Kind.PUT) {
+                return next;
+            }
+            if (kind == Kind.PUT) {
+                return put(next.applyTo(serviceIds));
+            }
+            if (kind == next.kind) {
+                assert serviceIds != null;
+                assert next.serviceIds != null;
+                final Set<String> merged = new HashSet<>(serviceIds);
+                merged.addAll(next.serviceIds);
+                return new PendingWrite(kind, Collections.unmodifiableSet(merged));
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dao.writebehind;
+
+import com.tomtom.speedtools.guice.HasProperties;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Properties of the write-behind buffer in front of the external database (see {@link NotificationDaoWriteBehindImpl}).
+ */
+public final class WriteBehindProperties implements HasProperties {
+
+    private final int intervalMillis;
+    private final int maxPending;
+
+    /**
+     * Write-behind properties.
+     *
+     * @param intervalMillis Time to buffer changes before writing them in milliseconds, or 0 to write
+     *                       changes immediately. Range: &gt;= 0.
+     * @param maxPending     Number of buffered device IDs at which changes are written before the
+     *                       interval has passed. Range: &gt; 0.
+     */
+    @Inject
+    public WriteBehindProperties(
+            @Named("Database.writeBehindIntervalMillis") final int intervalMillis,
+            @Named("Database.writeBehindMaxPending") final int maxPending)
+            throws InvalidPropertyValueException {
+        if (intervalMillis < 0) {
+            throw new InvalidPropertyValueException("Database.writeBehindIntervalMillis cannot be negative.");
+        }
+
+        if (maxPending <= 0) {
+            throw new InvalidPropertyValueException("Database.writeBehindMaxPending must be positive.");
+        }
+
+        this.intervalMillis = intervalMillis;
+        this.maxPending = maxPending;
+    }
+
+    public int getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+}
@@ -22,8 +22,13 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.inject.Binder;
 import com.tomtom.services.notifications.HelperResource;
 import com.tomtom.services.notifications.PendingNotificationsResource;
+import com.tomtom.services.notifications.dao.DeviceLocks;
 import com.tomtom.services.notifications.implementation.HelperResourceImpl;
+import com.tomtom.services.notifications.implementation.NotificationEvents;
+import com.tomtom.services.notifications.implementation.NotificationWaiters;
 import com.tomtom.services.notifications.implementation.PendingNotificationsResourceImpl;
+import com.tomtom.services.notifications.implementation.RequestLog;
+import com.tomtom.services.notifications.implementation.RequestMetrics;
 import com.tomtom.speedtools.guice.GuiceConfigurationModule;
 import com.tomtom.speedtools.json.Json;
 import com.tomtom.speedtools.rest.GeneralExceptionMapper;
@@ -73,6 +78,12 @@ public class DeploymentModule extends GuiceConfigurationModule {
         // Bind APIs to their implementation.
         binder.bind(HelperResource.class).to(HelperResourceImpl.class).in(Singleton.class);
         binder.bind(PendingNotificationsResource.class).to(PendingNotificationsResourceImpl.class).in(Singleton.class);
+        binder.bind(NotificationWaiters.class).in(Singleton.class);
+        binder.bind(NotificationEvents.class).in(Singleton.class);
+        binder.bind(DeviceLocks.class).in(Singleton.class);
+        binder.bind(RequestLog.class).in(Singleton.class);
+        binder.bind(RequestMetrics.class).in(Singleton.class);
+        binder.bind(RequestMetricsFeature.class).in(Singleton.class);
 
         // Bind start-up checking class (example).
         binder.bind(StartupCheck.class).asEagerSingleton();
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.deployment;
+
+import com.tomtom.services.notifications.PendingNotificationsResource;
+import com.tomtom.services.notifications.implementation.RequestMetrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.sse.SseEventSink;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * This feature records the metrics of every method of {@link PendingNotificationsResource}. Every method gets
+ * its own filter, which knows the metrics of the method, so a request only costs two clock readings and a few
+ * counter updates. The response filter runs after exception mapping, so it sees the final status code.
+ *
+ * Requests which wait for a notification (a device poll with a positive 'wait') are recorded under a separate
+ * endpoint, named after the method with {@link #WAIT_SUFFIX} appended, so their wait does not show up in the
+ * latency of the polls which are answered immediately. Event streams only count requests and errors: they
+ * last as long as the subscriber stays connected, so their latency means nothing.
+ */
+@Provider
+public class RequestMetricsFeature implements DynamicFeature {
+
+    /**
+     * Request property which holds the start time of the request.
+     */
+    private static final String PROPERTY_START_NANOS = RequestMetricsFeature.class.getName() + ".startNanos";
+
+    /**
+     * Request property which holds the endpoint of a request which waits.
+     */
+    private static final String PROPERTY_ENDPOINT = RequestMetricsFeature.class.getName() + ".endpoint";
+
+    /**
+     * Suffix of the endpoint name of requests which wait.
+     */
+    public static final String WAIT_SUFFIX = "_wait";
+
+    @Nonnull
+    private final RequestMetrics metrics;
+
+    @Inject
+    public RequestMetricsFeature(@Nonnull final RequestMetrics metrics) {
+        assert metrics != null;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void configure(@Nonnull final ResourceInfo resourceInfo, @Nonnull final FeatureContext context) {
+        assert resourceInfo != null;
+        assert context != null;
+        if (PendingNotificationsResource.class.isAssignableFrom(resourceInfo.getResourceClass())) {
+            final Method method = resourceInfo.getResourceMethod();
+            final String name = method.getName();
+            if (Arrays.asList(method.getParameterTypes()).contains(SseEventSink.class)) {
+                context.register(new MetricsFilter(metrics.getUntimedEndpoint(name), null));
+            } else if (hasWaitParameter(method)) {
+                context.register(new MetricsFilter(metrics.getEndpoint(name), metrics.getEndpoint(name + WAIT_SUFFIX)));
+            } else {
+                context.register(new MetricsFilter(metrics.getEndpoint(name), null));
+            }
+        }
+    }
+
+    /**
+     * Return whether a resource method has a 'wait' query parameter. The annotations are declared on the
+     * resource interface, not on its implementation.
+     *
+     * @param method Resource method.
+     * @return True if the method can wait.
+     */
+    private static boolean hasWaitParameter(@Nonnull final Method method) {
+        final Method declared;
+        try {
+            declared = PendingNotificationsResource.class.getMethod(method.getName(), method.getParameterTypes());
+        } catch (final NoSuchMethodException ignored) {
+            return false;
+        }
+        for (final Annotation[] annotations : declared.getParameterAnnotations()) {
+            for (final Annotation annotation : annotations) {
+                if ((annotation instanceof QueryParam) &&
+                        PendingNotificationsResource.PARAM_WAIT.equals(((QueryParam) annotation).value())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Filter to record the metrics of a single endpoint.
+     */
+    private static final class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+        @Nonnull
+        private final RequestMetrics.Endpoint endpoint;
+        @Nullable
+        private final RequestMetrics.Endpoint waitEndpoint;
+
+        private MetricsFilter(
+                @Nonnull final RequestMetrics.Endpoint endpoint,
+                @Nullable final RequestMetrics.Endpoint waitEndpoint) {
+            this.endpoint = endpoint;
+            this.waitEndpoint = waitEndpoint;
+        }
+
+        @Override
+        public void filter(@Nonnull final ContainerRequestContext requestContext) {
+            requestContext.setProperty(PROPERTY_START_NANOS, System.nanoTime());
+            if ((waitEndpoint != null) && isWaiting(requestContext)) {
+                requestContext.setProperty(PROPERTY_ENDPOINT, waitEndpoint);
+            }
+        }
+
+        @Override
+        public void filter(
+                @Nonnull final ContainerRequestContext requestContext,
+                @Nonnull final ContainerResponseContext responseContext) {
+            final Object start = requestContext.getProperty(PROPERTY_START_NANOS);
+            if (start instanceof Long) {
+                final Object waiting = requestContext.getProperty(PROPERTY_ENDPOINT);
+                ((waiting instanceof RequestMetrics.Endpoint) ? (RequestMetrics.Endpoint) waiting : endpoint).
+                        record(System.nanoTime() - (Long) start, responseContext.getStatus());
+            }
+        }
+
+        private static boolean isWaiting(@Nonnull final ContainerRequestContext requestContext) {
+            final String wait = requestContext.getUriInfo().getQueryParameters().getFirst(PendingNotificationsResource.PARAM_WAIT);
+            if (wait == null) {
+                return false;
+            }
+            try {
+                return Integer.parseInt(wait) > 0;
+            } catch (final NumberFormatException ignored) {
+                return false;
+            }
+        }
+    }
+}
@@ -33,11 +33,13 @@ import java.util.List;
 /**
  * This class defines the message body for a 'get all pending notifications' call.
  *
- * It is essentially a list of IDs and an integer that contains the size of the
- * list. In its current form, the 'total' field (the size of the list) is not
- * that useful. If you'd implement paging, the total count becomes important in
- * order to define proper 'offset' and 'count' parameters in a request (this has
- * not been implemented in this example).
+ * It is essentially a list of IDs and an integer that contains the total number
+ * of IDs. The total count is important in order to define proper 'offset' and
+ * 'count' parameters in a request.
+ *
+ * If the IDs were requested with a cursor (the 'after' parameter), the 'next'
+ * field contains the cursor to use for the next page. It is omitted when the
+ * last page has been returned.
  */
 @SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "NullableProblems"})
 @JsonInclude(Include.NON_EMPTY)
@@ -56,6 +58,11 @@ public final class AllPendingNotificationsDTO extends ApiDTO {
     @Nullable
     public ValuesDTO ids;    // Optional field.
 
+    @JsonProperty("next")
+    @XmlElement(name = "next")
+    @Nullable
+    public String next;      // Optional field.
+
     /**
      * The method 'validate' is SpeedTools proprietary way of dealing with
      * message body validation. Every property in this class is explicitly
@@ -74,15 +81,24 @@ public final class AllPendingNotificationsDTO extends ApiDTO {
         validator().start();
         validator().checkInteger(true, "total", total, 0, Integer.MAX_VALUE);   // Mandatory.
         validator().checkNotNullAndValidate(false, "values", ids);              // Optional.
+        validator().checkString(false, "next", next, 1, Integer.MAX_VALUE);     // Optional.
         validator().done();
     }
 
     public AllPendingNotificationsDTO(
             final int total,
-            @Nullable final List<String> ids) {
+            @Nullable final List<String> ids,
+            @Nullable final String next) {
         super();
         this.total = total;
         this.ids = (ids == null) ? null : new ValuesDTO(ids);
+        this.next = next;
+    }
+
+    public AllPendingNotificationsDTO(
+            final int total,
+            @Nullable final List<String> ids) {
+        this(total, ids, null);
     }
 
     @SuppressWarnings("UnusedDeclaration")
@@ -104,6 +120,12 @@ public final class AllPendingNotificationsDTO extends ApiDTO {
         return ids;
     }
 
+    @Nullable
+    public String getNext() {
+        beforeGet();
+        return next;
+    }
+
     public void setTotal(@Nonnull final Integer total) {
         beforeSet();
         this.total = total;
@@ -113,4 +135,9 @@ public final class AllPendingNotificationsDTO extends ApiDTO {
         beforeSet();
         this.ids = (ids == null) ? null : new ValuesDTO(ids);
     }
+
+    public void setNext(@Nullable final String next) {
+        beforeSet();
+        this.next = next;
+    }
 }
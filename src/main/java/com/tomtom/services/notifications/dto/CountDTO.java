@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+
+import javax.annotation.Nonnull;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * This class defines the message body of the result of a batch request: the number of items processed.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "NullableProblems"})
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "result")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class CountDTO extends ApiDTO {
+
+    @JsonProperty("count")
+    @XmlElement(name = "count")
+    @Nonnull
+    public Integer count;   // Mandatory field.
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkInteger(true, "count", count, 0, Integer.MAX_VALUE);   // Mandatory.
+        validator().done();
+    }
+
+    public CountDTO(final int count) {
+        super();
+        this.count = count;
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private CountDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public Integer getCount() {
+        beforeGet();
+        return count;
+    }
+
+    public void setCount(@Nonnull final Integer count) {
+        beforeSet();
+        this.count = count;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.services.notifications.ApiConstants;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+import com.tomtom.speedtools.objects.Immutables;
+
+import javax.annotation.Nonnull;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class defines the message body of a multi-device lookup: a list of device IDs. The list may
+ * contain at most {@link ApiConstants#API_BATCH_MAX_SIZE} device IDs.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "NullableProblems"})
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "devices")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class DeviceIdsDTO extends ApiDTO {
+
+    @JsonProperty("deviceIds")
+    @XmlElement(name = "deviceId")
+    @Nonnull
+    public List<String> deviceIds;  // Mandatory field.
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkNotNull(true, "deviceIds", deviceIds);   // Mandatory.
+        if (deviceIds != null) {
+            validator().checkInteger(true, "deviceIds", deviceIds.size(), 0, ApiConstants.API_BATCH_MAX_SIZE);
+            for (final String deviceId : deviceIds) {
+                validator().checkString(true, "deviceIds", deviceId, 1, Integer.MAX_VALUE);
+            }
+        }
+        validator().done();
+    }
+
+    public DeviceIdsDTO(@Nonnull final Collection<String> deviceIds) {
+        super();
+        this.deviceIds = Immutables.listOf(deviceIds);
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private DeviceIdsDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public List<String> getDeviceIds() {
+        beforeGet();
+        return deviceIds;
+    }
+
+    public void setDeviceIds(@Nonnull final Collection<String> deviceIds) {
+        beforeSet();
+        this.deviceIds = Immutables.listOf(deviceIds);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+import com.tomtom.speedtools.objects.Immutables;
+
+import javax.annotation.Nonnull;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class defines a single item of a multi-device lookup result: a device ID with the service IDs of its
+ * pending notifications. The list of service IDs is empty for the ID-less service notification.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "NullableProblems"})
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "device")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class DeviceServiceIdsDTO extends ApiDTO {
+
+    @JsonProperty("deviceId")
+    @XmlElement(name = "deviceId")
+    @Nonnull
+    public String deviceId;         // Mandatory field.
+
+    @JsonProperty("serviceIds")
+    @XmlElement(name = "serviceId")
+    @Nonnull
+    public List<String> serviceIds; // Mandatory field.
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkString(true, "deviceId", deviceId, 1, Integer.MAX_VALUE);  // Mandatory.
+        validator().checkNotNull(true, "serviceIds", serviceIds);                    // Mandatory.
+        validator().done();
+    }
+
+    public DeviceServiceIdsDTO(
+            @Nonnull final String deviceId,
+            @Nonnull final Collection<String> serviceIds) {
+        super();
+        this.deviceId = deviceId;
+        this.serviceIds = Immutables.listOf(serviceIds);
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private DeviceServiceIdsDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public String getDeviceId() {
+        beforeGet();
+        return deviceId;
+    }
+
+    @Nonnull
+    public List<String> getServiceIds() {
+        beforeGet();
+        return serviceIds;
+    }
+
+    public void setDeviceId(@Nonnull final String deviceId) {
+        beforeSet();
+        this.deviceId = deviceId;
+    }
+
+    public void setServiceIds(@Nonnull final Collection<String> serviceIds) {
+        beforeSet();
+        this.serviceIds = Immutables.listOf(serviceIds);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+import com.tomtom.speedtools.objects.Immutables;
+
+import javax.annotation.Nonnull;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class defines the message body for a multi-device lookup call: the devices which have pending
+ * notifications, with their service IDs. Devices without pending notifications are omitted.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "NullableProblems"})
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "notifications")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class LookupResultDTO extends ApiDTO {
+
+    @JsonProperty("notifications")
+    @XmlElement(name = "device")
+    @Nonnull
+    public List<DeviceServiceIdsDTO> notifications; // Mandatory field.
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkNotNullAndValidateAll(true, "notifications", notifications);  // Mandatory.
+        validator().done();
+    }
+
+    public LookupResultDTO(@Nonnull final Collection<DeviceServiceIdsDTO> notifications) {
+        super();
+        this.notifications = Immutables.listOf(notifications);
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private LookupResultDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public List<DeviceServiceIdsDTO> getNotifications() {
+        beforeGet();
+        return notifications;
+    }
+
+    public void setNotifications(@Nonnull final Collection<DeviceServiceIdsDTO> notifications) {
+        beforeSet();
+        this.notifications = Immutables.listOf(notifications);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * This class defines a single item of a batch request: a device ID and an optional service ID.
+ * If the service ID is omitted, the item refers to the ID-less service notification.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "NullableProblems"})
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "notification")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class NotificationDTO extends ApiDTO {
+
+    @JsonProperty("deviceId")
+    @XmlElement(name = "deviceId")
+    @Nonnull
+    public String deviceId;     // Mandatory field.
+
+    @JsonProperty("serviceId")
+    @XmlElement(name = "serviceId")
+    @Nullable
+    public String serviceId;    // Optional field.
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkString(true, "deviceId", deviceId, 1, Integer.MAX_VALUE);     // Mandatory.
+        validator().checkString(false, "serviceId", serviceId, 1, Integer.MAX_VALUE);  // Optional.
+        validator().done();
+    }
+
+    public NotificationDTO(
+            @Nonnull final String deviceId,
+            @Nullable final String serviceId) {
+        super();
+        this.deviceId = deviceId;
+        this.serviceId = serviceId;
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private NotificationDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public String getDeviceId() {
+        beforeGet();
+        return deviceId;
+    }
+
+    @Nullable
+    public String getServiceId() {
+        beforeGet();
+        return serviceId;
+    }
+
+    public void setDeviceId(@Nonnull final String deviceId) {
+        beforeSet();
+        this.deviceId = deviceId;
+    }
+
+    public void setServiceId(@Nullable final String serviceId) {
+        beforeSet();
+        this.serviceId = serviceId;
+    }
+}
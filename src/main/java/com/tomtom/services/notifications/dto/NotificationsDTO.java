@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.services.notifications.ApiConstants;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+import com.tomtom.speedtools.objects.Immutables;
+
+import javax.annotation.Nonnull;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class defines the message body of a batch request: a list of device IDs, each with an optional
+ * service ID. The list may contain at most {@link ApiConstants#API_BATCH_MAX_SIZE} items.
+ */
+@SuppressWarnings({"EqualsWhichDoesntCheckParameterClass", "NullableProblems"})
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "notifications")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class NotificationsDTO extends ApiDTO {
+
+    @JsonProperty("notifications")
+    @XmlElement(name = "notification")
+    @Nonnull
+    public List<NotificationDTO> notifications;     // Mandatory field.
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkNotNullAndValidateAll(true, "notifications", notifications);  // Mandatory.
+        if (notifications != null) {
+            validator().checkInteger(true, "notifications", notifications.size(), 0, ApiConstants.API_BATCH_MAX_SIZE);
+        }
+        validator().done();
+    }
+
+    public NotificationsDTO(@Nonnull final Collection<NotificationDTO> notifications) {
+        super();
+        this.notifications = Immutables.listOf(notifications);
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private NotificationsDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public List<NotificationDTO> getNotifications() {
+        beforeGet();
+        return notifications;
+    }
+
+    public void setNotifications(@Nonnull final Collection<NotificationDTO> notifications) {
+        beforeSet();
+        this.notifications = Immutables.listOf(notifications);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * This class defines the data transfer object for the "/status/snapshot" method.
+ * It contains the size and duration of the last snapshot of the in-memory database, and the
+ * duration of the restore at start-up. The time of the last snapshot is 0 if no snapshot was
+ * written yet.
+ */
+@SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "snapshot")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class SnapshotStatusDTO extends ApiDTO {
+
+    @JsonProperty("lastSnapshotTimeMillis")
+    @XmlElement(name = "lastSnapshotTimeMillis")
+    @Nullable
+    private Long lastSnapshotTimeMillis;
+
+    @JsonProperty("lastSnapshotSizeBytes")
+    @XmlElement(name = "lastSnapshotSizeBytes")
+    @Nullable
+    private Long lastSnapshotSizeBytes;
+
+    @JsonProperty("lastSnapshotDurationMillis")
+    @XmlElement(name = "lastSnapshotDurationMillis")
+    @Nullable
+    private Long lastSnapshotDurationMillis;
+
+    @JsonProperty("lastSnapshotNrOfDeviceIds")
+    @XmlElement(name = "lastSnapshotNrOfDeviceIds")
+    @Nullable
+    private Integer lastSnapshotNrOfDeviceIds;
+
+    @JsonProperty("restoreDurationMillis")
+    @XmlElement(name = "restoreDurationMillis")
+    @Nullable
+    private Long restoreDurationMillis;
+
+    @JsonProperty("restoreNrOfDeviceIds")
+    @XmlElement(name = "restoreNrOfDeviceIds")
+    @Nullable
+    private Integer restoreNrOfDeviceIds;
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkLong(true, "lastSnapshotTimeMillis", lastSnapshotTimeMillis, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "lastSnapshotSizeBytes", lastSnapshotSizeBytes, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "lastSnapshotDurationMillis", lastSnapshotDurationMillis, 0, Long.MAX_VALUE);
+        validator().checkInteger(true, "lastSnapshotNrOfDeviceIds", lastSnapshotNrOfDeviceIds, 0, Integer.MAX_VALUE);
+        validator().checkLong(true, "restoreDurationMillis", restoreDurationMillis, 0, Long.MAX_VALUE);
+        validator().checkInteger(true, "restoreNrOfDeviceIds", restoreNrOfDeviceIds, 0, Integer.MAX_VALUE);
+        validator().done();
+    }
+
+    public SnapshotStatusDTO(
+            final long lastSnapshotTimeMillis,
+            final long lastSnapshotSizeBytes,
+            final long lastSnapshotDurationMillis,
+            final int lastSnapshotNrOfDeviceIds,
+            final long restoreDurationMillis,
+            final int restoreNrOfDeviceIds) {
+        super();
+        setLastSnapshotTimeMillis(lastSnapshotTimeMillis);
+        setLastSnapshotSizeBytes(lastSnapshotSizeBytes);
+        setLastSnapshotDurationMillis(lastSnapshotDurationMillis);
+        setLastSnapshotNrOfDeviceIds(lastSnapshotNrOfDeviceIds);
+        setRestoreDurationMillis(restoreDurationMillis);
+        setRestoreNrOfDeviceIds(restoreNrOfDeviceIds);
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private SnapshotStatusDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public Long getLastSnapshotTimeMillis() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return lastSnapshotTimeMillis;
+    }
+
+    @Nonnull
+    public Long getLastSnapshotSizeBytes() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return lastSnapshotSizeBytes;
+    }
+
+    @Nonnull
+    public Long getLastSnapshotDurationMillis() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return lastSnapshotDurationMillis;
+    }
+
+    @Nonnull
+    public Integer getLastSnapshotNrOfDeviceIds() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return lastSnapshotNrOfDeviceIds;
+    }
+
+    @Nonnull
+    public Long getRestoreDurationMillis() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return restoreDurationMillis;
+    }
+
+    @Nonnull
+    public Integer getRestoreNrOfDeviceIds() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return restoreNrOfDeviceIds;
+    }
+
+    public void setLastSnapshotTimeMillis(@Nonnull final Long lastSnapshotTimeMillis) {
+        beforeSet();
+        this.lastSnapshotTimeMillis = lastSnapshotTimeMillis;
+    }
+
+    public void setLastSnapshotSizeBytes(@Nonnull final Long lastSnapshotSizeBytes) {
+        beforeSet();
+        this.lastSnapshotSizeBytes = lastSnapshotSizeBytes;
+    }
+
+    public void setLastSnapshotDurationMillis(@Nonnull final Long lastSnapshotDurationMillis) {
+        beforeSet();
+        this.lastSnapshotDurationMillis = lastSnapshotDurationMillis;
+    }
+
+    public void setLastSnapshotNrOfDeviceIds(@Nonnull final Integer lastSnapshotNrOfDeviceIds) {
+        beforeSet();
+        this.lastSnapshotNrOfDeviceIds = lastSnapshotNrOfDeviceIds;
+    }
+
+    public void setRestoreDurationMillis(@Nonnull final Long restoreDurationMillis) {
+        beforeSet();
+        this.restoreDurationMillis = restoreDurationMillis;
+    }
+
+    public void setRestoreNrOfDeviceIds(@Nonnull final Integer restoreNrOfDeviceIds) {
+        beforeSet();
+        this.restoreNrOfDeviceIds = restoreNrOfDeviceIds;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.tomtom.speedtools.apivalidation.ApiDTO;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * This class defines the data transfer object for the "/status/writebehind" method.
+ * It contains the number of device IDs in the write-behind buffer, the number of buffered and coalesced
+ * changes, and the number and duration of the flushes to the database.
+ */
+@SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
+@JsonInclude(Include.NON_NULL)
+@XmlRootElement(name = "writeBehind")
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class WriteBehindStatusDTO extends ApiDTO {
+
+    @JsonProperty("queueDepth")
+    @XmlElement(name = "queueDepth")
+    @Nullable
+    private Integer queueDepth;
+
+    @JsonProperty("nrOfWrites")
+    @XmlElement(name = "nrOfWrites")
+    @Nullable
+    private Long nrOfWrites;
+
+    @JsonProperty("nrOfCoalescedWrites")
+    @XmlElement(name = "nrOfCoalescedWrites")
+    @Nullable
+    private Long nrOfCoalescedWrites;
+
+    @JsonProperty("nrOfFlushes")
+    @XmlElement(name = "nrOfFlushes")
+    @Nullable
+    private Long nrOfFlushes;
+
+    @JsonProperty("nrOfFlushedDeviceIds")
+    @XmlElement(name = "nrOfFlushedDeviceIds")
+    @Nullable
+    private Long nrOfFlushedDeviceIds;
+
+    @JsonProperty("nrOfFlushErrors")
+    @XmlElement(name = "nrOfFlushErrors")
+    @Nullable
+    private Long nrOfFlushErrors;
+
+    @JsonProperty("lastFlushDurationMillis")
+    @XmlElement(name = "lastFlushDurationMillis")
+    @Nullable
+    private Long lastFlushDurationMillis;
+
+    @JsonProperty("maxFlushDurationMillis")
+    @XmlElement(name = "maxFlushDurationMillis")
+    @Nullable
+    private Long maxFlushDurationMillis;
+
+    @Override
+    public void validate() {
+        validator().start();
+        validator().checkInteger(true, "queueDepth", queueDepth, 0, Integer.MAX_VALUE);
+        validator().checkLong(true, "nrOfWrites", nrOfWrites, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "nrOfCoalescedWrites", nrOfCoalescedWrites, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "nrOfFlushes", nrOfFlushes, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "nrOfFlushedDeviceIds", nrOfFlushedDeviceIds, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "nrOfFlushErrors", nrOfFlushErrors, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "lastFlushDurationMillis", lastFlushDurationMillis, 0, Long.MAX_VALUE);
+        validator().checkLong(true, "maxFlushDurationMillis", maxFlushDurationMillis, 0, Long.MAX_VALUE);
+        validator().done();
+    }
+
+    public WriteBehindStatusDTO(
+            final int queueDepth,
+            final long nrOfWrites,
+            final long nrOfCoalescedWrites,
+            final long nrOfFlushes,
+            final long nrOfFlushedDeviceIds,
+            final long nrOfFlushErrors,
+            final long lastFlushDurationMillis,
+            final long maxFlushDurationMillis) {
+        super();
+        setQueueDepth(queueDepth);
+        setNrOfWrites(nrOfWrites);
+        setNrOfCoalescedWrites(nrOfCoalescedWrites);
+        setNrOfFlushes(nrOfFlushes);
+        setNrOfFlushedDeviceIds(nrOfFlushedDeviceIds);
+        setNrOfFlushErrors(nrOfFlushErrors);
+        setLastFlushDurationMillis(lastFlushDurationMillis);
+        setMaxFlushDurationMillis(maxFlushDurationMillis);
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    @Deprecated
+    private WriteBehindStatusDTO() {
+        // Default constructor required by JAX-B.
+        super();
+    }
+
+    @Nonnull
+    public Integer getQueueDepth() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return queueDepth;
+    }
+
+    @Nonnull
+    public Long getNrOfWrites() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return nrOfWrites;
+    }
+
+    @Nonnull
+    public Long getNrOfCoalescedWrites() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return nrOfCoalescedWrites;
+    }
+
+    @Nonnull
+    public Long getNrOfFlushes() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return nrOfFlushes;
+    }
+
+    @Nonnull
+    public Long getNrOfFlushedDeviceIds() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return nrOfFlushedDeviceIds;
+    }
+
+    @Nonnull
+    public Long getNrOfFlushErrors() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return nrOfFlushErrors;
+    }
+
+    @Nonnull
+    public Long getLastFlushDurationMillis() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return lastFlushDurationMillis;
+    }
+
+    @Nonnull
+    public Long getMaxFlushDurationMillis() {
+        beforeGet();
+        //noinspection ConstantConditions
+        return maxFlushDurationMillis;
+    }
+
+    public void setQueueDepth(@Nonnull final Integer queueDepth) {
+        beforeSet();
+        this.queueDepth = queueDepth;
+    }
+
+    public void setNrOfWrites(@Nonnull final Long nrOfWrites) {
+        beforeSet();
+        this.nrOfWrites = nrOfWrites;
+    }
+
+    public void setNrOfCoalescedWrites(@Nonnull final Long nrOfCoalescedWrites) {
+        beforeSet();
+        this.nrOfCoalescedWrites = nrOfCoalescedWrites;
+    }
+
+    public void setNrOfFlushes(@Nonnull final Long nrOfFlushes) {
+        beforeSet();
+        this.nrOfFlushes = nrOfFlushes;
+    }
+
+    public void setNrOfFlushedDeviceIds(@Nonnull final Long nrOfFlushedDeviceIds) {
+        beforeSet();
+        this.nrOfFlushedDeviceIds = nrOfFlushedDeviceIds;
+    }
+
+    public void setNrOfFlushErrors(@Nonnull final Long nrOfFlushErrors) {
+        beforeSet();
+        this.nrOfFlushErrors = nrOfFlushErrors;
+    }
+
+    public void setLastFlushDurationMillis(@Nonnull final Long lastFlushDurationMillis) {
+        beforeSet();
+        this.lastFlushDurationMillis = lastFlushDurationMillis;
+    }
+
+    public void setMaxFlushDurationMillis(@Nonnull final Long maxFlushDurationMillis) {
+        beforeSet();
+        this.maxFlushDurationMillis = maxFlushDurationMillis;
+    }
+}
@@ -17,7 +17,17 @@
 package com.tomtom.services.notifications.implementation;
 
 import com.tomtom.services.notifications.HelperResource;
+import com.tomtom.services.notifications.dao.CacheStatus;
+import com.tomtom.services.notifications.dao.DeviceLocks;
+import com.tomtom.services.notifications.dao.FilterStatus;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.SnapshotStatus;
+import com.tomtom.services.notifications.dao.WriteBehindStatus;
+import com.tomtom.services.notifications.dao.timing.DaoMetrics;
+import com.tomtom.services.notifications.dto.SnapshotStatusDTO;
 import com.tomtom.services.notifications.dto.VersionDTO;
+import com.tomtom.services.notifications.dto.WriteBehindStatusDTO;
+import com.tomtom.services.notifications.metrics.PrometheusText;
 import com.tomtom.speedtools.maven.MavenProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,14 +49,66 @@ public class HelperResourceImpl implements HelperResource {
     private final MavenProperties mavenProperties;
 
     /**
-     * The root resources gets the Maven POM property injected by Google Guice at startup.
+     * The DAO provides the status of the snapshots of the in-memory database and of the write-behind buffer.
+     */
+    @Nonnull
+    private final NotificationDao notificationDao;
+
+    /**
+     * These objects provide the metrics of the service.
+     */
+    @Nonnull
+    private final RequestMetrics requestMetrics;
+    @Nonnull
+    private final DaoMetrics daoMetrics;
+    @Nonnull
+    private final NotificationWaiters waiters;
+    @Nonnull
+    private final NotificationEvents events;
+    @Nonnull
+    private final DeviceLocks deviceLocks;
+    @Nonnull
+    private final RequestLog requestLog;
+
+    /**
+     * The root resources gets the Maven POM property, the DAO and the sources of metrics injected by Google
+     * Guice at startup.
      *
      * @param mavenProperties POM version.
+     * @param notificationDao DAO.
+     * @param requestMetrics  Metrics of the requests.
+     * @param daoMetrics      Metrics of the DAO operations.
+     * @param waiters         Device polls which wait for a notification.
+     * @param events          Subscribers to events.
+     * @param deviceLocks     Locks to serialize changes of the same device ID.
+     * @param requestLog      Log for the requests.
      */
     @Inject
-    public HelperResourceImpl(@Nonnull final MavenProperties mavenProperties) {
+    public HelperResourceImpl(
+            @Nonnull final MavenProperties mavenProperties,
+            @Nonnull final NotificationDao notificationDao,
+            @Nonnull final RequestMetrics requestMetrics,
+            @Nonnull final DaoMetrics daoMetrics,
+            @Nonnull final NotificationWaiters waiters,
+            @Nonnull final NotificationEvents events,
+            @Nonnull final DeviceLocks deviceLocks,
+            @Nonnull final RequestLog requestLog) {
         assert mavenProperties != null;
+        assert notificationDao != null;
+        assert requestMetrics != null;
+        assert daoMetrics != null;
+        assert waiters != null;
+        assert events != null;
+        assert deviceLocks != null;
+        assert requestLog != null;
         this.mavenProperties = mavenProperties;
+        this.notificationDao = notificationDao;
+        this.requestMetrics = requestMetrics;
+        this.daoMetrics = daoMetrics;
+        this.waiters = waiters;
+        this.events = events;
+        this.deviceLocks = deviceLocks;
+        this.requestLog = requestLog;
     }
 
     @Override
@@ -62,18 +124,31 @@ public class HelperResourceImpl implements HelperResource {
                 "Called by devices:\n" +
                 "  GET    /notifications/{deviceId}                 -- get pending notifications for a device\n" +
                 "                                                      (body contains service IDs, if available)\n" +
+                "  GET    /notifications/{deviceId}?wait={s}        -- ibid, but wait at most {s} seconds for a notification\n" +
                 "Called by back-end services:\n" +
+                "  POST   /notifications/_lookup                    -- get pending notifications for many devices at once\n" +
+                "                                                      (body: {\"deviceIds\": [x, y, ...]})\n" +
                 "  POST   /notifications/{deviceId}                 -- create a pending notification for a device\n" +
                 "  POST   /notifications/{deviceId}[/{serviceId}]   -- create a pending notification for a device, for a service\n" +
+                "  POST   /notifications                            -- create pending notifications for many devices at once\n" +
+                "                                                      (body: {\"notifications\": [{\"deviceId\": x, \"serviceId\": y}, ...]})\n" +
                 "  POST   /notifications/{deviceId}                 -- delete all pending notifications for a device\n" +
+                "  POST   /notifications/_delete                    -- delete pending notifications for many devices at once\n" +
+                "                                                      (body: as above, returns the number of devices affected)\n" +
                 "  DELETE /notifications/{deviceId}[/{serviceId}]   -- delete a specific pending notifications for a device\n" +
                 "                                                      (removing the last one removes the entire entry))\n\n" +
 
                 "Provided for deployment/monitoring:\n" +
                 "  GET    /notifications[?offset={x}&count={y}]     -- get all IDs that have pending notifications\n" +
+                "  GET    /notifications?after={id}[&count={y}]     -- ibid, paged with a cursor (use 'next' from the response)\n" +
+                "  GET    /notifications/_events[?prefix={p}&serviceId={s}&overflow={drop|disconnect}]\n" +
+                "                                                   -- stream of created and deleted notifications (SSE)\n" +
                 "  GET    /                                         -- produces this help text\n" +
                 "  GET    /version                                  -- returns the service version\n" +
-                "  GET    /status                                   -- returns 204 if all OK\n" +
+                "  GET    /status                                   -- returns 204 if all OK, 503 if the database has failed\n" +
+                "  GET    /status/snapshot                          -- returns the status of the snapshots of the database\n" +
+                "  GET    /status/writebehind                       -- returns the status of the write-behind buffer\n" +
+                "  GET    /metrics                                  -- returns the metrics of the service (Prometheus format)\n" +
 
                 "</pre></html>\n\n";
     }
@@ -99,9 +174,134 @@ public class HelperResourceImpl implements HelperResource {
     @Override
     public void getStatus(@Nonnull final AsyncResponse  response) {
         assert response != null;
+        if (!notificationDao.isHealthy()) {
+            LOG.error("getStatus: database failed");
+            response.resume(Response.status(Status.SERVICE_UNAVAILABLE).build());
+            return;
+        }
         LOG.info("getStatus: all OK");
 
         // Simply return 204.
         response.resume(Response.status(Status.NO_CONTENT).build());
     }
+
+    @Override
+    public void getSnapshotStatus(@Nonnull final AsyncResponse response) {
+        assert response != null;
+
+        final SnapshotStatus snapshotStatus = notificationDao.getSnapshotStatus();
+        if (snapshotStatus == null) {
+            LOG.info("getSnapshotStatus: database does not write snapshots");
+            response.resume(Response.status(Status.NOT_FOUND).build());
+            return;
+        }
+        LOG.info("getSnapshotStatus: lastSnapshotSizeBytes={}, lastSnapshotDurationMillis={}",
+                snapshotStatus.getLastSnapshotSizeBytes(), snapshotStatus.getLastSnapshotDurationMillis());
+
+        // Create the data transfer object (JSON result).
+        final SnapshotStatusDTO result = new SnapshotStatusDTO(
+                snapshotStatus.getLastSnapshotTimeMillis(),
+                snapshotStatus.getLastSnapshotSizeBytes(),
+                snapshotStatus.getLastSnapshotDurationMillis(),
+                snapshotStatus.getLastSnapshotNrOfDeviceIds(),
+                snapshotStatus.getRestoreDurationMillis(),
+                snapshotStatus.getRestoreNrOfDeviceIds());
+
+        // Make sure we return a valid object.
+        result.validate();
+        response.resume(Response.ok(result).build());
+    }
+
+    @Override
+    public void getWriteBehindStatus(@Nonnull final AsyncResponse response) {
+        assert response != null;
+
+        final WriteBehindStatus writeBehindStatus = notificationDao.getWriteBehindStatus();
+        if (writeBehindStatus == null) {
+            LOG.info("getWriteBehindStatus: database does not buffer changes");
+            response.resume(Response.status(Status.NOT_FOUND).build());
+            return;
+        }
+        LOG.info("getWriteBehindStatus: queueDepth={}, lastFlushDurationMillis={}",
+                writeBehindStatus.getQueueDepth(), writeBehindStatus.getLastFlushDurationMillis());
+
+        // Create the data transfer object (JSON result).
+        final WriteBehindStatusDTO result = new WriteBehindStatusDTO(
+                writeBehindStatus.getQueueDepth(),
+                writeBehindStatus.getNrOfWrites(),
+                writeBehindStatus.getNrOfCoalescedWrites(),
+                writeBehindStatus.getNrOfFlushes(),
+                writeBehindStatus.getNrOfFlushedDeviceIds(),
+                writeBehindStatus.getNrOfFlushErrors(),
+                writeBehindStatus.getLastFlushDurationMillis(),
+                writeBehindStatus.getMaxFlushDurationMillis());
+
+        // Make sure we return a valid object.
+        result.validate();
+        response.resume(Response.ok(result).build());
+    }
+
+    @Override
+    public void getMetrics(@Nonnull final AsyncResponse response) {
+        assert response != null;
+        LOG.debug("getMetrics");
+
+        final PrometheusText text = new PrometheusText();
+        requestMetrics.writeTo(text);
+        daoMetrics.writeTo(text);
+        text.metric("notifications_waiters", "gauge", "Number of device polls waiting for a notification.",
+                waiters.getNrOfWaiters());
+        text.metric("notifications_event_subscribers", "gauge", "Number of subscribers to the event stream.",
+                events.getNrOfSubscribers());
+        text.metric("notifications_events_dropped_total", "counter", "Number of events dropped for slow subscribers.",
+                events.getNrOfDroppedEvents());
+        text.metric("notifications_device_locks_total", "counter", "Number of device locks taken.",
+                deviceLocks.getNrOfLocks());
+        text.metric("notifications_device_locks_contended_total", "counter", "Number of device locks which had to wait.",
+                deviceLocks.getNrOfContendedLocks());
+        text.metric("notifications_device_locks_wait_seconds_total", "counter", "Time spent waiting for device locks.").
+                sample("notifications_device_locks_wait_seconds_total", deviceLocks.getWaitTimeNanos() / 1.0e9);
+        text.metric("notifications_log_records_total", "counter", "Number of request log records.",
+                requestLog.getNrOfRecords());
+        text.metric("notifications_log_records_sampled_out_total", "counter", "Number of request log records not sampled.",
+                requestLog.getNrOfSampledOutRecords());
+        text.metric("notifications_log_records_dropped_total", "counter", "Number of request log records dropped.",
+                requestLog.getNrOfDroppedRecords());
+
+        final WriteBehindStatus writeBehindStatus = notificationDao.getWriteBehindStatus();
+        if (writeBehindStatus != null) {
+            text.metric("notifications_writebehind_queue_depth", "gauge", "Number of device IDs with unwritten changes.",
+                    writeBehindStatus.getQueueDepth());
+            text.metric("notifications_writebehind_flush_errors_total", "counter", "Number of failed flushes.",
+                    writeBehindStatus.getNrOfFlushErrors());
+        }
+        final FilterStatus filterStatus = notificationDao.getFilterStatus();
+        if (filterStatus != null) {
+            text.metric("notifications_filter_lookups_total", "counter", "Number of device lookups through the filter.").
+                    sample("notifications_filter_lookups_total", filterStatus.getNrOfNegatives(), "result", "negative").
+                    sample("notifications_filter_lookups_total", filterStatus.getNrOfFalsePositives(), "result", "false_positive").
+                    sample("notifications_filter_lookups_total", filterStatus.getNrOfPositives(), "result", "positive");
+            text.metric("notifications_filter_expected_false_positive_rate", "gauge", "Expected false-positive rate of the filter.").
+                    sample("notifications_filter_expected_false_positive_rate", filterStatus.getExpectedFalsePositiveRate());
+            text.metric("notifications_filter_last_rebuild_time_seconds", "gauge", "Time of the last rebuild of the filter.").
+                    sample("notifications_filter_last_rebuild_time_seconds", filterStatus.getLastRebuildTimeMillis() / 1000.0);
+        }
+        final CacheStatus cacheStatus = notificationDao.getCacheStatus();
+        if (cacheStatus != null) {
+            text.metric("notifications_cache_hits_total", "counter", "Number of device lookups answered by the cache.",
+                    cacheStatus.getHitCount());
+            text.metric("notifications_cache_misses_total", "counter", "Number of device lookups not answered by the cache.",
+                    cacheStatus.getMissCount());
+            text.metric("notifications_cache_evictions_total", "counter", "Number of entries evicted from the cache.",
+                    cacheStatus.getEvictionCount());
+            text.metric("notifications_cache_size", "gauge", "Number of entries in the cache.",
+                    cacheStatus.getSize());
+        }
+        final SnapshotStatus snapshotStatus = notificationDao.getSnapshotStatus();
+        if (snapshotStatus != null) {
+            text.metric("notifications_snapshot_last_time_seconds", "gauge", "Time of the last snapshot.").
+                    sample("notifications_snapshot_last_time_seconds", snapshotStatus.getLastSnapshotTimeMillis() / 1000.0);
+        }
+        response.resume(Response.ok(text.toString(), PrometheusText.CONTENT_TYPE).build());
+    }
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.dto.NotificationDTO;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class publishes the creation and deletion of pending notifications to subscribers, as Server-Sent Events.
+ *
+ * Every subscriber has a bounded buffer of events. Events are sent from a separate thread per busy subscriber,
+ * so a slow subscriber does not hold up the calls which create or delete notifications. If the buffer of a
+ * subscriber is full, new events are dropped (and the subscriber gets a "dropped" event with the number of
+ * dropped events, so it knows to resynchronize), or the subscriber is disconnected, depending on its policy.
+ */
+public class NotificationEvents {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationEvents.class);
+
+    public static final String EVENT_CREATED = "created";
+    public static final String EVENT_DELETED = "deleted";
+    public static final String EVENT_DROPPED = "dropped";
+
+    /**
+     * What to do with new events for a subscriber whose buffer is full.
+     */
+    public enum Overflow {
+        DROP,           // Drop the events.
+        DISCONNECT      // Disconnect the subscriber.
+    }
+
+    private final int maxSubscribers;
+    private final int bufferSize;
+
+    @Nonnull
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    @Nonnull
+    private final ExecutorService senders;
+    @Nonnull
+    private final AtomicLong lastEventId = new AtomicLong(0);
+    @Nonnull
+    private final AtomicLong nrOfDroppedEvents = new AtomicLong(0);
+
+    /**
+     * Create the publisher of events.
+     *
+     * @param maxSubscribers Maximum number of concurrent subscribers. Range: &gt;= 0.
+     * @param bufferSize     Maximum number of buffered events per subscriber. Range: &gt; 0.
+     * @throws InvalidPropertyValueException Thrown if a value is out of range.
+     */
+    @Inject
+    public NotificationEvents(
+            @Named("Notifications.maxEventSubscribers") final int maxSubscribers,
+            @Named("Notifications.eventBufferSize") final int bufferSize) {
+        if (maxSubscribers < 0) {
+            throw new InvalidPropertyValueException("Notifications.maxEventSubscribers cannot be negative.");
+        }
+        if (bufferSize <= 0) {
+            throw new InvalidPropertyValueException("Notifications.eventBufferSize must be positive.");
+        }
+        this.maxSubscribers = maxSubscribers;
+        this.bufferSize = bufferSize;
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "NotificationEvents");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Subscribe to events.
+     *
+     * @param sink      Event sink of the subscriber.
+     * @param sse       Factory for events.
+     * @param prefix    Only send events for device IDs which start with this prefix, or null for all device IDs.
+     * @param serviceId Only send events for this service ID (and for the deletion of all notifications of a
+     *                  device), or null for all service IDs.
+     * @param overflow  What to do when the buffer of the subscriber is full.
+     * @return False if too many subscribers exist already. The sink is not used in that case.
+     */
+    public synchronized boolean subscribe(
+            @Nonnull final SseEventSink sink,
+            @Nonnull final Sse sse,
+            @Nullable final String prefix,
+            @Nullable final String serviceId,
+            @Nonnull final Overflow overflow) {
+        assert sink != null;
+        assert sse != null;
+        assert overflow != null;
+        subscribers.removeIf(subscriber -> subscriber.sink.isClosed());
+        if (subscribers.size() >= maxSubscribers) {
+            return false;
+        }
+        subscribers.add(new Subscriber(sink, sse, prefix, serviceId, overflow));
+        return true;
+    }
+
+    /**
+     * Publish an event to all subscribers which are interested in it. This does not block.
+     *
+     * @param name      Event name, {@link #EVENT_CREATED} or {@link #EVENT_DELETED}.
+     * @param deviceId  Device ID.
+     * @param serviceId Service ID, or null for an ID-less notification or for all notifications of the device.
+     */
+    public void publish(@Nonnull final String name, @Nonnull final String deviceId, @Nullable final String serviceId) {
+        assert name != null;
+        assert deviceId != null;
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        final Event event = new Event(lastEventId.incrementAndGet(), name, deviceId, serviceId);
+        for (final Subscriber subscriber : subscribers) {
+            if (subscriber.matches(event)) {
+                subscriber.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Return the number of subscribers.
+     *
+     * @return Number of subscribers.
+     */
+    public int getNrOfSubscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Return the number of events dropped because the buffer of a subscriber was full.
+     *
+     * @return Number of dropped events.
+     */
+    public long getNrOfDroppedEvents() {
+        return nrOfDroppedEvents.get();
+    }
+
+    private static final class Event {
+        private final long id;
+        @Nonnull
+        private final String name;
+        @Nonnull
+        private final String deviceId;
+        @Nullable
+        private final String serviceId;
+
+        private Event(final long id, @Nonnull final String name, @Nonnull final String deviceId, @Nullable final String serviceId) {
+            this.id = id;
+            this.name = name;
+            this.deviceId = deviceId;
+            this.serviceId = serviceId;
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+        @Nonnull
+        private final SseEventSink sink;
+        @Nonnull
+        private final Sse sse;
+        @Nullable
+        private final String prefix;
+        @Nullable
+        private final String serviceId;
+        @Nonnull
+        private final Overflow overflow;
+        @Nonnull
+        private final ArrayBlockingQueue<Event> queue = new ArrayBlockingQueue<>(bufferSize);
+        @Nonnull
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        @Nonnull
+        private final AtomicLong nrOfDropped = new AtomicLong(0);
+
+        private Subscriber(
+                @Nonnull final SseEventSink sink,
+                @Nonnull final Sse sse,
+                @Nullable final String prefix,
+                @Nullable final String serviceId,
+                @Nonnull final Overflow overflow) {
+            this.sink = sink;
+            this.sse = sse;
+            this.prefix = prefix;
+            this.serviceId = serviceId;
+            this.overflow = overflow;
+        }
+
+        private boolean matches(@Nonnull final Event event) {
+            return ((prefix == null) || event.deviceId.startsWith(prefix)) &&
+                    ((serviceId == null) || (event.serviceId == null) || serviceId.equals(event.serviceId));
+        }
+
+        private void offer(@Nonnull final Event event) {
+            if (!queue.offer(event)) {
+                nrOfDroppedEvents.incrementAndGet();
+                if (overflow == Overflow.DISCONNECT) {
+                    LOG.info("offer: disconnect slow subscriber, prefix={}, serviceId={}", prefix, serviceId);
+                    close();
+                    return;
+                }
+                nrOfDropped.incrementAndGet();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                senders.execute(this);
+            }
+        }
+
+        /**
+         * Send the buffered events. Only one thread at a time runs this for a subscriber.
+         */
+        @Override
+        public void run() {
+            try {
+                while (!sink.isClosed()) {
+                    final long dropped = nrOfDropped.getAndSet(0);
+                    if (dropped > 0) {
+                        send(sse.newEventBuilder().name(EVENT_DROPPED).data(String.valueOf(dropped)).build());
+                    }
+                    final Event event = queue.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    final NotificationDTO data = new NotificationDTO(event.deviceId, event.serviceId);
+                    data.validate();
+                    send(sse.newEventBuilder().
+                            id(String.valueOf(event.id)).
+                            name(event.name).
+                            mediaType(MediaType.APPLICATION_JSON_TYPE).
+                            data(NotificationDTO.class, data).
+                            build());
+                }
+            } catch (final ExecutionException | RuntimeException e) {
+                LOG.info("run: cannot send event, disconnect subscriber, prefix={}, serviceId={}: {}", prefix, serviceId, e.getMessage());
+                close();
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                close();
+            } finally {
+                scheduled.set(false);
+            }
+            if (sink.isClosed()) {
+                subscribers.remove(this);
+            } else if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+
+                // Events were offered while the flag was still set.
+                senders.execute(this);
+            }
+        }
+
+        private void send(@Nonnull final OutboundSseEvent event) throws ExecutionException, InterruptedException {
+            sink.send(event).toCompletableFuture().get();
+        }
+
+        private void close() {
+            subscribers.remove(this);
+            queue.clear();
+            try {
+                sink.close();
+            } catch (final RuntimeException ignored) {
+                // The subscriber is gone already.
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps the requests which wait for a change of the pending notifications of a device (long polls).
+ * A waiting request does not hold a thread: it is only a callback, which is called when the device is changed
+ * or when the wait expires, whichever comes first.
+ *
+ * The number of waiting requests is limited. Requests which cannot wait are expected to answer immediately.
+ */
+public class NotificationWaiters {
+
+    /**
+     * Callback of a waiting request. This is called exactly once, unless the wait is cancelled.
+     */
+    @FunctionalInterface
+    public interface WakeUp {
+
+        /**
+         * Called when the wait ends.
+         *
+         * @param changed True if the device was changed, false if the wait expired.
+         */
+        void wakeUp(boolean changed);
+    }
+
+    /**
+     * A waiting request.
+     */
+    public final class Waiter {
+        @Nonnull
+        private final String deviceId;
+        @Nonnull
+        private final WakeUp wakeUp;
+        @Nonnull
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        @Nullable
+        private volatile ScheduledFuture<?> timeout = null;
+
+        private Waiter(@Nonnull final String deviceId, @Nonnull final WakeUp wakeUp) {
+            this.deviceId = deviceId;
+            this.wakeUp = wakeUp;
+        }
+
+        /**
+         * Stop waiting, without calling the callback.
+         *
+         * @return True if the wait was cancelled, false if the callback was called (or is being called) already.
+         */
+        public boolean cancel() {
+            if (!finish()) {
+                return false;
+            }
+            remove(this);
+            return true;
+        }
+
+        private boolean finish() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            nrOfWaiters.decrementAndGet();
+            final ScheduledFuture<?> future = timeout;
+            if (future != null) {
+                future.cancel(false);
+            }
+            return true;
+        }
+
+        private void expire() {
+            if (finish()) {
+                remove(this);
+                wakeUp.wakeUp(false);
+            }
+        }
+    }
+
+    private final int maxWaiters;
+
+    /**
+     * Waiting requests per device ID. The sets are only accessed within compute() or after remove().
+     */
+    @Nonnull
+    private final ConcurrentHashMap<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    @Nonnull
+    private final AtomicInteger nrOfWaiters = new AtomicInteger(0);
+    @Nonnull
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Create the registry of waiting requests.
+     *
+     * @param maxWaiters Maximum number of concurrently waiting requests. Range: &gt;= 0.
+     * @throws InvalidPropertyValueException Thrown if the maximum is out of range.
+     */
+    @Inject
+    public NotificationWaiters(@Named("Notifications.maxWaiters") final int maxWaiters) {
+        if (maxWaiters < 0) {
+            throw new InvalidPropertyValueException("Notifications.maxWaiters cannot be negative.");
+        }
+        this.maxWaiters = maxWaiters;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "NotificationWaiters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Wait for a change of a device.
+     *
+     * @param deviceId      Device ID.
+     * @param timeoutMillis Maximum time to wait in milliseconds. Range: &gt; 0.
+     * @param wakeUp        Callback, called from the thread which changes the device or from a timer thread. It
+     *                      should not block.
+     * @return The waiting request, or null if too many requests are waiting already.
+     */
+    @Nullable
+    public Waiter await(@Nonnull final String deviceId, final long timeoutMillis, @Nonnull final WakeUp wakeUp) {
+        assert deviceId != null;
+        assert timeoutMillis > 0;
+        assert wakeUp != null;
+        if (nrOfWaiters.incrementAndGet() > maxWaiters) {
+            nrOfWaiters.decrementAndGet();
+            return null;
+        }
+        final Waiter waiter = new Waiter(deviceId, wakeUp);
+        waiters.compute(deviceId, (key, set) -> {
+            final Set<Waiter> result = (set == null) ? new HashSet<>() : set;
+            result.add(waiter);
+            return result;
+        });
+        waiter.timeout = timer.schedule(waiter::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+        if (waiter.done.get()) {
+
+            // The waiter finished before its timeout was set.
+            waiter.timeout.cancel(false);
+        }
+        return waiter;
+    }
+
+    /**
+     * Wake up all requests waiting for a device. Call this after the device has been changed.
+     *
+     * @param deviceId Device ID.
+     */
+    public void changed(@Nonnull final String deviceId) {
+        assert deviceId != null;
+        if (nrOfWaiters.get() == 0) {
+            return;
+        }
+        final Set<Waiter> set = waiters.remove(deviceId);
+        if (set != null) {
+            for (final Waiter waiter : set) {
+                if (waiter.finish()) {
+                    waiter.wakeUp.wakeUp(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of waiting requests.
+     *
+     * @return Number of waiting requests.
+     */
+    public int getNrOfWaiters() {
+        return nrOfWaiters.get();
+    }
+
+    private void remove(@Nonnull final Waiter waiter) {
+        waiters.computeIfPresent(waiter.deviceId, (key, set) -> {
+            set.remove(waiter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -18,14 +18,23 @@
 package com.tomtom.services.notifications.implementation;
 
 import akka.dispatch.Futures;
+import com.tomtom.services.notifications.ApiConstants;
+import com.tomtom.services.notifications.Notification;
 import com.tomtom.services.notifications.PendingNotificationsResource;
 import com.tomtom.services.notifications.dao.DatabaseProperties;
+import com.tomtom.services.notifications.dao.DeviceLocks;
 import com.tomtom.services.notifications.dao.NotificationDao;
 import com.tomtom.services.notifications.dto.AllPendingNotificationsDTO;
+import com.tomtom.services.notifications.dto.CountDTO;
+import com.tomtom.services.notifications.dto.DeviceIdsDTO;
+import com.tomtom.services.notifications.dto.DeviceServiceIdsDTO;
+import com.tomtom.services.notifications.dto.LookupResultDTO;
+import com.tomtom.services.notifications.dto.NotificationDTO;
+import com.tomtom.services.notifications.dto.NotificationsDTO;
 import com.tomtom.services.notifications.dto.ValuesDTO;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiIntegerOutOfRangeException;
-import com.tomtom.speedtools.mongodb.EntityNotFoundException;
 import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.InternalDaoException;
 import com.tomtom.speedtools.rest.ResourceProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,16 +42,31 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
-import java.util.HashSet;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 public class PendingNotificationsResourceImpl implements PendingNotificationsResource {
     private static final Logger LOG = LoggerFactory.getLogger(PendingNotificationsResourceImpl.class);
 
+    /**
+     * Number of items of a batch request passed to the DAO at once.
+     */
+    private static final int BATCH_CHUNK_SIZE = 1000;
+
     @Nonnull
     private final NotificationDao notificationDao;
 
@@ -53,6 +77,32 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
     @Nonnull
     private final ResourceProcessor processor;
 
+    /**
+     * Device polls which wait for a notification.
+     */
+    @Nonnull
+    private final NotificationWaiters waiters;
+
+    /**
+     * Subscribers to the events of created and deleted notifications.
+     */
+    @Nonnull
+    private final NotificationEvents events;
+
+    /**
+     * A change of a device in the DAO and the notification of its waiters and subscribers form a single
+     * compound operation per device ID, so subscribers see the changes of a device in the order in which
+     * they were made. DAOs which cannot update a device atomically are protected by these locks as well.
+     */
+    @Nonnull
+    private final DeviceLocks deviceLocks;
+
+    /**
+     * The requests are logged through a sampled, asynchronous log.
+     */
+    @Nonnull
+    private final RequestLog requestLog;
+
     /**
      * The constructor gets the (Akka-backed) resource processor injected from Guice. The instance
      * of the processor is defined in the "DeploymentModule" elsewhere in the project. It is a
@@ -61,25 +111,42 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
      * @param processor          The (Akka-backed) resource processor.
      * @param databaseProperties Data base properties.
      * @param notificationDao    the DAO.
+     * @param waiters            Device polls which wait for a notification.
+     * @param events             Subscribers to events.
+     * @param deviceLocks        Locks to serialize changes of the same device ID.
+     * @param requestLog         Log for the requests.
      */
     @Inject
     public PendingNotificationsResourceImpl(
             @Nonnull final ResourceProcessor processor,
             @Nonnull final DatabaseProperties databaseProperties,
-            @Nonnull final NotificationDao notificationDao) {
+            @Nonnull final NotificationDao notificationDao,
+            @Nonnull final NotificationWaiters waiters,
+            @Nonnull final NotificationEvents events,
+            @Nonnull final DeviceLocks deviceLocks,
+            @Nonnull final RequestLog requestLog) {
         assert processor != null;
         assert databaseProperties != null;
         assert notificationDao != null;
+        assert waiters != null;
+        assert events != null;
+        assert deviceLocks != null;
+        assert requestLog != null;
 
         // Remember the injected processor.
         this.processor = processor;
         this.notificationDao = notificationDao;
+        this.waiters = waiters;
+        this.events = events;
+        this.deviceLocks = deviceLocks;
+        this.requestLog = requestLog;
     }
 
     @Override
     public void getAllPendingNotifications(
             final int offset,
             final int count,
+            @Nullable final String after,
             @Nonnull final AsyncResponse response) {
         assert response != null;
 
@@ -90,7 +157,8 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
          * processor class (which would be confusing in reading the logs).
          */
         processor.process("getAllPendingNotifications", LOG, response, () -> {
-            LOG.info("getAllPendingNotifications: total={}", notificationDao.getNrOfDeviceIds());
+            final int total = notificationDao.getNrOfDeviceIds();
+            requestLog.info(LOG, "getAllPendingNotifications", "getAllPendingNotifications: total={}", total);
 
             // Check value of count.
             if (count < 0) {
@@ -98,17 +166,22 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
             }
             assert count >= 0;
 
-            // Get all device IDs.
-            //noinspection ToArrayCallWithZeroLengthArrayArgument
-            final List<String> deviceIds = notificationDao.getAllDeviceIds();
+            // Get the requested page of device IDs only; the DAO knows how to do that efficiently.
+            final AllPendingNotificationsDTO result;
+            if (after == null) {
+                final List<String> deviceIds = notificationDao.getDeviceIds(offset, count);
 
-            // Calculate the sub-list to return.
-            final int fromIndex = (offset < 0) ? Math.max(0, deviceIds.size() + offset) : Math.min(deviceIds.size(), offset);
-            final int toIndex = Math.min(deviceIds.size(), fromIndex + count);
+                // Create a result object (data transfer object) containing the IDs.
+                result = new AllPendingNotificationsDTO(total, deviceIds);
+            } else {
 
-            // Create a result object (data transfer object) containing all IDs.
-            final List<String> subList = deviceIds.subList(fromIndex, toIndex);
-            final AllPendingNotificationsDTO result = new AllPendingNotificationsDTO(notificationDao.getNrOfDeviceIds(), subList);
+                // Use the cursor. An empty cursor means: start at the first device ID.
+                final List<String> deviceIds = notificationDao.getDeviceIdsAfter(after.isEmpty() ? null : after, count);
+
+                // A full page means there may be more device IDs; the last ID is the cursor for the next page.
+                final String next = ((count > 0) && (deviceIds.size() == count)) ? deviceIds.get(count - 1) : null;
+                result = new AllPendingNotificationsDTO(total, deviceIds, next);
+            }
 
             // Validate the result, to make sure we sent out valid stuff.
             result.validate();
@@ -124,6 +197,34 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
         });
     }
 
+    @Override
+    public void getNotificationEvents(
+            @Nullable final String prefix,
+            @Nullable final String serviceId,
+            @Nonnull final String overflow,
+            @Nonnull final SseEventSink sink,
+            @Nonnull final Sse sse) {
+        assert overflow != null;
+        assert sink != null;
+        assert sse != null;
+
+        // Check value of overflow. This method doesn't run on the processor, so it uses the standard JAX-RS
+        // exceptions, which need no exception mapper.
+        final NotificationEvents.Overflow policy;
+        try {
+            policy = NotificationEvents.Overflow.valueOf(overflow.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException ignored) {
+            throw new BadRequestException("Parameter " + PARAM_OVERFLOW + " must be 'drop' or 'disconnect', not: " + overflow);
+        }
+
+        // Subscribing is quick; the events are sent by the event publisher.
+        if (!events.subscribe(sink, sse, prefix, serviceId, policy)) {
+            LOG.info("getNotificationEvents: too many subscribers");
+            throw new ServiceUnavailableException();
+        }
+        requestLog.info(LOG, "getNotificationEvents", "getNotificationEvents: prefix={}, serviceId={}, overflow={}", prefix, serviceId, policy);
+    }
+
     @Override
     public void getPendingNotificationsForDeviceAndService(
             @Nonnull final String deviceId,
@@ -135,25 +236,17 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
 
         processor.process("getPendingNotificationsForDeviceAndService", LOG, response, () -> {
 
-            // Check if a pending notification exists.
-            try {
-
-                // Get all service IDs for a specific device ID.
-                final Set<String> serviceIds = notificationDao.getServiceIds(deviceId);
-                final boolean contains = serviceIds.contains(serviceId);
-                LOG.info("getPendingNotificationsForDeviceAndService: deviceId={}, serviceId={}, contains={}", deviceId, serviceId, contains);
-                if (contains) {
+            // Get all service IDs for a specific device ID; null if the device doesn't exist.
+            final Set<String> serviceIds = notificationDao.findServiceIds(deviceId);
+            final boolean contains = (serviceIds != null) && serviceIds.contains(serviceId);
+            requestLog.info(LOG, "getPendingNotificationsForDeviceAndService", "getPendingNotificationsForDeviceAndService: deviceId={}, serviceId={}, contains={}", deviceId, serviceId, contains);
+            if (contains) {
 
-                    // Return 200 if it exists.
-                    response.resume(Response.status(Status.OK).build());
-                } else {
-
-                    // Return 404 if no notifications exist for this device for this specific service.
-                    response.resume(Response.status(Status.NOT_FOUND).build());
-                }
-            } catch (final EntityNotFoundException ignored) {
+                // Return 200 if it exists.
+                response.resume(Response.status(Status.OK).build());
+            } else {
 
-                // Return 404 if the device doesn't exist.
+                // Return 404 if the device doesn't exist, or no notifications exist for this specific service.
                 response.resume(Response.status(Status.NOT_FOUND).build());
             }
             return Futures.successful(null);
@@ -163,30 +256,108 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
     @Override
     public void getPendingNotificationsForDevice(
             @Nonnull final String deviceId,
+            final int wait,
             @Nonnull final AsyncResponse response) {
         assert deviceId != null;
         assert response != null;
 
         processor.process("getPendingNotificationsForDevice", LOG, response, () -> {
 
-            // Check if a pending notification exists.
-            try {
+            // Check value of wait.
+            if ((wait < 0) || (wait > ApiConstants.API_WAIT_MAX_SECS)) {
+                throw new ApiIntegerOutOfRangeException(PARAM_WAIT, wait, 0, ApiConstants.API_WAIT_MAX_SECS);
+            }
+            getPendingNotificationsForDevice(deviceId, System.nanoTime() + TimeUnit.SECONDS.toNanos(wait), response);
+            return Futures.successful(null);
+        });
+    }
+
+    /**
+     * Respond with the service IDs of a device, or wait until the deadline for the device to get notifications.
+     * Waiting does not hold the processor thread: the lookup is scheduled again when the device changes.
+     *
+     * @param deviceId      Device ID.
+     * @param deadlineNanos Deadline of the wait, as {@link System#nanoTime()}.
+     * @param response      Response.
+     * @throws InternalDaoException Thrown if the data store throws an error.
+     */
+    private void getPendingNotificationsForDevice(
+            @Nonnull final String deviceId,
+            final long deadlineNanos,
+            @Nonnull final AsyncResponse response) throws InternalDaoException {
+
+        // Get all service IDs for this device ID; null if the device doesn't exist.
+        Set<String> serviceIds = notificationDao.findServiceIds(deviceId);
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if ((serviceIds == null) && (waitMillis > 0)) {
+            final NotificationWaiters.Waiter waiter = waiters.await(deviceId, waitMillis, changed -> {
+                if (changed) {
+                    processor.process("getPendingNotificationsForDevice", LOG, response, () -> {
+                        getPendingNotificationsForDevice(deviceId, deadlineNanos, response);
+                        return Futures.successful(null);
+                    });
+                } else {
+                    requestLog.info(LOG, "getPendingNotificationsForDevice", "getPendingNotificationsForDevice: deviceId={}, wait expired", deviceId);
+                    response.resume(Response.status(Status.NOT_FOUND).build());
+                }
+            });
+            if (waiter != null) {
+
+                // Look again, in case the device was changed just before the waiter was registered.
+                serviceIds = notificationDao.findServiceIds(deviceId);
+                if ((serviceIds == null) || !waiter.cancel()) {
+                    LOG.debug("getPendingNotificationsForDevice: deviceId={}, waiting {} ms", deviceId, waitMillis);
+                    return;
+                }
+            }
+        }
+        requestLog.info(LOG, "getPendingNotificationsForDevice", "getPendingNotificationsForDevice: deviceId={}, serviceIds={}", deviceId, serviceIds);
+        if (serviceIds != null) {
+            final ValuesDTO result = new ValuesDTO(serviceIds);
 
-                // Get all service IDs for this device ID.
-                final Set<String> serviceIds = notificationDao.getServiceIds(deviceId);
-                LOG.info("getPendingNotificationsForDevice: deviceId={}, serviceIds={}", deviceId, serviceIds);
-                final ValuesDTO result = new ValuesDTO(serviceIds);
+            // Validate the result, to make sure we sent out valid stuff.
+            result.validate();
 
-                // Validate the result, to make sure we sent out valid stuff.
-                result.validate();
+            // Return 200 if it exists.
+            response.resume(Response.status(Status.OK).entity(result).build());
+        } else {
 
-                // Return 200 if it exists.
-                response.resume(Response.status(Status.OK).entity(result).build());
-            } catch (final EntityNotFoundException ignored) {
+            // Return 404 if the device doesn't exist.
+            response.resume(Response.status(Status.NOT_FOUND).build());
+        }
+    }
 
-                // Return 404 if the device doesn't exist.
-                response.resume(Response.status(Status.NOT_FOUND).build());
+    @Override
+    public void lookupPendingNotifications(
+            @Nonnull final DeviceIdsDTO deviceIds,
+            @Nonnull final AsyncResponse response) {
+        assert deviceIds != null;
+        assert response != null;
+
+        processor.process("lookupPendingNotifications", LOG, response, () -> {
+
+            // Validate the body first; this throws a 'bad request' if the body is invalid.
+            deviceIds.validate();
+            final List<String> uniqueDeviceIds = new ArrayList<>(new LinkedHashSet<>(deviceIds.getDeviceIds()));
+
+            // Look up the device IDs in chunks, each with a single round trip to the data store.
+            final List<DeviceServiceIdsDTO> notifications = new ArrayList<>();
+            for (int from = 0; from < uniqueDeviceIds.size(); from += BATCH_CHUNK_SIZE) {
+                final List<String> chunk = uniqueDeviceIds.subList(from, Math.min(uniqueDeviceIds.size(), from + BATCH_CHUNK_SIZE));
+                final Map<String, Set<String>> found = notificationDao.findServiceIds(chunk);
+                for (final String deviceId : chunk) {
+                    final Set<String> serviceIds = found.get(deviceId);
+                    if (serviceIds != null) {
+                        notifications.add(new DeviceServiceIdsDTO(deviceId, serviceIds));
+                    }
+                }
             }
+            requestLog.info(LOG, "lookupPendingNotifications", "lookupPendingNotifications: nrOfDeviceIds={}, nrOfFound={}", uniqueDeviceIds.size(), notifications.size());
+            final LookupResultDTO result = new LookupResultDTO(notifications);
+
+            // Validate the result, to make sure we sent out valid stuff.
+            result.validate();
+            response.resume(Response.status(Status.OK).entity(result).build());
             return Futures.successful(null);
         });
     }
@@ -200,21 +371,17 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
         assert response != null;
 
         processor.process("createPendingNotificationForDeviceAndService", LOG, response, () -> {
-            LOG.info("createPendingNotificationForDeviceAndService: deviceId={}, serviceId={}", deviceId, serviceId);
-
-            // Create a notification for a specific service (for a specific device).
-            Set<String> serviceIds;
-            try {
-                serviceIds = notificationDao.getServiceIds(deviceId);
-            } catch (final EntityNotFoundException ignored) {
-                serviceIds = new HashSet<>();
-            }
+            requestLog.info(LOG, "createPendingNotificationForDeviceAndService", "createPendingNotificationForDeviceAndService: deviceId={}, serviceId={}", deviceId, serviceId);
 
+            // Create a notification for a specific service (for a specific device), in a single atomic operation.
             // The ID-less or nameless service is represented by an empty set.
-            if (serviceId != null) {
-                serviceIds.add(serviceId);
+            final Lock lock = deviceLocks.lock(deviceId);
+            try {
+                notificationDao.addServiceId(deviceId, serviceId);
+                changed(NotificationEvents.EVENT_CREATED, deviceId, serviceId);
+            } finally {
+                lock.unlock();
             }
-            notificationDao.putServiceIds(deviceId, serviceIds);
 
             response.resume(Response.status(Status.CREATED).build());
             return Futures.successful(null);
@@ -232,6 +399,71 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
         createPendingNotificationForDeviceAndService(deviceId, null, response);
     }
 
+    @Override
+    public void createPendingNotifications(
+            @Nonnull final NotificationsDTO notifications,
+            @Nonnull final AsyncResponse response) {
+        assert notifications != null;
+        assert response != null;
+
+        processor.process("createPendingNotifications", LOG, response, () -> {
+
+            // Validate the body first; this throws a 'bad request' if the body is invalid.
+            notifications.validate();
+            final List<NotificationDTO> items = notifications.getNotifications();
+            requestLog.info(LOG, "createPendingNotifications", "createPendingNotifications: nrOfNotifications={}", items.size());
+
+            // Pass the items to the DAO in chunks, so each chunk is stored with a few bulk operations.
+            for (final List<Notification> chunk : toChunks(items)) {
+                final List<Lock> locked = deviceLocks.lockAll(deviceIds(chunk));
+                try {
+                    notificationDao.addServiceIds(chunk);
+                    changed(NotificationEvents.EVENT_CREATED, chunk);
+                } finally {
+                    DeviceLocks.unlockAll(locked);
+                }
+            }
+
+            final CountDTO result = new CountDTO(items.size());
+            result.validate();
+            response.resume(Response.status(Status.OK).entity(result).build());
+            return Futures.successful(null);
+        });
+    }
+
+    @Override
+    public void deletePendingNotifications(
+            @Nonnull final NotificationsDTO notifications,
+            @Nonnull final AsyncResponse response) {
+        assert notifications != null;
+        assert response != null;
+
+        processor.process("deletePendingNotifications", LOG, response, () -> {
+
+            // Validate the body first; this throws a 'bad request' if the body is invalid.
+            notifications.validate();
+            final List<NotificationDTO> items = notifications.getNotifications();
+            requestLog.info(LOG, "deletePendingNotifications", "deletePendingNotifications: nrOfNotifications={}", items.size());
+
+            // Pass the items to the DAO in chunks, so each chunk is removed with a few bulk operations.
+            int nrOfChanges = 0;
+            for (final List<Notification> chunk : toChunks(items)) {
+                final List<Lock> locked = deviceLocks.lockAll(deviceIds(chunk));
+                try {
+                    nrOfChanges += notificationDao.removeServiceIds(chunk);
+                    changed(NotificationEvents.EVENT_DELETED, chunk);
+                } finally {
+                    DeviceLocks.unlockAll(locked);
+                }
+            }
+
+            final CountDTO result = new CountDTO(nrOfChanges);
+            result.validate();
+            response.resume(Response.status(Status.OK).entity(result).build());
+            return Futures.successful(null);
+        });
+    }
+
     @Override
     public void deletePendingNotificationsForDeviceAndService(
             @Nonnull final String deviceId,
@@ -241,21 +473,20 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
         assert response != null;
 
         processor.process("deletePendingNotificationsForDeviceAndService", LOG, response, () -> {
-            LOG.info("deletePendingNotificationsForDeviceAndService: deviceId={}, serviceId", deviceId, serviceId);
+            requestLog.info(LOG, "deletePendingNotificationsForDeviceAndService", "deletePendingNotificationsForDeviceAndService: deviceId={}, serviceId={}", deviceId, serviceId);
 
-            // Delete the notification for a specific service (for a specific device).
+            // Delete the notification for a specific service (for a specific device), in a single atomic
+            // operation. It's OK if the serviceId isn't present. The device is removed if no services remain.
+            final Lock lock = deviceLocks.lock(deviceId);
             try {
-                final Set<String> serviceIds = notificationDao.getServiceIds(deviceId);
-
-                // Remove service from list; it's OK if the serviceId isn't present.
-                serviceIds.remove(serviceId);
-
-                // Remove device if list has become empty.
-                if (serviceIds.isEmpty()) {
-                    notificationDao.removeServiceIds(deviceId);
+                try {
+                    notificationDao.removeServiceId(deviceId, serviceId);
+                } catch (final EntityRemoveException ignored) {
+                    // Ignore.
                 }
-            } catch (final EntityNotFoundException | EntityRemoveException ignored) {
-                // Ignore.
+                changed(NotificationEvents.EVENT_DELETED, deviceId, serviceId);
+            } finally {
+                lock.unlock();
             }
 
             response.resume(Response.status(Status.NO_CONTENT).build());
@@ -271,16 +502,84 @@ public class PendingNotificationsResourceImpl implements PendingNotificationsRes
         assert response != null;
 
         processor.process("deletePendingNotificationsForDevice", LOG, response, () -> {
-            LOG.info("deletePendingNotificationsForDevice: deviceId={}", deviceId);
+            requestLog.info(LOG, "deletePendingNotificationsForDevice", "deletePendingNotificationsForDevice: deviceId={}", deviceId);
 
             // Delete all notifications for a specific device.
+            final Lock lock = deviceLocks.lock(deviceId);
             try {
-                notificationDao.removeServiceIds(deviceId);
-            } catch (final EntityRemoveException ignored) {
-                // Ignored.
+                try {
+                    notificationDao.removeServiceIds(deviceId);
+                } catch (final EntityRemoveException ignored) {
+                    // Ignored.
+                }
+                changed(NotificationEvents.EVENT_DELETED, deviceId, null);
+            } finally {
+                lock.unlock();
             }
             response.resume(Response.status(Status.NO_CONTENT).build());
             return Futures.successful(null);
         });
     }
+
+    /**
+     * Wake up the device polls waiting for a device, and publish the change to the event subscribers.
+     *
+     * @param event     Event name, see {@link NotificationEvents}.
+     * @param deviceId  Device ID.
+     * @param serviceId Service ID, or null for an ID-less notification or all notifications of the device.
+     */
+    private void changed(@Nonnull final String event, @Nonnull final String deviceId, @Nullable final String serviceId) {
+        waiters.changed(deviceId);
+        events.publish(event, deviceId, serviceId);
+    }
+
+    /**
+     * Wake up the device polls waiting for the devices of a batch request, and publish the changes.
+     *
+     * @param event         Event name, see {@link NotificationEvents}.
+     * @param notifications Notifications of a batch request, with at most 1 service ID each.
+     */
+    private void changed(@Nonnull final String event, @Nonnull final List<Notification> notifications) {
+        for (final Notification notification : notifications) {
+            final Set<String> serviceIds = notification.getServiceIds();
+            changed(event, notification.getDeviceId(), serviceIds.isEmpty() ? null : serviceIds.iterator().next());
+        }
+    }
+
+    /**
+     * Return the device IDs of a chunk of notifications, to lock them.
+     *
+     * @param notifications Notifications.
+     * @return Device IDs, in the order of the notifications. May contain duplicates.
+     */
+    @Nonnull
+    private static List<String> deviceIds(@Nonnull final List<Notification> notifications) {
+        final List<String> deviceIds = new ArrayList<>(notifications.size());
+        for (final Notification notification : notifications) {
+            deviceIds.add(notification.getDeviceId());
+        }
+        return deviceIds;
+    }
+
+    /**
+     * Convert the items of a batch request to notifications for the DAO, in chunks of {@link #BATCH_CHUNK_SIZE}.
+     *
+     * @param items Items of a batch request.
+     * @return Chunks of notifications.
+     */
+    @Nonnull
+    private static List<List<Notification>> toChunks(@Nonnull final List<NotificationDTO> items) {
+        final List<List<Notification>> chunks = new ArrayList<>((items.size() + BATCH_CHUNK_SIZE - 1) / BATCH_CHUNK_SIZE);
+        List<Notification> chunk = null;
+        for (final NotificationDTO item : items) {
+            if ((chunk == null) || (chunk.size() == BATCH_CHUNK_SIZE)) {
+                chunk = new ArrayList<>(Math.min(BATCH_CHUNK_SIZE, items.size()));
+                chunks.add(chunk);
+            }
+            final String serviceId = item.getServiceId();
+            chunk.add(new Notification(item.getDeviceId(),
+                    (serviceId == null) ? Collections.emptyList() : Collections.singletonList(serviceId)));
+        }
+        return chunks;
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class logs the requests of the resource, which happens at a high rate. Requests can be sampled per
+ * endpoint: with a sample rate of N, 1 in N requests (chosen at random) is logged. Records can be written
+ * asynchronously: they are put in a bounded ring buffer, which is written to the log by a separate thread,
+ * so the request does not wait for the log. If the buffer is full, the record is dropped.
+ *
+ * The messages are formatted when they are written, not when they are logged, so records which are sampled
+ * out or dropped are never formatted. As a consequence, the arguments of a record must not be modified
+ * after logging it.
+ */
+public class RequestLog {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestLog.class);
+
+    /**
+     * Endpoint name to set the sample rate of all endpoints without their own sample rate.
+     */
+    public static final String ALL_ENDPOINTS = "*";
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    /**
+     * A log record, waiting to be written.
+     */
+    private static final class Record {
+        @Nonnull
+        private final Logger logger;
+        @Nonnull
+        private final String format;
+        @Nonnull
+        private final Object[] args;
+
+        private Record(@Nonnull final Logger logger, @Nonnull final String format, @Nonnull final Object[] args) {
+            this.logger = logger;
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    @Nonnull
+    private final Map<String, Integer> sampleRates;
+    private final int defaultSampleRate;
+
+    /**
+     * Records waiting to be written, or null if records are written synchronously.
+     */
+    @Nullable
+    private final BlockingQueue<Record> buffer;
+
+    @Nonnull
+    private final LongAdder nrOfRecords = new LongAdder();
+    @Nonnull
+    private final LongAdder nrOfSampledOutRecords = new LongAdder();
+    @Nonnull
+    private final LongAdder nrOfDroppedRecords = new LongAdder();
+
+    /**
+     * Create the request log.
+     *
+     * @param sampleRates Sample rates per endpoint, as a comma-separated list of "endpoint=N", to log 1 in N
+     *                    requests of the endpoint. The endpoint "*" sets the sample rate of all other endpoints.
+     *                    Endpoints without a sample rate log all requests. Range of N: &gt; 0.
+     * @param bufferSize  Maximum number of records waiting to be written, or 0 to write records synchronously.
+     *                    Range: &gt;= 0.
+     * @throws InvalidPropertyValueException Thrown if a value is out of range.
+     */
+    @Inject
+    public RequestLog(
+            @Named("Notifications.logSampleRates") @Nonnull final String sampleRates,
+            @Named("Notifications.logBufferSize") final int bufferSize) {
+        assert sampleRates != null;
+        if (bufferSize < 0) {
+            throw new InvalidPropertyValueException("Notifications.logBufferSize cannot be negative.");
+        }
+        final Map<String, Integer> rates = parseSampleRates(sampleRates);
+        final Integer defaultRate = rates.remove(ALL_ENDPOINTS);
+        this.defaultSampleRate = (defaultRate == null) ? 1 : defaultRate;
+        this.sampleRates = Collections.unmodifiableMap(rates);
+
+        if (bufferSize == 0) {
+            this.buffer = null;
+        } else {
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+            final Thread writer = new Thread(this::write, "RequestLog");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Log a request at INFO level, if it is sampled.
+     *
+     * @param logger   Logger of the resource.
+     * @param endpoint Endpoint name, to select the sample rate.
+     * @param format   Message format, as for {@link Logger#info(String, Object...)}.
+     * @param args     Arguments of the message. These are formatted later, on another thread, so they must not
+     *                 be modified afterwards.
+     */
+    public void info(
+            @Nonnull final Logger logger,
+            @Nonnull final String endpoint,
+            @Nonnull final String format,
+            @Nonnull final Object... args) {
+        assert logger != null;
+        assert endpoint != null;
+        assert format != null;
+        assert args != null;
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        final Integer rate = sampleRates.get(endpoint);
+        final int sampleRate = (rate == null) ? defaultSampleRate : rate;
+        if ((sampleRate > 1) && (ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+            nrOfSampledOutRecords.increment();
+            return;
+        }
+        nrOfRecords.increment();
+        if (buffer == null) {
+            logger.info(format, args);
+        } else if (!buffer.offer(new Record(logger, format, args))) {
+            nrOfDroppedRecords.increment();
+        }
+    }
+
+    /**
+     * Return the number of records which were logged (written or waiting to be written).
+     *
+     * @return Number of records since creation.
+     */
+    public long getNrOfRecords() {
+        return nrOfRecords.sum();
+    }
+
+    /**
+     * Return the number of records which were not logged, because they were not sampled.
+     *
+     * @return Number of sampled out records since creation.
+     */
+    public long getNrOfSampledOutRecords() {
+        return nrOfSampledOutRecords.sum();
+    }
+
+    /**
+     * Return the number of records which were dropped, because the buffer was full.
+     *
+     * @return Number of dropped records since creation.
+     */
+    public long getNrOfDroppedRecords() {
+        return nrOfDroppedRecords.sum();
+    }
+
+    /**
+     * Return the number of records waiting to be written.
+     *
+     * @return Number of records in the buffer.
+     */
+    public int getNrOfPendingRecords() {
+        return (buffer == null) ? 0 : buffer.size();
+    }
+
+    /**
+     * Write the records from the buffer, and report dropped records, until the thread is interrupted.
+     */
+    private void write() {
+        assert buffer != null;
+        long reportedDrops = 0;
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                final Record record = buffer.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (record != null) {
+                    try {
+                        record.logger.info(record.format, record.args);
+                    } catch (final RuntimeException e) {
+                        LOG.error("write: cannot write record, format={}", record.format, e);
+                    }
+                }
+                if (buffer.isEmpty()) {
+                    final long drops = nrOfDroppedRecords.sum();
+                    if (drops != reportedDrops) {
+                        LOG.warn("write: log buffer was full, nrOfDroppedRecords={}", drops - reportedDrops);
+                        reportedDrops = drops;
+                    }
+                }
+            }
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parse the sample rates.
+     *
+     * @param sampleRates Comma-separated list of "endpoint=N". May be empty.
+     * @return Sample rates per endpoint.
+     * @throws InvalidPropertyValueException Thrown if the list cannot be parsed.
+     */
+    @Nonnull
+    static Map<String, Integer> parseSampleRates(@Nonnull final String sampleRates) {
+        final Map<String, Integer> rates = new HashMap<>();
+        for (final String item : sampleRates.split(",")) {
+            final String trimmed = item.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final int separator = trimmed.indexOf('=');
+            if (separator <= 0) {
+                throw new InvalidPropertyValueException("Notifications.logSampleRates must be a list of endpoint=N, " +
+                        "found: " + trimmed);
+            }
+            final int rate;
+            try {
+                rate = Integer.parseInt(trimmed.substring(separator + 1).trim());
+            } catch (final NumberFormatException ignored) {
+                throw new InvalidPropertyValueException("Notifications.logSampleRates has an invalid rate: " + trimmed);
+            }
+            if (rate <= 0) {
+                throw new InvalidPropertyValueException("Notifications.logSampleRates must have rates > 0: " + trimmed);
+            }
+            rates.put(trimmed.substring(0, separator).trim(), rate);
+        }
+        return rates;
+    }
+}
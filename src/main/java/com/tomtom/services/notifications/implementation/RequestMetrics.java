@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.metrics.LatencyHistogram;
+import com.tomtom.services.notifications.metrics.PrometheusText;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the number of requests, the number of errors and a latency histogram per endpoint
+ * (resource method). The latency is the time from receiving the request until the response is ready, so for
+ * requests which wait (such as long polls) it includes the wait. Such requests should be recorded under an
+ * endpoint of their own, so they do not hide the latency of the other requests. Endpoints which stream their
+ * response have no meaningful latency, so they only count requests and errors.
+ *
+ * An error is a response with a status code of 500 or up. Other responses, such as 404 for a device without
+ * pending notifications, are not errors.
+ */
+public class RequestMetrics {
+
+    /**
+     * Quantiles reported per endpoint.
+     */
+    @Nonnull
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Number of slots per histogram window.
+     */
+    private static final int NR_OF_SLOTS = 6;
+
+    /**
+     * The metrics of an endpoint.
+     */
+    public static final class Endpoint {
+        @Nonnull
+        private final LongAdder nrOfRequests = new LongAdder();
+        @Nonnull
+        private final LongAdder nrOfErrors = new LongAdder();
+        @Nullable
+        private final LatencyHistogram latency;
+
+        private Endpoint(final int windowSecs, final boolean timed) {
+            this.latency = timed ? new LatencyHistogram(windowSecs, NR_OF_SLOTS) : null;
+        }
+
+        /**
+         * Record a request.
+         *
+         * @param nanos  Latency in nanoseconds. Ignored if the endpoint is not timed.
+         * @param status HTTP status code of the response.
+         */
+        public void record(final long nanos, final int status) {
+            nrOfRequests.increment();
+            if (status >= 500) {
+                nrOfErrors.increment();
+            }
+            if (latency != null) {
+                latency.record(nanos);
+            }
+        }
+
+        public long getNrOfRequests() {
+            return nrOfRequests.sum();
+        }
+
+        public long getNrOfErrors() {
+            return nrOfErrors.sum();
+        }
+
+        /**
+         * Return the latency histogram of the endpoint.
+         *
+         * @return Latency histogram, or null if the endpoint is not timed.
+         */
+        @Nullable
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    private final int windowSecs;
+
+    @Nonnull
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Create the metrics.
+     *
+     * @param windowSecs Length of the window of the latency percentiles, in seconds. Range: &gt; 0.
+     * @throws InvalidPropertyValueException Thrown if the window is out of range.
+     */
+    @Inject
+    public RequestMetrics(@Named("Notifications.metricsWindowSecs") final int windowSecs) {
+        if (windowSecs <= 0) {
+            throw new InvalidPropertyValueException("Notifications.metricsWindowSecs must be > 0.");
+        }
+        this.windowSecs = windowSecs;
+    }
+
+    /**
+     * Return the metrics of an endpoint, creating them if needed. Callers should keep the result, rather than
+     * look it up for every request.
+     *
+     * @param name Endpoint name.
+     * @return Metrics of the endpoint.
+     */
+    @Nonnull
+    public Endpoint getEndpoint(@Nonnull final String name) {
+        assert name != null;
+        return endpoints.computeIfAbsent(name, key -> new Endpoint(windowSecs, true));
+    }
+
+    /**
+     * Return the metrics of an endpoint without a latency histogram, creating them if needed. This is meant for
+     * endpoints which stream their response, for which the latency means nothing.
+     *
+     * @param name Endpoint name.
+     * @return Metrics of the endpoint.
+     */
+    @Nonnull
+    public Endpoint getUntimedEndpoint(@Nonnull final String name) {
+        assert name != null;
+        return endpoints.computeIfAbsent(name, key -> new Endpoint(windowSecs, false));
+    }
+
+    /**
+     * Return the metrics of all endpoints.
+     *
+     * @return Metrics per endpoint name, sorted by name.
+     */
+    @Nonnull
+    public Map<String, Endpoint> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    /**
+     * Write the metrics of all endpoints.
+     *
+     * @param text Metrics text to append to.
+     */
+    public void writeTo(@Nonnull final PrometheusText text) {
+        assert text != null;
+        final Map<String, Endpoint> sorted = getEndpoints();
+
+        text.metric("notifications_requests_total", "counter", "Number of requests.");
+        for (final Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            text.sample("notifications_requests_total", entry.getValue().getNrOfRequests(), "endpoint", entry.getKey());
+        }
+        text.metric("notifications_errors_total", "counter", "Number of requests which failed with a status code >= 500.");
+        for (final Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            text.sample("notifications_errors_total", entry.getValue().getNrOfErrors(), "endpoint", entry.getKey());
+        }
+        text.metric("notifications_request_duration_seconds", "summary",
+                "Latency of the requests; the quantiles cover the last " + windowSecs + " seconds.");
+        for (final Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            final LatencyHistogram latency = entry.getValue().getLatency();
+            if (latency == null) {
+                continue;
+            }
+            final double[] values = latency.getQuantilesSecs(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; ++i) {
+                text.sample("notifications_request_duration_seconds", values[i],
+                        "endpoint", entry.getKey(), "quantile", Double.toString(QUANTILES[i]));
+            }
+            text.sample("notifications_request_duration_seconds_sum", latency.getSumSecs(), "endpoint", entry.getKey());
+            text.sample("notifications_request_duration_seconds_count", latency.getCount(), "endpoint", entry.getKey());
+        }
+    }
+}
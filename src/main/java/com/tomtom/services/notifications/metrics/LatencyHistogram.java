@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records latencies in a histogram with logarithmic buckets, like HdrHistogram: every power of 2
+ * is split into {@link #NR_OF_SUB_BUCKETS} linear sub-buckets, so every recorded value is known with a relative
+ * error of at most 1/{@link #NR_OF_SUB_BUCKETS}, from 1 microsecond to more than half an hour.
+ *
+ * The histogram is windowed: it consists of a ring of slots, each of which records the values of a fixed
+ * interval. Percentiles are computed over the slots of the last window, so they reflect recent traffic
+ * only. The count and the sum of all values are kept since creation, as Prometheus expects.
+ *
+ * Recording a value is lock-free and does not allocate. Values recorded while a slot is being recycled may
+ * be lost, which is acceptable for statistics.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int NR_OF_SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Largest value, in microseconds, which is recorded as is. Larger values are recorded as this value.
+     */
+    private static final long MAX_VALUE_MICROS = Integer.MAX_VALUE;
+    private static final int NR_OF_BUCKETS = bucket(MAX_VALUE_MICROS) + 1;
+
+    /**
+     * A slot records the values of one interval.
+     */
+    private static final class Slot {
+        @Nonnull
+        private final AtomicLongArray counts = new AtomicLongArray(NR_OF_BUCKETS);
+
+        /**
+         * Interval number of the values in this slot.
+         */
+        private volatile long interval = -1;
+    }
+
+    private final long slotMillis;
+    @Nonnull
+    private final Slot[] slots;
+
+    @Nonnull
+    private final LongAdder count = new LongAdder();
+    @Nonnull
+    private final LongAdder sumMicros = new LongAdder();
+
+    /**
+     * Create a histogram.
+     *
+     * @param windowSecs Length of the window, in seconds. Range: &gt; 0.
+     * @param nrOfSlots  Number of slots the window is divided in. More slots make the window move more smoothly,
+     *                   but use more memory. Range: &gt; 0.
+     */
+    public LatencyHistogram(final int windowSecs, final int nrOfSlots) {
+        assert windowSecs > 0;
+        assert nrOfSlots > 0;
+        this.slotMillis = Math.max(1, (windowSecs * 1000L) / nrOfSlots);
+        this.slots = new Slot[nrOfSlots];
+        for (int i = 0; i < nrOfSlots; ++i) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos Latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(final long nanos) {
+        final long micros = Math.min(Math.max(0, nanos / 1000), MAX_VALUE_MICROS);
+        count.increment();
+        sumMicros.add(micros);
+
+        final long interval = System.currentTimeMillis() / slotMillis;
+        final Slot slot = slots[(int) (interval % slots.length)];
+        if (slot.interval != interval) {
+            recycle(slot, interval);
+        }
+        slot.counts.incrementAndGet(bucket(micros));
+    }
+
+    /**
+     * Return the number of values recorded since creation.
+     *
+     * @return Number of values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Return the sum of the values recorded since creation.
+     *
+     * @return Sum in seconds.
+     */
+    public double getSumSecs() {
+        return sumMicros.sum() / 1.0e6;
+    }
+
+    /**
+     * Return percentiles of the values recorded in the last window.
+     *
+     * @param quantiles Quantiles to return, ascending. Range: 0..1.
+     * @return Values at the quantiles in seconds (the upper bound of their bucket), or NaN if no values were
+     * recorded in the last window.
+     */
+    @Nonnull
+    public double[] getQuantilesSecs(@Nonnull final double... quantiles) {
+        assert quantiles != null;
+
+        // Add up the slots of the last window.
+        final long current = System.currentTimeMillis() / slotMillis;
+        final long[] counts = new long[NR_OF_BUCKETS];
+        long total = 0;
+        for (final Slot slot : slots) {
+            final long interval = slot.interval;
+            if ((interval > (current - slots.length)) && (interval <= current)) {
+                for (int i = 0; i < NR_OF_BUCKETS; ++i) {
+                    final long n = slot.counts.get(i);
+                    counts[i] += n;
+                    total += n;
+                }
+            }
+        }
+
+        // Walk the buckets once for all quantiles.
+        final double[] result = new double[quantiles.length];
+        int bucket = 0;
+        long seen = 0;
+        for (int q = 0; q < quantiles.length; ++q) {
+            if (total == 0) {
+                result[q] = Double.NaN;
+                continue;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            while ((bucket < (NR_OF_BUCKETS - 1)) && ((seen + counts[bucket]) < rank)) {
+                seen += counts[bucket];
+                ++bucket;
+            }
+            result[q] = upperBound(bucket) / 1.0e6;
+        }
+        return result;
+    }
+
+    private void recycle(@Nonnull final Slot slot, final long interval) {
+        synchronized (slot) {
+            if (slot.interval < interval) {
+                for (int i = 0; i < NR_OF_BUCKETS; ++i) {
+                    slot.counts.set(i, 0);
+                }
+                slot.interval = interval;
+            }
+        }
+    }
+
+    /**
+     * Return the bucket of a value. Values below {@link #NR_OF_SUB_BUCKETS} have a bucket of their own; larger
+     * values share a bucket with the values that have the same highest {@link #SUB_BUCKET_BITS} + 1 bits.
+     *
+     * @param value Value. Range: 0..{@link #MAX_VALUE_MICROS}.
+     * @return Bucket.
+     */
+    public static int bucket(final long value) {
+        if (value < NR_OF_SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - NR_OF_SUB_BUCKETS);
+    }
+
+    /**
+     * Return the largest value of a bucket.
+     *
+     * @param bucket Bucket.
+     * @return Largest value.
+     */
+    public static long upperBound(final int bucket) {
+        if (bucket < NR_OF_SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        final long sub = (bucket & (NR_OF_SUB_BUCKETS - 1)) + NR_OF_SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
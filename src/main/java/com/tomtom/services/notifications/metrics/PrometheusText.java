@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.metrics;
+
+import javax.annotation.Nonnull;
+
+/**
+ * This class builds metrics in the Prometheus text exposition format (version 0.0.4).
+ */
+public final class PrometheusText {
+
+    /**
+     * Content type of the format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Nonnull
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Start a metric. Its samples must follow.
+     *
+     * @param name Metric name.
+     * @param type Metric type: counter, gauge, summary or histogram.
+     * @param help Description.
+     * @return This object.
+     */
+    @Nonnull
+    public PrometheusText metric(@Nonnull final String name, @Nonnull final String type, @Nonnull final String help) {
+        assert name != null;
+        assert type != null;
+        assert help != null;
+        text.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a sample with a whole value.
+     *
+     * @param name   Metric name.
+     * @param value  Value.
+     * @param labels Label names and values, alternating.
+     * @return This object.
+     */
+    @Nonnull
+    public PrometheusText sample(@Nonnull final String name, final long value, @Nonnull final String... labels) {
+        appendName(name, labels);
+        text.append(value).append('\n');
+        return this;
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @param name   Metric name.
+     * @param value  Value. May be NaN.
+     * @param labels Label names and values, alternating.
+     * @return This object.
+     */
+    @Nonnull
+    public PrometheusText sample(@Nonnull final String name, final double value, @Nonnull final String... labels) {
+        appendName(name, labels);
+        if (Double.isNaN(value)) {
+            text.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            text.append((value > 0) ? "+Inf" : "-Inf");
+        } else {
+            text.append(value);
+        }
+        text.append('\n');
+        return this;
+    }
+
+    /**
+     * Add a metric with a single sample, without labels.
+     *
+     * @param name  Metric name.
+     * @param type  Metric type: counter or gauge.
+     * @param help  Description.
+     * @param value Value.
+     * @return This object.
+     */
+    @Nonnull
+    public PrometheusText metric(@Nonnull final String name, @Nonnull final String type, @Nonnull final String help, final long value) {
+        return metric(name, type, help).sample(name, value);
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return text.toString();
+    }
+
+    private void appendName(@Nonnull final String name, @Nonnull final String... labels) {
+        assert name != null;
+        assert labels != null;
+        assert (labels.length % 2) == 0;
+        text.append(name);
+        if (labels.length > 0) {
+            text.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    text.append(',');
+                }
+                text.append(labels[i]).append("=\"").append(labels[i + 1].
+                        replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+            }
+            text.append('}');
+        }
+        text.append(' ');
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.benchmarks;
+
+import com.tomtom.services.notifications.dao.DeviceLocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * This benchmark measures the throughput of read-modify-writes of device entries, guarded by a single
+ * global lock or by striped device locks, for an increasing number of threads. It is not run as part of
+ * the tests; run it on a machine with several cores:
+ *
+ * <pre>
+ *     java -cp ... com.tomtom.services.notifications.benchmarks.DeviceLocksBenchmark [nrOfStripes] [seconds]
+ * </pre>
+ *
+ * With a global lock the throughput does not grow with the number of threads; with striped locks it
+ * should grow until the threads run out of cores.
+ */
+public final class DeviceLocksBenchmark {
+    private static final int NR_OF_DEVICES = 100000;
+
+    public static void main(final String[] args) throws Exception {
+        final int nrOfStripes = (args.length > 0) ? Integer.parseInt(args[0]) : 1024;
+        final int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+        final int nrOfCores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("nrOfCores=%d, nrOfStripes=%d, nrOfDevices=%d%n", nrOfCores, nrOfStripes, NR_OF_DEVICES);
+
+        final String[] deviceIds = new String[NR_OF_DEVICES];
+        for (int i = 0; i < NR_OF_DEVICES; ++i) {
+            deviceIds[i] = "device-" + i;
+        }
+
+        // Warm up, then measure.
+        measure(new DeviceLocks(nrOfStripes), deviceIds, nrOfCores, 1);
+        for (int nrOfThreads = 1; nrOfThreads <= (2 * nrOfCores); nrOfThreads *= 2) {
+            final DeviceLocks global = new DeviceLocks(1);
+            final DeviceLocks striped = new DeviceLocks(nrOfStripes);
+            final double globalOps = measure(global, deviceIds, nrOfThreads, seconds);
+            final double stripedOps = measure(striped, deviceIds, nrOfThreads, seconds);
+            System.out.printf("threads=%2d: global=%,12.0f ops/s (contended %5.1f%%), striped=%,12.0f ops/s (contended %5.1f%%, " +
+                            "max wait %.1f us), speed-up=%.1fx%n",
+                    nrOfThreads,
+                    globalOps, contention(global),
+                    stripedOps, contention(striped), striped.getMaxWaitTimeNanos() / 1000.0,
+                    stripedOps / globalOps);
+        }
+    }
+
+    /**
+     * Run read-modify-writes of random devices from a number of threads and return the throughput.
+     *
+     * @param locks       Locks to guard the read-modify-writes.
+     * @param deviceIds   Device IDs.
+     * @param nrOfThreads Number of threads.
+     * @param seconds     Duration in seconds.
+     * @return Number of read-modify-writes per second.
+     * @throws InterruptedException If interrupted.
+     */
+    private static double measure(
+            final DeviceLocks locks,
+            final String[] deviceIds,
+            final int nrOfThreads,
+            final int seconds) throws InterruptedException {
+        final ConcurrentHashMap<String, long[]> devices = new ConcurrentHashMap<>();
+        final LongAdder nrOfOps = new LongAdder();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < nrOfThreads; ++i) {
+            final Thread thread = new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (final InterruptedException ignored) {
+                    return;
+                }
+                long ops = 0;
+                while (!stop.get()) {
+                    final String deviceId = deviceIds[random.nextInt(deviceIds.length)];
+                    final Lock lock = locks.lock(deviceId);
+                    try {
+
+                        // Read, modify and write the entry, like a DAO without atomic updates would.
+                        final long[] old = devices.get(deviceId);
+                        final long[] value = (old == null) ? new long[4] : old.clone();
+                        for (int j = 0; j < value.length; ++j) {
+                            value[j] = (value[j] * 31) + deviceId.hashCode() + j;
+                        }
+                        devices.put(deviceId, value);
+                    } finally {
+                        lock.unlock();
+                    }
+                    ++ops;
+                }
+                nrOfOps.add(ops);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        return nrOfOps.sum() / ((System.nanoTime() - begin) / 1.0e9);
+    }
+
+    private static double contention(final DeviceLocks locks) {
+        return (100.0 * locks.getNrOfContendedLocks()) / Math.max(1, locks.getNrOfLocks());
+    }
+
+    // Prevent instantiation.
+    private DeviceLocksBenchmark() {
+        super();
+        assert false;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.benchmarks;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.DaoModule;
+import com.tomtom.services.notifications.dao.DatabaseProperties;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.mappers.NotificationsMapperRegistry;
+import com.tomtom.services.notifications.dao.mongodb.NotificationDaoMongoDBImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This benchmark compares the throughput of per-document writes and bulk writes of the MongoDB DAO.
+ * It is not run as part of the tests; it needs a running mongod, for example a local one:
+ *
+ * <pre>
+ *     java -cp ... com.tomtom.services.notifications.benchmarks.MongoBulkWriteBenchmark \
+ *         localhost:27017 benchmark admin admin [nrOfDevices] [bulkWriteBatchSize]
+ * </pre>
+ *
+ * The benchmark only writes device IDs starting with "benchmark-", which it removes again afterwards.
+ */
+public final class MongoBulkWriteBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: MongoBulkWriteBenchmark servers database userName password [nrOfDevices] [bulkWriteBatchSize]");
+            System.exit(1);
+        }
+        final int nrOfDevices = (args.length > 4) ? Integer.parseInt(args[4]) : 20000;
+        final int bulkWriteBatchSize = (args.length > 5) ? Integer.parseInt(args[5]) : NotificationDaoMongoDBImpl.DEFAULT_BULK_WRITE_BATCH_SIZE;
+        final DatabaseProperties properties = new DatabaseProperties(false, args[0], args[1], args[2], args[3]);
+        final NotificationDao dao = new NotificationDaoMongoDBImpl(DaoModule.provideMongoDB(properties),
+                new NotificationsMapperRegistry(), bulkWriteBatchSize);
+
+        final List<Notification> notifications = new ArrayList<>(nrOfDevices);
+        for (int i = 0; i < nrOfDevices; ++i) {
+            notifications.add(new Notification("benchmark-" + i, Collections.singletonList("service-" + (i % 10))));
+        }
+        final List<Notification> removals = new ArrayList<>(nrOfDevices);
+        for (final Notification notification : notifications) {
+            removals.add(new Notification(notification.getDeviceId(), Collections.emptyList()));
+        }
+        dao.removeServiceIds(removals);
+        System.out.printf("nrOfDevices=%d, bulkWriteBatchSize=%d%n", nrOfDevices, bulkWriteBatchSize);
+
+        // Each phase is run twice; the first run warms up the JVM and the database.
+        for (int run = 0; run < 2; ++run) {
+            long start = System.nanoTime();
+            for (final Notification notification : notifications) {
+                dao.putServiceIds(notification.getDeviceId(), notification.getServiceIds());
+            }
+            report("put, per document", nrOfDevices, start);
+            start = System.nanoTime();
+            dao.putServiceIds(notifications);
+            report("put, bulk", nrOfDevices, start);
+
+            start = System.nanoTime();
+            for (final Notification notification : notifications) {
+                dao.addServiceId(notification.getDeviceId(), "extra");
+            }
+            report("add, per document", nrOfDevices, start);
+            start = System.nanoTime();
+            final List<Notification> additions = new ArrayList<>(nrOfDevices);
+            for (final Notification notification : notifications) {
+                additions.add(new Notification(notification.getDeviceId(), Collections.singletonList("bulk")));
+            }
+            dao.addServiceIds(additions);
+            report("add, bulk", nrOfDevices, start);
+
+            start = System.nanoTime();
+            for (final Notification notification : notifications) {
+                dao.removeServiceId(notification.getDeviceId(), "extra");
+            }
+            report("remove, per document", nrOfDevices, start);
+            start = System.nanoTime();
+            final List<Notification> pulls = new ArrayList<>(nrOfDevices);
+            for (final Notification notification : notifications) {
+                pulls.add(new Notification(notification.getDeviceId(), new HashSet<>(Arrays.asList("bulk", "other"))));
+            }
+            dao.removeServiceIds(pulls);
+            report("remove, bulk", nrOfDevices, start);
+
+            start = System.nanoTime();
+            dao.removeServiceIds(removals);
+            report("remove devices, bulk", nrOfDevices, start);
+        }
+    }
+
+    private static void report(final String phase, final int nrOfDevices, final long startNanos) {
+        final double secs = (System.nanoTime() - startNanos) / 1.0e9;
+        System.out.printf("%-22s %8.3f s, %10.0f docs/s%n", phase + ':', secs, nrOfDevices / secs);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.benchmarks;
+
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This benchmark compares the heap used by the in-memory DAO when service IDs are stored as sets of
+ * strings, or as compact bitsets. It is not run as part of the tests; run it with a large heap:
+ *
+ * <pre>
+ *     java -Xmx8g -cp ... com.tomtom.services.notifications.benchmarks.ServiceIdLayoutBenchmark [nrOfDevices]
+ * </pre>
+ *
+ * The heap of a baseline run, in which all devices share a single empty set, is subtracted, so the result
+ * is the cost of the service IDs only.
+ */
+public final class ServiceIdLayoutBenchmark {
+    private static final int NR_OF_SERVICE_IDS = 40;
+
+    public static void main(final String[] args) throws Exception {
+        final int nrOfDevices = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+        final long baseline = measure(nrOfDevices, null);
+        final long strings = measure(nrOfDevices, false) - baseline;
+        final long bitsets = measure(nrOfDevices, true) - baseline;
+        System.out.printf("nrOfDevices=%d, baseline=%.1f bytes/device%n", nrOfDevices, (double) baseline / nrOfDevices);
+        System.out.printf("sets of strings: %.1f bytes/device%n", (double) strings / nrOfDevices);
+        System.out.printf("compact bitsets: %.1f bytes/device%n", (double) bitsets / nrOfDevices);
+        System.out.printf("reduction: %.1fx%n", (double) strings / bitsets);
+    }
+
+    /**
+     * Fill a DAO and return the heap it uses.
+     *
+     * @param nrOfDevices       Number of devices.
+     * @param compactServiceIds True for bitsets, false for sets of strings, null for a single shared empty set.
+     * @return Heap used in bytes.
+     * @throws Exception If the DAO fails.
+     */
+    private static long measure(final int nrOfDevices, final Boolean compactServiceIds) throws Exception {
+        final long before = usedHeap();
+        NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl((compactServiceIds != null) && compactServiceIds);
+        final Random random = new Random(1);
+        for (int i = 0; i < nrOfDevices; ++i) {
+            final String deviceId = "device-" + i;
+            if (compactServiceIds == null) {
+                dao.putServiceIds(deviceId, Collections.emptySet());
+            } else {
+
+                // Most devices have a single pending notification, some have a few.
+                final int nrOfServiceIds = 1 + (random.nextInt(4) / 3) + (random.nextInt(8) / 7);
+                final Set<String> serviceIds = new HashSet<>();
+                for (int j = 0; j < nrOfServiceIds; ++j) {
+                    serviceIds.add("service-" + random.nextInt(NR_OF_SERVICE_IDS));
+                }
+                dao.putServiceIds(deviceId, serviceIds);
+            }
+        }
+        final long used = usedHeap() - before;
+        if (dao.getNrOfDeviceIds() != nrOfDevices) {
+            throw new IllegalStateException("Unexpected number of device IDs: " + dao.getNrOfDeviceIds());
+        }
+        //noinspection UnusedAssignment
+        dao = null;
+        return used;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Prevent instantiation.
+    private ServiceIdLayoutBenchmark() {
+        super();
+        assert false;
+    }
+}
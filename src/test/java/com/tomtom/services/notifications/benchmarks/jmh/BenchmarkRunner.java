@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.benchmarks.jmh;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * This class runs the JMH benchmarks once for every thread count, and writes the results of every run
+ * as JSON, so runs can be compared later (for example, with a JMH results visualizer). It is used by the
+ * "benchmark" profile:
+ *
+ * <pre>
+ *     mvn -Pbenchmark verify [-Dbenchmark.threads=1,4,16] [-Dbenchmark.results=target/jmh] [-Dbenchmark.args="..."]
+ * </pre>
+ *
+ * The arguments are regular JMH command line options, such as "-p dao=mongodb" or "-p deviceCount=10000"
+ * to select parameters, or a regular expression to select benchmarks. If the arguments specify a thread
+ * count with "-t", the benchmarks are only run for that thread count.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+        // Prevent instantiation.
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final String threads = commandLineOptions.getThreads().hasValue() ?
+                String.valueOf(commandLineOptions.getThreads().get()) :
+                System.getProperty("benchmark.threads", "1,4,16");
+        final File resultsDirectory = new File(System.getProperty("benchmark.results", "target/jmh"));
+        if (!resultsDirectory.isDirectory() && !resultsDirectory.mkdirs()) {
+            throw new IllegalStateException("Cannot create directory: " + resultsDirectory);
+        }
+        final String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+        for (final String threadCount : threads.split(",")) {
+            final int nrOfThreads = Integer.parseInt(threadCount.trim());
+            final File result = new File(resultsDirectory, "benchmark-" + timestamp + "-threads-" + nrOfThreads + ".json");
+            final ChainedOptionsBuilder options = new OptionsBuilder().
+                    parent(commandLineOptions).
+                    threads(nrOfThreads).
+                    resultFormat(ResultFormatType.JSON).
+                    result(result.getPath());
+            if (commandLineOptions.getIncludes().isEmpty()) {
+                options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+            }
+            new Runner(options.build()).run();
+            System.out.println("Results written to: " + result);
+        }
+    }
+}
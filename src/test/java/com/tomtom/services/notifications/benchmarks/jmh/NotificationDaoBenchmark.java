@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.benchmarks.jmh;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.DaoModule;
+import com.tomtom.services.notifications.dao.DatabaseProperties;
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.mappers.NotificationsMapperRegistry;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.services.notifications.dao.mongodb.NotificationDaoMongoDBImpl;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This JMH benchmark measures the operations of the DAO implementations, for a number of devices and
+ * service IDs per device. It is only compiled in the "benchmark" profile and is run by
+ * {@link BenchmarkRunner}, once for every thread count:
+ *
+ * <pre>
+ *     mvn -Pbenchmark verify -Dbenchmark.threads=1,4,16 -Dbenchmark.args="-p deviceCount=10000,100000"
+ * </pre>
+ *
+ * The in-memory DAOs are filled for every benchmark. The MongoDB DAO is only measured when asked for,
+ * with "-p dao=mongodb"; it needs a running mongod (see the mongo* parameters) with a database which is
+ * only used for benchmarking, because its contents are replaced. The contents are kept between
+ * benchmarks if they match the parameters, which saves filling the database every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class NotificationDaoBenchmark {
+
+    /**
+     * Number of device IDs each thread picks from. This is larger than the CPU caches, so not all
+     * lookups are served from a cache.
+     */
+    private static final int NR_OF_SAMPLES = 1 << 16;
+
+    /**
+     * Number of different service IDs.
+     */
+    private static final int NR_OF_SERVICE_IDS = 64;
+
+    /**
+     * Number of device IDs removed per iteration of the removal benchmark, per thread.
+     */
+    private static final int REMOVALS_PER_ITERATION = 500;
+
+    /**
+     * Number of device IDs per bulk write when filling MongoDB.
+     */
+    private static final int FILL_BATCH_SIZE = 10000;
+
+    @Param({"memory", "memory-compact"})
+    public String dao;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int deviceCount;
+
+    @Param({"1", "4", "16"})
+    public int serviceIdsPerDevice;
+
+    @Param("localhost:27017")
+    public String mongoServers;
+
+    @Param("benchmark")
+    public String mongoDatabase;
+
+    @Param("admin")
+    public String mongoUserName;
+
+    @Param("admin")
+    public String mongoPassword;
+
+    NotificationDao notificationDao;
+
+    /**
+     * The service IDs of device i are serviceIds[i % NR_OF_SERVICE_IDS].
+     */
+    @SuppressWarnings("unchecked")
+    final Set<String>[] serviceIds = new Set[NR_OF_SERVICE_IDS];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        for (int i = 0; i < NR_OF_SERVICE_IDS; ++i) {
+            serviceIds[i] = new HashSet<>();
+            for (int j = 0; j < serviceIdsPerDevice; ++j) {
+                serviceIds[i].add("service-" + ((i + j) % NR_OF_SERVICE_IDS));
+            }
+        }
+        switch (dao) {
+            case "memory":
+                notificationDao = new NotificationDaoMemoryImpl(false);
+                fill();
+                break;
+
+            case "memory-compact":
+                notificationDao = new NotificationDaoMemoryImpl(true);
+                fill();
+                break;
+
+            case "mongodb":
+                final DatabaseProperties properties = new DatabaseProperties(false, mongoServers, mongoDatabase,
+                        mongoUserName, mongoPassword);
+                notificationDao = new NotificationDaoMongoDBImpl(DaoModule.provideMongoDB(properties),
+                        new NotificationsMapperRegistry(), NotificationDaoMongoDBImpl.DEFAULT_BULK_WRITE_BATCH_SIZE);
+                if (!isFilled()) {
+                    clear();
+                    fill();
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown DAO: " + dao + ", use memory, memory-compact or mongodb");
+        }
+    }
+
+    /**
+     * Per-thread state: the device IDs to look up and write, drawn at random from the devices in the DAO.
+     */
+    @State(Scope.Thread)
+    public static class Samples {
+        final String[] existingDeviceIds = new String[NR_OF_SAMPLES];
+        final String[] missingDeviceIds = new String[NR_OF_SAMPLES];
+        final int[] indexes = new int[NR_OF_SAMPLES];
+        int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp(@Nonnull final NotificationDaoBenchmark benchmark, @Nonnull final ThreadParams threadParams) {
+            final Random random = new Random(threadParams.getThreadIndex());
+            for (int i = 0; i < NR_OF_SAMPLES; ++i) {
+                indexes[i] = random.nextInt(benchmark.deviceCount);
+                existingDeviceIds[i] = deviceId(indexes[i]);
+                missingDeviceIds[i] = "missing-" + indexes[i];
+            }
+        }
+
+        int next() {
+            next = (next + 1) & (NR_OF_SAMPLES - 1);
+            return next;
+        }
+    }
+
+    /**
+     * Per-thread state for the removal benchmark. Every thread removes the devices of its own part of the
+     * device IDs, so removals never miss, and puts them back after every iteration.
+     */
+    @State(Scope.Thread)
+    public static class Removals {
+        final List<Integer> removed = new ArrayList<>(REMOVALS_PER_ITERATION);
+        int first;
+        int step;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(@Nonnull final NotificationDaoBenchmark benchmark, @Nonnull final ThreadParams threadParams) {
+            if ((benchmark.deviceCount / threadParams.getThreadCount()) < REMOVALS_PER_ITERATION) {
+                throw new IllegalArgumentException("Too few devices per thread for removal benchmark: deviceCount=" +
+                        benchmark.deviceCount + ", threadCount=" + threadParams.getThreadCount());
+            }
+            first = threadParams.getThreadIndex();
+            step = threadParams.getThreadCount();
+            next = first;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown(@Nonnull final NotificationDaoBenchmark benchmark) throws Exception {
+            for (final Integer index : removed) {
+                benchmark.notificationDao.putServiceIds(deviceId(index), benchmark.serviceIds[index % NR_OF_SERVICE_IDS]);
+            }
+            removed.clear();
+        }
+
+        int next(final int deviceCount) {
+            final int index = next;
+            next += step;
+            if (next >= deviceCount) {
+                next = first;
+            }
+            removed.add(index);
+            return index;
+        }
+    }
+
+    @Benchmark
+    public Set<String> getServiceIdsHit(@Nonnull final Samples samples) throws Exception {
+        return notificationDao.getServiceIds(samples.existingDeviceIds[samples.next()]);
+    }
+
+    /**
+     * A miss throws an exception, which is part of the cost. The service itself uses
+     * {@link NotificationDao#findServiceIds(String)}, see {@link #findServiceIdsMiss(Samples)}.
+     */
+    @Benchmark
+    @Nullable
+    public Set<String> getServiceIdsMiss(@Nonnull final Samples samples) throws Exception {
+        try {
+            return notificationDao.getServiceIds(samples.missingDeviceIds[samples.next()]);
+        } catch (final EntityNotFoundException ignored) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    @Nullable
+    public Set<String> findServiceIdsMiss(@Nonnull final Samples samples) throws Exception {
+        return notificationDao.findServiceIds(samples.missingDeviceIds[samples.next()]);
+    }
+
+    /**
+     * Overwrite the service IDs of an existing device with the same service IDs, so the contents of the
+     * DAO do not change.
+     */
+    @Benchmark
+    public void putServiceIds(@Nonnull final Samples samples) throws Exception {
+        final int i = samples.next();
+        notificationDao.putServiceIds(samples.existingDeviceIds[i], serviceIds[samples.indexes[i] % NR_OF_SERVICE_IDS]);
+    }
+
+    /**
+     * Removals change the contents of the DAO, so this benchmark measures a fixed number of removals per
+     * iteration, after which the removed devices are put back. The score is the time for
+     * REMOVALS_PER_ITERATION removals.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20, batchSize = REMOVALS_PER_ITERATION)
+    @Measurement(iterations = 50, batchSize = REMOVALS_PER_ITERATION)
+    public void removeServiceIds(@Nonnull final Removals removals) throws Exception {
+        notificationDao.removeServiceIds(deviceId(removals.next(deviceCount)));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<String> getAllDeviceIds() throws Exception {
+        return notificationDao.getAllDeviceIds();
+    }
+
+    @Benchmark
+    public int getNrOfDeviceIds() throws Exception {
+        return notificationDao.getNrOfDeviceIds();
+    }
+
+    @Nonnull
+    static String deviceId(final int index) {
+        return "device-" + index;
+    }
+
+    private void fill() throws Exception {
+        final List<Notification> notifications = new ArrayList<>(FILL_BATCH_SIZE);
+        for (int i = 0; i < deviceCount; ++i) {
+            notifications.add(new Notification(deviceId(i), serviceIds[i % NR_OF_SERVICE_IDS]));
+            if (notifications.size() == FILL_BATCH_SIZE) {
+                notificationDao.putServiceIds(notifications);
+                notifications.clear();
+            }
+        }
+        if (!notifications.isEmpty()) {
+            notificationDao.putServiceIds(notifications);
+        }
+    }
+
+    /**
+     * Check if the DAO contains the devices and service IDs of a previous run with the same parameters,
+     * by checking the number of devices and the first and last device.
+     */
+    private boolean isFilled() throws Exception {
+        final int last = deviceCount - 1;
+        return (notificationDao.getNrOfDeviceIds() == deviceCount) &&
+                serviceIds[0].equals(notificationDao.findServiceIds(deviceId(0))) &&
+                serviceIds[last % NR_OF_SERVICE_IDS].equals(notificationDao.findServiceIds(deviceId(last)));
+    }
+
+    private void clear() throws Exception {
+        final List<Notification> removals = new ArrayList<>(FILL_BATCH_SIZE);
+        for (final String deviceId : notificationDao.getAllDeviceIds()) {
+            removals.add(new Notification(deviceId, Collections.emptyList()));
+            if (removals.size() == FILL_BATCH_SIZE) {
+                notificationDao.removeServiceIds(removals);
+                removals.clear();
+            }
+        }
+        if (!removals.isEmpty()) {
+            notificationDao.removeServiceIds(removals);
+        }
+    }
+}
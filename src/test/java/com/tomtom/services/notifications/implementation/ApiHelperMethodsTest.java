@@ -71,6 +71,32 @@ public class ApiHelperMethodsTest {
         Assert.assertEquals(204, status);
     }
 
+    @Test
+    public void checkSnapshotStatusWithoutJournal() {
+        LOG.info("checkSnapshotStatusWithoutJournal");
+        final Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/status/snapshot").
+                request().
+                get();
+        Assert.assertNotNull(r);
+        final int status = r.getStatus();
+        LOG.info("status = {}", status);
+        Assert.assertEquals(404, status);
+    }
+
+    @Test
+    public void checkWriteBehindStatusWithoutWriteBehind() {
+        LOG.info("checkWriteBehindStatusWithoutWriteBehind");
+        final Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/status/writebehind").
+                request().
+                get();
+        Assert.assertNotNull(r);
+        final int status = r.getStatus();
+        LOG.info("status = {}", status);
+        Assert.assertEquals(404, status);
+    }
+
     @Test
     public void checkVersionWithParameters() {
         LOG.info("checkVersionWithParameters");
@@ -115,4 +141,71 @@ public class ApiHelperMethodsTest {
         Assert.assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><version><version>1.0.0-TEST</version></version>",
                 response.readEntity(String.class));
     }
+
+    @Test
+    public void checkMetrics() {
+        LOG.info("checkMetrics");
+        Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x").
+                request().
+                get();
+        Assert.assertEquals(404, r.getStatus());
+        r.close();
+        r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x").
+                request().
+                post(null);
+        Assert.assertEquals(201, r.getStatus());
+        r.close();
+
+        r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/metrics").
+                request().
+                get();
+        Assert.assertNotNull(r);
+        final int status = r.getStatus();
+        LOG.info("status = {}", status);
+        Assert.assertEquals(200, status);
+        Assert.assertTrue(r.getMediaType().isCompatible(MediaType.TEXT_PLAIN_TYPE));
+        final String metrics = r.readEntity(String.class);
+        LOG.info("metrics = {}", metrics);
+        Assert.assertTrue(metrics.contains("# TYPE notifications_requests_total counter\n"));
+        Assert.assertTrue(metrics.contains("notifications_requests_total{endpoint=\"getPendingNotificationsForDevice\"} 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_requests_total{endpoint=\"createPendingNotificationForDevice\"} 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_errors_total{endpoint=\"getPendingNotificationsForDevice\"} 0\n"));
+        Assert.assertTrue(metrics.contains("notifications_request_duration_seconds{endpoint=\"getPendingNotificationsForDevice\",quantile=\"0.99\"} "));
+        Assert.assertTrue(metrics.contains("notifications_request_duration_seconds_count{endpoint=\"getPendingNotificationsForDevice\"} 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_device_locks_total 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_dao_calls_total{operation=\"findServiceIds\"} 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_dao_calls_total{operation=\"addServiceId\"} 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_dao_round_trips_total{operation=\"addServiceId\"} 0\n"));
+    }
+
+    @Test
+    public void checkMetricsOfWaitingPolls() {
+        LOG.info("checkMetricsOfWaitingPolls");
+        Response r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x").
+                queryParam("wait", 1).
+                request().
+                get();
+        Assert.assertEquals(404, r.getStatus());
+        r.close();
+
+        r = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/metrics").
+                request().
+                get();
+        Assert.assertEquals(200, r.getStatus());
+        final String metrics = r.readEntity(String.class);
+        LOG.info("metrics = {}", metrics);
+
+        // A poll which waits does not count as a normal poll; event streams have no latency.
+        Assert.assertTrue(metrics.contains("notifications_requests_total{endpoint=\"getPendingNotificationsForDevice\"} 0\n"));
+        Assert.assertTrue(metrics.contains("notifications_requests_total{endpoint=\"getPendingNotificationsForDevice_wait\"} 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_request_duration_seconds_count{endpoint=\"getPendingNotificationsForDevice\"} 0\n"));
+        Assert.assertTrue(metrics.contains("notifications_request_duration_seconds_count{endpoint=\"getPendingNotificationsForDevice_wait\"} 1\n"));
+        Assert.assertTrue(metrics.contains("notifications_requests_total{endpoint=\"getNotificationEvents\"} 0\n"));
+        Assert.assertFalse(metrics.contains("notifications_request_duration_seconds_count{endpoint=\"getNotificationEvents\"}"));
+    }
 }
@@ -23,7 +23,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.InboundSseEvent;
+import javax.ws.rs.sse.SseEventSource;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 import static org.junit.Assert.*;
@@ -144,6 +152,49 @@ public class ApiPendingNotificationsTest {
         assertEquals("{\"total\":2,\"ids\":[\"y\"]}", response.readEntity(String.class));
     }
 
+    @Test
+    public void checkAllPendingNotiticationsAfter() {
+        LOG.info("checkAllPendingNotiticationsAfter");
+        startServer();
+        create("z", "");
+        create("x", "");
+        create("y", "1");
+        Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications?after=&count=2").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"total\":3,\"ids\":[\"x\",\"y\"],\"next\":\"y\"}", response.readEntity(String.class));
+
+        // Removing an earlier device ID does not affect the cursor.
+        delete("x", "");
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications?after=y&count=2").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"total\":2,\"ids\":[\"z\"]}", response.readEntity(String.class));
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications?after=a&count=1").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"total\":2,\"ids\":[\"y\"],\"next\":\"y\"}", response.readEntity(String.class));
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications?after=z").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        final String actual = response.readEntity(String.class);
+        assertTrue("{\"total\":2}".equals(actual) || "{\"total\":2,\"ids\":[]}".equals(actual));
+    }
+
     @Test
     public void checkAllPendingNotiticationsForDevice1() {
         LOG.info("checkAllPendingNotiticationsForDevice1");
@@ -327,6 +378,184 @@ public class ApiPendingNotificationsTest {
         assertTrue("{\"total\":0}".equals(actual) || "{\"total\":0,\"ids\":[]}".equals(actual));
     }
 
+    @Test
+    public void checkCreatePendingNotificationsBatch() {
+        LOG.info("checkCreatePendingNotificationsBatch");
+        startServer();
+        create("x", "0");
+        Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications").
+                request().
+                accept(APPLICATION_JSON_TYPE).post(Entity.entity(
+                "{\"notifications\":[{\"deviceId\":\"x\",\"serviceId\":\"1\"},{\"deviceId\":\"y\"},{\"deviceId\":\"x\",\"serviceId\":\"2\"}]}",
+                APPLICATION_JSON_TYPE));
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"count\":3}", response.readEntity(String.class));
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(200, response.getStatus());
+        assertEquals("[\"0\",\"1\",\"2\"]", response.readEntity(String.class));
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/y").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void checkCreatePendingNotificationsBatchInvalid() {
+        LOG.info("checkCreatePendingNotificationsBatchInvalid");
+        startServer();
+        Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications").
+                request().
+                accept(APPLICATION_JSON_TYPE).post(Entity.entity(
+                "{\"notifications\":[{\"deviceId\":\"x\"},{\"deviceId\":\"\"}]}",
+                APPLICATION_JSON_TYPE));
+        assertNotNull(response);
+        assertEquals(400, response.getStatus());
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(404, response.getStatus());
+    }
+
+    @Test
+    public void checkDeletePendingNotificationsBatch() {
+        LOG.info("checkDeletePendingNotificationsBatch");
+        startServer();
+        create("x", "1");
+        create("x", "2");
+        create("y", "1");
+        create("z", "");
+        Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/_delete").
+                request().
+                accept(APPLICATION_JSON_TYPE).post(Entity.entity(
+                "{\"notifications\":[{\"deviceId\":\"x\",\"serviceId\":\"1\"},{\"deviceId\":\"y\",\"serviceId\":\"2\"},{\"deviceId\":\"z\"},{\"deviceId\":\"w\"}]}",
+                APPLICATION_JSON_TYPE));
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"count\":2}", response.readEntity(String.class));
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"total\":2,\"ids\":[\"x\",\"y\"]}", response.readEntity(String.class));
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(200, response.getStatus());
+        assertEquals("[\"2\"]", response.readEntity(String.class));
+    }
+
+    @Test
+    public void checkLookupPendingNotifications() {
+        LOG.info("checkLookupPendingNotifications");
+        startServer();
+        create("x", "1");
+        create("z", "");
+        Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/_lookup").
+                request().
+                accept(APPLICATION_JSON_TYPE).post(Entity.entity(
+                "{\"deviceIds\":[\"z\",\"y\",\"x\",\"z\"]}",
+                APPLICATION_JSON_TYPE));
+        assertNotNull(response);
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"notifications\":[{\"deviceId\":\"z\",\"serviceIds\":[]},{\"deviceId\":\"x\",\"serviceIds\":[\"1\"]}]}",
+                response.readEntity(String.class));
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/_lookup").
+                request().
+                accept(APPLICATION_JSON_TYPE).post(Entity.entity("{\"deviceIds\":[\"\"]}", APPLICATION_JSON_TYPE));
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void checkWaitForPendingNotifications() throws Exception {
+        LOG.info("checkWaitForPendingNotifications");
+        startServer();
+
+        // A waiting poll is answered as soon as a notification is created.
+        final long start = System.currentTimeMillis();
+        final Future<Response> waiting = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x?wait=20").
+                request().
+                accept(APPLICATION_JSON_TYPE).async().get();
+        Thread.sleep(200);
+        create("x", "1");
+        Response response = waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatus());
+        assertEquals("[\"1\"]", response.readEntity(String.class));
+        assertTrue((System.currentTimeMillis() - start) < 10000);
+
+        // A poll for a device with notifications doesn't wait.
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/x?wait=20").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(200, response.getStatus());
+
+        // A poll without notifications returns 404 when the wait expires.
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/y?wait=1").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(404, response.getStatus());
+
+        response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/y?wait=26").
+                request().
+                accept(APPLICATION_JSON_TYPE).get();
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void checkNotificationEvents() throws Exception {
+        LOG.info("checkNotificationEvents");
+        startServer();
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final WebTarget target = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/_events?prefix=x");
+        try (final SseEventSource source = SseEventSource.target(target).build()) {
+            source.register((final InboundSseEvent event) -> received.add(event.getName() + ' ' + event.readData()));
+            source.open();
+            Thread.sleep(500);
+
+            // Only the events for matching device IDs are streamed.
+            create("x1", "1");
+            create("y1", "1");
+            delete("x1", "");
+            final long deadline = System.currentTimeMillis() + 10000;
+            while ((received.size() < 2) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+        }
+        assertEquals(2, received.size());
+        assertTrue(received.get(0).startsWith("created "));
+        assertTrue(received.get(0).contains("\"serviceId\":\"1\""));
+        assertTrue(received.get(1).startsWith("deleted "));
+        assertTrue(received.get(1).contains("\"deviceId\":\"x1\""));
+
+        final Response response = new ResteasyClientBuilder().build().
+                target(server.getHost() + "/notifications/_events?overflow=wait").
+                request().get();
+        assertEquals(400, response.getStatus());
+    }
+
     private void create(@Nonnull final String device, @Nonnull final String service) {
         final Response response = new ResteasyClientBuilder().build().
                 target(server.getHost() + "/notifications/" + device + (service.isEmpty() ? "" : ('/' + service))).
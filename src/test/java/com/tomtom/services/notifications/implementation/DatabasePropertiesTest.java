@@ -17,6 +17,12 @@
 package com.tomtom.services.notifications.implementation;
 
 import com.tomtom.services.notifications.dao.DatabaseProperties;
+import com.tomtom.services.notifications.dao.cache.CacheProperties;
+import com.tomtom.services.notifications.dao.filter.FilterProperties;
+import com.tomtom.services.notifications.dao.invalidation.InvalidationProperties;
+import com.tomtom.services.notifications.dao.memory.InMemoryProperties;
+import com.tomtom.services.notifications.dao.mongodb.MongoDBProperties;
+import com.tomtom.services.notifications.dao.writebehind.WriteBehindProperties;
 import com.tomtom.speedtools.guice.InvalidPropertyValueException;
 import org.junit.Assert;
 import org.junit.Test;
@@ -71,4 +77,133 @@ public class DatabasePropertiesTest {
         final DatabaseProperties databaseProperties = new DatabaseProperties(false, "1:1", "2", "3", "");
         Assert.assertNull(databaseProperties);
     }
+
+    @Test
+    public void testFilterProperties() {
+        LOG.info("testFilterProperties");
+        final FilterProperties filterProperties = new FilterProperties(1000, 60);
+        Assert.assertEquals(1000, filterProperties.getSize());
+        Assert.assertEquals(60, filterProperties.getRebuildIntervalSecs());
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testFilterPropertiesError() {
+        LOG.info("testFilterPropertiesError");
+        final FilterProperties filterProperties = new FilterProperties(-1, 0);
+        Assert.assertNull(filterProperties);
+    }
+
+    @Test
+    public void testCacheProperties() {
+        LOG.info("testCacheProperties");
+        final CacheProperties cacheProperties = new CacheProperties(100, 1);
+        Assert.assertEquals(100, cacheProperties.getSize());
+        Assert.assertEquals(1, cacheProperties.getExpireAfterWriteSecs());
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testCachePropertiesError() {
+        LOG.info("testCachePropertiesError");
+        final CacheProperties cacheProperties = new CacheProperties(1, 0);
+        Assert.assertNull(cacheProperties);
+    }
+
+    @Test
+    public void testInMemoryProperties() {
+        LOG.info("testInMemoryProperties");
+        final InMemoryProperties inMemoryProperties = new InMemoryProperties("journal", 64, 10, 60, true, false);
+        Assert.assertEquals("journal", inMemoryProperties.getJournalDirectory());
+        Assert.assertEquals(64, inMemoryProperties.getJournalSegmentSizeMB());
+        Assert.assertEquals(10, inMemoryProperties.getJournalFlushIntervalMillis());
+        Assert.assertEquals(60, inMemoryProperties.getSnapshotIntervalSecs());
+        Assert.assertEquals(true, inMemoryProperties.getCompactServiceIds());
+        Assert.assertEquals(false, inMemoryProperties.getUseOffHeap());
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testInMemoryPropertiesError1() {
+        LOG.info("testInMemoryPropertiesError1");
+        final InMemoryProperties inMemoryProperties = new InMemoryProperties("", 0, 0, 0, false, false);
+        Assert.assertNull(inMemoryProperties);
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testInMemoryPropertiesError2() {
+        LOG.info("testInMemoryPropertiesError2");
+        final InMemoryProperties inMemoryProperties = new InMemoryProperties("", 64, 0, -1, false, false);
+        Assert.assertNull(inMemoryProperties);
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testInMemoryPropertiesError3() {
+        LOG.info("testInMemoryPropertiesError3");
+        final InMemoryProperties inMemoryProperties = new InMemoryProperties("journal", 64, 0, 0, false, true);
+        Assert.assertNull(inMemoryProperties);
+    }
+
+    @Test
+    public void testMongoDBProperties() {
+        LOG.info("testMongoDBProperties");
+        final MongoDBProperties mongoDBProperties = new MongoDBProperties(1000);
+        Assert.assertEquals(1000, mongoDBProperties.getBulkWriteBatchSize());
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testMongoDBPropertiesError() {
+        LOG.info("testMongoDBPropertiesError");
+        final MongoDBProperties mongoDBProperties = new MongoDBProperties(0);
+        Assert.assertNull(mongoDBProperties);
+    }
+
+    @Test
+    public void testWriteBehindProperties() {
+        LOG.info("testWriteBehindProperties");
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties(5, 10000);
+        Assert.assertEquals(5, writeBehindProperties.getIntervalMillis());
+        Assert.assertEquals(10000, writeBehindProperties.getMaxPending());
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testWriteBehindPropertiesError1() {
+        LOG.info("testWriteBehindPropertiesError1");
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties(-1, 10000);
+        Assert.assertNull(writeBehindProperties);
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testWriteBehindPropertiesError2() {
+        LOG.info("testWriteBehindPropertiesError2");
+        final WriteBehindProperties writeBehindProperties = new WriteBehindProperties(5, 0);
+        Assert.assertNull(writeBehindProperties);
+    }
+
+    @Test
+    public void testInvalidationProperties() {
+        LOG.info("testInvalidationProperties");
+        final InvalidationProperties invalidationProperties = new InvalidationProperties(8081, "localhost:8082", 10);
+        Assert.assertEquals(8081, invalidationProperties.getPort());
+        Assert.assertEquals("localhost:8082", invalidationProperties.getPeers());
+        Assert.assertEquals(10, invalidationProperties.getIntervalMillis());
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testInvalidationPropertiesError1() {
+        LOG.info("testInvalidationPropertiesError1");
+        final InvalidationProperties invalidationProperties = new InvalidationProperties(8081, "", 10);
+        Assert.assertNull(invalidationProperties);
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testInvalidationPropertiesError2() {
+        LOG.info("testInvalidationPropertiesError2");
+        final InvalidationProperties invalidationProperties = new InvalidationProperties(8081, "localhost:x", 10);
+        Assert.assertNull(invalidationProperties);
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testInvalidationPropertiesError3() {
+        LOG.info("testInvalidationPropertiesError3");
+        final InvalidationProperties invalidationProperties = new InvalidationProperties(0, "", 0);
+        Assert.assertNull(invalidationProperties);
+    }
 }
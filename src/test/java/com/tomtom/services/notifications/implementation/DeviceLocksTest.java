@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.dao.DeviceLocks;
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+public class DeviceLocksTest {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceLocksTest.class);
+
+    @Test
+    public void testReadModifyWrite() throws Exception {
+        LOG.info("testReadModifyWrite");
+        final DeviceLocks locks = new DeviceLocks(1);
+        Assert.assertEquals(1, locks.getNrOfStripes());
+
+        // Unsynchronized read-modify-writes lose updates, unless the device ID is locked.
+        final Map<String, Integer> counters = new HashMap<>();
+        final int nrOfThreads = 4;
+        final int nrOfIncrements = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < nrOfThreads; ++i) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException ignored) {
+                    return;
+                }
+                for (int j = 0; j < nrOfIncrements; ++j) {
+                    final String deviceId = "device-" + (j % 8);
+                    final Lock lock = locks.lock(deviceId);
+                    try {
+                        final Integer count = counters.get(deviceId);
+                        counters.put(deviceId, (count == null) ? 1 : (count + 1));
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        int total = 0;
+        for (final int count : counters.values()) {
+            total += count;
+        }
+        Assert.assertEquals(nrOfThreads * nrOfIncrements, total);
+        Assert.assertEquals(nrOfThreads * nrOfIncrements, locks.getNrOfLocks());
+        Assert.assertTrue(locks.getNrOfContendedLocks() <= locks.getNrOfLocks());
+        Assert.assertTrue(locks.getMaxWaitTimeNanos() <= locks.getWaitTimeNanos());
+    }
+
+    @Test
+    public void testLockAll() throws Exception {
+        LOG.info("testLockAll");
+        final DeviceLocks locks = new DeviceLocks(10);
+        Assert.assertEquals(16, locks.getNrOfStripes());
+
+        // Duplicate device IDs are fine, because the locks are reentrant.
+        final List<Lock> locked = locks.lockAll(Arrays.asList("x", "y", "x"));
+        Assert.assertEquals(3, locked.size());
+        final Lock lock = locks.lock("x");
+        lock.unlock();
+        DeviceLocks.unlockAll(locked);
+
+        // Another thread can take the locks now, without waiting.
+        final Thread thread = new Thread(() -> DeviceLocks.unlockAll(locks.lockAll(Arrays.asList("x", "y"))));
+        thread.start();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertEquals(6, locks.getNrOfLocks());
+        Assert.assertEquals(0, locks.getNrOfContendedLocks());
+    }
+
+    @Test(expected = InvalidPropertyValueException.class)
+    public void testNoStripes() {
+        LOG.info("testNoStripes");
+        new DeviceLocks(0);
+    }
+}
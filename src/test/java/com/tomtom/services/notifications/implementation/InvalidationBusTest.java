@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.dao.NotificationDao;
+import com.tomtom.services.notifications.dao.cache.NotificationDaoCacheImpl;
+import com.tomtom.services.notifications.dao.filter.NotificationDaoFilterImpl;
+import com.tomtom.services.notifications.dao.invalidation.InProcessInvalidationTransport;
+import com.tomtom.services.notifications.dao.invalidation.InvalidationBus;
+import com.tomtom.services.notifications.dao.invalidation.NotificationDaoInvalidationImpl;
+import com.tomtom.services.notifications.dao.invalidation.UdpInvalidationTransport;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InvalidationBusTest {
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationBusTest.class);
+
+    @Test
+    public void testInvalidationBetweenInstances() throws Exception {
+        LOG.info("testInvalidationBetweenInstances");
+
+        // Two instances of the service, with a filter and a cache each, share a data store.
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl();
+        final InProcessInvalidationTransport.Network network = new InProcessInvalidationTransport.Network();
+        final InvalidationBus busA = new InvalidationBus(new InProcessInvalidationTransport(network), 3600 * 1000);
+        final InvalidationBus busB = new InvalidationBus(new InProcessInvalidationTransport(network), 3600 * 1000);
+        final NotificationDao daoA = createInstance(store, busA);
+        final NotificationDao daoB = createInstance(store, busB);
+        try {
+            Assert.assertNull(daoA.findServiceIds("x"));
+            Assert.assertNull(daoB.findServiceIds("x"));
+
+            // Changes of one instance are seen by the other after the next flush; repeated changes are coalesced.
+            daoB.addServiceId("x", "1");
+            daoB.addServiceId("x", "2");
+            Assert.assertNull(daoA.findServiceIds("x"));
+            busB.flush();
+            Assert.assertEquals(2, busB.getNrOfPublishedDeviceIds());
+            Assert.assertEquals(1, busB.getNrOfSentDeviceIds());
+            Assert.assertEquals(1, busA.getNrOfReceivedDeviceIds());
+            Assert.assertEquals(2, daoA.findServiceIds("x").size());
+
+            Assert.assertEquals(2, daoB.findServiceIds("x").size());
+            daoA.removeServiceIds("x");
+            Assert.assertEquals(2, daoB.findServiceIds("x").size());
+            busA.flush();
+            Assert.assertNull(daoB.findServiceIds("x"));
+            Assert.assertEquals(1, busA.getNrOfReceivedDeviceIds());
+            Assert.assertEquals(1, busB.getNrOfReceivedDeviceIds());
+        } finally {
+            busA.close();
+            busB.close();
+        }
+    }
+
+    @Test
+    public void testUdpTransport() throws Exception {
+        LOG.info("testUdpTransport");
+        final List<String> deviceIds = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            deviceIds.add("device-" + i);
+        }
+        final UdpInvalidationTransport transportA = new UdpInvalidationTransport(18181,
+                UdpInvalidationTransport.parsePeers("localhost:18181,localhost:18182"));
+        final UdpInvalidationTransport transportB = new UdpInvalidationTransport(18182,
+                UdpInvalidationTransport.parsePeers("localhost:18181, localhost:18182"));
+        final Set<String> receivedA = ConcurrentHashMap.newKeySet();
+        final Set<String> receivedB = ConcurrentHashMap.newKeySet();
+        transportA.start(receivedA::addAll);
+        transportB.start(receivedB::addAll);
+        try {
+
+            // Messages are split in datagrams; the sender ignores its own messages.
+            transportA.send(deviceIds);
+            transportA.send(Collections.singletonList("é"));
+            final long deadline = System.currentTimeMillis() + 10000;
+            while ((receivedB.size() < (deviceIds.size() + 1)) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(receivedB.containsAll(deviceIds));
+            Assert.assertTrue(receivedB.contains("é"));
+            Assert.assertTrue(receivedA.isEmpty());
+        } finally {
+            transportA.close();
+            transportB.close();
+        }
+    }
+
+    @Test
+    public void testUdpTransportUnreachablePeer() throws Exception {
+        LOG.info("testUdpTransportUnreachablePeer");
+        final UdpInvalidationTransport transportA = new UdpInvalidationTransport(18183,
+                UdpInvalidationTransport.parsePeers("unknown-peer.invalid:18185,localhost:18184"));
+        final UdpInvalidationTransport transportB = new UdpInvalidationTransport(18184,
+                UdpInvalidationTransport.parsePeers("localhost:18183"));
+        final Set<String> receivedB = ConcurrentHashMap.newKeySet();
+        transportA.start(deviceIds -> {
+        });
+        transportB.start(receivedB::addAll);
+        try {
+
+            // A peer which cannot be sent to does not stop the message from reaching the other peers.
+            transportA.send(Collections.singletonList("x"));
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (receivedB.isEmpty() && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(receivedB.contains("x"));
+            Assert.assertEquals(1, transportA.getNrOfSendErrors());
+            Assert.assertEquals(0, transportB.getNrOfSendErrors());
+        } finally {
+            transportA.close();
+            transportB.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParsePeersInvalid() {
+        LOG.info("testParsePeersInvalid");
+        UdpInvalidationTransport.parsePeers("localhost");
+    }
+
+    private static NotificationDao createInstance(final NotificationDao store, final InvalidationBus bus) throws Exception {
+        final NotificationDaoFilterImpl filter = new NotificationDaoFilterImpl(
+                new NotificationDaoInvalidationImpl(store, bus), 1000, 0);
+        final NotificationDaoCacheImpl cache = new NotificationDaoCacheImpl(filter, 100, 3600);
+        bus.addListener(filter);
+        bus.addListener(cache);
+        return cache;
+    }
+}
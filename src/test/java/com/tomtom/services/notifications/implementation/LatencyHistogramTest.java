@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.metrics.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LatencyHistogramTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyHistogramTest.class);
+
+    @Test
+    public void testBuckets() {
+        LOG.info("testBuckets");
+
+        // Every value falls within its bucket, and the bucket is at most 1/16th of the value wide.
+        int previous = -1;
+        for (long value = 0; value < Integer.MAX_VALUE; value = (value * 9 / 8) + 1) {
+            final int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue(bucket >= previous);
+            Assert.assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            Assert.assertTrue((bucket == 0) || (value > LatencyHistogram.upperBound(bucket - 1)));
+            Assert.assertTrue((LatencyHistogram.upperBound(bucket) - value) <= (value / 16));
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        LOG.info("testQuantiles");
+        final LatencyHistogram histogram = new LatencyHistogram(60, 6);
+        Assert.assertTrue(Double.isNaN(histogram.getQuantilesSecs(0.5)[0]));
+
+        // Record 1..1000 ms.
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000000L);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500.5, histogram.getSumSecs(), 0.001);
+        final double[] quantiles = histogram.getQuantilesSecs(0.5, 0.99, 1.0);
+        Assert.assertEquals(0.500, quantiles[0], 0.500 / 16);
+        Assert.assertEquals(0.990, quantiles[1], 0.990 / 16);
+        Assert.assertEquals(1.000, quantiles[2], 1.000 / 16);
+        Assert.assertTrue(quantiles[0] >= 0.500);
+        Assert.assertTrue(quantiles[1] >= 0.990);
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        LOG.info("testWindow");
+        final LatencyHistogram histogram = new LatencyHistogram(1, 2);
+        histogram.record(1000000L);
+        Assert.assertFalse(Double.isNaN(histogram.getQuantilesSecs(0.5)[0]));
+
+        // After the window, the value no longer counts for the percentiles, but it does for the count.
+        Thread.sleep(1100);
+        Assert.assertTrue(Double.isNaN(histogram.getQuantilesSecs(0.5)[0]));
+        Assert.assertEquals(1, histogram.getCount());
+    }
+}
@@ -17,8 +17,12 @@
 package com.tomtom.services.notifications.implementation;
 
 import com.tomtom.services.notifications.dao.DatabaseProperties;
+import com.tomtom.services.notifications.dao.DeviceLocks;
 import com.tomtom.services.notifications.dao.NotificationDao;
 import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.services.notifications.dao.timing.DaoMetrics;
+import com.tomtom.services.notifications.dao.timing.NotificationDaoTimingImpl;
+import com.tomtom.services.notifications.deployment.RequestMetricsFeature;
 import com.tomtom.speedtools.maven.MavenProperties;
 import com.tomtom.speedtools.rest.Reactor;
 import com.tomtom.speedtools.rest.ResourceProcessor;
@@ -49,7 +53,8 @@ public class LocalTestServer {
     public void startServer() {
         final DatabaseProperties databaseProperties = new DatabaseProperties(true, "", "", "", "");
         final MavenProperties mavenProperties = new MavenProperties("1.0.0-TEST");
-        final NotificationDao notificationDao = new NotificationDaoMemoryImpl();
+        final DaoMetrics daoMetrics = new DaoMetrics();
+        final NotificationDao notificationDao = new NotificationDaoTimingImpl(new NotificationDaoMemoryImpl(true), daoMetrics);
 
         // Create a simple ResourceProcessor, required for implementation of REST service using the SpeedTools framework.
         final Reactor reactor = new Reactor() {
@@ -68,16 +73,36 @@ public class LocalTestServer {
         };
         final ResourceProcessor resourceProcessor = new ResourceProcessor(reactor);
 
+        final RequestMetrics requestMetrics = new RequestMetrics(60);
+        final NotificationWaiters waiters = new NotificationWaiters(100);
+        final NotificationEvents events = new NotificationEvents(10, 100);
+        final DeviceLocks deviceLocks = new DeviceLocks(16);
+        final RequestLog requestLog = new RequestLog("", 100);
+
+        // Add the metrics of the notifications resource.
+        server.getDeployment().getProviders().add(new RequestMetricsFeature(requestMetrics));
+
         // Add root resource.
         server.getDeployment().getResources().add(new HelperResourceImpl(
-                mavenProperties
+                mavenProperties,
+                notificationDao,
+                requestMetrics,
+                daoMetrics,
+                waiters,
+                events,
+                deviceLocks,
+                requestLog
         ));
 
         // Add notifications resource.
         server.getDeployment().getResources().add(new PendingNotificationsResourceImpl(
                 resourceProcessor,
                 databaseProperties,
-                notificationDao
+                notificationDao,
+                waiters,
+                events,
+                deviceLocks,
+                requestLog
         ));
 
         server.start();
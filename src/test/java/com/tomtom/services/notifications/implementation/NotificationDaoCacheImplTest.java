@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.dao.CacheStatus;
+import com.tomtom.services.notifications.dao.cache.NotificationDaoCacheImpl;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class NotificationDaoCacheImplTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoCacheImplTest.class);
+
+    @Test
+    public void testCache() throws Exception {
+        LOG.info("testCache");
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl();
+        final NotificationDaoCacheImpl dao = new NotificationDaoCacheImpl(store, 10, 60);
+
+        // Absent device IDs are cached too.
+        Assert.assertNull(dao.findServiceIds("x"));
+        Assert.assertNull(dao.findServiceIds("x"));
+        Assert.assertEquals(1, dao.getStats().hitCount());
+        Assert.assertEquals(1, dao.getStats().missCount());
+
+        // Writes invalidate the cached value.
+        dao.addServiceId("x", "1");
+        Assert.assertEquals(Collections.singleton("1"), dao.findServiceIds("x"));
+        dao.putServiceIds("x", new HashSet<>(Collections.singleton("2")));
+        Assert.assertEquals(Collections.singleton("2"), dao.getServiceIds("x"));
+        dao.removeServiceId("x", "2");
+        Assert.assertNull(dao.findServiceIds("x"));
+        dao.addServiceId("x", null);
+        Assert.assertEquals(Collections.emptySet(), dao.findServiceIds("x"));
+        dao.removeServiceIds("x");
+        Assert.assertNull(dao.findServiceIds("x"));
+
+        // Bulk lookups use the cache and fill it.
+        dao.addServiceId("x", "1");
+        final long hits = dao.getStats().hitCount();
+        Assert.assertEquals(Collections.singletonMap("x", Collections.singleton("1")), dao.findServiceIds(Arrays.asList("x", "z")));
+        Assert.assertEquals(Collections.singletonMap("x", Collections.singleton("1")), dao.findServiceIds(Arrays.asList("x", "z")));
+        Assert.assertEquals(hits + 2, dao.getStats().hitCount());
+        dao.removeServiceIds("x");
+        Assert.assertNull(dao.findServiceIds("x"));
+
+        // Writes which bypass the cache are not seen until the entry is evicted.
+        store.addServiceId("x", "3");
+        Assert.assertNull(dao.findServiceIds("x"));
+        for (int i = 0; i < 100; ++i) {
+            dao.findServiceIds("y" + i);
+        }
+        Assert.assertTrue(dao.getSize() <= 10);
+        Assert.assertTrue(dao.getStats().evictionCount() > 0);
+        Assert.assertEquals(Collections.singleton("3"), dao.findServiceIds("x"));
+
+        final CacheStatus status = dao.getCacheStatus();
+        Assert.assertEquals(dao.getStats().hitCount(), status.getHitCount());
+        Assert.assertEquals(dao.getStats().missCount(), status.getMissCount());
+        Assert.assertEquals(dao.getStats().evictionCount(), status.getEvictionCount());
+        Assert.assertEquals(dao.getSize(), status.getSize());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.FilterStatus;
+import com.tomtom.services.notifications.dao.filter.NotificationDaoFilterImpl;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NotificationDaoFilterImplTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoFilterImplTest.class);
+
+    @Test
+    public void testFilter() throws Exception {
+        LOG.info("testFilter");
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl();
+        for (int i = 0; i < 500; ++i) {
+            store.addServiceId("initial-" + i, "s");
+        }
+        final NotificationDaoFilterImpl dao = new NotificationDaoFilterImpl(store, 20000, 0);
+
+        // Mix writes through the filter and rebuilds; the filter may never hide an existing device.
+        final Random random = new Random(1);
+        for (int i = 0; i < 5000; ++i) {
+            final String deviceId = "device-" + random.nextInt(1000);
+            switch (random.nextInt(7)) {
+                case 0:
+                    dao.addServiceId(deviceId, String.valueOf(random.nextInt(3)));
+                    break;
+                case 1:
+                    dao.removeServiceId(deviceId, String.valueOf(random.nextInt(3)));
+                    break;
+                case 2:
+                    dao.addServiceIds(Arrays.asList(
+                            new Notification(deviceId, Collections.singletonList("b")),
+                            new Notification("batch-" + random.nextInt(1000), Collections.emptyList())));
+                    break;
+                case 3:
+                    dao.removeServiceIds(Arrays.asList(
+                            new Notification(deviceId, Collections.singletonList(String.valueOf(random.nextInt(3)))),
+                            new Notification("batch-" + random.nextInt(1000), Collections.emptyList())));
+                    break;
+                case 4:
+                    dao.putServiceIds(Arrays.asList(
+                            new Notification(deviceId, Collections.singletonList("p")),
+                            new Notification("batch-" + random.nextInt(1000), Collections.emptyList())));
+                    break;
+                case 5:
+                    dao.putServiceIds(deviceId, new HashSet<>(Collections.singleton("s")));
+                    break;
+                default:
+                    dao.removeServiceIds(deviceId);
+                    break;
+            }
+            if ((i % 1000) == 0) {
+                dao.rebuild();
+            }
+            Assert.assertEquals(store.findServiceIds(deviceId), dao.findServiceIds(deviceId));
+        }
+        for (final String deviceId : store.getAllDeviceIds()) {
+            Assert.assertEquals(store.getServiceIds(deviceId), dao.getServiceIds(deviceId));
+        }
+
+        final List<String> allDeviceIds = store.getAllDeviceIds();
+        allDeviceIds.add("absent");
+        Assert.assertEquals(store.findServiceIds(allDeviceIds), dao.findServiceIds(allDeviceIds));
+
+        // Most lookups for absent device IDs should not reach the store, once the device IDs removed
+        // above are no longer in the filter.
+        dao.rebuild();
+        final long negatives = dao.getNrOfNegatives();
+        final long falsePositives = dao.getNrOfFalsePositives();
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertNull(dao.findServiceIds("absent-" + i));
+        }
+        LOG.info("testFilter: negatives={}, falsePositives={}, falsePositiveRate={}",
+                dao.getNrOfNegatives(), dao.getNrOfFalsePositives(), dao.getFalsePositiveRate());
+        Assert.assertTrue((dao.getNrOfNegatives() - negatives) > 900);
+        Assert.assertTrue((dao.getNrOfFalsePositives() - falsePositives) < 100);
+        Assert.assertTrue(dao.getExpectedFalsePositiveRate() < 0.1);
+
+        final FilterStatus status = dao.getFilterStatus();
+        Assert.assertEquals(dao.getNrOfNegatives(), status.getNrOfNegatives());
+        Assert.assertEquals(dao.getNrOfFalsePositives(), status.getNrOfFalsePositives());
+        Assert.assertEquals(dao.getNrOfPositives(), status.getNrOfPositives());
+        Assert.assertEquals(dao.getExpectedFalsePositiveRate(), status.getExpectedFalsePositiveRate(), 0.0);
+        Assert.assertTrue(status.getLastRebuildTimeMillis() > 0);
+    }
+
+    @Test
+    public void testFilterWritesDoNotRead() throws Exception {
+        LOG.info("testFilterWritesDoNotRead");
+        final AtomicInteger nrOfReads = new AtomicInteger();
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl() {
+            @Nullable
+            @Override
+            public Set<String> findServiceIds(@Nonnull final String deviceId) {
+                nrOfReads.incrementAndGet();
+                return super.findServiceIds(deviceId);
+            }
+
+            @Nonnull
+            @Override
+            public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) {
+                nrOfReads.incrementAndGet();
+                return super.findServiceIds(deviceIds);
+            }
+        };
+        store.addServiceId("x", "1");
+        final NotificationDaoFilterImpl dao = new NotificationDaoFilterImpl(store, 1000, 0);
+
+        // Writes for new and existing device IDs never read the store.
+        dao.addServiceId("x", "2");
+        dao.addServiceId("y", "1");
+        dao.putServiceIds("x", new HashSet<>(Collections.singleton("3")));
+        dao.removeServiceId("x", "3");
+        dao.removeServiceIds("y");
+        dao.addServiceIds(Collections.singletonList(new Notification("z", Collections.singletonList("1"))));
+        dao.putServiceIds(Collections.singletonList(new Notification("z", Collections.singletonList("2"))));
+        dao.removeServiceIds(Collections.singletonList(new Notification("z", Collections.emptyList())));
+        Assert.assertEquals(0, nrOfReads.get());
+
+        // Removed device IDs remain in the filter until it is rebuilt.
+        Assert.assertNull(dao.findServiceIds("y"));
+        Assert.assertEquals(1, dao.getNrOfFalsePositives());
+        dao.rebuild();
+        Assert.assertNull(dao.findServiceIds("y"));
+        Assert.assertEquals(1, dao.getNrOfFalsePositives());
+    }
+
+    @Test
+    public void testFilterInvalidated() throws Exception {
+        LOG.info("testFilterInvalidated");
+        final AtomicInteger nrOfReads = new AtomicInteger();
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl() {
+            @Nonnull
+            @Override
+            public Map<String, Set<String>> findServiceIds(@Nonnull final Collection<String> deviceIds) {
+                nrOfReads.incrementAndGet();
+                return super.findServiceIds(deviceIds);
+            }
+        };
+        final NotificationDaoFilterImpl dao = new NotificationDaoFilterImpl(store, 1000, 0);
+        dao.addServiceId("x", "1");
+
+        // Device IDs which are in the filter already are neither looked up nor added again.
+        dao.invalidated(Collections.singletonList("x"));
+        Assert.assertEquals(0, nrOfReads.get());
+        dao.removeServiceIds("x");
+        dao.rebuild();
+        Assert.assertNull(dao.findServiceIds("x"));
+        Assert.assertEquals(0, dao.getNrOfFalsePositives());
+
+        // Device IDs created by another instance are added, if they exist.
+        store.addServiceId("y", "1");
+        dao.invalidated(Arrays.asList("y", "z"));
+        Assert.assertEquals(1, nrOfReads.get());
+        Assert.assertEquals(Collections.singleton("1"), dao.findServiceIds("y"));
+        Assert.assertNull(dao.findServiceIds("z"));
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void testFilterNotFound() throws Exception {
+        LOG.info("testFilterNotFound");
+        final NotificationDaoFilterImpl dao = new NotificationDaoFilterImpl(new NotificationDaoMemoryImpl(), 1000, 0);
+        dao.addServiceId("x", null);
+        Assert.assertEquals(Collections.emptySet(), dao.getServiceIds("x"));
+        dao.removeServiceIds("x");
+        dao.getServiceIds("x");
+    }
+}
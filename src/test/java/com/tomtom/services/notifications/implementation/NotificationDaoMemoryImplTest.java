@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.SnapshotStatus;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.services.notifications.dao.memory.NotificationJournal;
+import com.tomtom.speedtools.mongodb.EntityRemoveException;
+import com.tomtom.speedtools.mongodb.EntityStoreException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class NotificationDaoMemoryImplTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoMemoryImplTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDeviceIdPages() throws Exception {
+        LOG.info("testDeviceIdPages");
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl();
+        final TreeSet<String> expected = new TreeSet<>();
+        final Random random = new Random(1);
+        for (int i = 0; i < 2000; ++i) {
+            final String deviceId = "device-" + random.nextInt(1500);
+            if (random.nextInt(4) == 0) {
+                dao.removeServiceIds(deviceId);
+                expected.remove(deviceId);
+            } else {
+                dao.putServiceIds(deviceId, new HashSet<>());
+                expected.add(deviceId);
+            }
+        }
+        final List<String> all = new ArrayList<>(expected);
+        Assert.assertEquals(all.size(), dao.getNrOfDeviceIds());
+        Assert.assertEquals(all, dao.getAllDeviceIds());
+
+        for (final int offset : new int[]{0, 1, 17, all.size() - 1, all.size(), all.size() + 5, -1, -10, -all.size() - 3}) {
+            for (final int count : new int[]{0, 1, 10, all.size() + 1}) {
+                final int fromIndex = (offset < 0) ? Math.max(0, all.size() + offset) : Math.min(all.size(), offset);
+                final int toIndex = Math.min(all.size(), fromIndex + count);
+                Assert.assertEquals("offset=" + offset + ", count=" + count,
+                        all.subList(fromIndex, toIndex), dao.getDeviceIds(offset, count));
+            }
+        }
+
+        // Walk all device IDs with a cursor.
+        final List<String> walked = new ArrayList<>();
+        List<String> page = dao.getDeviceIdsAfter(null, 7);
+        while (!page.isEmpty()) {
+            walked.addAll(page);
+            page = dao.getDeviceIdsAfter(page.get(page.size() - 1), 7);
+        }
+        Assert.assertEquals(all, walked);
+        Assert.assertEquals(all.subList(1, 4), dao.getDeviceIdsAfter(all.get(0), 3));
+        Assert.assertEquals(all.subList(1, 4), dao.getDeviceIdsAfter(all.get(0) + '\u0000', 3));
+        Assert.assertEquals(Collections.emptyList(), dao.getDeviceIdsAfter(all.get(all.size() - 1), 3));
+        Assert.assertEquals(Collections.emptyList(), dao.getDeviceIdsAfter(null, 0));
+    }
+
+    @Test
+    public void testDeviceIdPagesEmpty() throws Exception {
+        LOG.info("testDeviceIdPagesEmpty");
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl();
+        Assert.assertEquals(Collections.emptyList(), dao.getDeviceIds(0, 10));
+        Assert.assertEquals(Collections.emptyList(), dao.getDeviceIds(-1, 10));
+        dao.putServiceIds("x", new HashSet<>());
+        dao.putServiceIds("x", new HashSet<>());
+        Assert.assertEquals(Collections.singletonList("x"), dao.getDeviceIds(0, 10));
+        dao.removeServiceIds("x");
+        dao.removeServiceIds("x");
+        Assert.assertEquals(0, dao.getNrOfDeviceIds());
+        Assert.assertEquals(Collections.emptyList(), dao.getAllDeviceIds());
+    }
+
+    @Test
+    public void testAddServiceIdConcurrently() throws Exception {
+        LOG.info("testAddServiceIdConcurrently");
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl();
+        final int nrThreads = 8;
+        final int nrServices = 500;
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nrThreads; ++t) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < nrServices; ++i) {
+                    dao.addServiceId("x", thread + "-" + i);
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertEquals(1, dao.getNrOfDeviceIds());
+        Assert.assertEquals(nrThreads * nrServices, dao.getServiceIds("x").size());
+
+        dao.addServiceId("y", null);
+        Assert.assertEquals(Collections.emptySet(), dao.getServiceIds("y"));
+        Assert.assertEquals(Arrays.asList("x", "y"), dao.getAllDeviceIds());
+    }
+
+    @Test
+    public void testDeviceIndexConcurrently() throws Exception {
+        LOG.info("testDeviceIndexConcurrently");
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl();
+        final int nrThreads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nrThreads; ++t) {
+            final Random random = new Random(t);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20000; ++i) {
+                    final String deviceId = "device-" + random.nextInt(300);
+                    if (random.nextBoolean()) {
+                        dao.addServiceId(deviceId, "s");
+                    } else {
+                        dao.removeServiceIds(deviceId);
+                    }
+                    if ((i % 1000) == 0) {
+                        dao.getDeviceIds(-10, 10);
+                        dao.getAllDeviceIds();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // The index holds exactly the device IDs of the map.
+        final TreeSet<String> expected = new TreeSet<>();
+        for (int i = 0; i < 300; ++i) {
+            if (dao.findServiceIds("device-" + i) != null) {
+                expected.add("device-" + i);
+            }
+        }
+        Assert.assertEquals(expected.size(), dao.getNrOfDeviceIds());
+        Assert.assertEquals(new ArrayList<>(expected), dao.getAllDeviceIds());
+        Assert.assertEquals(new ArrayList<>(expected), dao.getDeviceIds(0, 1000));
+    }
+
+    @Test
+    public void testRemoveServiceId() throws Exception {
+        LOG.info("testRemoveServiceId");
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl();
+        dao.addServiceId("x", "1");
+        dao.addServiceId("x", "2");
+        final Set<String> before = dao.getServiceIds("x");
+        dao.removeServiceId("x", "3");
+        Assert.assertEquals(new HashSet<>(Arrays.asList("1", "2")), dao.getServiceIds("x"));
+        dao.removeServiceId("x", "1");
+        Assert.assertEquals(Collections.singleton("2"), dao.getServiceIds("x"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("1", "2")), before);
+        Assert.assertEquals(Collections.singleton("2"), dao.findServiceIds("x"));
+        dao.removeServiceId("x", "2");
+        Assert.assertNull(dao.findServiceIds("x"));
+        Assert.assertEquals(0, dao.getNrOfDeviceIds());
+        Assert.assertEquals(Collections.emptyList(), dao.getAllDeviceIds());
+
+        // Removing any service ID from an ID-less notification removes the device.
+        dao.addServiceId("y", null);
+        dao.removeServiceId("y", "1");
+        Assert.assertEquals(0, dao.getNrOfDeviceIds());
+        dao.removeServiceId("z", "1");
+        Assert.assertEquals(0, dao.getNrOfDeviceIds());
+    }
+
+    @Test
+    public void testBulkWrites() throws Exception {
+        LOG.info("testBulkWrites");
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl();
+        for (int i = 0; i < 5000; ++i) {
+            dao.addServiceIds(Arrays.asList(
+                    new Notification("device-" + i, Arrays.asList("1", "2")),
+                    new Notification("empty-" + i, Collections.emptyList())));
+        }
+        final List<Notification> removed = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            removed.add(new Notification("device-" + i, Collections.singletonList(((i % 2) == 0) ? "1" : "3")));
+            removed.add(new Notification("empty-" + i, ((i % 2) == 0) ? Collections.singletonList("1") : Collections.emptyList()));
+            removed.add(new Notification("unknown-" + i, Collections.emptyList()));
+        }
+
+        // Half of the devices lose a service ID, all ID-less devices are removed.
+        Assert.assertEquals(7500, dao.removeServiceIds(removed));
+        Assert.assertEquals(5000, dao.getNrOfDeviceIds());
+        Assert.assertEquals(Collections.singleton("2"), dao.getServiceIds("device-0"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("1", "2")), dao.getServiceIds("device-1"));
+
+        // Removing again changes nothing.
+        Assert.assertEquals(0, dao.removeServiceIds(removed.subList(0, 3000)));
+
+        // A bulk put replaces the service IDs; the last one for a device ID wins.
+        dao.putServiceIds(Arrays.asList(
+                new Notification("device-0", Collections.singletonList("3")),
+                new Notification("new", Collections.emptyList()),
+                new Notification("device-0", Arrays.asList("4", "5"))));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("4", "5")), dao.getServiceIds("device-0"));
+        Assert.assertEquals(Collections.emptySet(), dao.getServiceIds("new"));
+        Assert.assertEquals(5001, dao.getNrOfDeviceIds());
+    }
+
+    @Test
+    public void testFindServiceIdsBulk() throws Exception {
+        LOG.info("testFindServiceIdsBulk");
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl();
+        final List<String> deviceIds = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            if ((i % 3) == 0) {
+                dao.addServiceId("device-" + i, ((i % 2) == 0) ? String.valueOf(i) : null);
+            }
+            deviceIds.add("device-" + i);
+        }
+
+        // Small lookups run on the calling thread, large ones in parallel; both must give the same result.
+        for (final int size : new int[]{0, 1, 10, 999, 1000, 5000}) {
+            final Map<String, Set<String>> found = dao.findServiceIds(deviceIds.subList(0, size));
+            Assert.assertEquals((size + 2) / 3, found.size());
+            for (final Map.Entry<String, Set<String>> entry : found.entrySet()) {
+                Assert.assertEquals(dao.findServiceIds(entry.getKey()), entry.getValue());
+            }
+        }
+        Assert.assertEquals(Collections.singleton("device-0"), dao.findServiceIds(Arrays.asList("device-0", "device-0", "x")).keySet());
+    }
+
+    @Test
+    public void testCompactServiceIds() throws Exception {
+        LOG.info("testCompactServiceIds");
+        final NotificationDaoMemoryImpl expected = new NotificationDaoMemoryImpl(false);
+        final NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl(true);
+        final Random random = new Random(1);
+
+        // Use more than 64 service IDs, so not all of them fit in a single word.
+        for (int i = 0; i < 20000; ++i) {
+            final String deviceId = "device-" + random.nextInt(200);
+            final String serviceId = "service-" + random.nextInt(150);
+            switch (random.nextInt(6)) {
+                case 0:
+                    expected.removeServiceId(deviceId, serviceId);
+                    dao.removeServiceId(deviceId, serviceId);
+                    break;
+                case 1:
+                    expected.removeServiceIds(deviceId);
+                    dao.removeServiceIds(deviceId);
+                    break;
+                case 2:
+                    final Set<String> serviceIds = new HashSet<>(Arrays.asList(serviceId, "service-" + random.nextInt(150)));
+                    expected.putServiceIds(deviceId, serviceIds);
+                    dao.putServiceIds(deviceId, serviceIds);
+                    break;
+                default:
+                    expected.addServiceId(deviceId, serviceId);
+                    dao.addServiceId(deviceId, serviceId);
+                    break;
+            }
+        }
+        Assert.assertEquals(contents(expected), contents(dao));
+        for (final String deviceId : dao.getAllDeviceIds()) {
+            final Set<String> serviceIds = dao.getServiceIds(deviceId);
+            Assert.assertEquals(expected.getServiceIds(deviceId).hashCode(), serviceIds.hashCode());
+            Assert.assertEquals(serviceIds.size(), new ArrayList<>(serviceIds).size());
+            Assert.assertFalse(serviceIds.contains("unknown"));
+            Assert.assertFalse(serviceIds.contains(null));
+        }
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        LOG.info("testJournal");
+        final File directory = folder.newFolder("journal");
+
+        // Use tiny segments, so the journal is rotated and compacted.
+        NotificationJournal journal = new NotificationJournal(directory, 4096, 1);
+        NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl(journal);
+        final Random random = new Random(1);
+        final int nrOfThreads = 4;
+        final ExecutorService executor = Executors.newFixedThreadPool(nrOfThreads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nrOfThreads; ++t) {
+            final NotificationDaoMemoryImpl finalDao = dao;
+            final long seed = random.nextLong();
+            futures.add(executor.submit(() -> {
+                final Random threadRandom = new Random(seed);
+                for (int i = 0; i < 500; ++i) {
+                    final String deviceId = "device-" + threadRandom.nextInt(100);
+                    final String serviceId = String.valueOf(threadRandom.nextInt(5));
+                    switch (threadRandom.nextInt(4)) {
+                        case 0:
+                            finalDao.removeServiceId(deviceId, serviceId);
+                            break;
+                        case 1:
+                            finalDao.removeServiceIds(deviceId);
+                            break;
+                        default:
+                            finalDao.addServiceId(deviceId, serviceId);
+                            break;
+                    }
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Segments are rotated before they overflow, so they never grow beyond their preallocated size.
+        for (int i = 0; i < 200; ++i) {
+            dao.addServiceId("device-" + i, "service-with-a-long-name-" + i);
+            for (final File file : directory.listFiles((dir, name) -> name.endsWith(".log"))) {
+                Assert.assertTrue(file.length() <= 4096);
+            }
+        }
+        dao.addServiceId("empty", null);
+        dao.compact();
+        final SnapshotStatus snapshotStatus = dao.getSnapshotStatus();
+        Assert.assertNotNull(snapshotStatus);
+        Assert.assertEquals(dao.getNrOfDeviceIds(), snapshotStatus.getLastSnapshotNrOfDeviceIds());
+        Assert.assertTrue(snapshotStatus.getLastSnapshotSizeBytes() > 0);
+        dao.addServiceId("after-compaction", "1");
+        final Map<String, Set<String>> expected = contents(dao);
+        dao.close();
+
+        // Restore the contents.
+        journal = new NotificationJournal(directory, 4096, 1);
+        dao = new NotificationDaoMemoryImpl(journal);
+        Assert.assertEquals(expected, contents(dao));
+        Assert.assertEquals(expected.size(), dao.getSnapshotStatus().getRestoreNrOfDeviceIds());
+        Assert.assertEquals(new ArrayList<>(new TreeSet<>(expected.keySet())), dao.getAllDeviceIds());
+        Assert.assertTrue(directory.list().length <= 8);
+
+        // A partially written record at the end of the journal is ignored.
+        dao.addServiceId("last", "1");
+        dao.close();
+        corruptLastRecord(directory);
+        journal = new NotificationJournal(directory, 4096, 1);
+        dao = new NotificationDaoMemoryImpl(journal);
+        Assert.assertEquals(expected, contents(dao));
+        dao.close();
+    }
+
+    @Test
+    public void testJournalFailure() throws Exception {
+        LOG.info("testJournalFailure");
+        final File directory = folder.newFolder("failure");
+
+        // Segment 2 is already preallocated. Make sure segment 3 cannot be created.
+        NotificationJournal journal = new NotificationJournal(directory, 4096, 0);
+        NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl(journal);
+        final File blocker = new File(directory, "journal-00000003.log");
+        Assert.assertTrue(blocker.mkdir());
+        int failed = -1;
+        for (int i = 0; (i < 1000) && (failed < 0); ++i) {
+            try {
+                dao.addServiceId("device-" + i, "service-with-a-long-name");
+            } catch (final EntityStoreException ignored) {
+                failed = i;
+            }
+        }
+        Assert.assertTrue(failed > 0);
+        Assert.assertFalse(dao.isHealthy());
+
+        // The failed change is rolled back and no more changes are made.
+        Assert.assertNull(dao.findServiceIds("device-" + failed));
+        Assert.assertNotNull(dao.findServiceIds("device-" + (failed - 1)));
+        Assert.assertEquals(failed, dao.getNrOfDeviceIds());
+        Assert.assertEquals(failed, dao.getAllDeviceIds().size());
+        try {
+            dao.addServiceId("after-failure", "1");
+            Assert.fail();
+        } catch (final EntityStoreException ignored) {
+            // Expected.
+        }
+        try {
+            dao.removeServiceIds("device-0");
+            Assert.fail();
+        } catch (final EntityRemoveException ignored) {
+            // Expected.
+        }
+        Assert.assertNull(dao.findServiceIds("after-failure"));
+        Assert.assertNotNull(dao.findServiceIds("device-0"));
+        final Map<String, Set<String>> expected = contents(dao);
+        dao.close();
+
+        // The contents match the journal on disk.
+        Assert.assertTrue(blocker.delete());
+        journal = new NotificationJournal(directory, 4096, 0);
+        dao = new NotificationDaoMemoryImpl(journal);
+        Assert.assertTrue(dao.isHealthy());
+        Assert.assertEquals(expected, contents(dao));
+        dao.close();
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        LOG.info("testSnapshot");
+        final File directory = folder.newFolder("snapshot");
+
+        // Use enough device IDs to fill more than one chunk of the snapshot. Write from several threads, so
+        // the writes are committed to the journal in groups.
+        NotificationJournal journal = new NotificationJournal(directory, 1024 * 1024, 0);
+        NotificationDaoMemoryImpl dao = new NotificationDaoMemoryImpl(journal);
+        final int nrOfThreads = 64;
+        final ExecutorService executor = Executors.newFixedThreadPool(nrOfThreads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nrOfThreads; ++t) {
+            final NotificationDaoMemoryImpl finalDao = dao;
+            final int first = t;
+            futures.add(executor.submit(() -> {
+                for (int i = first; i < 70000; i += nrOfThreads) {
+                    final Set<String> serviceIds = new HashSet<>();
+                    for (int j = 0; j < (i % 4); ++j) {
+                        serviceIds.add("service-" + ((i + j) % 10));
+                    }
+                    finalDao.putServiceIds("device-" + i, serviceIds);
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        dao.compact();
+        dao.removeServiceIds("device-0");
+        final Map<String, Set<String>> expected = contents(dao);
+        dao.close();
+
+        journal = new NotificationJournal(directory, 1024 * 1024, 0);
+        dao = new NotificationDaoMemoryImpl(journal);
+        Assert.assertEquals(expected, contents(dao));
+        Assert.assertEquals(new ArrayList<>(new TreeSet<>(expected.keySet())), dao.getAllDeviceIds());
+        Assert.assertEquals("device-10", dao.getDeviceIds(1, 1).get(0));
+        Assert.assertEquals(69999, dao.getSnapshotStatus().getRestoreNrOfDeviceIds());
+        dao.close();
+
+        // Changes fail once the journal is closed.
+        try {
+            dao.addServiceId("after-close", "1");
+            Assert.fail();
+        } catch (final EntityStoreException ignored) {
+            // Expected.
+        }
+        Assert.assertNull(dao.findServiceIds("after-close"));
+    }
+
+    private static Map<String, Set<String>> contents(final NotificationDaoMemoryImpl dao) throws Exception {
+        final Map<String, Set<String>> contents = new HashMap<>();
+        for (final String deviceId : dao.getAllDeviceIds()) {
+            contents.put(deviceId, dao.getServiceIds(deviceId));
+        }
+        return contents;
+    }
+
+    private static void corruptLastRecord(final File directory) throws IOException {
+        File last = null;
+        for (final File file : directory.listFiles()) {
+            if (file.getName().startsWith("journal-") && (file.length() > 0) &&
+                    ((last == null) || (file.getName().compareTo(last.getName()) > 0)) && containsRecords(file)) {
+                last = file;
+            }
+        }
+        Assert.assertNotNull(last);
+        try (final RandomAccessFile file = new RandomAccessFile(last, "rw")) {
+
+            // The first record starts after the header: flip a byte in its contents.
+            file.seek(8 + 8 + 2);
+            final int value = file.read();
+            file.seek(8 + 8 + 2);
+            file.write(value ^ 0xff);
+        }
+    }
+
+    private static boolean containsRecords(final File journalFile) throws IOException {
+        try (final RandomAccessFile file = new RandomAccessFile(journalFile, "r")) {
+            file.seek(8);
+            return file.readInt() != 0;
+        }
+    }
+}
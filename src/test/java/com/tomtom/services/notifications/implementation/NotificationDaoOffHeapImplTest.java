@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoOffHeapImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class NotificationDaoOffHeapImplTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoOffHeapImplTest.class);
+
+    @Test
+    public void testSameAsMemoryImpl() throws Exception {
+        LOG.info("testSameAsMemoryImpl");
+        final NotificationDaoMemoryImpl expected = new NotificationDaoMemoryImpl();
+        final NotificationDaoOffHeapImpl dao = new NotificationDaoOffHeapImpl();
+        final Random random = new Random(1);
+
+        // Use non-ASCII device IDs (including unpaired surrogates), and long ones to fill the segments.
+        final String[] suffixes = {"", "-é", "-€", "-😀", "-\ud83d", "-" + new String(new char[200]).replace('\u0000', 'x')};
+        for (int i = 0; i < 50000; ++i) {
+            final String deviceId = "device-" + random.nextInt(3000) + suffixes[random.nextInt(suffixes.length)];
+            final String serviceId = "service-" + random.nextInt(100);
+            switch (random.nextInt(8)) {
+                case 0:
+                    expected.removeServiceId(deviceId, serviceId);
+                    dao.removeServiceId(deviceId, serviceId);
+                    break;
+                case 1:
+                    expected.removeServiceIds(deviceId);
+                    dao.removeServiceIds(deviceId);
+                    break;
+                case 2:
+                    final List<Notification> removed = Arrays.asList(
+                            new Notification(deviceId, Collections.singletonList(serviceId)),
+                            new Notification("device-" + random.nextInt(3000), Collections.emptyList()));
+                    Assert.assertEquals(expected.removeServiceIds(removed), dao.removeServiceIds(removed));
+                    break;
+                case 3:
+                    final List<Notification> put = Arrays.asList(
+                            new Notification(deviceId, Collections.singletonList(serviceId)),
+                            new Notification("device-" + random.nextInt(3000), Collections.emptyList()),
+                            new Notification(deviceId, Collections.emptyList()));
+                    expected.putServiceIds(put);
+                    dao.putServiceIds(put);
+                    break;
+                case 4:
+                    final Set<String> serviceIds = new HashSet<>(Arrays.asList(serviceId, "service-" + random.nextInt(100)));
+                    expected.putServiceIds(deviceId, serviceIds);
+                    dao.putServiceIds(deviceId, serviceIds);
+                    break;
+                default:
+                    final String addedServiceId = (random.nextInt(10) == 0) ? null : serviceId;
+                    expected.addServiceId(deviceId, addedServiceId);
+                    dao.addServiceId(deviceId, addedServiceId);
+                    break;
+            }
+        }
+        final List<String> all = expected.getAllDeviceIds();
+        Assert.assertEquals(all.size(), dao.getNrOfDeviceIds());
+        Assert.assertEquals(all, dao.getAllDeviceIds());
+        for (final String deviceId : all) {
+            Assert.assertEquals(expected.getServiceIds(deviceId), dao.getServiceIds(deviceId));
+        }
+        Assert.assertNull(dao.findServiceIds("unknown"));
+
+        for (final int offset : new int[]{0, 1, 17, all.size() - 1, all.size(), -1, -10, -all.size() - 3}) {
+            for (final int count : new int[]{0, 1, 10, all.size() + 1}) {
+                Assert.assertEquals("offset=" + offset + ", count=" + count,
+                        expected.getDeviceIds(offset, count), dao.getDeviceIds(offset, count));
+            }
+        }
+        final List<String> walked = new ArrayList<>();
+        List<String> page = dao.getDeviceIdsAfter(null, 100);
+        while (!page.isEmpty()) {
+            walked.addAll(page);
+            page = dao.getDeviceIdsAfter(page.get(page.size() - 1), 100);
+        }
+        Assert.assertEquals(all, walked);
+
+        for (final String deviceId : all) {
+            dao.removeServiceIds(deviceId);
+        }
+        Assert.assertEquals(0, dao.getNrOfDeviceIds());
+        Assert.assertEquals(Collections.emptyList(), dao.getAllDeviceIds());
+    }
+
+    @Test
+    public void testAddServiceIdConcurrently() throws Exception {
+        LOG.info("testAddServiceIdConcurrently");
+        final NotificationDaoOffHeapImpl dao = new NotificationDaoOffHeapImpl();
+        final int nrThreads = 8;
+        final int nrServices = 100;
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nrThreads; ++t) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < nrServices; ++i) {
+                    for (int d = 0; d < 100; ++d) {
+                        dao.addServiceId("device-" + d, thread + "-" + i);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertEquals(100, dao.getNrOfDeviceIds());
+        for (int d = 0; d < 100; ++d) {
+            Assert.assertEquals(nrThreads * nrServices, dao.getServiceIds("device-" + d).size());
+        }
+    }
+}
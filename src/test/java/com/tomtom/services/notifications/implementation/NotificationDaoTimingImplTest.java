@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.cache.NotificationDaoCacheImpl;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.services.notifications.dao.timing.DaoMetrics;
+import com.tomtom.services.notifications.dao.timing.NotificationDaoTimingImpl;
+import com.tomtom.services.notifications.dao.timing.RoundTrips;
+import com.tomtom.services.notifications.metrics.PrometheusText;
+import com.tomtom.speedtools.mongodb.EntityNotFoundException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+public class NotificationDaoTimingImplTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoTimingImplTest.class);
+
+    @Test
+    public void testTiming() throws Exception {
+        LOG.info("testTiming");
+
+        // The store counts a round trip for every lookup, like a database would; the cache answers repeated lookups.
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl() {
+            @Nullable
+            @Override
+            public Set<String> findServiceIds(@Nonnull final String deviceId) {
+                RoundTrips.increment();
+                return super.findServiceIds(deviceId);
+            }
+        };
+        final DaoMetrics metrics = new DaoMetrics();
+        final NotificationDaoTimingImpl dao = new NotificationDaoTimingImpl(new NotificationDaoCacheImpl(store, 10, 60), metrics);
+
+        dao.addServiceIds(Arrays.asList(
+                new Notification("x", Collections.singletonList("1")),
+                new Notification("x", Collections.singletonList("2")),
+                new Notification("y", Collections.emptyList())));
+        Assert.assertEquals(2, dao.findServiceIds("x").size());
+        Assert.assertEquals(2, dao.findServiceIds("x").size());
+        Assert.assertNull(dao.findServiceIds("z"));
+        try {
+            dao.getServiceIds("z");
+            Assert.fail();
+        } catch (final EntityNotFoundException ignored) {
+            // OK.
+        }
+        Assert.assertEquals(2, dao.getAllDeviceIds().size());
+
+        final DaoMetrics.Operation addServiceIds = metrics.getOperations().get("addServiceIds");
+        Assert.assertEquals(1, addServiceIds.getNrOfCalls());
+        Assert.assertEquals(3, addServiceIds.getNrOfItems());
+
+        // The repeated lookup of "x" was answered by the cache, without a round trip.
+        final DaoMetrics.Operation findServiceIds = metrics.getOperations().get("findServiceIds");
+        Assert.assertEquals(3, findServiceIds.getNrOfCalls());
+        Assert.assertEquals(4, findServiceIds.getNrOfItems());
+        Assert.assertEquals(2, findServiceIds.getNrOfRoundTrips());
+        Assert.assertEquals(3, findServiceIds.getLatency().getCount());
+        Assert.assertTrue(findServiceIds.getNrOfErrors().isEmpty());
+
+        final DaoMetrics.Operation getServiceIds = metrics.getOperations().get("getServiceIds");
+        Assert.assertEquals(1, getServiceIds.getNrOfCalls());
+        Assert.assertEquals(Collections.singletonMap("EntityNotFoundException", 1L), getServiceIds.getNrOfErrors());
+
+        final PrometheusText text = new PrometheusText();
+        metrics.writeTo(text);
+        LOG.info("metrics = {}", text);
+        Assert.assertTrue(text.toString().contains(
+                "notifications_dao_errors_total{operation=\"getServiceIds\",exception=\"EntityNotFoundException\"} 1\n"));
+        Assert.assertTrue(text.toString().contains("notifications_dao_items_total{operation=\"getAllDeviceIds\"} 2\n"));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.google.common.collect.ImmutableSet;
+import com.tomtom.services.notifications.Notification;
+import com.tomtom.services.notifications.dao.WriteBehindStatus;
+import com.tomtom.services.notifications.dao.memory.NotificationDaoMemoryImpl;
+import com.tomtom.services.notifications.dao.writebehind.NotificationDaoWriteBehindImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class NotificationDaoWriteBehindImplTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationDaoWriteBehindImplTest.class);
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        LOG.info("testWriteBehind");
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl();
+        final NotificationDaoWriteBehindImpl dao = new NotificationDaoWriteBehindImpl(store, 3600 * 1000, 1000);
+        try {
+            store.addServiceId("a", "1");
+            store.addServiceId("b", null);
+
+            // Changes are buffered, but reads see them.
+            dao.addServiceId("x", "1");
+            dao.addServiceId("x", "2");
+            dao.addServiceId("a", "2");
+            dao.removeServiceId("a", "1");
+            dao.removeServiceId("b", "1");
+            Assert.assertNull(store.findServiceIds("x"));
+            Assert.assertEquals(ImmutableSet.of("1", "2"), dao.findServiceIds("x"));
+            Assert.assertEquals(Collections.singleton("2"), dao.getServiceIds("a"));
+            Assert.assertNull(dao.findServiceIds("b"));
+            Assert.assertEquals(Collections.singleton("1"), store.findServiceIds("a"));
+            final Map<String, Set<String>> expected = new HashMap<>();
+            expected.put("x", ImmutableSet.of("1", "2"));
+            expected.put("a", Collections.singleton("2"));
+            Assert.assertEquals(expected, dao.findServiceIds(Arrays.asList("x", "a", "b", "z")));
+
+            // Changes of the same device ID are coalesced.
+            WriteBehindStatus status = dao.getWriteBehindStatus();
+            Assert.assertEquals(3, status.getQueueDepth());
+            Assert.assertEquals(5, status.getNrOfWrites());
+            Assert.assertEquals(2, status.getNrOfCoalescedWrites());
+
+            // A flush writes the merged changes.
+            Assert.assertTrue(dao.flush());
+            Assert.assertEquals(ImmutableSet.of("1", "2"), store.findServiceIds("x"));
+            Assert.assertEquals(Collections.singleton("2"), store.findServiceIds("a"));
+            Assert.assertNull(store.findServiceIds("b"));
+            status = dao.getWriteBehindStatus();
+            Assert.assertEquals(0, status.getQueueDepth());
+            Assert.assertEquals(1, status.getNrOfFlushes());
+            Assert.assertEquals(3, status.getNrOfFlushedDeviceIds());
+
+            // Puts replace earlier changes, and removals count the changed device IDs.
+            dao.addServiceId("y", "1");
+            dao.putServiceIds("y", ImmutableSet.of("3"));
+            dao.putServiceIds(Collections.singletonList(new Notification("z", Collections.singleton("4"))));
+            Assert.assertEquals(Collections.singleton("3"), dao.findServiceIds("y"));
+            Assert.assertEquals(2, dao.removeServiceIds(Arrays.asList(
+                    new Notification("x", Collections.singleton("1")),
+                    new Notification("y", Collections.emptySet()),
+                    new Notification("q", Collections.emptySet()))));
+            dao.removeServiceIds("z");
+            Assert.assertNull(dao.findServiceIds("y"));
+            Assert.assertNull(dao.findServiceIds("z"));
+
+            // Listing device IDs flushes the buffer first.
+            Assert.assertEquals(2, dao.getNrOfDeviceIds());
+            Assert.assertEquals(Collections.singleton("2"), store.findServiceIds("x"));
+            Assert.assertNull(store.findServiceIds("y"));
+            Assert.assertNull(store.findServiceIds("z"));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    public void testCloseDrainsBuffer() throws Exception {
+        LOG.info("testCloseDrainsBuffer");
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl();
+        final NotificationDaoWriteBehindImpl dao = new NotificationDaoWriteBehindImpl(store, 3600 * 1000, 1000);
+        for (int i = 0; i < 100; ++i) {
+            dao.addServiceId("x" + (i % 10), String.valueOf(i));
+        }
+        Assert.assertEquals(0, store.getNrOfDeviceIds());
+        dao.close();
+        Assert.assertEquals(10, store.getNrOfDeviceIds());
+        Assert.assertEquals(10, store.getServiceIds("x0").size());
+
+        // After closing, changes are written immediately.
+        dao.addServiceId("y", "1");
+        Assert.assertEquals(Collections.singleton("1"), store.findServiceIds("y"));
+    }
+
+    @Test
+    public void testFlushWhenFull() throws Exception {
+        LOG.info("testFlushWhenFull");
+        final NotificationDaoMemoryImpl store = new NotificationDaoMemoryImpl();
+        final NotificationDaoWriteBehindImpl dao = new NotificationDaoWriteBehindImpl(store, 3600 * 1000, 10);
+        try {
+            for (int i = 0; i < 10; ++i) {
+                dao.addServiceId("x" + i, "1");
+            }
+            final long deadline = System.currentTimeMillis() + 10000;
+            while ((store.getNrOfDeviceIds() < 10) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(10, store.getNrOfDeviceIds());
+        } finally {
+            dao.close();
+        }
+    }
+}
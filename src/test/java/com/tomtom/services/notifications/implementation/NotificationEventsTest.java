@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import org.jboss.resteasy.plugins.providers.sse.SseImpl;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+public class NotificationEventsTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationEventsTest.class);
+
+    @Test
+    public void testDrop() throws Exception {
+        LOG.info("testDrop");
+        final NotificationEvents events = new NotificationEvents(1, 2);
+        final SlowSink sink = new SlowSink();
+        Assert.assertTrue(events.subscribe(sink, new SseImpl(), "x", null, NotificationEvents.Overflow.DROP));
+        Assert.assertFalse(events.subscribe(new SlowSink(), new SseImpl(), null, null, NotificationEvents.Overflow.DROP));
+
+        // The first event blocks the sender, the next 2 are buffered and the other 2 dropped.
+        for (int i = 0; i < 5; ++i) {
+            events.publish(NotificationEvents.EVENT_CREATED, "x" + i, null);
+            events.publish(NotificationEvents.EVENT_CREATED, "y" + i, null);
+            if (i == 0) {
+                sink.sending.await();
+            }
+        }
+        Assert.assertEquals(2, events.getNrOfDroppedEvents());
+        sink.release.countDown();
+        sink.waitFor(4);
+        Assert.assertEquals(NotificationEvents.EVENT_CREATED, sink.sent.get(0).getName());
+        Assert.assertEquals(NotificationEvents.EVENT_DROPPED, sink.sent.get(1).getName());
+        Assert.assertEquals("2", sink.sent.get(1).getData());
+        Assert.assertEquals(NotificationEvents.EVENT_CREATED, sink.sent.get(2).getName());
+        Assert.assertEquals(1, events.getNrOfSubscribers());
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        LOG.info("testDisconnect");
+        final NotificationEvents events = new NotificationEvents(1, 2);
+        final SlowSink sink = new SlowSink();
+        Assert.assertTrue(events.subscribe(sink, new SseImpl(), null, "1", NotificationEvents.Overflow.DISCONNECT));
+
+        // Events for other services are not buffered.
+        events.publish(NotificationEvents.EVENT_CREATED, "x", "1");
+        sink.sending.await();
+        events.publish(NotificationEvents.EVENT_CREATED, "x", "2");
+        events.publish(NotificationEvents.EVENT_CREATED, "x", "2");
+        events.publish(NotificationEvents.EVENT_CREATED, "x", "2");
+        Assert.assertFalse(sink.isClosed());
+        events.publish(NotificationEvents.EVENT_CREATED, "x", "1");
+        events.publish(NotificationEvents.EVENT_DELETED, "x", null);
+        events.publish(NotificationEvents.EVENT_DELETED, "x", "1");
+        Assert.assertTrue(sink.isClosed());
+        Assert.assertEquals(0, events.getNrOfSubscribers());
+        sink.release.countDown();
+    }
+
+    /**
+     * Sink which blocks sending the first event until released.
+     */
+    private static final class SlowSink implements SseEventSink {
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<OutboundSseEvent> sent = new CopyOnWriteArrayList<>();
+        private volatile boolean closed = false;
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        @Nonnull
+        public CompletionStage<?> send(@Nonnull final OutboundSseEvent event) {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(event);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private void waitFor(final int nrOfEvents) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while ((sent.size() < nrOfEvents) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(nrOfEvents, sent.size());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class NotificationWaitersTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationWaitersTest.class);
+
+    @Test
+    public void testWaiters() throws Exception {
+        LOG.info("testWaiters");
+        final NotificationWaiters waiters = new NotificationWaiters(2);
+        final List<String> wakeUps = Collections.synchronizedList(new ArrayList<>());
+
+        // The number of waiters is limited.
+        final NotificationWaiters.Waiter x = waiters.await("x", 60000, changed -> wakeUps.add("x" + changed));
+        final NotificationWaiters.Waiter y = waiters.await("y", 60000, changed -> wakeUps.add("y" + changed));
+        Assert.assertNotNull(x);
+        Assert.assertNotNull(y);
+        Assert.assertNull(waiters.await("z", 60000, changed -> wakeUps.add("z" + changed)));
+        Assert.assertEquals(2, waiters.getNrOfWaiters());
+
+        // A change wakes up the waiter once; a cancelled waiter is not woken up.
+        waiters.changed("x");
+        waiters.changed("x");
+        Assert.assertFalse(x.cancel());
+        Assert.assertTrue(y.cancel());
+        waiters.changed("y");
+        Assert.assertEquals(Collections.singletonList("xtrue"), wakeUps);
+        Assert.assertEquals(0, waiters.getNrOfWaiters());
+
+        // An expired waiter is woken up without a change.
+        Assert.assertNotNull(waiters.await("z", 10, changed -> wakeUps.add("z" + changed)));
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ((wakeUps.size() < 2) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("zfalse", wakeUps.get(1));
+        Assert.assertEquals(0, waiters.getNrOfWaiters());
+    }
+}
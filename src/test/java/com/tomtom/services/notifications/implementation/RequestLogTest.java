@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.services.notifications.implementation;
+
+import com.tomtom.speedtools.guice.InvalidPropertyValueException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestLogTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestLogTest.class);
+
+    @Test
+    public void testSampling() {
+        LOG.info("testSampling");
+        final AtomicInteger written = new AtomicInteger(0);
+        final RequestLog requestLog = new RequestLog("a=1, * = 10", 0);
+        final Logger logger = logger(written, null);
+
+        // Endpoint "a" logs all requests, the other endpoints 1 in 10 (at random).
+        for (int i = 0; i < 1000; ++i) {
+            requestLog.info(logger, "a", "a: i={}", i);
+            requestLog.info(logger, "b", "b: i={}", i);
+        }
+        Assert.assertTrue(written.get() >= 1000);
+        Assert.assertTrue(written.get() < 1500);
+        Assert.assertEquals(written.get(), requestLog.getNrOfRecords());
+        Assert.assertEquals(2000 - written.get(), requestLog.getNrOfSampledOutRecords());
+        Assert.assertEquals(0, requestLog.getNrOfDroppedRecords());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        LOG.info("testDropWhenFull");
+        final AtomicInteger written = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RequestLog requestLog = new RequestLog("", 2);
+        final Logger logger = logger(written, release);
+
+        // The writer blocks on the first record, so the buffer fills up with 2 records and the others are dropped.
+        requestLog.info(logger, "a", "a: i={}", 0);
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while ((requestLog.getNrOfPendingRecords() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        for (int i = 1; i < 10; ++i) {
+            requestLog.info(logger, "a", "a: i={}", i);
+        }
+        Assert.assertEquals(10, requestLog.getNrOfRecords());
+        Assert.assertEquals(7, requestLog.getNrOfDroppedRecords());
+        Assert.assertEquals(2, requestLog.getNrOfPendingRecords());
+
+        // Once the writer continues, the buffered records are written.
+        release.countDown();
+        while ((written.get() < 3) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(3, written.get());
+        Assert.assertEquals(0, requestLog.getNrOfPendingRecords());
+    }
+
+    @Test
+    public void testParseSampleRates() {
+        LOG.info("testParseSampleRates");
+        final Map<String, Integer> rates = RequestLog.parseSampleRates(" a=2,,*=100 ");
+        Assert.assertEquals(2, rates.size());
+        Assert.assertEquals(Integer.valueOf(2), rates.get("a"));
+        Assert.assertEquals(Integer.valueOf(100), rates.get(RequestLog.ALL_ENDPOINTS));
+        Assert.assertTrue(RequestLog.parseSampleRates("").isEmpty());
+        for (final String invalid : new String[]{"a", "=1", "a=x", "a=0"}) {
+            try {
+                RequestLog.parseSampleRates(invalid);
+                Assert.fail("Expected exception for: " + invalid);
+            } catch (final InvalidPropertyValueException ignored) {
+                // OK.
+            }
+        }
+    }
+
+    /**
+     * Create a logger which counts the INFO records that are written.
+     *
+     * @param written Counter of written records.
+     * @param release If not null, writing a record waits for this latch.
+     * @return Logger.
+     */
+    private static Logger logger(final AtomicInteger written, final CountDownLatch release) {
+        return (Logger) Proxy.newProxyInstance(RequestLogTest.class.getClassLoader(), new Class<?>[]{Logger.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isInfoEnabled":
+                            return true;
+                        case "info":
+                            if (release != null) {
+                                release.await(10, TimeUnit.SECONDS);
+                            }
+                            written.incrementAndGet();
+                            return null;
+                        default:
+                            return (method.getReturnType() == boolean.class) ? false : null;
+                    }
+                });
+    }
+}